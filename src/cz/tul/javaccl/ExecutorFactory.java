@@ -0,0 +1,250 @@
+package cz.tul.javaccl;
+
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Factory of executors running blocking I/O and listener dispatch. If
+ * {@link ConfigurationType#VIRTUAL_THREADS} is enabled and the runtime
+ * supports virtual threads, every task gets its own virtual thread and the
+ * limits of the pools are kept using semaphores. Virtual threads are obtained
+ * using reflection, so older runtimes fall back to pooled platform threads.
+ *
+ * @author Petr Ječmen
+ */
+public final class ExecutorFactory {
+
+    private static final Logger LOG = Logger.getLogger(ExecutorFactory.class.getName());
+    private static final int THREAD_KEEP_ALIVE = 60;
+    private static final Method OF_VIRTUAL, BUILDER_NAME, BUILDER_FACTORY, PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null, name = null, factory = null, perTask = null;
+        try {
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ClassNotFoundException ex) {
+            // runtime without virtual threads
+            ofVirtual = null;
+        } catch (NoSuchMethodException ex) {
+            // runtime without virtual threads
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        PER_TASK_EXECUTOR = perTask;
+    }
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @return true if new executors run tasks on virtual threads
+     */
+    public static boolean isVirtualThreadsEnabled() {
+        return Configuration.getBoolean(ConfigurationType.VIRTUAL_THREADS) && isVirtualThreadsSupported();
+    }
+
+    /**
+     * Create executor with limited count of running tasks, further tasks wait
+     * for free thread.
+     *
+     * @param name name of created threads
+     * @param threadCount maximal count of running tasks
+     * @param daemon true for daemon threads (only used for platform threads,
+     * virtual threads are always daemons)
+     * @return new executor
+     */
+    public static ExecutorService newFixedExecutor(final String name, final int threadCount, final boolean daemon) {
+        if (isVirtualThreadsEnabled()) {
+            final ExecutorService virtual = newVirtualExecutor(name);
+            if (virtual != null) {
+                return new LimitedExecutor(virtual, threadCount, true);
+            }
+        }
+        final ThreadPoolExecutor result = new ThreadPoolExecutor(threadCount, threadCount,
+                THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory(name, daemon));
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    /**
+     * Create executor with limited count of running and waiting tasks,
+     * further tasks are rejected using {@link RejectedExecutionException}.
+     * Virtual threads are cheap, so all accepted tasks are run at once in that
+     * case.
+     *
+     * @param name name of created threads
+     * @param threadCount maximal count of running tasks
+     * @param queueSize maximal count of waiting tasks
+     * @param daemon true for daemon threads (only used for platform threads)
+     * @return new executor
+     */
+    public static ExecutorService newBoundedExecutor(final String name, final int threadCount, final int queueSize, final boolean daemon) {
+        if (isVirtualThreadsEnabled()) {
+            final ExecutorService virtual = newVirtualExecutor(name);
+            if (virtual != null) {
+                return new LimitedExecutor(virtual, threadCount + queueSize, false);
+            }
+        }
+        final ThreadPoolExecutor result = new ThreadPoolExecutor(threadCount, threadCount,
+                THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new NamedThreadFactory(name, daemon));
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    /**
+     * Create executor without limit of running tasks.
+     *
+     * @param name name of created threads
+     * @param daemon true for daemon threads (only used for platform threads)
+     * @return new executor
+     */
+    public static ExecutorService newCachedExecutor(final String name, final boolean daemon) {
+        if (isVirtualThreadsEnabled()) {
+            final ExecutorService virtual = newVirtualExecutor(name);
+            if (virtual != null) {
+                return virtual;
+            }
+        }
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new NamedThreadFactory(name, daemon));
+    }
+
+    private static ExecutorService newVirtualExecutor(final String name) {
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER_NAME.invoke(builder, name + "-", 1L);
+            return (ExecutorService) PER_TASK_EXECUTOR.invoke(null, BUILDER_FACTORY.invoke(builder));
+        } catch (Exception ex) {
+            LOG.log(Level.WARNING, "Virtual threads could not be created, using platform threads.");
+            LOG.log(Level.FINE, "Virtual threads could not be created, using platform threads.", ex);
+            return null;
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter;
+        private final String name;
+        private final boolean daemon;
+
+        NamedThreadFactory(final String name, final boolean daemon) {
+            counter = new AtomicInteger();
+            this.name = name;
+            this.daemon = daemon;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(daemon);
+            return t;
+        }
+    }
+
+    /**
+     * Executor limiting count of tasks running in thread per task executor.
+     * Over the limit, tasks either wait inside their (virtual) thread or are
+     * rejected.
+     */
+    private static final class LimitedExecutor extends AbstractExecutorService {
+
+        private final ExecutorService exec;
+        private final Semaphore permits;
+        private final boolean wait;
+
+        LimitedExecutor(final ExecutorService exec, final int limit, final boolean wait) {
+            this.exec = exec;
+            permits = new Semaphore(limit);
+            this.wait = wait;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (!wait && !permits.tryAcquire()) {
+                throw new RejectedExecutionException("Limit of running tasks has been reached.");
+            }
+            try {
+                exec.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (wait) {
+                            try {
+                                permits.acquire();
+                            } catch (InterruptedException ex) {
+                                LOG.log(Level.FINE, "Waiting for free slot has been interrupted.", ex);
+                                return;
+                            }
+                        }
+                        try {
+                            command.run();
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                if (!wait) {
+                    permits.release();
+                }
+                throw ex;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            exec.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return exec.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return exec.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return exec.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return exec.awaitTermination(timeout, unit);
+        }
+    }
+
+    private ExecutorFactory() {
+    }
+}
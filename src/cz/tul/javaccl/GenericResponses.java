@@ -53,5 +53,10 @@ public enum GenericResponses {
     /**
      * Unspecified type of error
      */
-    GENERAL_ERROR;
+    GENERAL_ERROR,
+    /**
+     * Target is overloaded and did not handle the message, sending should be
+     * repeated later.
+     */
+    SERVER_BUSY;
 }
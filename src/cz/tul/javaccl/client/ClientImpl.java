@@ -134,17 +134,22 @@ public class ClientImpl extends Client implements ServerInterface, IDFilter, Cli
             final Object id = comm.sendData(login);
             if (id instanceof UUID) {
                 comm.setTargetId(((UUID) id));
+                if (oldComm != null) {
+                    oldComm.close();
+                }
                 result = true;
                 LOG.log(Level.INFO, "Client has been registered to new server (ID " + id + ")");
                 notifyChange(REGISTER, new Object[]{address, port, id});
                 setMaxNumberOfConcurrentAssignments(concurentJobCount);
                 setMaxJobComplexity(jobComplexity);
             } else {
+                comm.close();
                 comm = oldComm;
                 LOG.log(Level.WARNING, "Invalid response received - " + id.toString());
                 LOG.log(Level.INFO, "Registration failed, server sent invalid data.");
             }
         } catch (ConnectionException ex) {
+            comm.close();
             comm = oldComm;
             LOG.log(Level.INFO, "Registration failed - " + ex.getExceptionCause());
             throw ex;
@@ -155,6 +160,9 @@ public class ClientImpl extends Client implements ServerInterface, IDFilter, Cli
 
     @Override
     public void setServerInfo(final InetAddress address, final int port, final UUID serverId) {
+        if (comm != null) {
+            comm.close();
+        }
         comm = CommunicatorImpl.initNewCommunicator(address, port, getId());
         comm.setTargetId(serverId);
         comm.registerHistory(history);
@@ -167,6 +175,7 @@ public class ClientImpl extends Client implements ServerInterface, IDFilter, Cli
         if (comm != null) {
             final Message m = new Message(SystemMessageHeaders.LOGOUT, comm.getTargetId());
             sendDataToServer(m);
+            comm.close();
             comm = null;
             notifyChange(DEREGISTER, null);
         }
@@ -252,6 +261,9 @@ public class ClientImpl extends Client implements ServerInterface, IDFilter, Cli
         } catch (ConnectionException ex) {
             LOG.warning("Server could not be reached for deregistration.");
         }
+        if (comm != null) {
+            comm.close();
+        }
         disconnectFromServer();
 
         try {
@@ -0,0 +1,34 @@
+package cz.tul.javaccl.codec;
+
+import cz.tul.javaccl.communicator.BulkData;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.StreamCorruptedException;
+import java.util.List;
+
+/**
+ * Input providing bulk data received before encoded object.
+ *
+ * @author Petr Ječmen
+ */
+final class AttachmentInput extends DataInputStream {
+
+    private final List<BulkData> attachments;
+
+    AttachmentInput(final ByteArrayInputStream in, final List<BulkData> attachments) {
+        super(in);
+        this.attachments = attachments;
+    }
+
+    /**
+     * @param index index of the attachment
+     * @return attached data
+     * @throws StreamCorruptedException no such attachment has been received
+     */
+    BulkData getAttachment(final int index) throws StreamCorruptedException {
+        if (index < 0 || index >= attachments.size()) {
+            throw new StreamCorruptedException("Missing bulk data " + index);
+        }
+        return attachments.get(index);
+    }
+}
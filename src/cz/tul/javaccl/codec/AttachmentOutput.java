@@ -0,0 +1,30 @@
+package cz.tul.javaccl.codec;
+
+import cz.tul.javaccl.communicator.BulkData;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.List;
+
+/**
+ * Output collecting bulk data, which are sent outside of encoded object.
+ *
+ * @author Petr Ječmen
+ */
+final class AttachmentOutput extends DataOutputStream {
+
+    private final List<BulkData> attachments;
+
+    AttachmentOutput(final ByteArrayOutputStream out, final List<BulkData> attachments) {
+        super(out);
+        this.attachments = attachments;
+    }
+
+    /**
+     * @param data attached data
+     * @return index of the attachment
+     */
+    int attach(final BulkData data) {
+        attachments.add(data);
+        return attachments.size() - 1;
+    }
+}
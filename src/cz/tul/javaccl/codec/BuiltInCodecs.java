@@ -0,0 +1,300 @@
+package cz.tul.javaccl.codec;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.communicator.BulkData;
+import cz.tul.javaccl.communicator.CorrelatedResponse;
+import cz.tul.javaccl.communicator.DataPacketImpl;
+import cz.tul.javaccl.communicator.StatusMessage;
+import cz.tul.javaccl.communicator.StreamChunk;
+import cz.tul.javaccl.job.JobTask;
+import cz.tul.javaccl.messaging.Message;
+import cz.tul.javaccl.socket.MessageBatch;
+import cz.tul.javaccl.socket.MessagePullRequest;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Codecs for library protocol types and common data types.
+ *
+ * @author Petr Ječmen
+ */
+final class BuiltInCodecs {
+
+    private static final int ID_STRING = 2;
+    private static final int ID_INTEGER = 3;
+    private static final int ID_LONG = 4;
+    private static final int ID_BOOLEAN = 5;
+    private static final int ID_UUID = 6;
+    private static final int ID_BYTE_ARRAY = 7;
+    private static final int ID_GENERIC_RESPONSE = 8;
+    private static final int ID_BULK_DATA = 9;
+    // ID 15 marks bulk data segments (see WireFormat.BULK_SEGMENT)
+    private static final int ID_DATA_PACKET = 16;
+    private static final int ID_MESSAGE = 17;
+    private static final int ID_JOB_TASK = 18;
+    private static final int ID_STATUS_MESSAGE = 19;
+    private static final int ID_MESSAGE_PULL_REQUEST = 20;
+    private static final int ID_CORRELATED_RESPONSE = 21;
+    private static final int ID_STREAM_CHUNK = 22;
+    private static final int ID_MESSAGE_BATCH = 23;
+
+    static void registerAll(final CodecRegistry registry) {
+        registry.register(ID_STRING, String.class, new Codec<String>() {
+            @Override
+            public void encode(final String data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                CodecRegistry.writeString(data, out);
+            }
+
+            @Override
+            public String decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                return CodecRegistry.readString(in);
+            }
+        });
+        registry.register(ID_INTEGER, Integer.class, new Codec<Integer>() {
+            @Override
+            public void encode(final Integer data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                out.writeInt(data);
+            }
+
+            @Override
+            public Integer decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                return in.readInt();
+            }
+        });
+        registry.register(ID_LONG, Long.class, new Codec<Long>() {
+            @Override
+            public void encode(final Long data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                out.writeLong(data);
+            }
+
+            @Override
+            public Long decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                return in.readLong();
+            }
+        });
+        registry.register(ID_BOOLEAN, Boolean.class, new Codec<Boolean>() {
+            @Override
+            public void encode(final Boolean data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                out.writeBoolean(data);
+            }
+
+            @Override
+            public Boolean decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                return in.readBoolean();
+            }
+        });
+        registry.register(ID_UUID, UUID.class, new Codec<UUID>() {
+            @Override
+            public void encode(final UUID data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                out.writeLong(data.getMostSignificantBits());
+                out.writeLong(data.getLeastSignificantBits());
+            }
+
+            @Override
+            public UUID decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                return new UUID(in.readLong(), in.readLong());
+            }
+        });
+        registry.register(ID_BYTE_ARRAY, byte[].class, new Codec<byte[]>() {
+            @Override
+            public void encode(final byte[] data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                out.writeInt(data.length);
+                out.write(data);
+            }
+
+            @Override
+            public byte[] decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                final int length = in.readInt();
+                if (length < 0) {
+                    throw new StreamCorruptedException("Invalid array length " + length);
+                }
+                final byte[] result = new byte[length];
+                in.readFully(result);
+                return result;
+            }
+        });
+        registry.register(ID_GENERIC_RESPONSE, GenericResponses.class, new Codec<GenericResponses>() {
+            @Override
+            public void encode(final GenericResponses data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                out.writeByte(data.ordinal());
+            }
+
+            @Override
+            public GenericResponses decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                final int ordinal = in.readUnsignedByte();
+                final GenericResponses[] values = GenericResponses.values();
+                if (ordinal >= values.length) {
+                    throw new StreamCorruptedException("Unknown generic response " + ordinal);
+                }
+                return values[ordinal];
+            }
+        });
+
+        registry.register(ID_BULK_DATA, BulkData.class, new Codec<BulkData>() {
+            @Override
+            public void encode(final BulkData data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                if (!(out instanceof AttachmentOutput)) {
+                    throw new NotSerializableException("Bulk data can be sent only as a frame attachment.");
+                }
+                out.writeInt(((AttachmentOutput) out).attach(data));
+                out.writeLong(data.getLength());
+            }
+
+            @Override
+            public BulkData decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                if (!(in instanceof AttachmentInput)) {
+                    throw new StreamCorruptedException("Bulk data received without attachments.");
+                }
+                final BulkData result = ((AttachmentInput) in).getAttachment(in.readInt());
+                if (result.getLength() != in.readLong()) {
+                    throw new StreamCorruptedException("Invalid length of received bulk data.");
+                }
+                return result;
+            }
+        });
+        registry.register(ID_DATA_PACKET, DataPacketImpl.class, new Codec<DataPacketImpl>() {
+            @Override
+            public void encode(final DataPacketImpl data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                CodecRegistry.writeUUID(data.getSourceId(), out);
+                CodecRegistry.writeUUID(data.getTargetId(), out);
+                out.writeLong(data.getCorrelationId());
+                CodecRegistry.writeUUID(data.getIdempotencyKey(), out);
+                registry.writeObject(data.getData(), out);
+            }
+
+            @Override
+            public DataPacketImpl decode(final DataInput in, final CodecRegistry registry) throws IOException, ClassNotFoundException {
+                final UUID sourceId = CodecRegistry.readUUID(in);
+                final UUID targetId = CodecRegistry.readUUID(in);
+                final long correlationId = in.readLong();
+                final UUID idempotencyKey = CodecRegistry.readUUID(in);
+                final DataPacketImpl result = new DataPacketImpl(sourceId, targetId, registry.readObject(in));
+                result.setCorrelationId(correlationId);
+                result.setIdempotencyKey(idempotencyKey);
+                return result;
+            }
+        });
+        registry.register(ID_MESSAGE, Message.class, new Codec<Message>() {
+            @Override
+            public void encode(final Message data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                CodecRegistry.writeUUID(data.getId(), out);
+                CodecRegistry.writeString(data.getHeader(), out);
+                registry.writeObject(data.getData(), out);
+            }
+
+            @Override
+            public Message decode(final DataInput in, final CodecRegistry registry) throws IOException, ClassNotFoundException {
+                final UUID id = CodecRegistry.readUUID(in);
+                final String header = CodecRegistry.readString(in);
+                return new Message(id, header, registry.readObject(in));
+            }
+        });
+        registry.register(ID_JOB_TASK, JobTask.class, new Codec<JobTask>() {
+            @Override
+            public void encode(final JobTask data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                CodecRegistry.writeUUID(data.getJobId(), out);
+                CodecRegistry.writeString(data.getTaskDescription(), out);
+                registry.writeObject(data.getTask(), out);
+            }
+
+            @Override
+            public JobTask decode(final DataInput in, final CodecRegistry registry) throws IOException, ClassNotFoundException {
+                final UUID jobId = CodecRegistry.readUUID(in);
+                final String description = CodecRegistry.readString(in);
+                return new JobTask(jobId, description, registry.readObject(in));
+            }
+        });
+        registry.register(ID_STATUS_MESSAGE, StatusMessage.class, new Codec<StatusMessage>() {
+            @Override
+            public void encode(final StatusMessage data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                CodecRegistry.writeUUID(data.getId(), out);
+            }
+
+            @Override
+            public StatusMessage decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                return new StatusMessage(CodecRegistry.readUUID(in));
+            }
+        });
+        registry.register(ID_MESSAGE_PULL_REQUEST, MessagePullRequest.class, new Codec<MessagePullRequest>() {
+            @Override
+            public void encode(final MessagePullRequest data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                CodecRegistry.writeUUID(data.getClientId(), out);
+                out.writeInt(data.getWaitTime());
+            }
+
+            @Override
+            public MessagePullRequest decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                final UUID clientId = CodecRegistry.readUUID(in);
+                return new MessagePullRequest(clientId, in.readInt());
+            }
+        });
+        registry.register(ID_CORRELATED_RESPONSE, CorrelatedResponse.class, new Codec<CorrelatedResponse>() {
+            @Override
+            public void encode(final CorrelatedResponse data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                out.writeLong(data.getCorrelationId());
+                registry.writeObject(data.getResponse(), out);
+            }
+
+            @Override
+            public CorrelatedResponse decode(final DataInput in, final CodecRegistry registry) throws IOException, ClassNotFoundException {
+                final long correlationId = in.readLong();
+                return new CorrelatedResponse(correlationId, registry.readObject(in));
+            }
+        });
+        registry.register(ID_STREAM_CHUNK, StreamChunk.class, new Codec<StreamChunk>() {
+            @Override
+            public void encode(final StreamChunk data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                CodecRegistry.writeUUID(data.getStreamId(), out);
+                out.writeInt(data.getIndex());
+                out.writeBoolean(data.isLast());
+                out.writeInt(data.getData().length);
+                out.write(data.getData());
+            }
+
+            @Override
+            public StreamChunk decode(final DataInput in, final CodecRegistry registry) throws IOException {
+                final UUID streamId = CodecRegistry.readUUID(in);
+                final int index = in.readInt();
+                final boolean last = in.readBoolean();
+                final int length = in.readInt();
+                if (length < 0) {
+                    throw new StreamCorruptedException("Invalid chunk length " + length);
+                }
+                final byte[] content = new byte[length];
+                in.readFully(content);
+                return new StreamChunk(streamId, index, content, last);
+            }
+        });
+        registry.register(ID_MESSAGE_BATCH, MessageBatch.class, new Codec<MessageBatch>() {
+            @Override
+            public void encode(final MessageBatch data, final DataOutput out, final CodecRegistry registry) throws IOException {
+                out.writeInt(data.getItems().size());
+                for (Object o : data.getItems()) {
+                    registry.writeObject(o, out);
+                }
+            }
+
+            @Override
+            public MessageBatch decode(final DataInput in, final CodecRegistry registry) throws IOException, ClassNotFoundException {
+                final int count = in.readInt();
+                if (count < 0) {
+                    throw new StreamCorruptedException("Invalid batch size " + count);
+                }
+                final List<Object> items = new ArrayList<Object>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++) {
+                    items.add(registry.readObject(in));
+                }
+                return new MessageBatch(items);
+            }
+        });
+    }
+
+    private BuiltInCodecs() {
+    }
+}
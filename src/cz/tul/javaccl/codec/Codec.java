@@ -0,0 +1,38 @@
+package cz.tul.javaccl.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary encoder / decoder of one data type. Codecs are registered in
+ * {@link CodecRegistry}, which writes type identifier before the encoded data,
+ * so the codec itself writes only the content of the object. Nested objects
+ * should be written using {@link CodecRegistry#writeObject(java.lang.Object, java.io.DataOutput)}.
+ *
+ * @param <T> type of handled data
+ * @author Petr Ječmen
+ */
+public interface Codec<T> {
+
+    /**
+     * Write data to output.
+     *
+     * @param data data for encoding (never null)
+     * @param out target output
+     * @param registry registry for encoding nested objects
+     * @throws IOException error writing data
+     */
+    void encode(final T data, final DataOutput out, final CodecRegistry registry) throws IOException;
+
+    /**
+     * Read data from input.
+     *
+     * @param in source input
+     * @param registry registry for decoding nested objects
+     * @return decoded data
+     * @throws IOException error reading data
+     * @throws ClassNotFoundException unknown class of nested object
+     */
+    T decode(final DataInput in, final CodecRegistry registry) throws IOException, ClassNotFoundException;
+}
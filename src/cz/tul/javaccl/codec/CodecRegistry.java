@@ -0,0 +1,314 @@
+package cz.tul.javaccl.codec;
+
+import cz.tul.javaccl.communicator.BulkData;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of binary codecs. Every object is written as one byte type
+ * identifier followed by data written by the codec registered for its class.
+ * Library protocol types have their own codecs, custom data types can register
+ * their codecs with identifiers between {@link #USER_ID_MIN} and
+ * {@link #USER_ID_MAX} (both sides of the communication must use the same
+ * identifiers). Data of other types are transferred using Java serialization.
+ *
+ * @author Petr Ječmen
+ */
+public final class CodecRegistry {
+
+    /**
+     * Lowest type identifier available for custom codecs.
+     */
+    public static final int USER_ID_MIN = 64;
+    /**
+     * Highest type identifier available for custom codecs.
+     */
+    public static final int USER_ID_MAX = 255;
+    private static final Logger LOG = Logger.getLogger(CodecRegistry.class.getName());
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final int ID_NULL = 0;
+    private static final int ID_SERIALIZED = 1;
+    private static final CodecRegistry INSTANCE = new CodecRegistry();
+    private final Map<Class<?>, Integer> ids;
+    private final AtomicReferenceArray<Codec<?>> codecs;
+
+    /**
+     * @return instance of registry used for all communication
+     */
+    public static CodecRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private CodecRegistry() {
+        ids = new ConcurrentHashMap<Class<?>, Integer>();
+        codecs = new AtomicReferenceArray<Codec<?>>(USER_ID_MAX + 1);
+        BuiltInCodecs.registerAll(this);
+    }
+
+    /**
+     * Register codec for custom data type.
+     *
+     * @param <T> data type
+     * @param id type identifier (between {@link #USER_ID_MIN} and
+     * {@link #USER_ID_MAX})
+     * @param type data class (only instances of this exact class are handled
+     * by the codec)
+     * @param codec codec for given type
+     */
+    public <T> void registerCodec(final int id, final Class<T> type, final Codec<T> codec) {
+        if (id < USER_ID_MIN || id > USER_ID_MAX) {
+            throw new IllegalArgumentException("Codec ID must be between " + USER_ID_MIN + " and " + USER_ID_MAX + ", got " + id);
+        }
+        register(id, type, codec);
+        LOG.log(Level.FINE, "Registered codec {0} for class {1} with ID {2}", new Object[]{codec, type.getName(), id});
+    }
+
+    /**
+     * Remove codec for custom data type, its data will be serialized using
+     * Java serialization.
+     *
+     * @param type data class
+     */
+    public void unregisterCodec(final Class<?> type) {
+        final Integer id = ids.get(type);
+        if (id != null) {
+            if (id < USER_ID_MIN) {
+                throw new IllegalArgumentException("Built-in codec for " + type.getName() + " cannot be removed.");
+            }
+            ids.remove(type);
+            codecs.set(id, null);
+        }
+    }
+
+    <T> void register(final int id, final Class<T> type, final Codec<T> codec) {
+        if (type == null || codec == null) {
+            throw new NullPointerException("NULL type or codec not allowed.");
+        }
+        if (ids.containsKey(type)) {
+            throw new IllegalArgumentException("Codec for class " + type.getName() + " is already registered.");
+        }
+        if (!codecs.compareAndSet(id, null, codec)) {
+            throw new IllegalArgumentException("Codec ID " + id + " is already used.");
+        }
+        ids.put(type, id);
+    }
+
+    /**
+     * Convert object to bytes.
+     *
+     * @param data data for encoding
+     * @return encoded data
+     * @throws IOException data could not be encoded
+     */
+    public byte[] encode(final Object data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        writeObject(data, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Convert object to bytes, {@link BulkData} found in the object are not
+     * encoded, they are added to the list of attachments instead.
+     *
+     * @param data data for encoding
+     * @param attachments list for bulk data, which must be sent together with
+     * encoded data
+     * @return encoded data
+     * @throws IOException data could not be encoded
+     */
+    public byte[] encode(final Object data, final List<BulkData> attachments) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new AttachmentOutput(bytes, attachments);
+        writeObject(data, out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Convert bytes back to object.
+     *
+     * @param data encoded data
+     * @param offset start of the data
+     * @param length length of the data
+     * @return decoded object
+     * @throws IOException data are corrupted
+     * @throws ClassNotFoundException unknown class received
+     */
+    public Object decode(final byte[] data, final int offset, final int length) throws IOException, ClassNotFoundException {
+        return decode(new DataInputStream(new ByteArrayInputStream(data, offset, length)));
+    }
+
+    /**
+     * Convert bytes back to object, which can contain bulk data received
+     * together with encoded data.
+     *
+     * @param data encoded data
+     * @param offset start of the data
+     * @param length length of the data
+     * @param attachments bulk data received together with encoded data
+     * @return decoded object
+     * @throws IOException data are corrupted
+     * @throws ClassNotFoundException unknown class received
+     */
+    public Object decode(final byte[] data, final int offset, final int length, final List<BulkData> attachments) throws IOException, ClassNotFoundException {
+        return decode(new AttachmentInput(new ByteArrayInputStream(data, offset, length), attachments));
+    }
+
+    private Object decode(final DataInputStream in) throws IOException, ClassNotFoundException {
+        final Object result = readObject(in);
+        if (in.available() > 0) {
+            throw new StreamCorruptedException("Unexpected data after decoded object.");
+        }
+        return result;
+    }
+
+    /**
+     * Write object including its type identifier.
+     *
+     * @param data data for writing (can be null)
+     * @param out target output
+     * @throws IOException error writing data
+     */
+    @SuppressWarnings("unchecked")
+    public void writeObject(final Object data, final DataOutput out) throws IOException {
+        if (data == null) {
+            out.writeByte(ID_NULL);
+            return;
+        }
+
+        Class<?> type = data.getClass();
+        if (data instanceof Enum) {
+            type = ((Enum<?>) data).getDeclaringClass();
+        }
+        final Integer id = ids.get(type);
+        final Codec<Object> codec = id != null ? (Codec<Object>) codecs.get(id) : null;
+        if (codec != null) {
+            out.writeByte(id);
+            codec.encode(data, out, this);
+        } else {
+            out.writeByte(ID_SERIALIZED);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            oos.writeObject(data);
+            oos.close();
+            out.writeInt(bytes.size());
+            out.write(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Read object written by {@link #writeObject(java.lang.Object, java.io.DataOutput)}.
+     *
+     * @param in source input
+     * @return read object
+     * @throws IOException error reading data
+     * @throws ClassNotFoundException unknown class received
+     */
+    public Object readObject(final DataInput in) throws IOException, ClassNotFoundException {
+        final int id = in.readUnsignedByte();
+        final Object result;
+        if (id == ID_NULL) {
+            result = null;
+        } else if (id == ID_SERIALIZED) {
+            final int length = in.readInt();
+            if (length < 0) {
+                throw new StreamCorruptedException("Invalid length of serialized data " + length);
+            }
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                result = ois.readObject();
+            } finally {
+                ois.close();
+            }
+        } else {
+            final Codec<?> codec = codecs.get(id);
+            if (codec == null) {
+                throw new ClassNotFoundException("No codec registered for ID " + id);
+            }
+            result = codec.decode(in, this);
+        }
+        return result;
+    }
+
+    /**
+     * Write string (can be null and longer than 64k).
+     *
+     * @param value written value
+     * @param out target output
+     * @throws IOException error writing data
+     */
+    public static void writeString(final String value, final DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(CHARSET);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @param in source input
+     * @return string written by {@link #writeString(java.lang.String, java.io.DataOutput)}
+     * @throws IOException error reading data
+     */
+    public static String readString(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    /**
+     * Write UUID (can be null).
+     *
+     * @param value written value
+     * @param out target output
+     * @throws IOException error writing data
+     */
+    public static void writeUUID(final UUID value, final DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeLong(value.getMostSignificantBits());
+            out.writeLong(value.getLeastSignificantBits());
+        }
+    }
+
+    /**
+     * @param in source input
+     * @return UUID written by {@link #writeUUID(java.util.UUID, java.io.DataOutput)}
+     * @throws IOException error reading data
+     */
+    public static UUID readUUID(final DataInput in) throws IOException {
+        if (in.readBoolean()) {
+            return new UUID(in.readLong(), in.readLong());
+        } else {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Binary encoding of transmitted data, custom data types can register their own {@link Codec}.
+ */
+package cz.tul.javaccl.codec;
@@ -0,0 +1,177 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.ExecutorFactory;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.exceptions.ConnectionExceptionCause;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executors used by asynchronous sending. Exchanges which cannot use shared
+ * multiplexed connection (and opening of such connections) are done by a
+ * bounded pool of daemon threads (size is set by
+ * {@link ConfigurationType#ASYNC_THREADS}) or by virtual threads (see
+ * {@link ConfigurationType#VIRTUAL_THREADS}), returned futures are completed
+ * using completion executor, so dependent actions never run inside network
+ * threads. Completion executor can be replaced by user.
+ *
+ * @author Petr Ječmen
+ */
+public final class AsyncExecutors {
+
+    private static final Logger LOG = Logger.getLogger(AsyncExecutors.class.getName());
+    private static final int THREAD_KEEP_ALIVE = 60;
+    private static ExecutorService sendExecutor;
+    private static ExecutorService hedgeExecutor;
+    private static volatile Executor completionExecutor;
+
+    /**
+     * @return executor used for completing futures returned by asynchronous
+     * sending
+     */
+    public static Executor getCompletionExecutor() {
+        Executor result = completionExecutor;
+        if (result == null) {
+            synchronized (AsyncExecutors.class) {
+                if (completionExecutor == null) {
+                    completionExecutor = createPool("CommunicatorCompletion", Runtime.getRuntime().availableProcessors());
+                }
+                result = completionExecutor;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set executor used for completing futures returned by asynchronous
+     * sending.
+     *
+     * @param executor new completion executor
+     */
+    public static void setCompletionExecutor(final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("NULL executor not allowed.");
+        }
+        completionExecutor = executor;
+    }
+
+    static synchronized Executor getSendExecutor() {
+        if (sendExecutor == null) {
+            if (ExecutorFactory.isVirtualThreadsEnabled()) {
+                // blocking exchanges do not occupy platform threads
+                sendExecutor = ExecutorFactory.newCachedExecutor("CommunicatorAsync", true);
+            } else {
+                sendExecutor = createPool("CommunicatorAsync", Configuration.getInt(ConfigurationType.ASYNC_THREADS));
+            }
+        }
+        return sendExecutor;
+    }
+
+    /**
+     * Attempts of hedged sending have their own executor, so they cannot be
+     * starved by asynchronous sending. Every attempt has a caller waiting for
+     * it, so count of threads is limited by count of callers.
+     *
+     * @return executor running attempts of hedged sending
+     */
+    static synchronized Executor getHedgeExecutor() {
+        if (hedgeExecutor == null) {
+            hedgeExecutor = ExecutorFactory.newCachedExecutor("CommunicatorHedge", true);
+        }
+        return hedgeExecutor;
+    }
+
+    /**
+     * Complete future with result inside completion executor.
+     *
+     * @param future completed future
+     * @param result result
+     */
+    static void complete(final CompletableFuture<Object> future, final Object result) {
+        try {
+            getCompletionExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    future.complete(result);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOG.log(Level.FINE, "Completion executor rejected task, completing directly.", ex);
+            future.complete(result);
+        }
+    }
+
+    /**
+     * Complete future with exception inside completion executor. Unexpected
+     * exceptions are wrapped into {@link ConnectionException}.
+     *
+     * @param future completed future
+     * @param ex exception
+     */
+    static void fail(final CompletableFuture<Object> future, final Throwable ex) {
+        final Throwable cause = mapException(ex);
+        try {
+            getCompletionExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    future.completeExceptionally(cause);
+                }
+            });
+        } catch (RejectedExecutionException rex) {
+            LOG.log(Level.FINE, "Completion executor rejected task, completing directly.", rex);
+            future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Convert exception thrown during sending to the one reported to user.
+     *
+     * @param ex thrown exception
+     * @return {@link ConnectionException} or {@link IllegalArgumentException}
+     * for invalid data
+     */
+    static Throwable mapException(final Throwable ex) {
+        final Throwable result;
+        if (ex instanceof ConnectionException || ex instanceof IllegalArgumentException) {
+            result = ex;
+        } else if (ex instanceof RejectedExecutionException) {
+            result = new ConnectionException(ConnectionExceptionCause.CONNECTION_ERROR, ex.getMessage());
+        } else {
+            LOG.log(Level.WARNING, "Unexpected error during asynchronous sending - {0}", ex);
+            result = new ConnectionException(ConnectionExceptionCause.UNKNOWN, String.valueOf(ex));
+        }
+        return result;
+    }
+
+    private static ExecutorService createPool(final String name, final int threadCount) {
+        final int count = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        final ThreadPoolExecutor result = new ThreadPoolExecutor(count, count,
+                THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger counter = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    private AsyncExecutors() {
+    }
+}
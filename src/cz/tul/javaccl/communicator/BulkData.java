@@ -0,0 +1,247 @@
+package cz.tul.javaccl.communicator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Large block of data (file or buffer) transferred outside of serialized
+ * object graph. Bulk data can be sent directly or as a part of library types
+ * (eg. job task, job result or data requested from
+ * {@link cz.tul.javaccl.server.DataStorage}). Content is streamed directly
+ * from the file to the socket and the receiving side obtains temporary file
+ * with the content, so neither side needs to hold the data in memory.
+ * Instances are not serializable, so they cannot be nested inside
+ * user-defined serializable objects. Temporary files with received data should
+ * be deleted using {@link #release()} after the data have been consumed, files
+ * of unreachable instances are deleted when next data are received.
+ *
+ * @author Petr Ječmen
+ */
+public final class BulkData {
+
+    private static final Logger LOG = Logger.getLogger(BulkData.class.getName());
+    static final String TEMP_PREFIX = "javaccl";
+    static final String TEMP_SUFFIX = ".bulk";
+    private static final ReferenceQueue<BulkData> UNREACHABLE = new ReferenceQueue<BulkData>();
+    private static final Set<TemporaryFile> PENDING = Collections.newSetFromMap(new ConcurrentHashMap<TemporaryFile, Boolean>());
+    private final File file;
+    private final ByteBuffer buffer;
+    private final long length;
+    private final boolean temporary;
+    private final TemporaryFile tempFile;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (TemporaryFile tf : PENDING) {
+                    tf.delete();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Send content of the file.
+     *
+     * @param file source file
+     * @throws IllegalArgumentException file does not exist
+     */
+    public BulkData(final File file) {
+        this(file, false);
+    }
+
+    /**
+     * Send content of the buffer (from current position to its limit).
+     *
+     * @param buffer source buffer
+     */
+    public BulkData(final ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("NULL buffer not allowed.");
+        }
+        this.buffer = buffer.asReadOnlyBuffer();
+        file = null;
+        length = buffer.remaining();
+        temporary = false;
+        tempFile = null;
+    }
+
+    BulkData(final File file, final boolean temporary) {
+        if (file == null || !file.isFile()) {
+            throw new IllegalArgumentException("Existing file required - " + file);
+        }
+        this.file = file;
+        buffer = null;
+        length = file.length();
+        this.temporary = temporary;
+        if (temporary) {
+            deleteUnreachable();
+            tempFile = new TemporaryFile(this, file);
+            PENDING.add(tempFile);
+        } else {
+            tempFile = null;
+        }
+    }
+
+    private static void deleteUnreachable() {
+        Reference<? extends BulkData> ref;
+        while ((ref = UNREACHABLE.poll()) != null) {
+            ((TemporaryFile) ref).delete();
+        }
+    }
+
+    /**
+     * @return length of the data (in bytes)
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return file with the data (received data are always stored in a
+     * temporary file), null for data backed by buffer
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if the data are stored in temporary file created by the
+     * library
+     */
+    public boolean isTemporary() {
+        return temporary;
+    }
+
+    /**
+     * Obtain read-only view of the data. File data are memory-mapped, so they
+     * are not loaded into heap.
+     *
+     * @return read-only view of the data
+     * @throws IOException error mapping the file or data are longer than 2GB
+     */
+    public ByteBuffer map() throws IOException {
+        if (buffer != null) {
+            return buffer.duplicate();
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Data are too long for single mapping - " + length);
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // mapping stays valid after the channel is closed
+            final MappedByteBuffer result = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return result;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Copy the data into new temporary file, so they can be handed over to
+     * another entity in this JVM the same way as received data.
+     *
+     * @return copy of the data stored in temporary file
+     * @throws IOException error creating or writing the file
+     */
+    public BulkData copy() throws IOException {
+        final File copy = File.createTempFile(TEMP_PREFIX, TEMP_SUFFIX);
+        final RandomAccessFile raf = new RandomAccessFile(copy, "rw");
+        boolean copied = false;
+        try {
+            final FileChannel target = raf.getChannel();
+            long position = 0;
+            while (position < length) {
+                position += transferTo(position, length - position, target);
+            }
+            copied = true;
+        } finally {
+            raf.close();
+            if (!copied && !copy.delete()) {
+                LOG.log(Level.FINE, "Temporary file {0} could not be deleted.", copy.getAbsolutePath());
+            }
+        }
+        return new BulkData(copy, true);
+    }
+
+    /**
+     * Delete temporary file with received data. Files provided by user are
+     * never deleted.
+     */
+    public void release() {
+        if (tempFile != null) {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Write part of the data to the channel. File data are transferred using
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so no
+     * copy is made in heap. Non-blocking channel may accept only part of the
+     * data.
+     *
+     * @param position start of the written part
+     * @param count length of the written part
+     * @param target target channel
+     * @return count of written bytes
+     * @throws IOException error reading or writing data
+     */
+    public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
+        if (buffer != null) {
+            final ByteBuffer part = buffer.duplicate();
+            part.position(part.position() + (int) position);
+            part.limit(part.position() + (int) count);
+            return target.write(part);
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.getChannel().transferTo(position, count, target);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BulkData[" + (file != null ? file.getName() : "buffer") + ", " + length + " B]";
+    }
+
+    /**
+     * Temporary file, which is deleted when its data are released or become
+     * unreachable.
+     */
+    private static final class TemporaryFile extends PhantomReference<BulkData> {
+
+        private final File file;
+
+        TemporaryFile(final BulkData data, final File file) {
+            super(data, UNREACHABLE);
+            this.file = file;
+        }
+
+        void delete() {
+            if (PENDING.remove(this)) {
+                clear();
+                if (file.exists() && !file.delete()) {
+                    LOG.log(Level.WARNING, "Temporary file {0} could not be deleted.", file.getAbsolutePath());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package cz.tul.javaccl.communicator;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receiving side of bulk data transfer on single connection. Bulk data
+ * segments are written into temporary files, completed files are attached to
+ * the next received object (see {@link WireFormat}).
+ *
+ * @author Petr Ječmen
+ */
+public final class BulkReceiver {
+
+    private static final Logger LOG = Logger.getLogger(BulkReceiver.class.getName());
+    private final List<BulkData> completed;
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+
+    /**
+     * New receiver without any data.
+     */
+    public BulkReceiver() {
+        completed = new ArrayList<BulkData>();
+    }
+
+    /**
+     * Store whole segment read from blocking channel using
+     * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}.
+     *
+     * @param source source channel
+     * @param count length of the segment
+     * @param last true if this is the last segment of the data
+     * @throws IOException error reading or storing the data
+     */
+    public synchronized void receive(final ReadableByteChannel source, final long count, final boolean last) throws IOException {
+        prepareFile();
+        long position = channel.size();
+        final long end = position + count;
+        long read;
+        while (position < end) {
+            read = channel.transferFrom(source, position, end - position);
+            if (read <= 0) {
+                throw new EOFException("Connection closed during bulk data transfer.");
+            }
+            position += read;
+        }
+        if (last) {
+            finishData();
+        }
+    }
+
+    /**
+     * Append part of the segment received from non-blocking channel.
+     *
+     * @param data received bytes
+     * @throws IOException error storing the data
+     */
+    public synchronized void append(final ByteBuffer data) throws IOException {
+        prepareFile();
+        while (data.hasRemaining()) {
+            channel.write(data, channel.size());
+        }
+    }
+
+    /**
+     * Mark the end of currently received data.
+     *
+     * @throws IOException error closing the file
+     */
+    public synchronized void finishData() throws IOException {
+        prepareFile();
+        raf.close();
+        completed.add(new BulkData(file, true));
+        file = null;
+        raf = null;
+        channel = null;
+    }
+
+    /**
+     * @return data received since last call, they belong to the next received
+     * object
+     */
+    public synchronized List<BulkData> take() {
+        if (completed.isEmpty()) {
+            return Collections.<BulkData>emptyList();
+        }
+        final List<BulkData> result = new ArrayList<BulkData>(completed);
+        completed.clear();
+        return result;
+    }
+
+    /**
+     * Delete all data, which have not been taken yet (eg. after connection
+     * has been closed).
+     */
+    public synchronized void discard() {
+        for (BulkData bd : take()) {
+            bd.release();
+        }
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ex) {
+                LOG.log(Level.FINE, "Error closing temporary file.", ex);
+            }
+            if (!file.delete()) {
+                LOG.log(Level.FINE, "Temporary file {0} could not be deleted.", file.getAbsolutePath());
+            }
+            file = null;
+            raf = null;
+            channel = null;
+        }
+    }
+
+    private void prepareFile() throws IOException {
+        if (raf == null) {
+            file = File.createTempFile(BulkData.TEMP_PREFIX, BulkData.TEMP_SUFFIX);
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+    }
+}
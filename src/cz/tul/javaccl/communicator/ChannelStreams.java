@@ -0,0 +1,132 @@
+package cz.tul.javaccl.communicator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Streams over non-blocking socket channel with read timeout. Used for
+ * channels without {@link java.net.Socket} (eg. Unix domain sockets), where
+ * socket timeout cannot be set. Single thread can read and another single
+ * thread can write at the same time.
+ *
+ * @author Petr Ječmen
+ */
+final class ChannelStreams {
+
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+    private Selector readSelector, writeSelector;
+    private volatile int timeout;
+
+    /**
+     * @param channel connected channel, it is switched to non-blocking mode
+     * @throws IOException error configuring the channel
+     */
+    ChannelStreams(final SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                final byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                final ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                int read;
+                while ((read = channel.read(buf)) == 0) {
+                    if (readSelector == null) {
+                        readSelector = Selector.open();
+                        channel.register(readSelector, SelectionKey.OP_READ);
+                    }
+                    if (readSelector.select(timeout) == 0 && timeout > 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    readSelector.selectedKeys().clear();
+                }
+                return read;
+            }
+        };
+        out = new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                final ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining()) {
+                    if (channel.write(buf) == 0) {
+                        if (writeSelector == null) {
+                            writeSelector = Selector.open();
+                            channel.register(writeSelector, SelectionKey.OP_WRITE);
+                        }
+                        writeSelector.select();
+                        writeSelector.selectedKeys().clear();
+                    }
+                }
+            }
+        };
+    }
+
+    InputStream getInputStream() {
+        return in;
+    }
+
+    OutputStream getOutputStream() {
+        return out;
+    }
+
+    /**
+     * @param timeout read timeout in miliseconds (0 for infinite)
+     */
+    void setTimeout(final int timeout) {
+        this.timeout = timeout;
+    }
+
+    boolean isOpen() {
+        return channel.isOpen() && channel.isConnected();
+    }
+
+    /**
+     * Check if there are no data waiting on idle channel.
+     *
+     * @return true if the channel is idle, false if there are data or the
+     * other side has closed the channel
+     * @throws IOException error reading the channel
+     */
+    boolean isIdle() throws IOException {
+        return channel.read(ByteBuffer.allocate(1)) == 0;
+    }
+
+    /**
+     * Close the channel and release selectors.
+     *
+     * @throws IOException error closing the channel
+     */
+    void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (readSelector != null) {
+                readSelector.close();
+            }
+            if (writeSelector != null) {
+                writeSelector.close();
+            }
+        }
+    }
+}
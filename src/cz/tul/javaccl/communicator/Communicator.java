@@ -1,8 +1,11 @@
 package cz.tul.javaccl.communicator;
 
 import cz.tul.javaccl.exceptions.ConnectionException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for contacting some another instance of JavaCCL entity (client or
@@ -13,7 +16,8 @@ import java.util.UUID;
 public interface Communicator {
 
     /**
-     * Check status of target.
+     * Check status of target. Target is contacted only if there has been no
+     * exchange with it during last heartbeat interval.
      *
      * @return current status of target.
      */
@@ -35,14 +39,41 @@ public interface Communicator {
      */
     int getPort();
 
+    /**
+     * Select transport for a target running on the same machine. Unix domain
+     * socket is used by default if the target listens on it (see
+     * {@link UnixSockets}), otherwise TCP is used.
+     *
+     * @param used false to always use TCP
+     */
+    void setUnixSocketUsed(final boolean used);
+
+    /**
+     * @return estimator of round trip time of data exchanges with the target
+     * (including handling of the data by the target), used for deriving job
+     * timeouts and hedging
+     */
+    RttEstimator getRttEstimator();
+
+    /**
+     * @param policy policy for repeating failed sending of data with
+     * idempotency key
+     */
+    void setRetryPolicy(final RetryPolicy policy);
+
+    /**
+     * @return policy for repeating failed sending of data with idempotency key
+     */
+    RetryPolicy getRetryPolicy();
+
     /**
      * @return tre if the library can deliver messages to target
      */
     boolean isOnline();
 
     /**
-     * @return last known client status (either after checkStatus() call or
-     * after unsuccesfull connect)
+     * @return last known client status (kept up to date by periodic
+     * heartbeats, checkStatus() calls and regular data exchanges)
      */
     Status getStatus();
 
@@ -66,4 +97,74 @@ public interface Communicator {
      * @throws ConnectionException Target could not be contacted.
      */
     Object sendData(final Object data, final int timeout) throws IllegalArgumentException, ConnectionException;
+
+    /**
+     * Send data to given target. Target handles data with the same
+     * idempotency key only once and replies to repeated sending with the
+     * reply to the first one, so failed sending is repeated according to
+     * the {@link RetryPolicy} of this communicator.
+     *
+     * @param data data for sending (must implement Serializable interface)
+     * @param timeout time, after which sending is considered unsuccessfull
+     * @param idempotencyKey key identifying the data, same for all repeated
+     * sendings (null for data handled every time)
+     * @return response of the target (the cached one for repeated sending)
+     * @throws IllegalArgumentException Data could not be serialized.
+     * @throws ConnectionException Target could not be contacted.
+     */
+    Object sendData(final Object data, final int timeout, final UUID idempotencyKey) throws IllegalArgumentException, ConnectionException;
+
+    /**
+     * Send data to given target without blocking the caller (see
+     * {@link #sendDataAsync(java.lang.Object, int)}).
+     *
+     * @param data data for sending (must implement Serializable interface)
+     * @return future completed with the response, or exceptionally with
+     * {@link ConnectionException} (target could not be contacted) or
+     * {@link IllegalArgumentException} (data could not be serialized)
+     */
+    CompletableFuture<Object> sendDataAsync(final Object data);
+
+    /**
+     * Send data to given target without blocking the caller. Data for online
+     * target are sent over connection shared with other requests and
+     * heartbeats, so no thread waits for the reply. Data for offline or
+     * pulling target occupy one of the asynchronous sending threads for the
+     * whole exchange (see {@link AsyncExecutors}).
+     *
+     * @param data data for sending (must implement Serializable interface)
+     * @param timeout time, after which sending is considered unsuccessfull
+     * (measured since the data have been sent)
+     * @return future completed with the response, or exceptionally with
+     * {@link ConnectionException} (target could not be contacted) or
+     * {@link IllegalArgumentException} (data could not be serialized)
+     */
+    CompletableFuture<Object> sendDataAsync(final Object data, final int timeout);
+
+    /**
+     * Send content of the stream to given target in chunks. Only single chunk
+     * is held in memory, so the stream can be longer than available heap.
+     * Target receives the data using
+     * {@link cz.tul.javaccl.socket.StreamListener}.
+     *
+     * @param data data for sending, the stream is read until its end (but it
+     * is not closed)
+     * @return response of the stream listener
+     * @throws IOException error reading the stream
+     * @throws ConnectionException Target could not be contacted.
+     */
+    Object sendStream(final InputStream data) throws IOException, ConnectionException;
+
+    /**
+     * Send content of the stream to given target in chunks.
+     *
+     * @param data data for sending, the stream is read until its end (but it
+     * is not closed)
+     * @param timeout time, after which sending of single chunk is considered
+     * unsuccessfull
+     * @return response of the stream listener
+     * @throws IOException error reading the stream
+     * @throws ConnectionException Target could not be contacted.
+     */
+    Object sendStream(final InputStream data, final int timeout) throws IOException, ConnectionException;
 }
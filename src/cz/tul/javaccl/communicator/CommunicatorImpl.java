@@ -5,30 +5,51 @@ import cz.tul.javaccl.GenericResponses;
 import cz.tul.javaccl.exceptions.ConnectionException;
 import cz.tul.javaccl.exceptions.ConnectionExceptionCause;
 import cz.tul.javaccl.history.HistoryManager;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
 import cz.tul.javaccl.persistence.Timeout;
+import cz.tul.javaccl.socket.LocalTransport;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.NotSerializableException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.net.ConnectException;
 import java.net.InetAddress;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Observable;
-import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Class for communicating with registered client. Data are being sent using
- * sockets, so data class nedds to implement Serializable and all of its
+ * sockets (pooled, see {@link ConnectionPool}), so data class nedds to implement Serializable and all of its
  * children nedd to be Serializable as well (recursively). Client needs to
- * validate received data via sending true back.
+ * validate received data via sending true back. If pipelining is enabled (see
+ * {@link ConfigurationType#PIPELINING}), data for the target are sent over
+ * single shared connection without waiting for previous replies. Asynchronous
+ * sending to online target always uses the shared connection. Status of
+ * the target is kept up to date by heartbeats (see {@link HeartbeatMonitor}),
+ * every successfull exchange counts as a heartbeat. Targets running in the same
+ * JVM are contacted directly using {@link LocalTransport} (see
+ * {@link ConfigurationType#LOCAL_TRANSPORT}).
  *
  * @see Serializable
  * @author Petr Ječmen
@@ -47,20 +68,37 @@ public class CommunicatorImpl extends Observable implements CommunicatorInner {
      * @return created and initializaed instance of CommunicatorImpl
      */
     public static CommunicatorInner initNewCommunicator(final InetAddress targetAddress, final int targetPort, final UUID sourceId) {
-        return new CommunicatorImpl(targetAddress, targetPort, sourceId);
+        final CommunicatorImpl result = new CommunicatorImpl(targetAddress, targetPort, sourceId);
+        HeartbeatMonitor.getInstance().register(result);
+        return result;
     }
     private static final int MSG_PULL_TIME_LIMIT = 2000;
     private static final int STATUS_CHECK_TIMEOUT = 250;
     private static final int STATUS_CHECK_INTERVAL = 500;
+    private static final int BUSY_RETRY_DELAY = 50;
+    private static final int BUSY_RETRY_COUNT = 5;
+    private static final int HEDGE_PERCENTILE = 95;
     private final InetAddress address;
     private final int port;
-    private final Queue<DataPacket> unsentData;
+    private final BlockingQueue<DataPacket> unsentData;
     private final Map<DataPacket, Object> responses;
+    private final Lock responseLock;
+    private final Condition responseReady;
     private final UUID sourceId;
+    private final ConnectionPool pool;
+    private final boolean pipelining;
+    private final boolean localTarget;
+    private final AtomicBoolean heartbeatPending;
+    private final AtomicInteger missedHeartbeats;
+    private final RttEstimator rtt;
+    private final RttEstimator statusRtt;
+    private final RetryBudget retryBudget;
+    private volatile RetryPolicy retryPolicy;
     private UUID targetId;
     private Calendar lastStatusUpdateTime;
-    private Calendar lastMsgPull;
-    private Status status;
+    private volatile Calendar lastMsgPull;
+    private volatile Status status;
+    private volatile long lastContact;
     private HistoryManager hm;
 
     private CommunicatorImpl(final InetAddress address, final int port, final UUID sourceId) throws IllegalArgumentException {
@@ -73,9 +111,20 @@ public class CommunicatorImpl extends Observable implements CommunicatorInner {
         this.address = address;
         this.port = port;
         this.sourceId = sourceId;
+        pool = ConnectionPool.getInstance();
+        pipelining = Configuration.getBoolean(ConfigurationType.PIPELINING);
+        localTarget = LocalTransport.isLocalAddress(address);
 
-        unsentData = new LinkedList<DataPacket>();
+        unsentData = new LinkedBlockingQueue<DataPacket>();
         responses = new ConcurrentHashMap<DataPacket, Object>();
+        responseLock = new ReentrantLock();
+        responseReady = responseLock.newCondition();
+        heartbeatPending = new AtomicBoolean();
+        missedHeartbeats = new AtomicInteger();
+        rtt = new RttEstimator();
+        statusRtt = new RttEstimator();
+        retryBudget = new RetryBudget();
+        retryPolicy = RetryPolicy.fromConfiguration();
 
         status = Status.OFFLINE;
 
@@ -93,6 +142,11 @@ public class CommunicatorImpl extends Observable implements CommunicatorInner {
         this.hm = hm;
     }
 
+    @Override
+    public void close() {
+        HeartbeatMonitor.getInstance().unregister(this);
+    }
+
     @Override
     public InetAddress getAddress() {
         return address;
@@ -105,23 +159,127 @@ public class CommunicatorImpl extends Observable implements CommunicatorInner {
 
     @Override
     public Object sendData(final Object data, final int timeout) throws IllegalArgumentException, ConnectionException {
+        return sendData(data, timeout, null);
+    }
+
+    @Override
+    public Object sendData(final Object data, final int timeout, final UUID idempotencyKey) throws IllegalArgumentException, ConnectionException {
+        if (idempotencyKey == null) {
+            return sendOnce(data, timeout, null);
+        }
+
+        final RetryPolicy policy = retryPolicy;
+        retryBudget.deposit(policy.getBudgetRatio());
+        int attempt = 0;
+        while (true) {
+            try {
+                if (policy.isHedging()) {
+                    return sendHedged(data, timeout, idempotencyKey);
+                } else {
+                    return sendOnce(data, timeout, idempotencyKey);
+                }
+            } catch (ConnectionException ex) {
+                if (attempt >= policy.getMaxRetries() || !policy.isRetryable(ex.getExceptionCause()) || !retryBudget.withdraw()) {
+                    throw ex;
+                }
+                final int delay = policy.getDelay(attempt++);
+                LOG.log(Level.FINE, "Sending to {0} failed ({1}), repeating in {2} ms.", new Object[]{address.getHostAddress(), ex.getExceptionCause(), delay});
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Send data and if there is no reply after 95th percentile of round trip
+     * time, send them again without waiting for the first reply. Whichever
+     * reply comes first is used, target handles the data only once thanks to
+     * the idempotency key. Both attempts end before the timeout.
+     */
+    private Object sendHedged(final Object data, final int timeout, final UUID idempotencyKey) throws ConnectionException {
+        final long hedgeDelay = rtt.getPercentile(HEDGE_PERCENTILE);
+        if (hedgeDelay <= 0 || (timeout > 0 && hedgeDelay >= timeout)) {
+            return sendOnce(data, timeout, idempotencyKey);
+        }
+
+        final long end = System.currentTimeMillis() + timeout;
+        final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        final AtomicInteger pending = new AtomicInteger(1);
+        sendAttempt(data, timeout, idempotencyKey, result, pending);
+        try {
+            try {
+                return result.get(hedgeDelay, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                LOG.log(Level.FINE, "Reply from {0} is late, sending data again.", address.getHostAddress());
+                pending.incrementAndGet();
+                sendAttempt(data, timeout > 0 ? (int) Math.max(1, end - System.currentTimeMillis()) : 0, idempotencyKey, result, pending);
+            }
+            if (timeout <= 0) {
+                return result.get();
+            }
+            return result.get(Math.max(0, end - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            throw new ConnectionException(ConnectionExceptionCause.TIMEOUT);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof ConnectionException) {
+                throw (ConnectionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new ConnectionException(ConnectionExceptionCause.UNKNOWN, String.valueOf(cause));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(ConnectionExceptionCause.CONNECTION_ERROR, "Waiting for reply has been interrupted.");
+        }
+    }
+
+    /**
+     * Single attempt of hedged sending, result is failed only when all
+     * attempts fail.
+     */
+    private void sendAttempt(final Object data, final int timeout, final UUID idempotencyKey, final CompletableFuture<Object> result, final AtomicInteger pending) {
+        try {
+            AsyncExecutors.getHedgeExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.complete(sendOnce(data, timeout, idempotencyKey));
+                    } catch (ConnectionException ex) {
+                        if (pending.decrementAndGet() == 0) {
+                            result.completeExceptionally(ex);
+                        }
+                    } catch (RuntimeException ex) {
+                        if (pending.decrementAndGet() == 0) {
+                            result.completeExceptionally(ex);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(new ConnectionException(ConnectionExceptionCause.CONNECTION_ERROR, "Sending has been rejected."));
+            }
+        }
+    }
+
+    private Object sendOnce(final Object data, final int timeout, final UUID idempotencyKey) throws IllegalArgumentException, ConnectionException {
         boolean readAndReply = false;
         Object response = dummy;
         final Status stat = getStatus();
-        final DataPacket dp = new DataPacketImpl(sourceId, targetId, data);
+        final DataPacketImpl dp = new DataPacketImpl(sourceId, targetId, data);
+        dp.setIdempotencyKey(idempotencyKey);
 
         if ((stat.equals(Status.OFFLINE) && checkStatus().equals(Status.ONLINE))
                 || stat.equals(Status.ONLINE)) {
-            response = pushDataToOnlineClient(dp, timeout);
-            if (response == GenericResponses.ILLEGAL_TARGET_ID) {
-                throw new ConnectionException(ConnectionExceptionCause.WRONG_TARGET);
-            } else if (response == GenericResponses.UUID_NOT_ALLOWED) {
-                throw new ConnectionException(ConnectionExceptionCause.UUID_NOT_ALLOWED);
-            } else if (response == GenericResponses.CONNECTION_ERROR) {
-                throw new ConnectionException(ConnectionExceptionCause.CONNECTION_ERROR);
-            } else {
-                readAndReply = true;
-            }
+            response = pushDataWhileBusy(dp, timeout);
+            checkResponse(response);
+            readAndReply = true;
         } else if (stat.equals(Status.PASSIVE)) {
             if (!readAndReply && !unsentData.contains(dp)) {
                 unsentData.add(dp);
@@ -139,54 +297,374 @@ public class CommunicatorImpl extends Observable implements CommunicatorInner {
         return response;
     }
 
-    private Object pushDataToOnlineClient(final DataPacket dp, final int timeout) throws ConnectionException {
-        Object response = dummy;
-        Socket s = null;
+    private static void checkResponse(final Object response) throws ConnectionException {
+        if (response == GenericResponses.ILLEGAL_TARGET_ID) {
+            throw new ConnectionException(ConnectionExceptionCause.WRONG_TARGET);
+        } else if (response == GenericResponses.UUID_NOT_ALLOWED) {
+            throw new ConnectionException(ConnectionExceptionCause.UUID_NOT_ALLOWED);
+        } else if (response == GenericResponses.CONNECTION_ERROR) {
+            throw new ConnectionException(ConnectionExceptionCause.CONNECTION_ERROR);
+        } else if (response == GenericResponses.SERVER_BUSY) {
+            throw new ConnectionException(ConnectionExceptionCause.TARGET_BUSY);
+        }
+    }
+
+    /**
+     * Push data to the target. If the target is busy, sending is repeated
+     * after a delay, which doubles with every attempt, until the timeout
+     * elapses.
+     */
+    private Object pushDataWhileBusy(final DataPacket dp, final int timeout) throws ConnectionException {
+        final long endTime = System.currentTimeMillis() + timeout;
+        Object response = pushDataToOnlineClient(dp, timeout);
+        long delay = BUSY_RETRY_DELAY;
+        int remaining;
+        for (int i = 0; i < BUSY_RETRY_COUNT && response == GenericResponses.SERVER_BUSY; i++) {
+            remaining = (int) (endTime - System.currentTimeMillis() - delay);
+            if (timeout > 0 && remaining <= 0) {
+                break;
+            }
+            LOG.log(Level.FINE, "Target is busy, sending will be repeated in {0} ms.", delay);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionException(ConnectionExceptionCause.CONNECTION_ERROR, "Waiting for busy target has been interrupted.");
+            }
+            delay *= 2;
+            response = pushDataToOnlineClient(dp, timeout > 0 ? remaining : timeout);
+        }
+        return response;
+    }
+
+    @Override
+    public CompletableFuture<Object> sendDataAsync(final Object data) {
+        return sendDataAsync(data, Timeout.getTimeout(Timeout.TimeoutType.MESSAGE));
+    }
+
+    @Override
+    public CompletableFuture<Object> sendDataAsync(final Object data, final int timeout) {
+        final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        if (!isLocal() && getStatus().equals(Status.ONLINE)) {
+            // no thread is blocked while waiting for the reply
+            final MultiplexedConnection mc = pool.getOpenMultiplexed(address, port);
+            if (mc != null) {
+                sendPipelinedAsync(mc, data, timeout, result);
+            } else {
+                openMultiplexedAsync(data, timeout, result);
+            }
+            return result;
+        }
+        sendBlockingAsync(data, timeout, result);
+        return result;
+    }
+
+    @Override
+    public Object sendStream(final InputStream data) throws IOException, ConnectionException {
+        return sendStream(data, Timeout.getTimeout(Timeout.TimeoutType.MESSAGE));
+    }
+
+    @Override
+    public Object sendStream(final InputStream data, final int timeout) throws IOException, ConnectionException {
+        final UUID streamId = UUID.randomUUID();
+        final byte[] buffer = new byte[Configuration.getInt(ConfigurationType.STREAM_CHUNK_SIZE)];
+        int index = 0, length, read;
+        boolean last;
+        Object response;
+        do {
+            length = 0;
+            read = 0;
+            while (length < buffer.length && (read = data.read(buffer, length, buffer.length - length)) >= 0) {
+                length += read;
+            }
+            // exactly full last chunk is followed by empty one
+            last = read < 0;
+
+            response = sendData(new StreamChunk(streamId, index++, Arrays.copyOf(buffer, length), last), timeout);
+            if (!last && response != GenericResponses.OK) {
+                LOG.log(Level.FINE, "Stream sending has been stopped by the target - {0}", response);
+                break;
+            }
+        } while (!last);
+
+        return response;
+    }
+
+    private void sendBlockingAsync(final Object data, final int timeout, final CompletableFuture<Object> result) {
         try {
-            s = new Socket(address, port);
-            s.setSoTimeout(timeout);
+            AsyncExecutors.getSendExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        AsyncExecutors.complete(result, sendData(data, timeout));
+                    } catch (Exception ex) {
+                        AsyncExecutors.fail(result, ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            AsyncExecutors.fail(result, ex);
+        }
+    }
 
-            final ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
-            out.writeObject(dp);
-            out.flush();
+    /**
+     * Open shared connection to the target and send data over it, the thread
+     * is occupied only until the data are written.
+     */
+    private void openMultiplexedAsync(final Object data, final int timeout, final CompletableFuture<Object> result) {
+        try {
+            AsyncExecutors.getSendExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    final MultiplexedConnection mc;
+                    try {
+                        mc = pool.getMultiplexed(address, port);
+                    } catch (IOException ex) {
+                        LOG.log(Level.FINE, "Multiplexed connection to {0} could not be opened, sending data directly.", address.getHostAddress());
+                        try {
+                            AsyncExecutors.complete(result, sendData(data, timeout));
+                        } catch (Exception sex) {
+                            AsyncExecutors.fail(result, sex);
+                        }
+                        return;
+                    }
+                    sendPipelinedAsync(mc, data, timeout, result);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            AsyncExecutors.fail(result, ex);
+        }
+    }
+
+    /**
+     * Repeat sending rejected by busy target after a delay.
+     */
+    private void retryBusyAsync(final Object data, final int timeout, final CompletableFuture<Object> result) {
+        try {
+            AsyncExecutors.getSendExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(BUSY_RETRY_DELAY);
+                        final Object response = pushDataWhileBusy(new DataPacketImpl(sourceId, targetId, data), timeout);
+                        checkResponse(response);
+                        if (hm != null) {
+                            hm.logMessageSend(address, getTargetId(), data, true, response);
+                        }
+                        AsyncExecutors.complete(result, response);
+                    } catch (Exception ex) {
+                        AsyncExecutors.fail(result, ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            AsyncExecutors.fail(result, ex);
+        }
+    }
+
+    private void sendPipelinedAsync(final MultiplexedConnection mc, final Object data, final int timeout, final CompletableFuture<Object> result) {
+        final boolean used = mc.isUsed();
+        final long sent = System.currentTimeMillis();
+        mc.send(new DataPacketImpl(sourceId, targetId, data), timeout).whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object response, Throwable ex) {
+                if (ex == null && response == GenericResponses.SERVER_BUSY) {
+                    markAlive(sent);
+                    retryBusyAsync(data, timeout, result);
+                } else if (ex == null) {
+                    try {
+                        markAlive(sent);
+                        checkResponse(response);
+                        if (hm != null) {
+                            hm.logMessageSend(address, getTargetId(), data, true, response);
+                        }
+                        AsyncExecutors.complete(result, response);
+                    } catch (ConnectionException cex) {
+                        AsyncExecutors.fail(result, cex);
+                    }
+                } else if (used && isStale(ex)) {
+                    // shared connection has been closed meanwhile, blocking sending opens new one
+                    sendBlockingAsync(data, timeout, result);
+                } else {
+                    AsyncExecutors.fail(result, mapPipelinedFailure(ex));
+                }
+            }
+        });
+    }
 
-            ObjectInputStream in = null;
+    private Object pushDataToOnlineClient(final DataPacket dp, final int timeout) throws ConnectionException {
+        if (localTarget) {
             try {
-                in = new ObjectInputStream(s.getInputStream());
-                response = in.readObject();
-                LOG.log(Level.FINE, "Received reply from client - " + response);
+                final Object response = pushLocal(dp);
+                markAlive();
+                return response;
+            } catch (ConnectException ex) {
+                // target is not running in this JVM (any more)
+            }
+        }
+        if (pipelining && dp instanceof DataPacketImpl) {
+            return pushPipelined((DataPacketImpl) dp, timeout);
+        }
+
+        Object response = dummy;
+        Connection c;
+        boolean retry = true;
+        while (retry) {
+            retry = false;
+            c = null;
+            try {
+                c = pool.borrow(address, port);
+                c.setTimeout(timeout);
+                final long sent = System.currentTimeMillis();
+                c.writeObject(dp);
+
+                try {
+                    response = c.readObject();
+                    LOG.log(Level.FINE, "Received reply from client - " + response);
+                    pool.release(c);
+                    markAlive(sent);
+                } catch (IOException ex) {
+                    pool.invalidate(c);
+                    if (ex instanceof SocketTimeoutException) {
+                        rtt.timedOut();
+                    }
+                    if (isStale(c, ex)) {
+                        retry = true;
+                    } else {
+                        LOG.log(Level.WARNING, "Error receiving response from output socket.");
+                        LOG.log(Level.FINE, "Error receiving response from output socket.", ex);
+                    }
+                } catch (ClassNotFoundException ex) {
+                    pool.invalidate(c);
+                    LOG.log(Level.WARNING, "Unknown class object received.");
+                    LOG.log(Level.FINE, "Unknown class object received.", ex);
+                    response = GenericResponses.ILLEGAL_DATA;
+                }
+            } catch (SocketTimeoutException ex) {
+                pool.invalidate(c);
+                rtt.timedOut();
+                throw new ConnectionException(ConnectionExceptionCause.TIMEOUT);
+            } catch (NotSerializableException ex) {
+                pool.invalidate(c);
+                throw new IllegalArgumentException("Data for sending (and all of its members) must be serializable (eg. implement Serializable or Externalizable interface.)");
             } catch (IOException ex) {
-                LOG.log(Level.WARNING, "Error receiving response from output socket.");
-                LOG.log(Level.FINE, "Error receiving response from output socket.", ex);
-            } catch (ClassNotFoundException ex) {
-                LOG.log(Level.WARNING, "Unknown class object received.");
-                LOG.log(Level.FINE, "Unknown class object received.", ex);
-                response = GenericResponses.ILLEGAL_DATA;
-            } finally {
-                if (in != null) {
-                    in.close();
+                pool.invalidate(c);
+                if (isStale(c, ex)) {
+                    retry = true;
+                } else {
+                    LOG.log(Level.WARNING, "Cannot write to output socket.");
+                    LOG.log(Level.FINE, "Cannot write to output socket.", ex);
+                    pool.closeIdle(address, port);
+                    setStatus(Status.OFFLINE);
+                    throw new ConnectionException(ConnectionExceptionCause.TARGET_OFFLINE);
                 }
             }
-        } catch (SocketTimeoutException ex) {
-            throw new ConnectionException(ConnectionExceptionCause.TIMEOUT);
+        }
+        return response;
+    }
+
+    /**
+     * Hand data to the target running in this JVM.
+     *
+     * @param data data for sending
+     * @return reply of the target
+     * @throws ConnectException target is not running in this JVM
+     */
+    private Object pushLocal(final Object data) throws ConnectException {
+        try {
+            return LocalTransport.send(port, data);
+        } catch (ConnectException ex) {
+            throw ex;
         } catch (NotSerializableException ex) {
             throw new IllegalArgumentException("Data for sending (and all of its members) must be serializable (eg. implement Serializable or Externalizable interface.)");
         } catch (IOException ex) {
-            LOG.log(Level.WARNING, "Cannot write to output socket.");
-            LOG.log(Level.FINE, "Cannot write to output socket.", ex);
-            setStatus(Status.OFFLINE);
-            throw new ConnectionException(ConnectionExceptionCause.TARGET_OFFLINE);
-        } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (IOException ex) {
-                    LOG.warning("Error closing socket.");
-                    LOG.log(Level.FINE, "Error closing socket.", ex);
+            LOG.log(Level.WARNING, "Data for local target could not be copied.");
+            LOG.log(Level.FINE, "Data for local target could not be copied.", ex);
+            return GenericResponses.ILLEGAL_DATA;
+        } catch (ClassNotFoundException ex) {
+            LOG.log(Level.WARNING, "Unknown class object received.");
+            LOG.log(Level.FINE, "Unknown class object received.", ex);
+            return GenericResponses.ILLEGAL_DATA;
+        }
+    }
+
+    /**
+     * @return true if the target is running in this JVM
+     */
+    private boolean isLocal() {
+        return localTarget && LocalTransport.isAvailable(port);
+    }
+
+    private Object pushPipelined(final DataPacketImpl dp, final int timeout) throws ConnectionException {
+        MultiplexedConnection mc;
+        boolean used;
+        while (true) {
+            try {
+                mc = pool.getMultiplexed(address, port);
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Cannot open connection to target.");
+                LOG.log(Level.FINE, "Cannot open connection to target.", ex);
+                pool.closeIdle(address, port);
+                setStatus(Status.OFFLINE);
+                throw new ConnectionException(ConnectionExceptionCause.TARGET_OFFLINE);
+            }
+
+            used = mc.isUsed();
+            final long sent = System.currentTimeMillis();
+            try {
+                final Object response = mc.send(dp, timeout).get();
+                LOG.log(Level.FINE, "Received reply from client - " + response);
+                markAlive(sent);
+                return response;
+            } catch (ExecutionException ex) {
+                if (!used || !isStale(ex.getCause())) {
+                    final Throwable cause = mapPipelinedFailure(ex.getCause());
+                    if (cause instanceof IllegalArgumentException) {
+                        throw (IllegalArgumentException) cause;
+                    } else {
+                        throw (ConnectionException) cause;
+                    }
                 }
+                // shared connection has been closed meanwhile, repeat using new one
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionException(ConnectionExceptionCause.CONNECTION_ERROR, "Waiting for reply has been interrupted.");
             }
         }
-        return response;
+    }
+
+    private static boolean isStale(final Throwable ex) {
+        return ex instanceof IOException
+                && !(ex instanceof SocketTimeoutException)
+                && !(ex instanceof NotSerializableException);
+    }
+
+    private Exception mapPipelinedFailure(final Throwable ex) {
+        final Exception result;
+        if (ex instanceof SocketTimeoutException) {
+            rtt.timedOut();
+            result = new ConnectionException(ConnectionExceptionCause.TIMEOUT);
+        } else if (ex instanceof NotSerializableException) {
+            result = new IllegalArgumentException("Data for sending (and all of its members) must be serializable (eg. implement Serializable or Externalizable interface.)");
+        } else {
+            LOG.log(Level.WARNING, "Pipelined exchange failed.");
+            LOG.log(Level.FINE, "Pipelined exchange failed.", ex);
+            pool.closeIdle(address, port);
+            setStatus(Status.OFFLINE);
+            result = new ConnectionException(ConnectionExceptionCause.TARGET_OFFLINE);
+        }
+        return result;
+    }
+
+    /**
+     * Connection taken from the pool could have been closed by the other side
+     * while being idle, in that case the exchange can be safely repeated
+     * using another connection.
+     */
+    private static boolean isStale(final Connection c, final IOException ex) {
+        return c != null && c.isReused()
+                && !(ex instanceof SocketTimeoutException)
+                && !(ex instanceof NotSerializableException);
     }
 
     private Object waitForResponse(final DataPacket question, final int timeout) throws ConnectionException {
@@ -199,14 +677,17 @@ public class CommunicatorImpl extends Observable implements CommunicatorInner {
 
         while (System.currentTimeMillis() < endTime) {
             if (!responses.containsKey(question)) {
-                if (checkStatus().equals(Status.ONLINE)) {
+                // data are sent directly only if they have not been pulled meanwhile
+                if (getStatus().equals(Status.ONLINE) && unsentData.remove(question)) {
                     try {
                         Object response = pushDataToOnlineClient(question, timeout);
                         if (response != dummy) {
-                            unsentData.remove(question);
                             responses.put(question, response);
+                        } else {
+                            unsentData.add(question);
                         }
                     } catch (ConnectionException ex) {
+                        unsentData.add(question);
                         LOG.log(Level.WARNING, "Online client connection failed - {0}", ex.getExceptionCause());
                     }
 
@@ -215,85 +696,218 @@ public class CommunicatorImpl extends Observable implements CommunicatorInner {
                 break;
             }
 
-            synchronized (responses) {
-                try {
-                    responses.wait(STATUS_CHECK_INTERVAL);
-                } catch (InterruptedException ex) {
+            responseLock.lock();
+            try {
+                if (!responses.containsKey(question)) {
+                    responseReady.await(STATUS_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
                 }
+            } catch (InterruptedException ex) {
+                // data are not sent when the client pulls them later
+                unsentData.remove(question);
+                Thread.currentThread().interrupt();
+                throw new ConnectionException(ConnectionExceptionCause.CONNECTION_ERROR, "Waiting for reply has been interrupted.");
+            } finally {
+                responseLock.unlock();
             }
         }
 
-        if (unsentData.contains(question)) {
-            unsentData.remove(question);
-        }
+        unsentData.remove(question);
 
-        if (responses.containsKey(question)) {
-            return responses.get(question);
+        final Object response = responses.remove(question);
+        if (response != null) {
+            return response;
         } else {
             throw new ConnectionException(ConnectionExceptionCause.TIMEOUT);
         }
     }
 
+    /**
+     * Send heartbeat to the target unless there has been another exchange
+     * during the last interval. Sending does not block the caller, status is
+     * updated when the reply arrives (or the heartbeat times out).
+     *
+     * @param interval heartbeat interval (in ms), also used as timeout
+     */
+    void heartbeat(final int interval) {
+        if (System.currentTimeMillis() - lastContact < interval || !heartbeatPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (localTarget) {
+            try {
+                final Object response = pushLocal(new DataPacketImpl(sourceId, targetId, new StatusMessage(sourceId)));
+                heartbeatFinished(GenericResponses.OK.equals(response) || GenericResponses.SERVER_BUSY.equals(response));
+                return;
+            } catch (ConnectException ex) {
+                // target is not running in this JVM (any more)
+            }
+        }
+
+        final MultiplexedConnection mc = pool.getOpenMultiplexed(address, port);
+        if (mc != null) {
+            sendHeartbeat(mc, interval);
+        } else {
+            try {
+                AsyncExecutors.getSendExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            sendHeartbeat(pool.getMultiplexed(address, port), interval);
+                        } catch (IOException ex) {
+                            LOG.log(Level.FINE, "Heartbeat connection to {0} could not be opened.", address.getHostAddress());
+                            heartbeatFinished(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                heartbeatPending.set(false);
+            }
+        }
+    }
+
+    private void sendHeartbeat(final MultiplexedConnection mc, final int timeout) {
+        final long sent = System.currentTimeMillis();
+        mc.send(new DataPacketImpl(sourceId, targetId, new StatusMessage(sourceId)), timeout).whenCompleteAsync(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object response, Throwable ex) {
+                // busy target is still alive
+                final boolean alive = ex == null && (GenericResponses.OK.equals(response) || GenericResponses.SERVER_BUSY.equals(response));
+                if (alive) {
+                    statusRtt.addSample(System.currentTimeMillis() - sent);
+                } else if (ex instanceof SocketTimeoutException) {
+                    statusRtt.timedOut();
+                }
+                heartbeatFinished(alive);
+            }
+        }, AsyncExecutors.getCompletionExecutor());
+    }
+
+    /**
+     * Single missed heartbeat may be caused by a delay on either side, the
+     * status is changed only after several consecutive misses.
+     */
+    private void heartbeatFinished(final boolean alive) {
+        heartbeatPending.set(false);
+        if (alive) {
+            markAlive();
+        } else if (missedHeartbeats.incrementAndGet() >= HeartbeatMonitor.getMissLimit()
+                && System.currentTimeMillis() - lastContact >= HeartbeatMonitor.getInterval()) {
+            pool.closeIdle(address, port);
+            final Status stat = isPulling() ? Status.PASSIVE : Status.OFFLINE;
+            if (status != stat) {
+                setStatus(stat);
+            }
+        }
+    }
+
+    /**
+     * Record successfull exchange with the target and its round trip time.
+     *
+     * @param sent time, when the exchange has started
+     */
+    private void markAlive(final long sent) {
+        rtt.addSample(System.currentTimeMillis() - sent);
+        markAlive();
+    }
+
+    /**
+     * Record successfull exchange with the target.
+     */
+    private void markAlive() {
+        lastContact = System.currentTimeMillis();
+        missedHeartbeats.set(0);
+        if (status != Status.ONLINE) {
+            setStatus(Status.ONLINE);
+        }
+    }
+
+    private boolean isPulling() {
+        final Calendar pull = lastMsgPull;
+        return pull != null && Calendar.getInstance().getTimeInMillis() - pull.getTimeInMillis() < MSG_PULL_TIME_LIMIT;
+    }
+
     @Override
     public Status checkStatus() {
+        if (System.currentTimeMillis() - lastContact < HeartbeatMonitor.getInterval()) {
+            // target has been contacted recently, no need for another probe
+            return status;
+        }
+
         boolean result = false;
         final Object message = new StatusMessage(sourceId);
         Status stat = Status.OFFLINE;
 
-        Socket s = null;
-        try {
-            s = new Socket(address, port);
-            s.setSoTimeout(STATUS_CHECK_TIMEOUT);
-
-            final ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
-            out.writeObject(message);
-            out.flush();
-
-            ObjectInputStream in = null;
+        boolean retry = true;
+        if (localTarget) {
             try {
-                in = new ObjectInputStream(s.getInputStream());
-                final Object response = in.readObject();
+                final Object response = pushLocal(message);
                 if (GenericResponses.OK.equals(response)) {
                     stat = Status.ONLINE;
-                } else {
-                    LOG.log(Level.WARNING, "Illegal response received for statuc check. Local ID {2}", new Object[]{response, targetId, sourceId});
+                    lastContact = System.currentTimeMillis();
                 }
                 result = true;
-            } catch (IOException ex) {
-                LOG.log(Level.FINE, "Client on IP {0} did not open stream for answer.", address.getHostAddress());
-            } catch (ClassNotFoundException ex) {
-                LOG.log(Level.WARNING, "Illegal class received from client for KEEP_ALIVE");
-                LOG.log(Level.FINE, "Illegal class received from client for KEEP_ALIVE", ex);
-            } finally {
-                if (in != null) {
-                    in.close();
-                }
+                retry = false;
+            } catch (ConnectException ex) {
+                // target is not running in this JVM (any more)
             }
-        } catch (SocketTimeoutException ex) {
-            LOG.log(Level.FINE, "Client on IP {0} is not responding to request.", address.getHostAddress());
-        } catch (IOException ex) {
-            LOG.log(Level.FINE, "Status check IO error.", ex);
-        } finally {
-            if (s != null && !s.isClosed()) {
+        }
+
+        Connection c;
+        while (retry) {
+            retry = false;
+            c = null;
+            try {
+                c = pool.borrow(address, port);
+                c.setTimeout(getStatusTimeout());
+                final long sent = System.currentTimeMillis();
+                c.writeObject(message);
+
                 try {
-                    s.close();
+                    final Object response = c.readObject();
+                    if (GenericResponses.OK.equals(response)) {
+                        stat = Status.ONLINE;
+                        lastContact = System.currentTimeMillis();
+                        statusRtt.addSample(lastContact - sent);
+                    } else {
+                        LOG.log(Level.WARNING, "Illegal response received for statuc check. Local ID {2}", new Object[]{response, targetId, sourceId});
+                    }
+                    result = true;
+                    pool.release(c);
                 } catch (IOException ex) {
-                    LOG.warning("Error closing socket.");
-                    LOG.log(Level.FINE, "Error closing socket.", ex);
+                    pool.invalidate(c);
+                    if (isStale(c, ex)) {
+                        retry = true;
+                    } else {
+                        LOG.log(Level.FINE, "Client on IP {0} did not open stream for answer.", address.getHostAddress());
+                    }
+                } catch (ClassNotFoundException ex) {
+                    pool.invalidate(c);
+                    LOG.log(Level.WARNING, "Illegal class received from client for KEEP_ALIVE");
+                    LOG.log(Level.FINE, "Illegal class received from client for KEEP_ALIVE", ex);
+                }
+            } catch (SocketTimeoutException ex) {
+                pool.invalidate(c);
+                LOG.log(Level.FINE, "Client on IP {0} is not responding to request.", address.getHostAddress());
+            } catch (IOException ex) {
+                pool.invalidate(c);
+                if (isStale(c, ex)) {
+                    retry = true;
+                } else {
+                    LOG.log(Level.FINE, "Status check IO error.", ex);
                 }
             }
         }
 
+        if (stat.equals(Status.OFFLINE)) {
+            pool.closeIdle(address, port);
+        }
+
         if (hm != null) {
             hm.logMessageSend(address, getTargetId(), message, result, stat);
         }
 
-        if (stat.equals(Status.OFFLINE) && lastMsgPull != null) {
-            final Calendar currentTime = Calendar.getInstance();
-            final long dif = currentTime.getTimeInMillis() - lastMsgPull.getTimeInMillis();
-            if (dif < MSG_PULL_TIME_LIMIT) {
-                stat = Status.PASSIVE;
-            }
+        if (stat.equals(Status.OFFLINE) && isPulling()) {
+            stat = Status.PASSIVE;
         }
 
         setStatus(stat);
@@ -331,6 +945,40 @@ public class CommunicatorImpl extends Observable implements CommunicatorInner {
         return port;
     }
 
+    @Override
+    public void setUnixSocketUsed(final boolean used) {
+        pool.setUnixSocketUsed(address, port, used);
+    }
+
+    @Override
+    public RttEstimator getRttEstimator() {
+        return rtt;
+    }
+
+    @Override
+    public void setRetryPolicy(final RetryPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("NULL retry policy not allowed.");
+        }
+        retryPolicy = policy;
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Status checks and heartbeats have their own estimator, their replies
+     * are not delayed by listeners like replies to data.
+     */
+    private int getStatusTimeout() {
+        if (statusRtt.getSampleCount() == 0) {
+            return STATUS_CHECK_TIMEOUT;
+        }
+        return statusRtt.getTimeout(STATUS_CHECK_TIMEOUT, Timeout.getTimeout(Timeout.TimeoutType.STATUS_CHECK));
+    }
+
     @Override
     public UUID getTargetId() {
         return targetId;
@@ -344,16 +992,19 @@ public class CommunicatorImpl extends Observable implements CommunicatorInner {
     }
 
     @Override
-    public Queue<DataPacket> getUnsentData() {
+    public BlockingQueue<DataPacket> getUnsentData() {
         lastMsgPull = Calendar.getInstance();
         return unsentData;
     }
 
     @Override
     public void storeResponse(final DataPacket question, final Object response) {
-        synchronized (responses) {
+        responseLock.lock();
+        try {
             responses.put(question, response);
-            responses.notifyAll();
+            responseReady.signalAll();
+        } finally {
+            responseLock.unlock();
         }
     }
 
@@ -2,8 +2,8 @@ package cz.tul.javaccl.communicator;
 
 import cz.tul.javaccl.history.HistoryManager;
 import java.util.Observer;
-import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Extension to {@link Communicator} interface used only inside the library.
@@ -13,9 +13,9 @@ import java.util.UUID;
 public interface CommunicatorInner extends Communicator {
 
     /**
-     * @return queue with unsent data packets
+     * @return queue with data packets waiting for being pulled by the target
      */
-    Queue<DataPacket> getUnsentData();
+    BlockingQueue<DataPacket> getUnsentData();
 
     /**
      * Store response.
@@ -42,10 +42,23 @@ public interface CommunicatorInner extends Communicator {
      */
     void addObserver(final Observer o);
 
+    /**
+     * Remove observer.
+     *
+     * @param o removed observer
+     */
+    void deleteObserver(final Observer o);
+
     /**
      * Register new history manager.
      *
      * @param hm new history manager
      */
     void registerHistory(final HistoryManager hm);
+
+    /**
+     * Stop monitoring status of the target. Communicator should not be used
+     * after it has been closed.
+     */
+    void close();
 }
@@ -0,0 +1,84 @@
+package cz.tul.javaccl.communicator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of frame compression (see {@link FrameCompression}). Every
+ * connection has its own statistics, connections opened by
+ * {@link ConnectionPool} also contribute to statistics of their target.
+ *
+ * @author Petr Ječmen
+ */
+public class CompressionStats {
+
+    private final CompressionStats parent;
+    private final AtomicLong frames;
+    private final AtomicLong uncompressedBytes;
+    private final AtomicLong compressedBytes;
+
+    /**
+     * New empty statistics.
+     *
+     * @param parent statistics, which should be updated as well (can be null)
+     */
+    public CompressionStats(final CompressionStats parent) {
+        this.parent = parent;
+        frames = new AtomicLong();
+        uncompressedBytes = new AtomicLong();
+        compressedBytes = new AtomicLong();
+    }
+
+    /**
+     * Record one compressed (or decompressed) frame.
+     *
+     * @param uncompressed length of the original content
+     * @param compressed length of the compressed content
+     */
+    void record(final int uncompressed, final int compressed) {
+        frames.incrementAndGet();
+        uncompressedBytes.addAndGet(uncompressed);
+        compressedBytes.addAndGet(compressed);
+        if (parent != null) {
+            parent.record(uncompressed, compressed);
+        }
+    }
+
+    /**
+     * @return count of frames sent or received compressed
+     */
+    public long getCompressedFrames() {
+        return frames.get();
+    }
+
+    /**
+     * @return original length of compressed frames
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * @return length of compressed frames after compression
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * @return ratio of original length and compressed length (1 if nothing
+     * has been compressed)
+     */
+    public double getCompressionRatio() {
+        final long compressed = compressedBytes.get();
+        if (compressed > 0) {
+            return uncompressedBytes.get() / (double) compressed;
+        } else {
+            return 1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "frames " + getCompressedFrames() + ", " + getUncompressedBytes() + " B -> " + getCompressedBytes() + " B, ratio " + String.format("%.2f", getCompressionRatio());
+    }
+}
@@ -0,0 +1,325 @@
+package cz.tul.javaccl.communicator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-lived connection to another JavaCCL instance. Wraps a socket together
+ * with its streams, so multiple request / response exchanges can be carried
+ * over one TCP connection. Every object is sent as a separate frame (see
+ * {@link WireFormat}), large frames can be compressed (see
+ * {@link FrameCompression}). {@link BulkData} are streamed between the socket
+ * and files directly. Connections over Unix domain sockets (see
+ * {@link UnixSockets}) wrap the channel only.
+ *
+ * @author Petr Ječmen
+ */
+public class Connection {
+
+    private static final Logger LOG = Logger.getLogger(Connection.class.getName());
+    private static final int PROBE_TIMEOUT = 1;
+    private final Socket socket;
+    private final ChannelStreams channelStreams;
+    private final InetAddress address;
+    private final int port;
+    private final Lock writeLock;
+    private final FrameCompression compression;
+    private final BulkReceiver bulkReceiver;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private volatile long lastUsed;
+    private boolean reused;
+
+    /**
+     * Wrap an already connected socket.
+     *
+     * @param socket connected socket
+     */
+    public Connection(final Socket socket) {
+        this(socket, null);
+    }
+
+    /**
+     * Wrap an already connected socket.
+     *
+     * @param socket connected socket
+     * @param stats compression statistics, which should be updated together
+     * with statistics of this connection (can be null)
+     */
+    public Connection(final Socket socket, final CompressionStats stats) {
+        if (socket == null) {
+            throw new IllegalArgumentException("Socket cannot be null");
+        }
+        this.socket = socket;
+        channelStreams = null;
+        address = socket.getInetAddress();
+        port = socket.getPort();
+        writeLock = new ReentrantLock();
+        compression = new FrameCompression(stats);
+        bulkReceiver = new BulkReceiver();
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Wrap an already connected channel without socket (eg. Unix domain
+     * socket).
+     *
+     * @param channel connected channel
+     * @param address IP of the target (used for identification only)
+     * @param port port of the target (used for identification only)
+     * @param stats compression statistics, which should be updated together
+     * with statistics of this connection (can be null)
+     * @throws IOException error configuring the channel
+     */
+    public Connection(final SocketChannel channel, final InetAddress address, final int port, final CompressionStats stats) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel cannot be null");
+        }
+        socket = null;
+        channelStreams = new ChannelStreams(channel);
+        this.address = address;
+        this.port = port;
+        writeLock = new ReentrantLock();
+        compression = new FrameCompression(stats);
+        bulkReceiver = new BulkReceiver();
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Write object to the connection and flush it. Data are serialized before
+     * anything is written, so unserializable data do not corrupt the
+     * connection.
+     *
+     * @param data data for sending
+     * @throws IOException error writing data
+     */
+    public void writeObject(final Object data) throws IOException {
+        final List<BulkData> attachments = new ArrayList<BulkData>();
+        final byte[] content = WireFormat.encode(data, attachments);
+        writeFrame(content, attachments);
+    }
+
+    /**
+     * Write already encoded object to the connection and flush it. Frames
+     * written concurrently from multiple threads are never interleaved.
+     *
+     * @param content encoded object (see {@link WireFormat#encode(Object)})
+     * @throws IOException error writing data
+     */
+    public void writeFrame(final byte[] content) throws IOException {
+        writeFrame(content, Collections.<BulkData>emptyList());
+    }
+
+    /**
+     * Write already encoded object together with its bulk data and flush
+     * them. File data are transferred to the socket channel without copying
+     * them into heap.
+     *
+     * @param content encoded object (see
+     * {@link WireFormat#encode(Object, List)})
+     * @param attachments bulk data referenced by the object
+     * @throws IOException error writing data
+     */
+    public void writeFrame(final byte[] content, final List<BulkData> attachments) throws IOException {
+        writeLock.lock();
+        try {
+            if (out == null) {
+                out = new DataOutputStream(new BufferedOutputStream(socket != null ? socket.getOutputStream() : channelStreams.getOutputStream()));
+            }
+            for (BulkData bd : attachments) {
+                // non-blocking channel is written through the stream
+                WireFormat.writeBulkData(out, socket != null ? socket.getChannel() : null, bd);
+            }
+            WireFormat.writeFrame(out, content, compression);
+            lastUsed = System.currentTimeMillis();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Read next object from the connection. Received bulk data are stored in
+     * temporary files.
+     *
+     * @return received object
+     * @throws IOException error reading data
+     * @throws ClassNotFoundException unknown class received
+     */
+    public Object readObject() throws IOException, ClassNotFoundException {
+        if (in == null) {
+            in = new DataInputStream(new BufferedInputStream(socket != null ? socket.getInputStream() : channelStreams.getInputStream()));
+        }
+        final byte[] content = WireFormat.readFrame(in, compression, bulkReceiver);
+        final List<BulkData> attachments = bulkReceiver.take();
+        boolean decoded = false;
+        try {
+            final Object result = WireFormat.decode(content, 0, content.length, attachments);
+            decoded = true;
+            lastUsed = System.currentTimeMillis();
+            return result;
+        } finally {
+            if (!decoded) {
+                for (BulkData bd : attachments) {
+                    bd.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param timeout read timeout in miliseconds (0 for infinite)
+     * @throws IOException error setting the timeout
+     */
+    public void setTimeout(final int timeout) throws IOException {
+        if (socket != null) {
+            socket.setSoTimeout(timeout);
+        } else {
+            channelStreams.setTimeout(timeout);
+        }
+    }
+
+    /**
+     * Check if the connection can carry another exchange. Idle connection
+     * must not have any pending data, so short read either times out (healthy
+     * connection) or reveals that the other side has closed the connection.
+     *
+     * @param probe true to actively probe the socket
+     * @return true if the connection is usable
+     */
+    public boolean isUsable(final boolean probe) {
+        if (socket == null) {
+            return isChannelUsable(probe);
+        }
+        if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+
+        boolean result = true;
+        if (probe) {
+            try {
+                final int origTimeout = socket.getSoTimeout();
+                socket.setSoTimeout(PROBE_TIMEOUT);
+                try {
+                    final InputStream is = socket.getInputStream();
+                    // any data or EOF on idle connection means it is broken
+                    is.read();
+                    result = false;
+                } catch (SocketTimeoutException ex) {
+                    // expected, connection is alive
+                } finally {
+                    socket.setSoTimeout(origTimeout);
+                }
+            } catch (IOException ex) {
+                LOG.log(Level.FINE, "Connection health check failed.", ex);
+                result = false;
+            }
+        }
+        return result;
+    }
+
+    private boolean isChannelUsable(final boolean probe) {
+        if (!channelStreams.isOpen()) {
+            return false;
+        }
+        boolean result = true;
+        if (probe) {
+            try {
+                // any data or EOF on idle connection means it is broken
+                result = channelStreams.isIdle();
+            } catch (IOException ex) {
+                LOG.log(Level.FINE, "Connection health check failed.", ex);
+                result = false;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Close the connection (and its socket).
+     */
+    public void close() {
+        if (compression.getStats().getCompressedFrames() > 0) {
+            LOG.log(Level.FINE, "Compression on connection to {0} - {1}", new Object[]{address.getHostAddress(), compression.getStats()});
+        }
+        try {
+            if (socket == null) {
+                channelStreams.close();
+            } else if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Error closing socket.");
+            LOG.log(Level.FINE, "Error closing socket.", ex);
+        }
+        bulkReceiver.discard();
+    }
+
+    /**
+     * @return time of last successfull read or write
+     */
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * @return true if the connection has been taken from the pool (eg. it was
+     * used before)
+     */
+    public boolean isReused() {
+        return reused;
+    }
+
+    void setReused(final boolean reused) {
+        this.reused = reused;
+    }
+
+    /**
+     * @return compression statistics of this connection
+     */
+    public CompressionStats getCompressionStats() {
+        return compression.getStats();
+    }
+
+    /**
+     * @return IP of the other side
+     */
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return port of the other side
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return true if the connection uses Unix domain socket
+     */
+    public boolean isUnixSocket() {
+        return socket == null;
+    }
+
+    /**
+     * @return underlying socket, null for Unix domain socket
+     */
+    public Socket getSocket() {
+        return socket;
+    }
+}
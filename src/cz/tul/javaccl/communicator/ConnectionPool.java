@@ -0,0 +1,363 @@
+package cz.tul.javaccl.communicator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of persistent connections to other JavaCCL instances. Connections are
+ * kept per target (IP and port), idle connections are reused (most recently
+ * used first) and closed after they have not been used for some time. For
+ * pipelined requests the pool keeps a single {@link MultiplexedConnection} per
+ * target. Connections to targets on this machine are opened over Unix domain
+ * sockets if possible (see {@link UnixSockets}).
+ *
+ * @author Petr Ječmen
+ */
+public final class ConnectionPool {
+
+    private static final Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
+    private static final ConnectionPool INSTANCE = new ConnectionPool();
+    /**
+     * Maximal time (in ms), for which the connection can stay idle in the
+     * pool. Must be lower than keep alive time of the listening side.
+     */
+    public static final int MAX_IDLE_TIME = 30000;
+    /**
+     * Time (in ms) of keeping the accepted connection open while waiting for
+     * next request.
+     */
+    public static final int KEEP_ALIVE_TIME = 2 * MAX_IDLE_TIME;
+    private static final int MAX_IDLE_PER_TARGET = 8;
+    private static final int PROBE_IDLE_TIME = 1000;
+    private static final int REAP_INTERVAL = 5000;
+    private final Map<InetSocketAddress, Deque<Connection>> idle;
+    private final Map<InetSocketAddress, MultiplexedConnection> multiplexed;
+    private final Lock multiplexedLock;
+    private final Map<InetSocketAddress, CompressionStats> compressionStats;
+    private final Map<InetSocketAddress, Boolean> unixSocketUsage;
+    private final ScheduledExecutorService reaper;
+
+    /**
+     * @return shared instance of the pool
+     */
+    public static ConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    private ConnectionPool() {
+        idle = new ConcurrentHashMap<InetSocketAddress, Deque<Connection>>();
+        multiplexed = new ConcurrentHashMap<InetSocketAddress, MultiplexedConnection>();
+        multiplexedLock = new ReentrantLock();
+        compressionStats = new ConcurrentHashMap<InetSocketAddress, CompressionStats>();
+        unixSocketUsage = new ConcurrentHashMap<InetSocketAddress, Boolean>();
+        reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "ConnectionPool-reaper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reapIdleConnections();
+            }
+        }, REAP_INTERVAL, REAP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Obtain connection to given target. Idle connection is reused if
+     * possible, otherwise new connection is opened.
+     *
+     * @param address target IP
+     * @param port target port
+     * @return connection to target
+     * @throws IOException target could not be contacted
+     */
+    public Connection borrow(final InetAddress address, final int port) throws IOException {
+        final Deque<Connection> q = idle.get(new InetSocketAddress(address, port));
+        if (q != null) {
+            Connection c;
+            long idleTime;
+            while (true) {
+                synchronized (q) {
+                    c = q.pollFirst();
+                }
+                if (c == null) {
+                    break;
+                }
+
+                idleTime = System.currentTimeMillis() - c.getLastUsed();
+                if (idleTime < MAX_IDLE_TIME && c.isUsable(idleTime > PROBE_IDLE_TIME)) {
+                    c.setReused(true);
+                    return c;
+                } else {
+                    c.close();
+                }
+            }
+        }
+
+        final Connection result = openConnection(address, port);
+        LOG.log(Level.FINE, "New connection opened to {0}:{1}", new Object[]{address.getHostAddress(), port});
+        return result;
+    }
+
+    /**
+     * Obtain connection for pipelined requests to given target. The
+     * connection is shared by all senders, new one is opened if there is no
+     * open connection to the target.
+     *
+     * @param address target IP
+     * @param port target port
+     * @return connection for pipelined requests
+     * @throws IOException target could not be contacted
+     */
+    MultiplexedConnection getMultiplexed(final InetAddress address, final int port) throws IOException {
+        final InetSocketAddress key = new InetSocketAddress(address, port);
+        MultiplexedConnection result = multiplexed.get(key);
+        if (result == null || !result.isOpen()) {
+            // connection is opened while holding the lock, virtual threads must not be pinned
+            multiplexedLock.lock();
+            try {
+                result = multiplexed.get(key);
+                if (result == null || !result.isOpen()) {
+                    result = new MultiplexedConnection(openConnection(address, port));
+                    result.start();
+                    multiplexed.put(key, result);
+                    LOG.log(Level.FINE, "New multiplexed connection opened to {0}:{1}", new Object[]{address.getHostAddress(), port});
+                }
+            } finally {
+                multiplexedLock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param address target IP
+     * @param port target port
+     * @return open connection for pipelined requests to given target, null if
+     * there is none
+     */
+    MultiplexedConnection getOpenMultiplexed(final InetAddress address, final int port) {
+        final MultiplexedConnection result = multiplexed.get(new InetSocketAddress(address, port));
+        if (result != null && result.isOpen()) {
+            return result;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Return connection to the pool after successfull exchange.
+     *
+     * @param connection connection for returning
+     */
+    public void release(final Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        if (!connection.isUsable(false)) {
+            connection.close();
+            return;
+        }
+
+        final InetSocketAddress key = new InetSocketAddress(connection.getAddress(), connection.getPort());
+        Deque<Connection> q = idle.get(key);
+        if (q == null) {
+            synchronized (idle) {
+                q = idle.get(key);
+                if (q == null) {
+                    q = new LinkedList<Connection>();
+                    idle.put(key, q);
+                }
+            }
+        }
+
+        boolean stored = false;
+        synchronized (q) {
+            if (q.size() < MAX_IDLE_PER_TARGET) {
+                q.addFirst(connection);
+                stored = true;
+            }
+        }
+        if (!stored) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Close connection after error, connection wont be used again.
+     *
+     * @param connection broken connection
+     */
+    public void invalidate(final Connection connection) {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Close all idle connections to given target (eg. after target has gone
+     * offline).
+     *
+     * @param address target IP
+     * @param port target port
+     */
+    public void closeIdle(final InetAddress address, final int port) {
+        final Deque<Connection> q = idle.get(new InetSocketAddress(address, port));
+        if (q != null) {
+            synchronized (q) {
+                for (Connection c : q) {
+                    c.close();
+                }
+                q.clear();
+            }
+        }
+        final MultiplexedConnection mc = multiplexed.remove(new InetSocketAddress(address, port));
+        if (mc != null) {
+            mc.close(null);
+        }
+    }
+
+    /**
+     * @param address target IP
+     * @param port target port
+     * @return count of idle connections to given target
+     */
+    public int countIdle(final InetAddress address, final int port) {
+        final Deque<Connection> q = idle.get(new InetSocketAddress(address, port));
+        if (q != null) {
+            synchronized (q) {
+                return q.size();
+            }
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * @param address target IP
+     * @param port target port
+     * @return compression statistics of all connections opened to given
+     * target
+     */
+    public CompressionStats getCompressionStats(final InetAddress address, final int port) {
+        final InetSocketAddress key = new InetSocketAddress(address, port);
+        CompressionStats result = compressionStats.get(key);
+        if (result == null) {
+            synchronized (compressionStats) {
+                result = compressionStats.get(key);
+                if (result == null) {
+                    result = new CompressionStats(null);
+                    compressionStats.put(key, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Allow or forbid usage of Unix domain socket for connections to given
+     * target. Idle connections to the target are closed, so new connections
+     * use the selected transport.
+     *
+     * @param address target IP
+     * @param port target port
+     * @param used true to use Unix domain socket if possible
+     */
+    public void setUnixSocketUsed(final InetAddress address, final int port, final boolean used) {
+        unixSocketUsage.put(new InetSocketAddress(address, port), used);
+        closeIdle(address, port);
+    }
+
+    /**
+     * @param address target IP
+     * @param port target port
+     * @return true if connections to given target should be opened using
+     * Unix domain socket
+     */
+    public boolean isUnixSocketUsed(final InetAddress address, final int port) {
+        return UnixSockets.isEnabled()
+                && !Boolean.FALSE.equals(unixSocketUsage.get(new InetSocketAddress(address, port)))
+                && UnixSockets.isLocalAddress(address);
+    }
+
+    /**
+     * Open connection to given target, Unix domain socket is preferred for
+     * local targets. TCP is used if the target does not listen on Unix domain
+     * socket.
+     */
+    private Connection openConnection(final InetAddress address, final int port) throws IOException {
+        if (isUnixSocketUsed(address, port)) {
+            try {
+                final SocketChannel channel = UnixSockets.connect(port);
+                if (channel != null) {
+                    return new Connection(channel, address, port, getCompressionStats(address, port));
+                }
+            } catch (IOException ex) {
+                LOG.log(Level.FINE, "Unix domain socket of target could not be used, using TCP.", ex);
+            }
+        }
+        return new Connection(openSocket(address, port), getCompressionStats(address, port));
+    }
+
+    /**
+     * Sockets are opened using channels, so bulk data can be transferred
+     * directly from files.
+     */
+    private static Socket openSocket(final InetAddress address, final int port) throws IOException {
+        return SocketChannel.open(new InetSocketAddress(address, port)).socket();
+    }
+
+    private void reapIdleConnections() {
+        final long now = System.currentTimeMillis();
+        Iterator<Connection> it;
+        Connection c;
+        int count = 0;
+        for (Deque<Connection> q : idle.values()) {
+            synchronized (q) {
+                it = q.iterator();
+                while (it.hasNext()) {
+                    c = it.next();
+                    if (now - c.getLastUsed() >= MAX_IDLE_TIME || !c.isUsable(false)) {
+                        c.close();
+                        it.remove();
+                        count++;
+                    }
+                }
+            }
+        }
+        MultiplexedConnection mc;
+        for (Map.Entry<InetSocketAddress, MultiplexedConnection> e : multiplexed.entrySet()) {
+            mc = e.getValue();
+            if (!mc.isOpen()) {
+                multiplexed.remove(e.getKey(), mc);
+            } else if (mc.isIdle(MAX_IDLE_TIME, now)) {
+                mc.close(null);
+                multiplexed.remove(e.getKey(), mc);
+                count++;
+            }
+        }
+        if (count > 0) {
+            LOG.log(Level.FINE, "{0} idle connections closed.", count);
+        }
+    }
+}
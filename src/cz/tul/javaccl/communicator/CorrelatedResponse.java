@@ -0,0 +1,40 @@
+package cz.tul.javaccl.communicator;
+
+import java.io.Serializable;
+
+/**
+ * Reply to pipelined {@link DataPacketImpl}. Replies to pipelined requests can
+ * arrive in any order, correlation ID pairs the reply with its request.
+ *
+ * @author Petr Ječmen
+ */
+public class CorrelatedResponse implements Serializable {
+
+    private final long correlationId;
+    private final Object response;
+
+    /**
+     * New instance.
+     *
+     * @param correlationId correlation ID of answered request
+     * @param response response data
+     */
+    public CorrelatedResponse(final long correlationId, final Object response) {
+        this.correlationId = correlationId;
+        this.response = response;
+    }
+
+    /**
+     * @return correlation ID of answered request
+     */
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @return response data
+     */
+    public Object getResponse() {
+        return response;
+    }
+}
@@ -16,6 +16,8 @@ public class DataPacketImpl implements DataPacket {
     private final UUID targetID;
     private final Object data;
     private InetAddress sourceIP;
+    private long correlationId;
+    private UUID idempotencyKey;
 
     /**
      * New instance.
@@ -68,6 +70,39 @@ public class DataPacketImpl implements DataPacket {
         this.sourceIP = sourceAddress;
     }
 
+    /**
+     * @return id pairing pipelined request with its reply, 0 if the packet is
+     * not pipelined
+     */
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @param correlationId id pairing pipelined request with its reply (0
+     * for packets replied in order)
+     */
+    public void setCorrelationId(long correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    /**
+     * @return key identifying repeated sending of the same data, null if the
+     * packet is handled every time it is received
+     */
+    public UUID getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * @param idempotencyKey key identifying repeated sending of the same
+     * data, receiver replies to repeated packets with the same key using the
+     * reply to the first one without handling them again
+     */
+    public void setIdempotencyKey(UUID idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
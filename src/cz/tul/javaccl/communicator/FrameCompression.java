@@ -0,0 +1,192 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.io.ByteArrayOutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Negotiated compression of frames on single connection. Side with enabled
+ * compression marks all of its frame headers, frames are compressed (using
+ * {@link Deflater}) only after such header has been received from the other
+ * side and only if their content is longer than configured threshold (see
+ * {@link ConfigurationType#COMPRESSION} and
+ * {@link ConfigurationType#COMPRESSION_THRESHOLD}). Compressed content starts
+ * with original length (4 bytes) followed by deflated data. Declared length
+ * of received content is not trusted, it only limits inflated data.
+ *
+ * @author Petr Ječmen
+ */
+public final class FrameCompression {
+
+    /**
+     * Header flag marking compressed content.
+     */
+    static final int FLAG_COMPRESSED = 1 << 30;
+    /**
+     * Header flag of sender willing to receive compressed content.
+     */
+    static final int FLAG_ACCEPTS_COMPRESSION = 1 << 31;
+    private static final int LENGTH_SIZE = 4;
+    private static final int BUFFER_SIZE = 8192;
+    private final boolean enabled;
+    private final int threshold;
+    private final CompressionStats stats;
+    private volatile boolean peerAccepts;
+
+    /**
+     * Prepare compression using current configuration.
+     *
+     * @param parent statistics, which should be updated together with
+     * statistics of this connection (can be null)
+     */
+    public FrameCompression(final CompressionStats parent) {
+        enabled = Configuration.getBoolean(ConfigurationType.COMPRESSION);
+        threshold = Configuration.getInt(ConfigurationType.COMPRESSION_THRESHOLD);
+        stats = new CompressionStats(parent);
+    }
+
+    /**
+     * Compress frame content if the other side accepts compression and the
+     * content is long enough.
+     *
+     * @param content frame content
+     * @return content for sending, same instance if it has not been
+     * compressed
+     */
+    public byte[] compress(final byte[] content) {
+        if (!enabled || !peerAccepts || content.length < threshold) {
+            return content;
+        }
+
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + LENGTH_SIZE);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            out.write(content.length >>> 24);
+            out.write(content.length >>> 16);
+            out.write(content.length >>> 8);
+            out.write(content.length);
+            final byte[] buf = new byte[BUFFER_SIZE];
+            int count;
+            while (!deflater.finished()) {
+                count = deflater.deflate(buf);
+                out.write(buf, 0, count);
+                if (out.size() >= content.length) {
+                    // incompressible data
+                    return content;
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+
+        final byte[] result = out.toByteArray();
+        stats.record(content.length, result.length);
+        return result;
+    }
+
+    /**
+     * Restore content of compressed frame.
+     *
+     * @param content received content
+     * @return original frame content
+     * @throws StreamCorruptedException invalid compressed data
+     */
+    public byte[] decompress(final byte[] content) throws StreamCorruptedException {
+        if (content.length < LENGTH_SIZE) {
+            throw new StreamCorruptedException("Compressed frame is too short.");
+        }
+        final int length = ((content[0] & 0xFF) << 24) | ((content[1] & 0xFF) << 16)
+                | ((content[2] & 0xFF) << 8) | (content[3] & 0xFF);
+        WireFormat.checkLength(length);
+        WireFormat.checkContentLength(length);
+
+        // buffer grows with inflated data, not with the declared length
+        byte[] result = new byte[Math.min(length, Math.max(BUFFER_SIZE, content.length * 4))];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(content, LENGTH_SIZE, content.length - LENGTH_SIZE);
+            int pos = 0;
+            int count;
+            while (pos < length) {
+                if (pos == result.length) {
+                    result = Arrays.copyOf(result, (int) Math.min(length, 2L * result.length));
+                }
+                count = inflater.inflate(result, pos, result.length - pos);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                pos += count;
+            }
+            if (pos == length && !inflater.finished() && inflater.inflate(new byte[1]) != 0) {
+                // more data than declared
+                pos++;
+            }
+            if (pos != length || !inflater.finished()) {
+                throw new StreamCorruptedException("Invalid length of compressed data.");
+            }
+        } catch (DataFormatException ex) {
+            throw new StreamCorruptedException("Invalid compressed data - " + ex.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        stats.record(length, content.length);
+        return result;
+    }
+
+    /**
+     * Create header for frame.
+     *
+     * @param length length of sent content
+     * @param compressed true if the content has been compressed
+     * @return frame header
+     */
+    public int createHeader(final int length, final boolean compressed) {
+        int result = length;
+        if (compressed) {
+            result |= FLAG_COMPRESSED;
+        }
+        if (enabled) {
+            result |= FLAG_ACCEPTS_COMPRESSION;
+        }
+        return result;
+    }
+
+    /**
+     * Process header of received frame.
+     *
+     * @param header received header
+     * @return length of frame content
+     * @throws StreamCorruptedException invalid length
+     */
+    public int readHeader(final int header) throws StreamCorruptedException {
+        if ((header & FLAG_ACCEPTS_COMPRESSION) != 0) {
+            peerAccepts = true;
+        }
+        final int length = header & WireFormat.MAX_FRAME_LENGTH;
+        WireFormat.checkLength(length);
+        return length;
+    }
+
+    /**
+     * @param header received header
+     * @return true if frame content is compressed
+     */
+    public static boolean isCompressed(final int header) {
+        return (header & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * @return compression statistics of this connection
+     */
+    public CompressionStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,133 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps status of all communicators up to date. Every
+ * {@link ConfigurationType#HEARTBEAT_INTERVAL} all communicators which have
+ * not exchanged any data with their target during last interval send small
+ * heartbeat over the shared connection to the target (see
+ * {@link MultiplexedConnection}). Target is considered offline after
+ * {@link ConfigurationType#HEARTBEAT_MISSES} consecutive heartbeats without
+ * reply. Heartbeats do not block the monitor, so the cost of one round is
+ * constant per communicator regardless of target availability. Communicators
+ * are unregistered when they are closed, forgotten communicators are held only
+ * by weak references, so they stop sending heartbeats as well.
+ *
+ * @author Petr Ječmen
+ */
+final class HeartbeatMonitor implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(HeartbeatMonitor.class.getName());
+    private static final HeartbeatMonitor INSTANCE = new HeartbeatMonitor();
+    private final List<WeakReference<CommunicatorImpl>> communicators;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @return shared instance of the monitor
+     */
+    static HeartbeatMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    private HeartbeatMonitor() {
+        communicators = new CopyOnWriteArrayList<WeakReference<CommunicatorImpl>>();
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "HeartbeatMonitor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        timer.schedule(this, getInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start monitoring status of given communicator.
+     *
+     * @param comm monitored communicator
+     */
+    void register(final CommunicatorImpl comm) {
+        communicators.add(new WeakReference<CommunicatorImpl>(comm));
+    }
+
+    /**
+     * Stop monitoring status of given communicator.
+     *
+     * @param comm communicator, which is no longer used
+     */
+    void unregister(final CommunicatorImpl comm) {
+        CommunicatorImpl registered;
+        for (WeakReference<CommunicatorImpl> ref : communicators) {
+            registered = ref.get();
+            if (registered == null || registered == comm) {
+                communicators.remove(ref);
+            }
+        }
+    }
+
+    /**
+     * @param comm communicator
+     * @return true if heartbeats are sent for given communicator
+     */
+    boolean isMonitored(final CommunicatorImpl comm) {
+        for (WeakReference<CommunicatorImpl> ref : communicators) {
+            if (ref.get() == comm) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return current heartbeat interval (in ms)
+     */
+    static int getInterval() {
+        return Configuration.getInt(ConfigurationType.HEARTBEAT_INTERVAL);
+    }
+
+    /**
+     * @return count of consecutive missed heartbeats after which the target
+     * is considered offline
+     */
+    static int getMissLimit() {
+        return Configuration.getInt(ConfigurationType.HEARTBEAT_MISSES);
+    }
+
+    @Override
+    public void run() {
+        final int interval = getInterval();
+        try {
+            final Iterator<WeakReference<CommunicatorImpl>> it = communicators.iterator();
+            WeakReference<CommunicatorImpl> ref;
+            CommunicatorImpl comm;
+            while (it.hasNext()) {
+                ref = it.next();
+                comm = ref.get();
+                if (comm == null) {
+                    communicators.remove(ref);
+                } else {
+                    comm.heartbeat(interval);
+                }
+            }
+        } catch (RuntimeException ex) {
+            LOG.log(Level.WARNING, "Error sending heartbeats.");
+            LOG.log(Level.FINE, "Error sending heartbeats.", ex);
+        } finally {
+            // interval is read every round, so it can be changed at runtime
+            timer.schedule(this, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package cz.tul.javaccl.communicator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Connection carrying pipelined requests. Every request gets unique
+ * correlation ID and is written without waiting for replies to previous
+ * requests, replies are read by a dedicated thread and matched to waiting
+ * requests by their correlation ID (so they can arrive in any order).
+ *
+ * @author Petr Ječmen
+ */
+final class MultiplexedConnection implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(MultiplexedConnection.class.getName());
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "MultiplexedConnection-timer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final Connection connection;
+    private final Map<Long, CompletableFuture<Object>> pending;
+    private final AtomicLong counter;
+    private volatile boolean closed;
+
+    /**
+     * @param connection connected connection, which will be used only for
+     * pipelined requests
+     */
+    MultiplexedConnection(final Connection connection) {
+        this.connection = connection;
+        pending = new ConcurrentHashMap<Long, CompletableFuture<Object>>();
+        counter = new AtomicLong();
+    }
+
+    /**
+     * Start reading replies.
+     *
+     * @throws IOException error setting up the connection
+     */
+    void start() throws IOException {
+        connection.setTimeout(0);
+        final Thread t = new Thread(this, "MultiplexedConnection-" + connection.getAddress().getHostAddress() + ":" + connection.getPort());
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Send request without waiting for reply.
+     *
+     * @param dp request, its correlation ID will be overwritten
+     * @param timeout time (in ms) for receiving reply (0 for infinite)
+     * @return future completed with reply, failed with IOException (eg.
+     * {@link SocketTimeoutException} if no reply arrives in time)
+     */
+    CompletableFuture<Object> send(final DataPacketImpl dp, final int timeout) {
+        final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        final long id = counter.incrementAndGet();
+        dp.setCorrelationId(id);
+
+        final List<BulkData> attachments = new ArrayList<BulkData>();
+        final byte[] content;
+        try {
+            content = WireFormat.encode(dp, attachments);
+        } catch (IOException ex) {
+            result.completeExceptionally(ex);
+            return result;
+        }
+
+        pending.put(id, result);
+        if (closed) {
+            pending.remove(id);
+            result.completeExceptionally(new EOFException("Connection has been closed."));
+            return result;
+        }
+
+        try {
+            connection.writeFrame(content, attachments);
+        } catch (IOException ex) {
+            close(ex);
+            return result;
+        }
+
+        if (timeout > 0) {
+            final ScheduledFuture<?> timer = TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (pending.remove(id) != null) {
+                        result.completeExceptionally(new SocketTimeoutException("No reply received in " + timeout + " ms."));
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            result.whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object response, Throwable ex) {
+                    timer.cancel(false);
+                }
+            });
+        }
+
+        return result;
+    }
+
+    @Override
+    public void run() {
+        IOException failure = null;
+        Object data;
+        CorrelatedResponse reply;
+        CompletableFuture<Object> request;
+        try {
+            while (!closed) {
+                data = connection.readObject();
+                if (data instanceof CorrelatedResponse) {
+                    reply = (CorrelatedResponse) data;
+                    request = pending.remove(reply.getCorrelationId());
+                    if (request != null) {
+                        request.complete(reply.getResponse());
+                    } else {
+                        LOG.log(Level.FINE, "Reply for unknown request {0} received (request has probably timed out).", reply.getCorrelationId());
+                    }
+                } else {
+                    LOG.log(Level.WARNING, "Received illegal type of reply - {0}", data);
+                }
+            }
+        } catch (IOException ex) {
+            failure = ex;
+        } catch (ClassNotFoundException ex) {
+            LOG.log(Level.WARNING, "Unknown class object received.");
+            LOG.log(Level.FINE, "Unknown class object received.", ex);
+            failure = new IOException(ex);
+        }
+        close(failure);
+    }
+
+    /**
+     * Close the connection, all requests waiting for reply fail.
+     *
+     * @param cause reason of closing, null for regular close
+     */
+    void close(final IOException cause) {
+        closed = true;
+        connection.close();
+
+        final IOException ex = cause != null ? cause : new EOFException("Connection has been closed.");
+        CompletableFuture<Object> request;
+        for (Long id : pending.keySet()) {
+            request = pending.remove(id);
+            if (request != null) {
+                request.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * @return true if the connection can carry further requests
+     */
+    boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * @return true if any request has been sent using this connection
+     */
+    boolean isUsed() {
+        return counter.get() > 0;
+    }
+
+    /**
+     * @param idleLimit maximal idle time
+     * @param now current time
+     * @return true if no reply is expected and the connection has not been
+     * used for given time
+     */
+    boolean isIdle(final long idleLimit, final long now) {
+        return pending.isEmpty() && (now - connection.getLastUsed()) >= idleLimit;
+    }
+
+    /**
+     * @return count of requests waiting for reply
+     */
+    int countPending() {
+        return pending.size();
+    }
+}
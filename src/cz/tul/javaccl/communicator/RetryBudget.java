@@ -0,0 +1,42 @@
+package cz.tul.javaccl.communicator;
+
+/**
+ * Budget of repeated sendings to single target. Every sending deposits given
+ * ratio of a single retry, every retry withdraws one. Budget is capped, so
+ * long successfull period does not allow a burst of retries.
+ *
+ * @author Petr Ječmen
+ */
+final class RetryBudget {
+
+    private static final double MAX_TOKENS = 10;
+    private double tokens;
+
+    /**
+     * New full budget, so failures of the first sendings can be repeated.
+     */
+    RetryBudget() {
+        tokens = MAX_TOKENS;
+    }
+
+    /**
+     * Record new sending.
+     *
+     * @param ratio allowed ratio of retries to sendings
+     */
+    synchronized void deposit(final double ratio) {
+        tokens = Math.min(MAX_TOKENS, tokens + ratio);
+    }
+
+    /**
+     * @return true if retry is allowed (and has been withdrawn from the
+     * budget)
+     */
+    synchronized boolean withdraw() {
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+}
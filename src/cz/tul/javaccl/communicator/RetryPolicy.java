@@ -0,0 +1,114 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.exceptions.ConnectionExceptionCause;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.util.Random;
+
+/**
+ * Policy for repeating failed sending of data with idempotency key (see
+ * {@link Communicator#sendData(java.lang.Object, int, java.util.UUID)}).
+ * Failed sending is repeated after exponentially growing delay with random
+ * jitter. Count of repeated sendings to single target is limited by retry
+ * budget, every sending adds given ratio of a single retry to the budget, so
+ * failing target is not flooded with repeated data. Sending can also be
+ * hedged - if there is no reply after 95th percentile of round trip time,
+ * the data are sent again without waiting for the first reply.
+ *
+ * @author Petr Ječmen
+ */
+public final class RetryPolicy {
+
+    /**
+     * policy without any repeating
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, 0, false);
+    private static final Random RND = new Random();
+    private final int maxRetries;
+    private final int baseDelay;
+    private final int maxDelay;
+    private final double budgetRatio;
+    private final boolean hedging;
+
+    /**
+     * @return policy set in {@link Configuration}
+     */
+    public static RetryPolicy fromConfiguration() {
+        return new RetryPolicy(
+                Configuration.getInt(ConfigurationType.RETRY_COUNT),
+                Configuration.getInt(ConfigurationType.RETRY_DELAY),
+                Configuration.getInt(ConfigurationType.RETRY_MAX_DELAY),
+                Double.parseDouble(Configuration.getValue(ConfigurationType.RETRY_BUDGET)),
+                Configuration.getBoolean(ConfigurationType.HEDGING));
+    }
+
+    /**
+     * New policy.
+     *
+     * @param maxRetries maximal count of repeated sendings
+     * @param baseDelay delay before first repeated sending in miliseconds,
+     * doubled with every attempt
+     * @param maxDelay maximal delay between sendings in miliseconds
+     * @param budgetRatio ratio of retries to sendings allowed for single
+     * target (eg. 0.2 allows one retry for every five sendings)
+     * @param hedging true to send data again when the reply is late
+     */
+    public RetryPolicy(final int maxRetries, final int baseDelay, final int maxDelay, final double budgetRatio, final boolean hedging) {
+        if (maxRetries < 0 || baseDelay < 0 || maxDelay < baseDelay || budgetRatio < 0) {
+            throw new IllegalArgumentException("Invalid retry policy parameters.");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.budgetRatio = budgetRatio;
+        this.hedging = hedging;
+    }
+
+    /**
+     * @return maximal count of repeated sendings
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return ratio of retries to sendings allowed for single target
+     */
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+
+    /**
+     * @return true if sending is repeated when the reply is late
+     */
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    /**
+     * @param cause cause of the failure
+     * @return true if sending failed for given reason can be repeated
+     */
+    public boolean isRetryable(final ConnectionExceptionCause cause) {
+        return cause == ConnectionExceptionCause.TIMEOUT
+                || cause == ConnectionExceptionCause.TARGET_OFFLINE
+                || cause == ConnectionExceptionCause.CONNECTION_ERROR
+                || cause == ConnectionExceptionCause.TARGET_BUSY;
+    }
+
+    /**
+     * Compute delay before repeated sending. Delay is chosen randomly between
+     * half and whole of the exponential delay, so clients failed at the same
+     * time do not repeat sending at the same time.
+     *
+     * @param attempt index of the retry (starting with 0)
+     * @return delay in miliseconds
+     */
+    public int getDelay(final int attempt) {
+        final long delay = Math.min(maxDelay, (long) baseDelay << Math.min(attempt, 30));
+        final int half = (int) (delay / 2);
+        synchronized (RND) {
+            return half + RND.nextInt(half + 1);
+        }
+    }
+}
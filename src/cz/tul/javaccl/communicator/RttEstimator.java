@@ -0,0 +1,121 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.persistence.Timeout;
+import cz.tul.javaccl.persistence.Timeout.TimeoutType;
+import java.util.Arrays;
+
+/**
+ * Estimator of round trip time to a single target. Keeps smoothed round trip
+ * time and its mean deviation (same way as TCP retransmission timer) and
+ * derives timeouts from them. Timeouts are doubled after every timeout until
+ * next successfull exchange. Until the first exchange, the maximal timeout is
+ * used. Last round trip times are also kept for computing percentiles.
+ *
+ * @author Petr Ječmen
+ */
+public final class RttEstimator {
+
+    private static final int ALPHA_SHIFT = 3;
+    private static final int BETA_SHIFT = 2;
+    private static final int DEVIATION_FACTOR = 4;
+    private static final int MAX_BACKOFF = 6;
+    private static final int WINDOW_SIZE = 64;
+    private final long[] window = new long[WINDOW_SIZE];
+    private long smoothedRtt;
+    private long deviation;
+    private int sampleCount;
+    private int backoff;
+
+    /**
+     * Record round trip time of successfull exchange.
+     *
+     * @param rtt round trip time in miliseconds
+     */
+    public synchronized void addSample(final long rtt) {
+        final long sample = Math.max(rtt, 0);
+        if (sampleCount == 0) {
+            smoothedRtt = sample;
+            deviation = sample / 2;
+        } else {
+            final long error = sample - smoothedRtt;
+            smoothedRtt += error >> ALPHA_SHIFT;
+            deviation += (Math.abs(error) - deviation) >> BETA_SHIFT;
+        }
+        window[sampleCount % WINDOW_SIZE] = sample;
+        sampleCount++;
+        backoff = 0;
+    }
+
+    /**
+     * Record exchange, which has timed out.
+     */
+    public synchronized void timedOut() {
+        if (backoff < MAX_BACKOFF) {
+            backoff++;
+        }
+    }
+
+    /**
+     * @param floor minimal timeout in miliseconds
+     * @param ceiling maximal timeout in miliseconds (0 for infinite)
+     * @return timeout derived from measured round trip times, ceiling if
+     * there are no measurements yet
+     */
+    public synchronized int getTimeout(final int floor, final int ceiling) {
+        if (sampleCount == 0) {
+            return ceiling;
+        }
+        long timeout = (smoothedRtt + DEVIATION_FACTOR * deviation) << backoff;
+        if (ceiling > 0) {
+            timeout = Math.min(ceiling, timeout);
+        }
+        return (int) Math.max(floor, timeout);
+    }
+
+    /**
+     * @param floor type of minimal timeout
+     * @param ceiling type of maximal timeout
+     * @return timeout derived from measured round trip times, ceiling if
+     * there are no measurements yet
+     */
+    public int getTimeout(final TimeoutType floor, final TimeoutType ceiling) {
+        return getTimeout(Timeout.getTimeout(floor), Timeout.getTimeout(ceiling));
+    }
+
+    /**
+     * @return smoothed round trip time in miliseconds
+     */
+    public synchronized long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    /**
+     * @return mean deviation of round trip time in miliseconds
+     */
+    public synchronized long getDeviation() {
+        return deviation;
+    }
+
+    /**
+     * @param percentile requested percentile (1 - 100)
+     * @return given percentile of last round trip times in miliseconds, 0 if
+     * there are no measurements yet
+     */
+    public synchronized long getPercentile(final int percentile) {
+        final int count = Math.min(sampleCount, WINDOW_SIZE);
+        if (count == 0) {
+            return 0;
+        }
+        final long[] sorted = Arrays.copyOf(window, count);
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(count * Math.max(1, Math.min(100, percentile)) / 100.0) - 1;
+        return sorted[index];
+    }
+
+    /**
+     * @return count of recorded round trip times
+     */
+    public synchronized int getSampleCount() {
+        return sampleCount;
+    }
+}
@@ -0,0 +1,67 @@
+package cz.tul.javaccl.communicator;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Part of data sent using {@link Communicator#sendStream(java.io.InputStream)}.
+ * Chunks of one stream share stream ID and are sent one after another, every
+ * chunk is a separate request, so other data can be sent between chunks.
+ *
+ * @author Petr Ječmen
+ */
+public class StreamChunk implements Serializable {
+
+    private final UUID streamId;
+    private final int index;
+    private final byte[] data;
+    private final boolean last;
+
+    /**
+     * New instance.
+     *
+     * @param streamId ID of the stream
+     * @param index order of the chunk in the stream (starting from 0)
+     * @param data chunk content
+     * @param last true if this is the last chunk of the stream
+     */
+    public StreamChunk(final UUID streamId, final int index, final byte[] data, final boolean last) {
+        this.streamId = streamId;
+        this.index = index;
+        this.data = data;
+        this.last = last;
+    }
+
+    /**
+     * @return ID of the stream
+     */
+    public UUID getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * @return order of the chunk in the stream
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return chunk content
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return true if this is the last chunk of the stream
+     */
+    public boolean isLast() {
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamChunk[" + streamId + ", " + index + ", " + data.length + " B" + (last ? ", last]" : "]");
+    }
+}
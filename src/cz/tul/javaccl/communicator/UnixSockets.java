@@ -0,0 +1,161 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Support of Unix domain sockets for communication between entities running
+ * on the same machine. If {@link ConfigurationType#UNIX_SOCKET_DIR} is set,
+ * every listening socket also listens on a Unix domain socket in that
+ * directory (named after its TCP port) and connections to local targets are
+ * opened using that socket if it exists. Unix domain sockets are obtained
+ * using reflection, so older runtimes use TCP only.
+ *
+ * @author Petr Ječmen
+ */
+public final class UnixSockets {
+
+    private static final Logger LOG = Logger.getLogger(UnixSockets.class.getName());
+    private static final String FILE_PREFIX = "javaccl-";
+    private static final String FILE_SUFFIX = ".sock";
+    private static final Method ADDRESS_OF, OPEN_SERVER;
+    private static final ProtocolFamily UNIX;
+
+    static {
+        Method addressOf = null, openServer = null;
+        ProtocolFamily unix = null;
+        try {
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+            openServer = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            unix = StandardProtocolFamily.valueOf("UNIX");
+        } catch (ClassNotFoundException ex) {
+            // runtime without Unix domain sockets
+            addressOf = null;
+        } catch (NoSuchMethodException ex) {
+            // runtime without Unix domain sockets
+            addressOf = null;
+        } catch (IllegalArgumentException ex) {
+            // runtime without Unix domain sockets
+            addressOf = null;
+        }
+        ADDRESS_OF = addressOf;
+        OPEN_SERVER = openServer;
+        UNIX = unix;
+    }
+
+    /**
+     * @return true if the runtime supports Unix domain sockets
+     */
+    public static boolean isSupported() {
+        return ADDRESS_OF != null;
+    }
+
+    /**
+     * @return true if Unix domain sockets should be used
+     */
+    public static boolean isEnabled() {
+        return isSupported() && !Configuration.getValue(ConfigurationType.UNIX_SOCKET_DIR).isEmpty();
+    }
+
+    /**
+     * @param address target address
+     * @return true if given address belongs to this machine
+     */
+    public static boolean isLocalAddress(final InetAddress address) {
+        if (address.isLoopbackAddress() || address.isAnyLocalAddress()) {
+            return true;
+        }
+        try {
+            return NetworkInterface.getByInetAddress(address) != null;
+        } catch (SocketException ex) {
+            LOG.log(Level.FINE, "Network interfaces could not be listed.", ex);
+            return false;
+        }
+    }
+
+    /**
+     * @param port TCP port of the listening socket
+     * @return file of Unix domain socket belonging to given port
+     */
+    public static File getSocketFile(final int port) {
+        return new File(Configuration.getValue(ConfigurationType.UNIX_SOCKET_DIR), FILE_PREFIX + port + FILE_SUFFIX);
+    }
+
+    /**
+     * Open channel listening on Unix domain socket belonging to given port.
+     * Socket file left behind by previous run is replaced.
+     *
+     * @param port TCP port of the listening socket
+     * @return bound listening channel
+     * @throws IOException Unix domain socket could not be created
+     */
+    public static ServerSocketChannel openServerChannel(final int port) throws IOException {
+        final File file = getSocketFile(port);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Stale socket file " + file.getAbsolutePath() + " could not be deleted.");
+        }
+        final ServerSocketChannel result = (ServerSocketChannel) invoke(OPEN_SERVER, null, UNIX);
+        try {
+            result.bind(toAddress(file));
+        } catch (IOException ex) {
+            result.close();
+            throw ex;
+        }
+        LOG.log(Level.FINE, "Listening on Unix domain socket {0}", file.getAbsolutePath());
+        return result;
+    }
+
+    /**
+     * Connect to Unix domain socket belonging to given port.
+     *
+     * @param port TCP port of the target
+     * @return connected channel, null if the target does not listen on Unix
+     * domain socket
+     * @throws IOException error connecting to existing socket
+     */
+    public static SocketChannel connect(final int port) throws IOException {
+        final File file = getSocketFile(port);
+        if (!file.exists()) {
+            return null;
+        }
+        return SocketChannel.open(toAddress(file));
+    }
+
+    private static SocketAddress toAddress(final File file) throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, null, file.toPath());
+    }
+
+    private static Object invoke(final Method method, final Object target, final Object arg) throws IOException {
+        if (method == null) {
+            throw new IOException("Unix domain sockets are not supported.");
+        }
+        try {
+            return method.invoke(target, arg);
+        } catch (IllegalAccessException ex) {
+            throw new IOException("Unix domain sockets are not accessible.", ex);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Unix domain socket could not be created.", ex.getCause());
+        }
+    }
+
+    private UnixSockets() {
+    }
+}
@@ -0,0 +1,233 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.codec.CodecRegistry;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Format of data transmitted between JavaCCL instances. Every message is sent
+ * as a frame - length of the frame (4 bytes) followed by the frame content, so
+ * the receiving side can find message boundaries without parsing the content.
+ * Frame content is encoded using {@link CodecRegistry}, two highest bits of
+ * the header are reserved for compression flags (see {@link FrameCompression}).
+ * {@link BulkData} are sent before the object, which references them, as
+ * segment frames - frame content starts with {@link #BULK_SEGMENT} marker and
+ * segment flags, raw data follow. Content of other frames is held in memory,
+ * so its length is limited by {@link ConfigurationType#MAX_FRAME_SIZE}.
+ *
+ * @author Petr Ječmen
+ */
+public final class WireFormat {
+
+    /**
+     * Length of frame header (in bytes).
+     */
+    public static final int HEADER_LENGTH = 4;
+    /**
+     * Maximal allowed length of frame content (in bytes).
+     */
+    public static final int MAX_FRAME_LENGTH = (1 << 30) - 1;
+    /**
+     * First byte of bulk data segment frame (type identifier reserved in
+     * {@link CodecRegistry}).
+     */
+    public static final int BULK_SEGMENT = 15;
+    /**
+     * Segment flag marking last segment of bulk data.
+     */
+    public static final int SEGMENT_LAST = 1;
+    /**
+     * Length of bulk data segment prefix (marker and flags).
+     */
+    public static final int SEGMENT_PREFIX_LENGTH = 2;
+    private static final int MAX_SEGMENT_LENGTH = MAX_FRAME_LENGTH - SEGMENT_PREFIX_LENGTH;
+
+    /**
+     * Convert object to frame content.
+     *
+     * @param data data for sending
+     * @return frame content
+     * @throws IOException data could not be serialized
+     */
+    public static byte[] encode(final Object data) throws IOException {
+        return CodecRegistry.getInstance().encode(data);
+    }
+
+    /**
+     * Convert object to frame content, bulk data are collected for separate
+     * sending.
+     *
+     * @param data data for sending
+     * @param attachments list for bulk data found in the data
+     * @return frame content
+     * @throws IOException data could not be serialized
+     */
+    public static byte[] encode(final Object data, final List<BulkData> attachments) throws IOException {
+        return CodecRegistry.getInstance().encode(data, attachments);
+    }
+
+    /**
+     * Convert frame content back to object.
+     *
+     * @param frame frame content
+     * @param offset start of the content
+     * @param length length of the content
+     * @param attachments bulk data received before the frame
+     * @return received object
+     * @throws IOException frame is corrupted
+     * @throws ClassNotFoundException unknown class received
+     */
+    public static Object decode(final byte[] frame, final int offset, final int length, final List<BulkData> attachments) throws IOException, ClassNotFoundException {
+        return CodecRegistry.getInstance().decode(frame, offset, length, attachments);
+    }
+
+    /**
+     * Convert frame content back to object.
+     *
+     * @param frame frame content
+     * @param offset start of the content
+     * @param length length of the content
+     * @return received object
+     * @throws IOException frame is corrupted
+     * @throws ClassNotFoundException unknown class received
+     */
+    public static Object decode(final byte[] frame, final int offset, final int length) throws IOException, ClassNotFoundException {
+        return CodecRegistry.getInstance().decode(frame, offset, length);
+    }
+
+    /**
+     * Write whole frame (header and content).
+     *
+     * @param out target stream
+     * @param content frame content
+     * @param compression compression of the connection (null for no
+     * compression)
+     * @throws IOException error writing data
+     */
+    public static void writeFrame(final DataOutputStream out, final byte[] content, final FrameCompression compression) throws IOException {
+        if (compression != null) {
+            final byte[] sent = compression.compress(content);
+            out.writeInt(compression.createHeader(sent.length, sent != content));
+            out.write(sent);
+        } else {
+            out.writeInt(content.length);
+            out.write(content);
+        }
+        out.flush();
+    }
+
+    /**
+     * Write bulk data as segment frames. Data are written directly to the
+     * channel (if the stream has no channel, it is wrapped), so whole data
+     * are never held in memory.
+     *
+     * @param out target stream
+     * @param channel channel of the target stream (can be null)
+     * @param data written data
+     * @throws IOException error reading or writing data
+     */
+    public static void writeBulkData(final DataOutputStream out, final WritableByteChannel channel, final BulkData data) throws IOException {
+        final WritableByteChannel target = channel != null ? channel : Channels.newChannel(out);
+        final long length = data.getLength();
+        long position = 0;
+        long end;
+        do {
+            end = Math.min(length, position + MAX_SEGMENT_LENGTH);
+            out.writeInt((int) (end - position) + SEGMENT_PREFIX_LENGTH);
+            out.writeByte(BULK_SEGMENT);
+            out.writeByte(end == length ? SEGMENT_LAST : 0);
+            out.flush();
+            while (position < end) {
+                position += data.transferTo(position, end - position, target);
+            }
+        } while (position < length);
+        out.flush();
+    }
+
+    /**
+     * Read whole frame content. Bulk data segments preceding the frame are
+     * stored using given receiver.
+     *
+     * @param in source stream
+     * @param compression compression of the connection (null for no
+     * compression)
+     * @param receiver receiver of bulk data (null if no bulk data are
+     * expected)
+     * @return frame content
+     * @throws IOException error reading data or invalid frame received
+     */
+    public static byte[] readFrame(final DataInputStream in, final FrameCompression compression, final BulkReceiver receiver) throws IOException {
+        int header, length, first;
+        byte[] result;
+        while (true) {
+            header = in.readInt();
+            if (compression != null) {
+                length = compression.readHeader(header);
+            } else {
+                length = header;
+                checkLength(length);
+            }
+            if (compression != null && FrameCompression.isCompressed(header)) {
+                checkContentLength(length);
+                result = new byte[length];
+                in.readFully(result);
+                return compression.decompress(result);
+            }
+
+            if (length == 0) {
+                return new byte[0];
+            }
+            first = in.readUnsignedByte();
+            if (first == BULK_SEGMENT && length >= SEGMENT_PREFIX_LENGTH) {
+                if (receiver == null) {
+                    throw new StreamCorruptedException("Unexpected bulk data received.");
+                }
+                final boolean last = (in.readUnsignedByte() & SEGMENT_LAST) != 0;
+                receiver.receive(Channels.newChannel(in), length - SEGMENT_PREFIX_LENGTH, last);
+            } else {
+                checkContentLength(length);
+                result = new byte[length];
+                result[0] = (byte) first;
+                in.readFully(result, 1, length - 1);
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Check length of received frame.
+     *
+     * @param length length from frame header
+     * @throws StreamCorruptedException invalid length
+     */
+    public static void checkLength(final int length) throws StreamCorruptedException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length " + length);
+        }
+    }
+
+    /**
+     * Check length of received frame content, which is going to be held in
+     * memory. Checked before the content is allocated, so the other side
+     * cannot make the receiver allocate more memory than configured.
+     *
+     * @param length length of frame content
+     * @throws StreamCorruptedException content is longer than
+     * {@link ConfigurationType#MAX_FRAME_SIZE}
+     */
+    public static void checkContentLength(final int length) throws StreamCorruptedException {
+        if (length > Configuration.getInt(ConfigurationType.MAX_FRAME_SIZE)) {
+            throw new StreamCorruptedException("Frame length " + length + " exceeds the configured limit.");
+        }
+    }
+
+    private WireFormat() {
+    }
+}
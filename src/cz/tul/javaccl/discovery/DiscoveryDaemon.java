@@ -1,5 +1,6 @@
 package cz.tul.javaccl.discovery;
 
+import cz.tul.javaccl.ExecutorFactory;
 import cz.tul.javaccl.GlobalConstants;
 import cz.tul.javaccl.IService;
 import cz.tul.javaccl.persistence.Timeout;
@@ -16,7 +17,6 @@ import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.util.Enumeration;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,7 +63,7 @@ abstract class DiscoveryDaemon extends Thread implements IService {
         }
         ms = msS;
 
-        exec = Executors.newFixedThreadPool(2);
+        exec = ExecutorFactory.newFixedExecutor("DiscoveryDaemon", 2, false);
         exec.execute(new Runnable() {
 
             @Override
@@ -27,6 +27,10 @@ public enum ConnectionExceptionCause {
      * Could not reach target.
      */
     TARGET_OFFLINE,
+    /**
+     * Target has been overloaded for too long.
+     */
+    TARGET_BUSY,
     /**
      * Unknow error occured.
      */
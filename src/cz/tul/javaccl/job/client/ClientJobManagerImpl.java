@@ -1,11 +1,13 @@
 package cz.tul.javaccl.job.client;
 
+import cz.tul.javaccl.ExecutorFactory;
 import cz.tul.javaccl.GenericResponses;
 import cz.tul.javaccl.client.ServerInterface;
 import cz.tul.javaccl.exceptions.ConnectionException;
 import cz.tul.javaccl.job.JobConstants;
 import cz.tul.javaccl.job.JobTask;
 import cz.tul.javaccl.messaging.Identifiable;
+import cz.tul.javaccl.persistence.Timeout;
 import cz.tul.javaccl.socket.Listener;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -13,7 +15,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,6 +27,7 @@ public class ClientJobManagerImpl implements Listener<Identifiable>, ClientJobMa
 
     private static final Logger LOG = Logger.getLogger(ClientJobManagerImpl.class.getName());
     private static final int WAIT_TIME = 500;
+    private static final String THREAD_NAME = "ClientJobManager";
     private AssignmentListener assignmentListener;
     private final ServerInterface server;
     private final Map<UUID, ClientSideJob> jobs;    
@@ -45,7 +47,7 @@ public class ClientJobManagerImpl implements Listener<Identifiable>, ClientJobMa
         runningJobs = new HashSet<ClientSideJob>();
 
         maxJobCount = 1;
-        exec = Executors.newFixedThreadPool(maxJobCount);
+        exec = ExecutorFactory.newFixedExecutor(THREAD_NAME, maxJobCount, false);
     }
 
     /**
@@ -59,7 +61,7 @@ public class ClientJobManagerImpl implements Listener<Identifiable>, ClientJobMa
 
     @Override
     public void submitResult(final UUID jobId, final Object result) throws ConnectionException {
-        sendDataToServer(jobId, JobConstants.JOB_RESULT, result);
+        sendDataToServerOnce(jobId, JobConstants.JOB_RESULT, result);
         runningJobs.remove(jobs.get(jobId));
     }
 
@@ -77,7 +79,7 @@ public class ClientJobManagerImpl implements Listener<Identifiable>, ClientJobMa
 
     @Override
     public Object requestData(final UUID jobId, final Object dataId) throws ConnectionException {
-        return sendDataToServer(jobId, JobConstants.JOB_DATA_REQUEST, dataId);
+        return sendDataToServerOnce(jobId, JobConstants.JOB_DATA_REQUEST, dataId);
     }
 
     private Object sendDataToServer(final UUID jobId, final String header, final Object result) throws ConnectionException {
@@ -86,17 +88,25 @@ public class ClientJobManagerImpl implements Listener<Identifiable>, ClientJobMa
         return server.getServerComm().sendData(jt);
     }
 
+    /**
+     * Send data with idempotency key, so failed sending is repeated by the
+     * communicator without the server handling the data twice.
+     */
+    private Object sendDataToServerOnce(final UUID jobId, final String header, final Object result) throws ConnectionException {
+        waitForSever();
+        final JobTask jt = new JobTask(jobId, header, result);
+        return server.getServerComm().sendData(jt, Timeout.getTimeout(Timeout.TimeoutType.MESSAGE), UUID.randomUUID());
+    }
+
     private void waitForSever() {
         if (!server.isServerUp()) {
             LOG.fine("Waiting for server to become online.");
             do {
-                synchronized (this) {
-                    try {
-                        this.wait(WAIT_TIME);
-                    } catch (InterruptedException ex) {
-                        LOG.log(Level.WARNING, "Waiting for server being available for data request has been interrupted.");
-                        LOG.log(Level.FINE, "Waiting for server being available for data request has been interrupted.", ex);
-                    }
+                try {
+                    Thread.sleep(WAIT_TIME);
+                } catch (InterruptedException ex) {
+                    LOG.log(Level.WARNING, "Waiting for server being available for data request has been interrupted.");
+                    LOG.log(Level.FINE, "Waiting for server being available for data request has been interrupted.", ex);
                 }
             } while (!server.isServerUp());
         }
@@ -147,6 +157,9 @@ public class ClientJobManagerImpl implements Listener<Identifiable>, ClientJobMa
     @Override
     public void setMaxNumberOfConcurrentAssignments(int assignmentCount) {
         maxJobCount = assignmentCount;
-        exec = Executors.newFixedThreadPool(maxJobCount);
+        final ExecutorService old = exec;
+        exec = ExecutorFactory.newFixedExecutor(THREAD_NAME, maxJobCount, false);
+        // already assigned jobs are finished
+        old.shutdown();
     }
 }
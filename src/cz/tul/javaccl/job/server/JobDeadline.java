@@ -0,0 +1,88 @@
+package cz.tul.javaccl.job.server;
+
+import cz.tul.javaccl.communicator.Communicator;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline of job supervision kept in a delay queue, so the job manager
+ * handles only deadlines that have passed instead of checking all jobs.
+ *
+ * @author Petr Ječmen
+ */
+final class JobDeadline implements Delayed {
+
+    /**
+     * Type of supervised deadline.
+     */
+    enum Type {
+
+        /**
+         * sent job must be accepted by its owner
+         */
+        ACCEPT,
+        /**
+         * owner of accepted jobs must come back online
+         */
+        OWNER_OFFLINE,
+        /**
+         * canceled job can be given to the same client again
+         */
+        COOLDOWN,;
+    }
+    private final Type type;
+    private final JobRecord record;
+    private final Communicator owner;
+    private final long due;
+
+    /**
+     * @param type type of deadline
+     * @param record supervised job (only for {@link Type#ACCEPT})
+     * @param owner supervised client (only for {@link Type#OWNER_OFFLINE})
+     * @param delay time until the deadline in miliseconds
+     */
+    JobDeadline(final Type type, final JobRecord record, final Communicator owner, final long delay) {
+        this.type = type;
+        this.record = record;
+        this.owner = owner;
+        due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+    }
+
+    /**
+     * @return type of deadline
+     */
+    Type getType() {
+        return type;
+    }
+
+    /**
+     * @return supervised job, null for deadlines not bound to a single job
+     */
+    JobRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * @return supervised client, null for deadlines not bound to a client
+     */
+    Communicator getOwner() {
+        return owner;
+    }
+
+    @Override
+    public long getDelay(final TimeUnit unit) {
+        return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(final Delayed o) {
+        final long dif = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+        if (dif < 0) {
+            return -1;
+        } else if (dif > 0) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package cz.tul.javaccl.job.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Queue of jobs waiting for assignment. Jobs are kept in FIFO buckets indexed
+ * by their complexity, so the job for a client is found without traversing
+ * jobs the client cannot compute. Every job has its position in the whole
+ * queue, so the oldest job the client can compute is picked regardless of its
+ * complexity (same as with single FIFO queue). Times of job cancelations are
+ * kept for every job and client, so a job is not given to the same client
+ * again until the cooldown elapses.
+ *
+ * @author Petr Ječmen
+ */
+final class JobQueue {
+
+    private final NavigableMap<Integer, Deque<ServerSideJob>> buckets;
+    private final Map<ServerSideJob, Long> queued;
+    private final Map<UUID, Map<UUID, Long>> cancelTimes;
+    private long head;
+    private long tail;
+
+    JobQueue() {
+        buckets = new TreeMap<Integer, Deque<ServerSideJob>>();
+        queued = new HashMap<ServerSideJob, Long>();
+        cancelTimes = new HashMap<UUID, Map<UUID, Long>>();
+    }
+
+    /**
+     * Add new job to the end of the queue.
+     *
+     * @param job new job
+     */
+    synchronized void add(final ServerSideJob job) {
+        if (!queued.containsKey(job)) {
+            queued.put(job, tail++);
+            getBucket(job.getComplexity()).addLast(job);
+        }
+    }
+
+    /**
+     * Return job to the head of the queue, so it is assigned before waiting
+     * jobs. Jobs already waiting in the queue are left in place.
+     *
+     * @param job returned job
+     */
+    synchronized void addFirst(final ServerSideJob job) {
+        if (!queued.containsKey(job)) {
+            queued.put(job, --head);
+            getBucket(job.getComplexity()).addFirst(job);
+        }
+    }
+
+    /**
+     * Remove the oldest job with complexity not exceeding the given limit,
+     * which has not been canceled by the client during the cooldown. Only the
+     * first suitable job of every complexity class is compared.
+     *
+     * @param maxComplexity maximal complexity of the job
+     * @param clientId ID of the client
+     * @param cooldown time after cancelation during which the job is not
+     * given to the same client again
+     * @return picked job, null if there is no job for the client
+     */
+    synchronized ServerSideJob poll(final int maxComplexity, final UUID clientId, final long cooldown) {
+        final long now = System.currentTimeMillis();
+        ServerSideJob result = null;
+        long position = Long.MAX_VALUE;
+        long jobPosition;
+        for (Deque<ServerSideJob> bucket : buckets.headMap(maxComplexity, true).values()) {
+            for (ServerSideJob job : bucket) {
+                jobPosition = queued.get(job);
+                if (jobPosition > position) {
+                    // rest of the bucket is newer than the picked job
+                    break;
+                }
+                if (!isCoolingDown(job.getId(), clientId, now, cooldown)) {
+                    result = job;
+                    position = jobPosition;
+                    break;
+                }
+            }
+        }
+        if (result != null) {
+            remove(result);
+        }
+        return result;
+    }
+
+    /**
+     * @param job job for removal
+     * @return true if the job has been waiting in the queue
+     */
+    synchronized boolean remove(final ServerSideJob job) {
+        if (queued.remove(job) != null) {
+            final Deque<ServerSideJob> bucket = buckets.get(job.getComplexity());
+            bucket.remove(job);
+            if (bucket.isEmpty()) {
+                buckets.remove(job.getComplexity());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record cancelation of the job by the client.
+     *
+     * @param jobId ID of the job
+     * @param clientId ID of the client
+     */
+    synchronized void cancelled(final UUID jobId, final UUID clientId) {
+        Map<UUID, Long> times = cancelTimes.get(jobId);
+        if (times == null) {
+            times = new HashMap<UUID, Long>(2);
+            cancelTimes.put(jobId, times);
+        }
+        times.put(clientId, System.currentTimeMillis());
+    }
+
+    /**
+     * Forget cancelations of completed job.
+     *
+     * @param jobId ID of the job
+     */
+    synchronized void forget(final UUID jobId) {
+        cancelTimes.remove(jobId);
+    }
+
+    /**
+     * @return true if there are no jobs waiting
+     */
+    synchronized boolean isEmpty() {
+        return queued.isEmpty();
+    }
+
+    /**
+     * @return count of waiting jobs
+     */
+    synchronized int size() {
+        return queued.size();
+    }
+
+    /**
+     * @return copy of waiting jobs
+     */
+    synchronized List<ServerSideJob> getJobs() {
+        final List<ServerSideJob> result = new ArrayList<ServerSideJob>(queued.size());
+        for (Deque<ServerSideJob> bucket : buckets.values()) {
+            result.addAll(bucket);
+        }
+        return result;
+    }
+
+    private Deque<ServerSideJob> getBucket(final int complexity) {
+        Deque<ServerSideJob> result = buckets.get(complexity);
+        if (result == null) {
+            result = new ArrayDeque<ServerSideJob>();
+            buckets.put(complexity, result);
+        }
+        return result;
+    }
+
+    private boolean isCoolingDown(final UUID jobId, final UUID clientId, final long now, final long cooldown) {
+        final Map<UUID, Long> times = cancelTimes.get(jobId);
+        if (times == null) {
+            return false;
+        }
+        final Long time = times.get(clientId);
+        if (time == null) {
+            return false;
+        }
+        if (now - time > cooldown) {
+            times.remove(clientId);
+            if (times.isEmpty()) {
+                cancelTimes.remove(jobId);
+            }
+            return false;
+        }
+        return true;
+    }
+}
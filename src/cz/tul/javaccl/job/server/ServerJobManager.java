@@ -23,7 +23,9 @@ public interface ServerJobManager {
     Job submitJob(final Object task) throws IllegalArgumentException;
 
     /**
-     * Submit job with defined complexity for computation.
+     * Submit job with defined complexity for computation. Jobs are assigned in
+     * order of submission, every job to the first free client accepting jobs
+     * of its complexity.
      *
      * @param task jobs task
      * @param complexity jobs complexity
@@ -1,8 +1,10 @@
 package cz.tul.javaccl.job.server;
 
+import cz.tul.javaccl.ExecutorFactory;
 import cz.tul.javaccl.GenericResponses;
 import cz.tul.javaccl.IService;
 import cz.tul.javaccl.communicator.Communicator;
+import cz.tul.javaccl.communicator.CommunicatorInner;
 import cz.tul.javaccl.exceptions.ConnectionException;
 import cz.tul.javaccl.exceptions.ConnectionExceptionCause;
 import cz.tul.javaccl.job.ClientJobSettings;
@@ -14,23 +16,32 @@ import cz.tul.javaccl.server.ClientManager;
 import cz.tul.javaccl.server.DataStorage;
 import cz.tul.javaccl.socket.ListenerRegistrator;
 import cz.tul.javaccl.messaging.Identifiable;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
 import cz.tul.javaccl.persistence.Timeout;
 import cz.tul.javaccl.socket.Listener;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,12 +56,22 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
     private final ClientManager clientManager;
     private DataStorage dataStorage;
     private final ListenerRegistrator listenerRegistrator;
-    private final Deque<ServerSideJob> jobQueue;
+    private final JobQueue jobQueue;
     private final Map<Communicator, Calendar> lastTimeOnline;
     private final Map<Communicator, Integer> jobCount;
     private final Map<Communicator, Integer> jobComplexity;
-    private final Set<JobRecord> activeJobs;
+    private final Map<UUID, JobRecord> activeJobs;
+    private final Map<Communicator, Set<JobRecord>> clientJobs;
+    private final ConcurrentMap<Communicator, AtomicInteger> runningJobs;
+    private final ConcurrentMap<Communicator, AtomicInteger> dispatchedJobs;
+    private final ExecutorService dispatchExec;
     private final Map<Job, List<JobAction>> jobHistory;
+    private final DelayQueue<JobDeadline> deadlines;
+    private final ConcurrentMap<Communicator, JobDeadline> ownerChecks;
+    private final Observer ownerObserver;
+    private final Lock wakeLock;
+    private final Condition wakeCondition;
+    private boolean wakeRequested;
     private boolean run;
 
     /**
@@ -63,11 +84,29 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
         this.clientManager = clientManager;
         this.listenerRegistrator = listenerRegistrator;
         lastTimeOnline = new HashMap<Communicator, Calendar>();
-        jobQueue = new ArrayDeque<ServerSideJob>();
+        jobQueue = new JobQueue();
         jobHistory = new HashMap<Job, List<JobAction>>();
-        activeJobs = new HashSet<JobRecord>();
+        activeJobs = new HashMap<UUID, JobRecord>();
+        clientJobs = new HashMap<Communicator, Set<JobRecord>>();
+        runningJobs = new ConcurrentHashMap<Communicator, AtomicInteger>();
+        dispatchedJobs = new ConcurrentHashMap<Communicator, AtomicInteger>();
+        dispatchExec = ExecutorFactory.newCachedExecutor("JobDispatch", true);
+        deadlines = new DelayQueue<JobDeadline>();
+        ownerChecks = new ConcurrentHashMap<Communicator, JobDeadline>();
+        ownerObserver = new Observer() {
+            @Override
+            public void update(final Observable o, final Object arg) {
+                final Communicator comm = (Communicator) o;
+                // called from communication threads, so only the check is scheduled
+                if (!comm.isOnline() && countActiveJobs(comm) > 0) {
+                    scheduleOwnerCheck(comm, getJobTimeout(comm));
+                }
+            }
+        };
         jobCount = new HashMap<Communicator, Integer>();
         jobComplexity = new HashMap<Communicator, Integer>();
+        wakeLock = new ReentrantLock();
+        wakeCondition = wakeLock.newCondition();
 
         run = true;
     }
@@ -89,9 +128,7 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
     @Override
     public Job submitJob(Object task, int complexity) throws IllegalArgumentException {
         final ServerSideJob result = new ServerSideJob(task, this, complexity);
-        synchronized (jobQueue) {
-            jobQueue.add(result);
-        }
+        jobQueue.add(result);
 
         LOG.log(Level.INFO, "Job with ID {0} and complexity {1} submitted.", new Object[]{result.getId(), complexity});
         wakeUp();
@@ -101,38 +138,54 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
 
     @Override
     public void waitForAllJobs() {
-        while (!activeJobs.isEmpty()) {
-            synchronized (this) {
+        wakeLock.lock();
+        try {
+            while (!activeJobs.isEmpty()) {
                 try {
-                    this.wait();
+                    wakeCondition.await();
                 } catch (InterruptedException ex) {
                     LOG.log(Level.WARNING, "Waiting for all jobs to complete failed.");
                     LOG.log(Level.FINE, "Waiting for all jobs to complete failed.", ex);
                 }
             }
+        } finally {
+            wakeLock.unlock();
         }
     }
 
     @Override
     public void stopAllJobs() {
-        synchronized (jobQueue) {
-            for (ServerSideJob ssj : jobQueue) {
-                ssj.setResult(null);
-                ssj.setStatus(JobStatus.CANCELED);
-            }
+        for (ServerSideJob ssj : jobQueue.getJobs()) {
+            ssj.setResult(null);
+            ssj.setStatus(JobStatus.CANCELED);
         }
 
+        final Collection<JobRecord> active;
         synchronized (activeJobs) {
-            for (JobRecord jr : activeJobs) {
-                try {
-                    jr.getJob().cancelJob();
-                } catch (ConnectionException ex) {
-                    LOG.log(Level.WARNING, "Could not contact client {0} for job cancelation.", jr.getOwner().getTargetId());
-                    LOG.log(Level.FINE, "Could not contact client for job cancelation.", ex);
-                }
+            active = new ArrayList<JobRecord>(activeJobs.values());
+        }
+        // clients are contacted without holding the lock
+        for (JobRecord jr : active) {
+            try {
+                jr.getJob().cancelJob();
+            } catch (ConnectionException ex) {
+                LOG.log(Level.WARNING, "Could not contact client {0} for job cancelation.", jr.getOwner().getTargetId());
+                LOG.log(Level.FINE, "Could not contact client for job cancelation.", ex);
+            }
+        }
+        synchronized (activeJobs) {
+            for (UUID id : activeJobs.keySet()) {
+                listenerRegistrator.removeIdListener(id);
+            }
+            for (Communicator owner : clientJobs.keySet()) {
+                removeOwnerObserver(owner);
             }
             activeJobs.clear();
+            clientJobs.clear();
+            runningJobs.clear();
         }
+        deadlines.clear();
+        ownerChecks.clear();
 
         lastTimeOnline.clear();
         wakeUp();
@@ -141,95 +194,239 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
     @Override
     public void run() {
         LOG.fine("JobManager has been started.");
+        JobDeadline next;
+        long delay;
         while (run) {
-            checkAssignedJobs();
-            checkClientStatuses();
+            handleDeadlines();
             if (!jobQueue.isEmpty()) {
                 assignJobs();
             }
-            synchronized (this) {
-                try {
-                    this.wait(Timeout.getTimeout(Timeout.TimeoutType.JOB_CHECK));
-                } catch (InterruptedException ex) {
-                    LOG.log(Level.WARNING, "Waiting of JobManager has been interrupted.");
-                    LOG.log(Level.FINE, "Waiting of JobManager has been interrupted.", ex);
+            wakeLock.lock();
+            try {
+                // wake up requested during the check is not lost
+                if (!wakeRequested) {
+                    next = deadlines.peek();
+                    if (next != null) {
+                        delay = next.getDelay(TimeUnit.MILLISECONDS);
+                    } else {
+                        delay = Long.MAX_VALUE;
+                    }
+                    if (!jobQueue.isEmpty()) {
+                        // waiting jobs are offered to clients, which came online meanwhile
+                        delay = Math.min(delay, Timeout.getTimeout(Timeout.TimeoutType.JOB_CHECK_MIN));
+                    }
+                    if (delay == Long.MAX_VALUE) {
+                        wakeCondition.await();
+                    } else if (delay > 0) {
+                        wakeCondition.await(delay, TimeUnit.MILLISECONDS);
+                    }
                 }
+                wakeRequested = false;
+            } catch (InterruptedException ex) {
+                LOG.log(Level.WARNING, "Waiting of JobManager has been interrupted.");
+                LOG.log(Level.FINE, "Waiting of JobManager has been interrupted.", ex);
+            } finally {
+                wakeLock.unlock();
             }
         }
     }
 
-    private void checkAssignedJobs() {
-        long dif;
-        ServerSideJob j;
-        JobRecord jr;
-        final Collection<JobRecord> remove = new LinkedList<JobRecord>();
+    private void handleDeadlines() {
+        JobDeadline deadline;
+        while ((deadline = deadlines.poll()) != null) {
+            switch (deadline.getType()) {
+                case ACCEPT:
+                    checkAcceptDeadline(deadline.getRecord());
+                    break;
+                case OWNER_OFFLINE:
+                    checkOwnerStatus(deadline.getOwner());
+                    break;
+                default:
+                    // cooldown has passed, waiting jobs are assigned again
+                    break;
+            }
+        }
+    }
+
+    private void checkAcceptDeadline(final JobRecord jr) {
         synchronized (activeJobs) {
-            Iterator<JobRecord> it = activeJobs.iterator();
-            while (it.hasNext()) {
-                jr = it.next();
-                j = jr.getJob();
-                if (j.getStatus().equals(JobStatus.SENT)) {
-                    dif = Calendar.getInstance().getTimeInMillis() - jr.getLastAction().getTimeInMillis();
-                    if (dif > Timeout.getTimeout(Timeout.TimeoutType.JOB_CHECK)) {
-                        try {
-                            j.cancelJob();
-                            j.setStatus(JobStatus.SUBMITTED);
-                        } catch (ConnectionException ex) {
-                            LOG.log(Level.WARNING, "Could not contact client with ID {0} for job cancelation.", jr.getOwner().getTargetId());
-                        }
-                        storeJobAction(j, jr.getOwner().getTargetId(), JobConstants.JOB_CANCEL);
-                        LOG.log(Level.INFO, "Job with id {0} hasnt been accepted in time, so it was cancelled and returned to queue.", j.getId());
-                        if (!jobQueue.contains(j)) {
-                            jobQueue.addFirst(j);
-                        }
-                        remove.add(jr);
-                    }
-                }
+            final ServerSideJob j = jr.getJob();
+            // record has been replaced if the job has been returned and sent again
+            if (activeJobs.get(j.getId()) == jr && j.getStatus().equals(JobStatus.SENT)) {
+                returnToQueue(jr);
+                LOG.log(Level.INFO, "Job with id {0} hasnt been accepted in time, so it was cancelled and returned to queue.", j.getId());
             }
-            activeJobs.removeAll(remove);
         }
     }
 
-    private void checkClientStatuses() {
-        long dif;
-        ServerSideJob j;
-        JobRecord jr;
+    private void checkOwnerStatus(final Communicator comm) {
+        ownerChecks.remove(comm);
+        final long now = Calendar.getInstance().getTimeInMillis();
+        final int timeout = getJobTimeout(comm);
+        long nextCheck = Long.MAX_VALUE;
+        long due;
         Calendar lastOnline;
-        Communicator comm;
-        final Collection<JobRecord> remove = new LinkedList<JobRecord>();
+        final Collection<JobRecord> expired = new LinkedList<JobRecord>();
         synchronized (activeJobs) {
-            Iterator<JobRecord> it = activeJobs.iterator();
-            while (it.hasNext()) {
-                jr = it.next();
-                j = jr.getJob();
-                if (j.getStatus().equals(JobStatus.ACCEPTED)) {
-                    comm = jr.getOwner();
-                    if (!isClientOnline(comm)) {
-                        lastOnline = lastTimeOnline.get(comm);
-                        if (lastOnline == null) {
-                            lastOnline = jr.getLastAction();
-                        }
+            final Set<JobRecord> jobs = clientJobs.get(comm);
+            if (jobs == null || isClientOnline(comm)) {
+                return;
+            }
+            for (JobRecord jr : jobs) {
+                if (jr.getJob().getStatus().equals(JobStatus.ACCEPTED)) {
+                    lastOnline = lastTimeOnline.get(comm);
+                    if (lastOnline == null) {
+                        lastOnline = jr.getLastAction();
+                    }
 
-                        dif = Calendar.getInstance().getTimeInMillis() - lastOnline.getTimeInMillis();
-                        if (dif > Timeout.getTimeout(Timeout.TimeoutType.JOB_CHECK)) {
-                            try {
-                                j.cancelJob();
-                                j.setStatus(JobStatus.SUBMITTED);
-                            } catch (ConnectionException ex) {
-                                LOG.log(Level.WARNING, "Could not contact client with ID {0} for job cancelation.", jr.getOwner().getTargetId());
-                            }
-                            storeJobAction(j, jr.getOwner().getTargetId(), JobConstants.JOB_CANCEL);
-                            LOG.log(Level.INFO, "Jobs (id {0}) owner went offline, so it was cancelled and returned to queue.", j.getId());
-                            if (!jobQueue.contains(j)) {
-                                jobQueue.addFirst(j);
-                            }
-                            remove.add(jr);
-                        }
+                    due = lastOnline.getTimeInMillis() + timeout;
+                    if (now > due) {
+                        expired.add(jr);
+                    } else {
+                        nextCheck = Math.min(nextCheck, due);
                     }
                 }
             }
-            activeJobs.removeAll(remove);
+            for (JobRecord jr : expired) {
+                returnToQueue(jr);
+                LOG.log(Level.INFO, "Jobs (id {0}) owner went offline, so it was cancelled and returned to queue.", jr.getJob().getId());
+            }
+        }
+        if (nextCheck != Long.MAX_VALUE) {
+            scheduleOwnerCheck(comm, nextCheck - now + 1);
+        }
+    }
+
+    /**
+     * Check jobs of the client after given time, unless the check is already
+     * scheduled.
+     *
+     * @param comm job owner
+     * @param delay time until the check in miliseconds
+     */
+    private void scheduleOwnerCheck(final Communicator comm, final long delay) {
+        final JobDeadline deadline = new JobDeadline(JobDeadline.Type.OWNER_OFFLINE, null, comm, delay);
+        if (ownerChecks.putIfAbsent(comm, deadline) == null) {
+            scheduleDeadline(deadline);
+        }
+    }
+
+    private void scheduleDeadline(final JobDeadline deadline) {
+        deadlines.offer(deadline);
+        if (deadlines.peek() == deadline) {
+            // manager may be waiting for a later deadline
+            wakeUp();
+        }
+    }
+
+    /**
+     * Cancel job at its owner and return it to the head of the queue. The job
+     * is not marked as canceled, so users waiting for its result keep
+     * waiting. Must be called while holding the lock of active jobs, the
+     * owner is contacted asynchronously.
+     *
+     * @param jr record of active job
+     */
+    private void returnToQueue(final JobRecord jr) {
+        final ServerSideJob j = jr.getJob();
+        final Communicator owner = jr.getOwner();
+        try {
+            dispatchExec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        owner.sendData(new JobTask(j.getId(), JobConstants.JOB_CANCEL, null), Timeout.getTimeout(Timeout.TimeoutType.MESSAGE), UUID.randomUUID());
+                    } catch (ConnectionException ex) {
+                        LOG.log(Level.WARNING, "Could not contact client with ID {0} for job cancelation.", owner.getTargetId());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOG.log(Level.FINE, "Job manager has been stopped, job cancelation is not sent.", ex);
+        }
+        removeActiveJob(j.getId());
+        j.setStatus(JobStatus.SUBMITTED);
+        storeJobAction(j, owner.getTargetId(), JobConstants.JOB_CANCEL);
+        jobQueue.addFirst(j);
+    }
+
+    /**
+     * Register job as active and count it to its owner. Must be called while
+     * holding the lock of active jobs.
+     *
+     * @param jr record of job with owner
+     */
+    private void addActiveJob(final JobRecord jr) {
+        final Communicator owner = jr.getOwner();
+        activeJobs.put(jr.getJob().getId(), jr);
+        Set<JobRecord> jobs = clientJobs.get(owner);
+        if (jobs == null) {
+            jobs = new HashSet<JobRecord>();
+            clientJobs.put(owner, jobs);
+            if (owner instanceof CommunicatorInner) {
+                // observer is registered while the client owns any job
+                ((CommunicatorInner) owner).addObserver(ownerObserver);
+            }
+        }
+        jobs.add(jr);
+        getCounter(runningJobs, owner).incrementAndGet();
+    }
+
+    private static AtomicInteger getCounter(final ConcurrentMap<Communicator, AtomicInteger> counters, final Communicator comm) {
+        AtomicInteger result = counters.get(comm);
+        if (result == null) {
+            result = new AtomicInteger();
+            final AtomicInteger previous = counters.putIfAbsent(comm, result);
+            if (previous != null) {
+                result = previous;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Unregister active job and route of its messages. Status of a client
+     * without active jobs is not observed any more. Must be called while
+     * holding the lock of active jobs.
+     *
+     * @param id job ID
+     * @return record of removed job, null if the job is not active
+     */
+    private JobRecord removeActiveJob(final UUID id) {
+        final JobRecord result = activeJobs.remove(id);
+        if (result != null) {
+            // route is registered again when the job is assigned next time
+            listenerRegistrator.removeIdListener(id);
+            final Communicator owner = result.getOwner();
+            final Set<JobRecord> jobs = clientJobs.get(owner);
+            if (jobs != null) {
+                jobs.remove(result);
+                if (jobs.isEmpty()) {
+                    clientJobs.remove(owner);
+                    removeOwnerObserver(owner);
+                }
+            }
+            final AtomicInteger counter = runningJobs.get(owner);
+            if (counter != null) {
+                counter.decrementAndGet();
+            }
         }
+        return result;
+    }
+
+    private void removeOwnerObserver(final Communicator owner) {
+        if (owner instanceof CommunicatorInner) {
+            ((CommunicatorInner) owner).deleteObserver(ownerObserver);
+        }
+    }
+
+    /**
+     * @param owner job owner
+     * @return time limit for job state changes derived from round trip time
+     * to the owner
+     */
+    private static int getJobTimeout(final Communicator owner) {
+        return owner.getRttEstimator().getTimeout(Timeout.TimeoutType.JOB_CHECK_MIN, Timeout.TimeoutType.JOB_CHECK);
     }
 
     private boolean isClientOnline(final Communicator comm) {
@@ -244,20 +441,17 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
         ServerSideJob job;
         final Collection<Communicator> clients = clientManager.getClients();
         Collection<Communicator> comms;
-        while (!jobQueue.isEmpty() && isAnyClientFree(clients)) {
+        boolean assigned = true;
+        // waiting jobs may be cooling down for all free clients, they are picked after the cooldown deadline
+        while (assigned && !jobQueue.isEmpty() && isAnyClientFree(clients)) {
+            assigned = false;
             comms = pickOnlineClients(clients);
 
             for (Communicator comm : comms) {
                 job = pickJob(comm);
                 if (job != null) {
-                    if (assignJob(job, comm)) {
-                        LOG.log(Level.INFO, "Job with ID {0} assigned to client with ID {1}", new Object[]{job.getId(), comm.getTargetId()});
-                        synchronized (jobQueue) {
-                            jobQueue.remove(job);
-                        }
-                    } else {
-                        LOG.log(Level.WARNING, "Failed to assign job with id {0} to client with ID {1}", new Object[]{job.getId(), comm.getTargetId()});
-                    }
+                    assignJob(job, comm);
+                    assigned = true;
                 } else {
                     LOG.log(Level.FINE, "No job available for client with ID {0}", comm.getTargetId());
                 }
@@ -286,25 +480,24 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
                 maxCount = 1;
             }
 
-            return (count < maxCount);
+            return count < maxCount && countDispatchedJobs(comm) < Configuration.getInt(ConfigurationType.JOB_DISPATCH_LIMIT);
         }
 
         return result;
     }
 
-    private int countActiveJobs(final Communicator comm) {
-        int count = 0;
-        Communicator comm2;
-        synchronized (activeJobs) {
-            for (JobRecord jr : activeJobs) {
-                comm2 = jr.getOwner();
-                if (comm2 != null && comm2.equals(comm)) {
-                    count++;
-                }
-            }
-        }
+    /**
+     * @param comm client
+     * @return count of jobs assigned to the client
+     */
+    int countActiveJobs(final Communicator comm) {
+        final AtomicInteger counter = runningJobs.get(comm);
+        return counter != null ? counter.get() : 0;
+    }
 
-        return count;
+    private int countDispatchedJobs(final Communicator comm) {
+        final AtomicInteger counter = dispatchedJobs.get(comm);
+        return counter != null ? counter.get() : 0;
     }
 
     private Collection<Communicator> pickOnlineClients(final Collection<Communicator> clients) {
@@ -319,89 +512,83 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
         return result;
     }
 
+    /**
+     * Remove job for the client from the queue. Oldest job the client can
+     * compute is picked, jobs canceled by the client recently are skipped.
+     *
+     * @param comm client
+     * @return picked job, null if there is no job for the client
+     */
     private ServerSideJob pickJob(final Communicator comm) {
-        ServerSideJob result = null;
-
-        // traverse job, check complexity and cancel time
-        List<JobAction> actionList;
-        Calendar cal;
-        synchronized (jobQueue) {
-            for (ServerSideJob job : jobQueue) {
-                final int maxJobComplexity;
-                if (jobComplexity.containsKey(comm)) {
-                    maxJobComplexity = jobComplexity.get(comm);
-                } else {
-                    maxJobComplexity = JobConstants.DEFAULT_COMPLEXITY;
-                }
-                if (job.getComplexity() > maxJobComplexity) {
-                    continue;
-                }
+        final Integer maxJobComplexity = jobComplexity.get(comm);
+        return jobQueue.poll(
+                maxJobComplexity != null ? maxJobComplexity : JobConstants.DEFAULT_COMPLEXITY,
+                comm.getTargetId(),
+                Timeout.getTimeout(Timeout.TimeoutType.JOB_CHECK));
+    }
 
-                actionList = jobHistory.get(job);
-                if (actionList != null) {
-                    cal = lastCancelTime(actionList, comm);
-                    if (cal != null) {
-                        if ((Calendar.getInstance(Locale.getDefault()).getTimeInMillis() - cal.getTimeInMillis()) > Timeout.getTimeout(Timeout.TimeoutType.JOB_CHECK)) {
-                            result = job;
-                            break;
-                        }
-                    } else {
-                        result = job;
-                        break;
-                    }
-                } else {
-                    result = job;
-                    break;
+    /**
+     * Register job as active and send it to the client asynchronously. The
+     * job counts to the clients jobs until the sending fails.
+     *
+     * @param job assigned job
+     * @param comm client
+     */
+    private void assignJob(final ServerSideJob job, final Communicator comm) {
+        final JobRecord jr = new JobRecord(job);
+        jr.setOwner(comm);
+        listenerRegistrator.setIdListener(job.getId(), this);
+        synchronized (activeJobs) {
+            addActiveJob(jr);
+            storeJobAction(job, comm.getTargetId(), JobConstants.JOB_TASK);
+        }
+        getCounter(dispatchedJobs, comm).incrementAndGet();
+        try {
+            dispatchExec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    dispatchJob(jr);
                 }
-            }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOG.log(Level.FINE, "Job manager has been stopped, job is not sent.", ex);
+            dispatchFailed(jr);
+            getCounter(dispatchedJobs, comm).decrementAndGet();
         }
-
-        return result;
     }
 
-    private boolean assignJob(final ServerSideJob job, final Communicator comm) {
-        boolean result;
-        JobRecord jr = null;
+    private void dispatchJob(final JobRecord jr) {
+        final ServerSideJob job = jr.getJob();
+        final Communicator comm = jr.getOwner();
         try {
+            submitJob(job, comm);
             synchronized (activeJobs) {
-                listenerRegistrator.setIdListener(job.getId(), this);
-                jr = new JobRecord(job);
-                jr.setOwner(comm);
-                activeJobs.add(jr);
-                submitJob(job, comm);
-                job.setStatus(JobStatus.SENT);
-                storeJobAction(job, comm.getTargetId(), JobConstants.JOB_TASK);
-                result = true;
+                // client may have accepted the job before the reply arrived
+                if (activeJobs.get(job.getId()) == jr && job.getStatus().equals(JobStatus.SUBMITTED)) {
+                    job.setStatus(JobStatus.SENT);
+                    scheduleDeadline(new JobDeadline(JobDeadline.Type.ACCEPT, jr, null, getJobTimeout(comm)));
+                }
             }
+            LOG.log(Level.INFO, "Job with ID {0} assigned to client with ID {1}", new Object[]{job.getId(), comm.getTargetId()});
         } catch (ConnectionException ex) {
-            synchronized (activeJobs) {
-                activeJobs.remove(jr);
-            }
-            job.setStatus(JobStatus.SUBMITTED);
-            storeJobAction(job, null, JobConstants.JOB_CANCEL);
+            dispatchFailed(jr);
+            LOG.log(Level.WARNING, "Failed to assign job with id {0} to client with ID {1}", new Object[]{job.getId(), comm.getTargetId()});
             LOG.log(Level.FINE, "Error sending job to client.", ex);
-            result = false;
+        } finally {
+            getCounter(dispatchedJobs, comm).decrementAndGet();
+            wakeUp();
         }
-
-        return result;
     }
 
-    private Calendar lastCancelTime(final List<JobAction> actionList, final Communicator comm) {
-        List<Calendar> cancelTimes = new ArrayList<Calendar>();
-        boolean idMatch, descriptionMatch;
-        for (JobAction ja : actionList) {
-            idMatch = comm != null && ja.getOwnerId() != null && ja.getOwnerId().equals(comm.getTargetId());
-            descriptionMatch = ja.getActionDescription().equals(JobConstants.JOB_CANCEL);
-            if (idMatch && descriptionMatch) {
-                cancelTimes.add(ja.getActionTime());
+    private void dispatchFailed(final JobRecord jr) {
+        final ServerSideJob job = jr.getJob();
+        synchronized (activeJobs) {
+            if (activeJobs.get(job.getId()) == jr && job.getStatus().equals(JobStatus.SUBMITTED)) {
+                removeActiveJob(job.getId());
+                storeJobAction(job, null, JobConstants.JOB_CANCEL);
+                jobQueue.addFirst(job);
             }
         }
-        if (cancelTimes.size() > 0) {
-            Collections.sort(cancelTimes);
-            return cancelTimes.get(cancelTimes.size() - 1);
-        } else {
-            return null;
-        }
     }
 
     private void storeClientOnlineStatus(final Communicator comm) {
@@ -410,11 +597,10 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
 
     private void submitJob(final ServerSideJob ssj, final Communicator comm) throws ConnectionException {
         final JobTask jt = new JobTask(ssj.getId(), JobConstants.JOB_TASK, ssj.getTask());
-        final Object response = comm.sendData(jt);
-        if (GenericResponses.OK.equals(response)) {
-            ssj.setStatus(JobStatus.SENT);
-        } else {
-            throw new ConnectionException(ConnectionExceptionCause.UNKNOWN, response.toString());
+        // task can be safely sent again if the client does not reply
+        final Object response = comm.sendData(jt, Timeout.getTimeout(Timeout.TimeoutType.MESSAGE), UUID.randomUUID());
+        if (!GenericResponses.OK.equals(response)) {
+            throw new ConnectionException(ConnectionExceptionCause.UNKNOWN, String.valueOf(response));
         }
     }
 
@@ -422,6 +608,7 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
     public void stopService() {
         run = false;
         stopAllJobs();
+        dispatchExec.shutdown();
         wakeUp();
 
         LOG.fine("JobManager has been stopped.");
@@ -460,9 +647,12 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
                         ClientJobSettings jc = (ClientJobSettings) count;
                         if (JobConstants.JOB_COUNT.equals(jc.getSettings())) {
                             jobCount.put(clientManager.getClient(jc.getClientId()), jc.getValue());
+                            // client may take waiting jobs now
+                            wakeUp();
                             return GenericResponses.OK;
                         } else if (JobConstants.JOB_COMPLEXITY.equals(jc.getSettings())) {
                             jobComplexity.put(clientManager.getClient(jc.getClientId()), jc.getValue());
+                            wakeUp();
                             return GenericResponses.OK;
                         } else {
                             return GenericResponses.ILLEGAL_HEADER;
@@ -485,16 +675,17 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
         GenericResponses result = GenericResponses.UUID_UNKNOWN;
         ServerSideJob ssj;
         synchronized (activeJobs) {
-            for (JobRecord jr : activeJobs) {
+            final JobRecord jr = activeJobs.get(id);
+            if (jr != null) {
                 ssj = jr.getJob();
-                if (ssj.getId().equals(id)) {
-                    ssj.setStatus(JobStatus.ACCEPTED);
-                    jr.updateTime();
-                    LOG.log(Level.INFO, "Job with ID {0} has been accepted.", id);
-                    storeJobAction(ssj, jr.getOwner().getTargetId(), JobConstants.JOB_ACCEPT);
-                    result = GenericResponses.OK;
-                    break;
+                ssj.setStatus(JobStatus.ACCEPTED);
+                jr.updateTime();
+                LOG.log(Level.INFO, "Job with ID {0} has been accepted.", id);
+                storeJobAction(ssj, jr.getOwner().getTargetId(), JobConstants.JOB_ACCEPT);
+                if (!jr.getOwner().isOnline()) {
+                    scheduleOwnerCheck(jr.getOwner(), getJobTimeout(jr.getOwner()));
                 }
+                result = GenericResponses.OK;
             }
         }
         if (result == GenericResponses.UUID_UNKNOWN) {
@@ -508,20 +699,15 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
         GenericResponses result = GenericResponses.UUID_UNKNOWN;
         ServerSideJob j;
         synchronized (activeJobs) {
-            final Iterator<JobRecord> it = activeJobs.iterator();
-            JobRecord jr;
-            while (it.hasNext()) {
-                jr = it.next();
+            final JobRecord jr = removeActiveJob(id);
+            if (jr != null) {
                 j = jr.getJob();
-                if (j.getId().equals(id)) {
-                    jobQueue.addFirst(j);
-                    j.setStatus(JobStatus.SUBMITTED);
-                    it.remove();
-                    LOG.log(Level.INFO, "Job with ID {0} has been cancelled.", id);
-                    storeJobAction(j, jr.getOwner().getTargetId(), JobConstants.JOB_CANCEL);
-                    result = GenericResponses.OK;
-                    break;
-                }
+                j.setStatus(JobStatus.SUBMITTED);
+                LOG.log(Level.INFO, "Job with ID {0} has been cancelled.", id);
+                // cancelation is recorded before the job can be picked again
+                storeJobAction(j, jr.getOwner().getTargetId(), JobConstants.JOB_CANCEL);
+                jobQueue.addFirst(j);
+                result = GenericResponses.OK;
             }
         }
         if (result == GenericResponses.UUID_UNKNOWN) {
@@ -536,20 +722,15 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
         final UUID id = jt.getJobId();
         ServerSideJob j;
         synchronized (activeJobs) {
-            final Iterator<JobRecord> it = activeJobs.iterator();
-            JobRecord jr;
-            while (it.hasNext()) {
-                jr = it.next();
+            final JobRecord jr = removeActiveJob(id);
+            if (jr != null) {
                 j = jr.getJob();
-                if (j.getId().equals(id)) {
-                    j.setResult(jt.getTask());
-                    it.remove();
-                    jobHistory.remove(j);
-                    LOG.log(Level.INFO, "Job with ID {0} has been computed succefully.", id);
-                    storeJobAction(j, jr.getOwner().getTargetId(), JobConstants.JOB_RESULT);
-                    result = GenericResponses.OK;
-                    break;
-                }
+                j.setResult(jt.getTask());
+                jobHistory.remove(j);
+                jobQueue.forget(id);
+                LOG.log(Level.INFO, "Job with ID {0} has been computed succefully.", id);
+                storeJobAction(j, jr.getOwner().getTargetId(), JobConstants.JOB_RESULT);
+                result = GenericResponses.OK;
             }
         }
         if (result == GenericResponses.UUID_UNKNOWN) {
@@ -560,8 +741,12 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
     }
 
     private void wakeUp() {
-        synchronized (this) {
-            this.notifyAll();
+        wakeLock.lock();
+        try {
+            wakeRequested = true;
+            wakeCondition.signalAll();
+        } finally {
+            wakeLock.unlock();
         }
     }
 
@@ -572,26 +757,33 @@ public class ServerJobManagerImpl extends Thread implements IService, Listener<I
             jobHistory.put(job, l);
         }
         l.add(new JobAction(job, ownerId, action));
+        if (ownerId != null && JobConstants.JOB_CANCEL.equals(action)) {
+            jobQueue.cancelled(job.getId(), ownerId);
+            scheduleDeadline(new JobDeadline(JobDeadline.Type.COOLDOWN, null, null, Timeout.getTimeout(Timeout.TimeoutType.JOB_CHECK) + 1));
+        }
     }
 
     @Override
     public void cancelJobByServer(Job job) throws ConnectionException {
+        final JobRecord jr;
         synchronized (activeJobs) {
-            final Iterator<JobRecord> it = activeJobs.iterator();
-            JobRecord jr;
-            ServerSideJob j;
-            while (it.hasNext()) {
-                jr = it.next();
-                j = jr.getJob();
-                if (job == j) {
-                    final JobTask jt = new JobTask(job.getId(), JobConstants.JOB_CANCEL, null);
-                    jr.getOwner().sendData(jt);
-                    ((ServerSideJob) job).setStatus(JobStatus.CANCELED);
-                    jr.updateTime();
-                    it.remove();
-                    jobHistory.remove(j);
-                    LOG.log(Level.INFO, "Job with ID {0} has been cancelled by server.", j.getId());
-                }
+            jr = activeJobs.get(job.getId());
+        }
+        if (jr == null || jr.getJob() != job) {
+            wakeUp();
+            return;
+        }
+
+        final JobTask jt = new JobTask(job.getId(), JobConstants.JOB_CANCEL, null);
+        jr.getOwner().sendData(jt, Timeout.getTimeout(Timeout.TimeoutType.MESSAGE), UUID.randomUUID());
+        synchronized (activeJobs) {
+            if (activeJobs.get(job.getId()) == jr) {
+                ((ServerSideJob) job).setStatus(JobStatus.CANCELED);
+                jr.updateTime();
+                removeActiveJob(job.getId());
+                jobHistory.remove(job);
+                jobQueue.forget(job.getId());
+                LOG.log(Level.INFO, "Job with ID {0} has been cancelled by server.", job.getId());
             }
         }
         wakeUp();
@@ -4,6 +4,9 @@ import cz.tul.javaccl.exceptions.ConnectionException;
 import cz.tul.javaccl.job.JobConstants;
 import cz.tul.javaccl.job.JobStatus;
 import java.util.UUID;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,11 +22,15 @@ public class ServerSideJob implements Job {
     private final Object task;
     private final UUID jobId;
     private final int complexity;
-    private Object result;
-    private JobStatus jobStatus;
+    private final Lock lock;
+    private final Condition statusChanged;
+    private volatile Object result;
+    private volatile JobStatus jobStatus;
 
     ServerSideJob(final Object task, final JobCancelManager jobCancelManager, final int complexity) throws IllegalArgumentException {
         jcm = jobCancelManager;
+        lock = new ReentrantLock();
+        statusChanged = lock.newCondition();
         this.task = task;
         jobStatus = JobStatus.SUBMITTED;
         jobId = UUID.randomUUID();
@@ -42,57 +49,76 @@ public class ServerSideJob implements Job {
     @Override
     public Object getResult(final boolean blockingGet) {
         if (blockingGet) {
-            while (!isDone()) {
-                synchronized (this) {
+            lock.lock();
+            try {
+                while (!isDone()) {
                     try {
-                        this.wait();
+                        statusChanged.await();
                     } catch (InterruptedException ex) {
                         LOG.log(Level.WARNING, "Job waiting for result has been interrupted", ex);
                     }
                 }
+            } finally {
+                lock.unlock();
             }
         }
 
-        synchronized (this) {
-            return result;
-        }
+        return result;
     }
 
     /**
      * @param result result of the job
      */
-    public synchronized void setResult(Object result) {
-        this.result = result;
-        setStatus(JobStatus.FINISHED);
-        this.notifyAll();
+    public void setResult(Object result) {
+        lock.lock();
+        try {
+            this.result = result;
+            setStatus(JobStatus.FINISHED);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public synchronized void cancelJob() throws ConnectionException {
+    public void cancelJob() throws ConnectionException {
         jcm.cancelJobByServer(this);
     }
 
     /**
      * @param jobStatus new job status
      */
-    public synchronized void setStatus(final JobStatus jobStatus) {
-        this.jobStatus = jobStatus;
-        this.notifyAll();
+    public void setStatus(final JobStatus jobStatus) {
+        lock.lock();
+        try {
+            this.jobStatus = jobStatus;
+            statusChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        // users may wait for status change using the monitor of the job
+        synchronized (this) {
+            this.notifyAll();
+        }
     }
 
     @Override
-    public synchronized JobStatus getStatus() {
+    public JobStatus getStatus() {
         return jobStatus;
     }
 
     @Override
-    public synchronized boolean isDone() {
-        return jobStatus.equals(JobStatus.FINISHED) || isCanceled();
+    public boolean isDone() {
+        final JobStatus status = jobStatus;
+        return status.equals(JobStatus.FINISHED) || isCanceled(status);
     }
 
     @Override
-    public synchronized boolean isCanceled() {
-        return jobStatus.equals(JobStatus.ERROR) || jobStatus.equals(JobStatus.CANCELED);
+    public boolean isCanceled() {
+        return isCanceled(jobStatus);
+    }
+
+    private static boolean isCanceled(final JobStatus status) {
+        return status.equals(JobStatus.ERROR) || status.equals(JobStatus.CANCELED);
     }
 
     @Override
@@ -4,6 +4,7 @@ import cz.tul.javaccl.GlobalConstants;
 import cz.tul.javaccl.client.ServerInterface;
 import cz.tul.javaccl.communicator.Communicator;
 import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -65,6 +66,8 @@ public final class ClientSettings {
                             LOG.log(Level.WARNING, "Unkonwn server info found in settings.");
                             LOG.log(Level.FINE, "Unkonwn server info found in settings.", ex);
                         }
+                    } else if (fieldName != null && fieldName.equals(XmlNodes.UNIX_SOCKET_DIR.toString())) {
+                        Configuration.setValue(ConfigurationType.UNIX_SOCKET_DIR, e.getValue());
                     } else {
                         LOG.log(Level.FINE, "Unknown field - {0}", fieldName);
                     }
@@ -103,6 +106,10 @@ public final class ClientSettings {
 
         final SimpleXMLSettingsFile xml = new SimpleXMLSettingsFile();
 
+        final String unixSocketDir = Configuration.getValue(ConfigurationType.UNIX_SOCKET_DIR);
+        if (!unixSocketDir.isEmpty()) {
+            xml.addField(XmlNodes.UNIX_SOCKET_DIR.toString(), unixSocketDir);
+        }
         xml.addField(XmlNodes.SERVER.toString(),
                 composeServerAddress(serverCommunicator.getAddress(), serverCommunicator.getPort()));
 
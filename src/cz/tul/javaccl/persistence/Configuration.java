@@ -0,0 +1,242 @@
+package cz.tul.javaccl.persistence;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Library configuration (optional components and their parameters). Default
+ * values are loaded from configuration.properties file, custom values can be
+ * loaded from file or set directly. Values are read when the component is
+ * being created, so they need to be set before server / client
+ * initialization.
+ *
+ * @author Petr Ječmen
+ */
+public final class Configuration {
+
+    private static final Logger LOG = Logger.getLogger(Configuration.class.getName());
+    private static final Properties VALUES;
+
+    static {
+        VALUES = new Properties();
+        InputStream in = null;
+        try {
+            in = Configuration.class.getResourceAsStream("configuration.properties");
+            VALUES.load(in);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Error reading default configuration.", ex);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    LOG.log(Level.WARNING, "Error closing properties reader.", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtain configuration value.
+     *
+     * @param type type of value
+     * @return textual configuration value
+     */
+    public static String getValue(final ConfigurationType type) {
+        return VALUES.get(type.toString()).toString().trim();
+    }
+
+    /**
+     * @param type type of value
+     * @return numerical configuration value
+     */
+    public static int getInt(final ConfigurationType type) {
+        return Integer.parseInt(getValue(type));
+    }
+
+    /**
+     * @param type type of value
+     * @return logical configuration value
+     */
+    public static boolean getBoolean(final ConfigurationType type) {
+        return Boolean.parseBoolean(getValue(type));
+    }
+
+    /**
+     * Set new configuration value.
+     *
+     * @param type type of value
+     * @param value new value
+     */
+    public static void setValue(final ConfigurationType type, final Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("NULL configuration value not allowed.");
+        }
+        VALUES.put(type.toString(), value.toString());
+    }
+
+    /**
+     * Load custom configuration from properties file. Used values are in
+     * {@link ConfigurationType} enum.
+     *
+     * @param in input stream with properties file
+     * @throws IOException error reading input file
+     */
+    public static void loadConfigurationProperties(final FileInputStream in) throws IOException {
+        VALUES.load(in);
+    }
+
+    /**
+     * Enumeration of configuration values
+     */
+    public static enum ConfigurationType {
+
+        /**
+         * true to handle incoming connections using selector event loops
+         * instead of thread per connection
+         */
+        SELECTOR_ENGINE,
+        /**
+         * count of selector event loops (0 for count of available
+         * processors)
+         */
+        SELECTOR_THREADS,
+        /**
+         * count of threads used for asynchronous sending (0 for count of
+         * available processors)
+         */
+        ASYNC_THREADS,
+        /**
+         * true to pipeline data sent to the same target over a single
+         * connection (replies are paired with requests using correlation
+         * IDs), asynchronous sending to online targets is pipelined always
+         */
+        PIPELINING,
+        /**
+         * true to compress large frames if the other side supports it
+         */
+        COMPRESSION,
+        /**
+         * minimal length (in bytes) of compressed frame content
+         */
+        COMPRESSION_THRESHOLD,
+        /**
+         * size (in bytes) of chunks used for sending streams
+         */
+        STREAM_CHUNK_SIZE,
+        /**
+         * maximal length (in bytes) of received frame content held in memory,
+         * longer frames are rejected before their content is read (bulk data
+         * are not limited)
+         */
+        MAX_FRAME_SIZE,
+        /**
+         * interval (in ms) of heartbeats checking status of targets
+         */
+        HEARTBEAT_INTERVAL,
+        /**
+         * count of consecutive heartbeats without reply after which the target
+         * is considered offline
+         */
+        HEARTBEAT_MISSES,
+        /**
+         * maximal time (in ms) for which the other side can hold message pull
+         * request while waiting for data (0 disables long polling)
+         */
+        LONG_POLL_TIME,
+        /**
+         * count of threads pulling messages from targets concurrently
+         */
+        PULL_THREADS,
+        /**
+         * maximal count of threads handling incoming connections and requests
+         */
+        SERVER_THREADS,
+        /**
+         * maximal count of incoming connections and requests waiting for free
+         * thread, further ones are answered as busy
+         */
+        SERVER_QUEUE_SIZE,
+        /**
+         * true to run blocking I/O and listener dispatch on virtual threads
+         * (if supported by the runtime), the thread limits then only limit
+         * count of concurrently handled tasks
+         */
+        VIRTUAL_THREADS,
+        /**
+         * maximal count of messages stored in message queues created without
+         * explicit capacity (0 for unbounded queues, which is the default)
+         */
+        MESSAGE_QUEUE_CAPACITY,
+        /**
+         * default handling of messages received into full message queue, one
+         * of BLOCK, DROP_OLDEST, DROP_NEWEST or REJECT (see
+         * {@link cz.tul.javaccl.socket.MessageQueue.OverflowPolicy})
+         */
+        MESSAGE_QUEUE_POLICY,
+        /**
+         * count of received messages buffered for message observers, rounded
+         * up to power of two (receiving waits while the slowest observer is
+         * that far behind)
+         */
+        OBSERVER_BUFFER_SIZE,
+        /**
+         * true to hand data for entities running in the same JVM directly to
+         * their socket instead of sending them over network
+         */
+        LOCAL_TRANSPORT,
+        /**
+         * true to copy data handed over by local transport, so the sender and
+         * the receiver never share the same objects
+         */
+        LOCAL_TRANSPORT_COPY,
+        /**
+         * directory for Unix domain sockets used by entities running on the
+         * same machine (empty to use TCP only)
+         */
+        UNIX_SOCKET_DIR,
+        /**
+         * count of replies kept for data packets with idempotency key, so
+         * repeated packets are not handled again (0 to disable)
+         */
+        REPLY_CACHE_SIZE,
+        /**
+         * time in miliseconds, for which replies to data packets with
+         * idempotency key are kept
+         */
+        REPLY_CACHE_TIME,
+        /**
+         * maximal count of repeated sendings of data with idempotency key
+         */
+        RETRY_COUNT,
+        /**
+         * delay in miliseconds before the first repeated sending, doubled
+         * with every next attempt
+         */
+        RETRY_DELAY,
+        /**
+         * maximal delay in miliseconds between repeated sendings
+         */
+        RETRY_MAX_DELAY,
+        /**
+         * ratio of repeated sendings to all sendings allowed for single target
+         */
+        RETRY_BUDGET,
+        /**
+         * true to send data with idempotency key again if the reply is later
+         * than 95th percentile of round trip time
+         */
+        HEDGING,
+        /**
+         * maximal count of jobs being sent to a single client at the same time
+         */
+        JOB_DISPATCH_LIMIT,;
+    }
+
+    private Configuration() {
+    }
+}
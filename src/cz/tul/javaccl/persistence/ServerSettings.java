@@ -2,6 +2,7 @@ package cz.tul.javaccl.persistence;
 
 import cz.tul.javaccl.communicator.Communicator;
 import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
 import cz.tul.javaccl.server.ClientManager;
 import java.io.File;
 import java.io.IOException;
@@ -61,6 +62,8 @@ public final class ServerSettings implements Serializable {
                         } catch (ConnectionException ex) {
                             LOG.log(Level.WARNING, "Could not connect client with IP {0} on port {1} - {2}", new Object[]{split[0], split[1], ex.getExceptionCause()});
                         }
+                    } else if (fieldName != null && fieldName.equals(XmlNodes.UNIX_SOCKET_DIR.toString())) {
+                        Configuration.setValue(ConfigurationType.UNIX_SOCKET_DIR, e.getValue());
                     } else {
                         LOG.log(Level.FINE, "Unknown field - {0}", fieldName);
                     }
@@ -88,6 +91,11 @@ public final class ServerSettings implements Serializable {
         LOG.log(Level.FINE, "Serializing server settings.");
         final SimpleXMLSettingsFile xml = new SimpleXMLSettingsFile();
 
+        final String unixSocketDir = Configuration.getValue(ConfigurationType.UNIX_SOCKET_DIR);
+        if (!unixSocketDir.isEmpty()) {
+            xml.addField(XmlNodes.UNIX_SOCKET_DIR.toString(), unixSocketDir);
+        }
+
         final Collection<Communicator> comms = clientManager.getClients();
         final StringBuilder sb = new StringBuilder();
         for (Communicator c : comms) {
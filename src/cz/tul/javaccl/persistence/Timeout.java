@@ -72,7 +72,17 @@ public final class Timeout {
         /**
          *
          */
-        JOB_CHECK,;
+        JOB_CHECK,
+        /**
+         * maximal timeout for status checks, actual timeout is derived from
+         * round trip time of previous status checks and heartbeats
+         */
+        STATUS_CHECK,
+        /**
+         * minimal time for job state checks, actual time is derived from
+         * round trip time to the job owner and limited by {@link #JOB_CHECK}
+         */
+        JOB_CHECK_MIN,;
     }
 
     private Timeout() {
@@ -19,7 +19,12 @@ public enum XmlNodes {
     /**
      * IP and port of a single client
      */
-    CLIENT("client"),;
+    CLIENT("client"),
+
+    /**
+     * directory for Unix domain sockets
+     */
+    UNIX_SOCKET_DIR("unixSocketDir"),;
     
     private final String xmlNode;
 
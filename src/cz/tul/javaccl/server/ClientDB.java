@@ -93,6 +93,9 @@ class ClientDB extends ClientManager implements Observer, IDFilter {
                 ccId = cc.getTargetId();
                 if (ccId != null && ccId.equals(id)) {
                     i.remove();
+                    if (cc instanceof CommunicatorInner) {
+                        ((CommunicatorInner) cc).close();
+                    }
                     prepareAllowedIDs();
                     break;
                 }
@@ -3,6 +3,7 @@ package cz.tul.javaccl.server;
 import cz.tul.javaccl.ComponentManager;
 import cz.tul.javaccl.GlobalConstants;
 import cz.tul.javaccl.communicator.Communicator;
+import cz.tul.javaccl.communicator.CommunicatorInner;
 import cz.tul.javaccl.exceptions.ConnectionException;
 import cz.tul.javaccl.history.History;
 import cz.tul.javaccl.history.HistoryManager;
@@ -24,11 +25,15 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -185,11 +190,19 @@ public final class ServerImpl extends Server implements Observer {
 
     @Override
     public void stopService() {
+        final List<CompletableFuture<Object>> logouts = new ArrayList<CompletableFuture<Object>>();
         for (Communicator comm : clients.getClients()) {
+            logouts.add(comm.sendDataAsync(new Message(GlobalConstants.ID_SYS_MSG, SystemMessageHeaders.LOGOUT, null)));
+        }
+        for (CompletableFuture<Object> logout : logouts) {
             try {
-                comm.sendData(new Message(GlobalConstants.ID_SYS_MSG, SystemMessageHeaders.LOGOUT, null));
-            } catch (ConnectionException ex) {
+                logout.get();
+            } catch (ExecutionException ex) {
                 LOG.warning("Client connection timed out.");
+            } catch (InterruptedException ex) {
+                LOG.log(Level.WARNING, "Waiting for client logout has been interrupted.");
+                Thread.currentThread().interrupt();
+                break;
             }
         }
 
@@ -211,6 +224,11 @@ public final class ServerImpl extends Server implements Observer {
         } catch (Exception ex) {
             // error closing some resource, ignore
         }
+        for (Communicator comm : clients.getClients()) {
+            if (comm instanceof CommunicatorInner) {
+                ((CommunicatorInner) comm).close();
+            }
+        }
 
         LOG.fine("Server has been stopped.");
     }
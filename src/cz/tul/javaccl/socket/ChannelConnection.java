@@ -0,0 +1,385 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.communicator.BulkData;
+import cz.tul.javaccl.communicator.BulkReceiver;
+import cz.tul.javaccl.communicator.FrameCompression;
+import cz.tul.javaccl.communicator.WireFormat;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * State of a single non-blocking connection served by {@link SelectorLoop}.
+ * Reads frames from the channel and queues replies for writing. Only one
+ * request is handled at a time, reading is paused until the reply is queued.
+ * Bulk data segments are streamed into temporary files, queued bulk data are
+ * transferred from files directly to the channel.
+ *
+ * @author Petr Ječmen
+ */
+class ChannelConnection {
+
+    private static final Logger LOG = Logger.getLogger(ChannelConnection.class.getName());
+    private final SocketChannel channel;
+    private final SelectorLoop loop;
+    private final SelectorEngine engine;
+    private final InetAddress address;
+    private final ByteBuffer header;
+    private static final int BULK_BUFFER_SIZE = 64 * 1024;
+    private final Queue<WriteItem> writeQueue;
+    private final FrameCompression compression;
+    private final BulkReceiver bulkReceiver;
+    private final ByteBuffer prefix;
+    private ByteBuffer body;
+    private ByteBuffer bulkBuffer;
+    private int frameLength;
+    private boolean bodyCompressed;
+    private boolean prefixPending;
+    private long segmentRemaining;
+    private boolean segmentLast;
+    private SelectionKey key;
+    private long lastActivity;
+    private volatile boolean busy;
+    private volatile boolean closeAfterWrite;
+    private MessagePullRequest pullRequest;
+    private MessageBatch pulledData;
+
+    ChannelConnection(final SocketChannel channel, final InetAddress address, final SelectorLoop loop, final SelectorEngine engine) {
+        this.channel = channel;
+        this.loop = loop;
+        this.engine = engine;
+        this.address = address;
+        header = ByteBuffer.allocate(WireFormat.HEADER_LENGTH);
+        writeQueue = new ConcurrentLinkedQueue<WriteItem>();
+        compression = new FrameCompression(null);
+        bulkReceiver = new BulkReceiver();
+        prefix = ByteBuffer.allocate(WireFormat.SEGMENT_PREFIX_LENGTH);
+        segmentRemaining = -1;
+        lastActivity = System.currentTimeMillis();
+    }
+
+    void setKey(final SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Read available data, called from selector thread.
+     *
+     * @throws IOException error reading data or connection closed
+     */
+    void read() throws IOException {
+        if (segmentRemaining >= 0) {
+            readSegment();
+            return;
+        }
+
+        if (body == null && !prefixPending) {
+            if (channel.read(header) < 0) {
+                throw new EOFException();
+            }
+            if (header.hasRemaining()) {
+                return;
+            }
+            header.flip();
+            final int frameHeader = header.getInt();
+            header.clear();
+            frameLength = compression.readHeader(frameHeader);
+            bodyCompressed = FrameCompression.isCompressed(frameHeader);
+            if (bodyCompressed || frameLength < WireFormat.SEGMENT_PREFIX_LENGTH) {
+                WireFormat.checkContentLength(frameLength);
+                body = ByteBuffer.allocate(frameLength);
+            } else {
+                prefixPending = true;
+            }
+        }
+
+        if (prefixPending) {
+            if (channel.read(prefix) < 0) {
+                throw new EOFException();
+            }
+            if (prefix.hasRemaining()) {
+                return;
+            }
+            prefixPending = false;
+            prefix.flip();
+            if ((prefix.get(0) & 0xFF) == WireFormat.BULK_SEGMENT) {
+                segmentLast = (prefix.get(1) & WireFormat.SEGMENT_LAST) != 0;
+                segmentRemaining = frameLength - WireFormat.SEGMENT_PREFIX_LENGTH;
+                prefix.clear();
+                readSegment();
+                return;
+            }
+            WireFormat.checkContentLength(frameLength);
+            body = ByteBuffer.allocate(frameLength);
+            body.put(prefix);
+            prefix.clear();
+        }
+
+        if (channel.read(body) < 0) {
+            throw new EOFException();
+        }
+        lastActivity = System.currentTimeMillis();
+
+        if (!body.hasRemaining()) {
+            final byte[] frame = body.array();
+            body = null;
+            busy = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            engine.handleFrame(this, frame, bodyCompressed, bulkReceiver.take());
+        }
+    }
+
+    private void readSegment() throws IOException {
+        if (bulkBuffer == null) {
+            bulkBuffer = ByteBuffer.allocateDirect(BULK_BUFFER_SIZE);
+        }
+        int count = 1;
+        while (segmentRemaining > 0 && count > 0) {
+            bulkBuffer.clear();
+            if (segmentRemaining < bulkBuffer.capacity()) {
+                bulkBuffer.limit((int) segmentRemaining);
+            }
+            count = channel.read(bulkBuffer);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            bulkBuffer.flip();
+            bulkReceiver.append(bulkBuffer);
+            segmentRemaining -= count;
+        }
+        lastActivity = System.currentTimeMillis();
+
+        if (segmentRemaining == 0) {
+            segmentRemaining = -1;
+            if (segmentLast) {
+                bulkReceiver.finishData();
+            }
+        }
+    }
+
+    /**
+     * Write queued data, called from selector thread.
+     *
+     * @throws IOException error writing data
+     */
+    void flush() throws IOException {
+        WriteItem item;
+        while ((item = writeQueue.peek()) != null) {
+            if (!item.write(channel)) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            writeQueue.poll();
+            lastActivity = System.currentTimeMillis();
+        }
+
+        if (closeAfterWrite) {
+            close();
+        } else {
+            int ops = key.interestOps() & ~SelectionKey.OP_WRITE;
+            if (!busy) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+    }
+
+    /**
+     * Queue frame for sending and continue reading. Can be called from any
+     * thread.
+     *
+     * @param content frame content
+     * @param attachments bulk data sent before the frame
+     * @param close true to close the connection after the frame is written
+     */
+    void send(final byte[] content, final List<BulkData> attachments, final boolean close) {
+        final List<WriteItem> items = new ArrayList<WriteItem>();
+        long position, end, length;
+        for (BulkData bd : attachments) {
+            length = bd.getLength();
+            position = 0;
+            do {
+                end = Math.min(length, position + WireFormat.MAX_FRAME_LENGTH - WireFormat.SEGMENT_PREFIX_LENGTH);
+                final ByteBuffer segmentHeader = ByteBuffer.allocate(WireFormat.HEADER_LENGTH + WireFormat.SEGMENT_PREFIX_LENGTH);
+                segmentHeader.putInt((int) (end - position) + WireFormat.SEGMENT_PREFIX_LENGTH);
+                segmentHeader.put((byte) WireFormat.BULK_SEGMENT);
+                segmentHeader.put((byte) (end == length ? WireFormat.SEGMENT_LAST : 0));
+                segmentHeader.flip();
+                items.add(new BufferItem(segmentHeader));
+                items.add(new BulkItem(bd, position, end));
+                position = end;
+            } while (position < length);
+        }
+
+        final byte[] sent = compression.compress(content);
+        final ByteBuffer buf = ByteBuffer.allocate(WireFormat.HEADER_LENGTH + sent.length);
+        buf.putInt(compression.createHeader(sent.length, sent != content));
+        buf.put(sent);
+        buf.flip();
+        items.add(new BufferItem(buf));
+        synchronized (writeQueue) {
+            // items of single message must not be interleaved with other messages
+            writeQueue.addAll(items);
+        }
+
+        if (close) {
+            closeAfterWrite = true;
+        }
+        resume();
+    }
+
+    /**
+     * Continue reading requests without sending any data. Can be called from
+     * any thread.
+     */
+    void resume() {
+        busy = false;
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (key.isValid()) {
+                        flush();
+                    }
+                } catch (IOException ex) {
+                    LOG.log(Level.FINE, "Error writing data to channel.", ex);
+                    close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Close the connection. Can be called from any thread.
+     */
+    void close() {
+        if (compression.getStats().getCompressedFrames() > 0 && channel.isOpen()) {
+            LOG.log(Level.FINE, "Compression on connection from {0} - {1}", new Object[]{address.getHostAddress(), compression.getStats()});
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Error closing channel.", ex);
+        }
+        bulkReceiver.discard();
+    }
+
+    /**
+     * Restore content of compressed frame, can be called from any thread.
+     *
+     * @param frame compressed content
+     * @return original frame content
+     * @throws IOException invalid compressed data
+     */
+    byte[] decompress(final byte[] frame) throws IOException {
+        return compression.decompress(frame);
+    }
+
+    /**
+     * @param idleLimit maximal idle time
+     * @param now current time
+     * @return true if connection is waiting for request for too long
+     */
+    boolean isIdle(final long idleLimit, final long now) {
+        return !busy && writeQueue.isEmpty() && (now - lastActivity) > idleLimit;
+    }
+
+    /**
+     * Remember data sent to pulling client, next frame will contain response
+     * to them.
+     *
+     * @param request pull request
+     * @param data pulled data
+     */
+    void setPulledData(final MessagePullRequest request, final MessageBatch data) {
+        pullRequest = request;
+        pulledData = data;
+    }
+
+    /**
+     * @return pull request waiting for response (or null if there is none)
+     */
+    MessagePullRequest getPullRequest() {
+        return pullRequest;
+    }
+
+    /**
+     * @return data sent to pulling client, waiting for response
+     */
+    MessageBatch takePulledData() {
+        final MessageBatch result = pulledData;
+        pullRequest = null;
+        pulledData = null;
+        return result;
+    }
+
+    /**
+     * @return IP of the other side
+     */
+    InetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Part of queued message.
+     */
+    private interface WriteItem {
+
+        /**
+         * @param channel target channel
+         * @return true if the item has been written completely
+         * @throws IOException error writing data
+         */
+        boolean write(SocketChannel channel) throws IOException;
+    }
+
+    private static class BufferItem implements WriteItem {
+
+        private final ByteBuffer buffer;
+
+        BufferItem(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean write(final SocketChannel channel) throws IOException {
+            channel.write(buffer);
+            return !buffer.hasRemaining();
+        }
+    }
+
+    private static class BulkItem implements WriteItem {
+
+        private final BulkData data;
+        private final long end;
+        private long position;
+
+        BulkItem(final BulkData data, final long position, final long end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public boolean write(final SocketChannel channel) throws IOException {
+            long written = 1;
+            while (position < end && written > 0) {
+                written = data.transferTo(position, end - position, channel);
+                position += written;
+            }
+            return position >= end;
+        }
+    }
+}
@@ -2,14 +2,16 @@ package cz.tul.javaccl.socket;
 
 import cz.tul.javaccl.communicator.DataPacket;
 import cz.tul.javaccl.messaging.Identifiable;
+import cz.tul.javaccl.socket.MessageQueue.OverflowPolicy;
 import java.util.Observer;
-import java.util.Queue;
 import java.util.UUID;
 
 /**
  * Registrator of data listeners. Both push and pull variants available, but
  * only the push variant offers a possibility to directly reply to received
- * message.
+ * message. Received messages are stored in {@link MessageQueue}s, which allow
+ * waiting for messages and their batch processing. Queues are bounded only on
+ * request.
  *
  * @author Petr Ječmen
  */
@@ -24,12 +26,26 @@ public interface ListenerRegistrator {
     void setClientListener(final UUID clientId, final Listener<DataPacket> dataListener);
 
     /**
-     * Retrieve a queue with messages received from given client.
+     * Retrieve a queue with messages received from given client. New queue is
+     * unbounded unless default capacity is configured (see
+     * {@link cz.tul.javaccl.persistence.Configuration.ConfigurationType#MESSAGE_QUEUE_CAPACITY}).
      *
      * @param clientId UUID of the client
      * @return message queue
      */
-    Queue<DataPacket> createClientMessageQueue(final UUID clientId);
+    MessageQueue<DataPacket> createClientMessageQueue(final UUID clientId);
+
+    /**
+     * Retrieve a queue with messages received from given client. Existing
+     * queue is returned unchanged.
+     *
+     * @param clientId UUID of the client
+     * @param capacity maximal count of stored messages (0 for unbounded
+     * queue)
+     * @param policy handling of messages received over the capacity
+     * @return message queue
+     */
+    MessageQueue<DataPacket> createClientMessageQueue(final UUID clientId, final int capacity, final OverflowPolicy policy);
 
     /**
      * Deregister a client listener.
@@ -38,6 +54,21 @@ public interface ListenerRegistrator {
      */
     void removeClientListener(final UUID clientId);
 
+    /**
+     * Register listener for data streams sent by given client.
+     *
+     * @param clientId UUID of the client
+     * @param streamListener target listener
+     */
+    void setStreamListener(final UUID clientId, final StreamListener streamListener);
+
+    /**
+     * Deregister a stream listener.
+     *
+     * @param clientId UUID of the client
+     */
+    void removeStreamListener(final UUID clientId);
+
     /**
      * Register listener for given ID.
      *
@@ -47,12 +78,26 @@ public interface ListenerRegistrator {
     void setIdListener(final Object id, final Listener<Identifiable> idListener);
 
     /**
-     * Retrieve a queue with received messages with given ID.
+     * Retrieve a queue with received messages with given ID. New queue is
+     * unbounded unless default capacity is configured (see
+     * {@link cz.tul.javaccl.persistence.Configuration.ConfigurationType#MESSAGE_QUEUE_CAPACITY}).
      *
      * @param id message ID
      * @return message queue
      */
-    Queue<Identifiable> createIdMessageQueue(final Object id);
+    MessageQueue<Identifiable> createIdMessageQueue(final Object id);
+
+    /**
+     * Retrieve a queue with received messages with given ID. Existing queue is
+     * returned unchanged.
+     *
+     * @param id message ID
+     * @param capacity maximal count of stored messages (0 for unbounded
+     * queue)
+     * @param policy handling of messages received over the capacity
+     * @return message queue
+     */
+    MessageQueue<Identifiable> createIdMessageQueue(final Object id, final int capacity, final OverflowPolicy policy);
 
     /**
      * Deregister given listener for given ID. If ID is null, then the listener
@@ -77,6 +122,16 @@ public interface ListenerRegistrator {
      */
     void removeMessageObserver(final Observer msgObserver);
 
+    /**
+     * Observers are notified asynchronously, so they can fall behind received
+     * data.
+     *
+     * @param msgObserver message observer
+     * @return count of received messages not yet delivered to given observer,
+     * -1 if the observer is not registered
+     */
+    long getMessageObserverLag(final Observer msgObserver);
+
     /**
      * Assigns new message listener which will receive all incoming messages as
      * DataPackets with possibility to reply to them.
@@ -93,5 +148,5 @@ public interface ListenerRegistrator {
     /**
      * @return queue that contains all incoming messages
      */
-    Queue<DataPacket> getMessageQueue();
+    MessageQueue<DataPacket> getMessageQueue();
 }
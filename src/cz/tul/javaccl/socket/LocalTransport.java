@@ -0,0 +1,109 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.communicator.BulkData;
+import cz.tul.javaccl.communicator.UnixSockets;
+import cz.tul.javaccl.communicator.WireFormat;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-process transport for communication between entities running in the
+ * same JVM. Every {@link ServerSocket} registers itself under its port and
+ * data sent to a local address and registered port are handed directly to
+ * the socket in the sending thread, without opening any connection. If
+ * {@link ConfigurationType#LOCAL_TRANSPORT_COPY} is enabled, data and replies
+ * are copied using the wire format, so both sides never share mutable
+ * objects (same as with real network transport). {@link BulkData} are copied
+ * into temporary files, the same way as they are received from network.
+ *
+ * @author Petr Ječmen
+ */
+public final class LocalTransport {
+
+    private static final Logger LOG = Logger.getLogger(LocalTransport.class.getName());
+    private static final Map<Integer, ServerSocket> ENDPOINTS = new ConcurrentHashMap<Integer, ServerSocket>();
+
+    static void register(final int port, final ServerSocket socket) {
+        ENDPOINTS.put(port, socket);
+        LOG.log(Level.FINE, "Local endpoint registered on port {0}", port);
+    }
+
+    static void deregister(final int port, final ServerSocket socket) {
+        if (ENDPOINTS.remove(port, socket)) {
+            LOG.log(Level.FINE, "Local endpoint deregistered from port {0}", port);
+        }
+    }
+
+    /**
+     * @param address target address
+     * @return true if local transport is enabled and given address belongs to
+     * this machine
+     */
+    public static boolean isLocalAddress(final InetAddress address) {
+        return Configuration.getBoolean(ConfigurationType.LOCAL_TRANSPORT) && UnixSockets.isLocalAddress(address);
+    }
+
+    /**
+     * @param port target port
+     * @return true if there is a socket in this JVM listening on given port
+     */
+    public static boolean isAvailable(final int port) {
+        return ENDPOINTS.containsKey(port);
+    }
+
+    /**
+     * Hand data directly to socket in this JVM listening on given port.
+     *
+     * @param port target port
+     * @param data data for sending
+     * @return reply of the target
+     * @throws ConnectException there is no socket listening on given port in
+     * this JVM
+     * @throws IOException data could not be copied
+     * @throws ClassNotFoundException reply could not be copied
+     */
+    public static Object send(final int port, final Object data) throws IOException, ClassNotFoundException {
+        final ServerSocket target = ENDPOINTS.get(port);
+        if (target == null) {
+            throw new ConnectException("No local endpoint on port " + port);
+        }
+
+        final boolean copy = Configuration.getBoolean(ConfigurationType.LOCAL_TRANSPORT_COPY);
+        final Object response = target.handleLocalData(copy ? copy(data) : data, GlobalConstants.IP_LOOPBACK);
+        return copy ? copy(response) : response;
+    }
+
+    private static Object copy(final Object data) throws IOException, ClassNotFoundException {
+        final List<BulkData> attachments = new ArrayList<BulkData>();
+        final byte[] content = WireFormat.encode(data, attachments);
+        final List<BulkData> copies = new ArrayList<BulkData>(attachments.size());
+        boolean decoded = false;
+        try {
+            for (BulkData bd : attachments) {
+                copies.add(bd.copy());
+            }
+            final Object result = WireFormat.decode(content, 0, content.length, copies);
+            decoded = true;
+            return result;
+        } finally {
+            if (!decoded) {
+                for (BulkData bd : copies) {
+                    bd.release();
+                }
+            }
+        }
+    }
+
+    private LocalTransport() {
+    }
+}
@@ -0,0 +1,38 @@
+package cz.tul.javaccl.socket;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Items exchanged during message pull. Pulled side sends all waiting data
+ * packets in one batch, pulling side answers with a batch of responses in
+ * the same order.
+ *
+ * @author Petr Ječmen
+ */
+public class MessageBatch implements Serializable {
+
+    private final List<Object> items;
+
+    /**
+     * New instance.
+     *
+     * @param items data packets or responses to them
+     */
+    public MessageBatch(final List<Object> items) {
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    /**
+     * @return data packets or responses to them
+     */
+    public List<Object> getItems() {
+        return items;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageBatch" + items;
+    }
+}
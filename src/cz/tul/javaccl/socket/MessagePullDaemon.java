@@ -1,30 +1,44 @@
 package cz.tul.javaccl.socket;
 
+import cz.tul.javaccl.ExecutorFactory;
 import cz.tul.javaccl.GenericResponses;
 import cz.tul.javaccl.IService;
 import cz.tul.javaccl.communicator.Communicator;
 import cz.tul.javaccl.communicator.CommunicatorInner;
+import cz.tul.javaccl.communicator.Connection;
+import cz.tul.javaccl.communicator.ConnectionPool;
 import cz.tul.javaccl.communicator.DataPacket;
 import cz.tul.javaccl.communicator.Status;
 import cz.tul.javaccl.history.HistoryManager;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collection;
-import java.util.Locale;
-import java.util.Queue;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Thread for pulling data from client / server, which cannot reach the first
- * side directly (eg. passive mode).
+ * side directly (eg. passive mode). Every pull takes all data waiting on the
+ * other side. Targets are pulled concurrently by a bounded pool of workers
+ * (size is set by {@link ConfigurationType#PULL_THREADS}), each target has
+ * its own pull interval, which adapts to the amount of pulled data. If {@link ConfigurationType#LONG_POLL_TIME} is set, every target
+ * is pulled by its own loop and the other side holds the request until some
+ * data are ready, so they are delivered without any delay.
  *
  * @author Petr Ječmen
  */
@@ -32,9 +46,15 @@ public class MessagePullDaemon extends Thread implements IService {
 
     private static final Logger LOG = Logger.getLogger(MessagePullDaemon.class.getName());
     private static final int WAIT_TIME = 500;
+    private static final int PULL_REFRESH_TIME = 1000;
     private final ClientLister clientLister;
     private final DataPacketHandler dpHandler;
-    private boolean run;
+    private final ConnectionPool pool;
+    private final Set<Communicator> longPolled;
+    private final Map<Communicator, PullSchedule> schedules;
+    private final ExecutorService pollers;
+    private final ExecutorService pullers;
+    private volatile boolean run;
     private HistoryManager hm;
 
     /**
@@ -55,120 +75,187 @@ public class MessagePullDaemon extends Thread implements IService {
             throw new NullPointerException("ClientLister cannot be null.");
         }
 
+        pool = ConnectionPool.getInstance();
+        longPolled = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Communicator, Boolean>()));
+        pollers = ExecutorFactory.newCachedExecutor("MessagePullDaemon-poller", true);
+        schedules = new IdentityHashMap<Communicator, PullSchedule>();
+        pullers = ExecutorFactory.newFixedExecutor("MessagePullDaemon-worker", Configuration.getInt(ConfigurationType.PULL_THREADS), true);
         run = true;
     }
 
     @Override
     public void run() {
-        Collection<Communicator> comms = new ArrayList<Communicator>(clientLister.getClients().size());
-        CommunicatorInner commI;
-        MessagePullRequest m;
-        InetAddress ipComm;
-        int port;
-        Object dataIn = null, response = null;
-        boolean dataRead;
-        Calendar lastTime, now;
-        long dif, wait;
-        Socket s = null;
+        final Collection<Communicator> comms = new ArrayList<Communicator>(clientLister.getClients().size());
+        final Set<Communicator> current = Collections.newSetFromMap(new IdentityHashMap<Communicator, Boolean>());
+        int longPollTime;
+        long now;
         while (run) {
-            lastTime = Calendar.getInstance(Locale.getDefault());
+            longPollTime = Configuration.getInt(ConfigurationType.LONG_POLL_TIME);
+            now = System.currentTimeMillis();
 
             comms.clear();
             comms.addAll(clientLister.getClients());
+            current.clear();
+            current.addAll(comms);
+            schedules.keySet().retainAll(current);
             for (Communicator comm : comms) {
                 if (!run) {
                     break;
                 }
 
-                if (comm instanceof CommunicatorInner) {
-                    commI = (CommunicatorInner) comm;
-                    final UUID id = commI.getSourceId();
-                    final Status status = comm.checkStatus();
-                    if (status.equals(Status.ONLINE)) {
-                        ipComm = comm.getAddress();
-                        port = comm.getPort();
-                        dataRead = false;
-
-                        m = new MessagePullRequest(id);
-                        try {
-                            s = new Socket(ipComm, port);
-                            ObjectOutputStream out = null;
-                            try {
-                                out = new ObjectOutputStream(s.getOutputStream());
-                                out.writeObject(m);
-                                out.flush();
-
-                                ObjectInputStream in = null;
-                                try {
-                                    in = new ObjectInputStream(s.getInputStream());
-                                    try {
-                                        dataIn = in.readObject();
-                                        dataRead = true;
-
-                                        if (dataIn instanceof GenericResponses) {
-                                            if (!dataIn.equals(GenericResponses.OK)) {
-                                                LOG.log(Level.WARNING, "Error occured during message pull request - {0}", dataIn.toString());
-                                            }
-                                        } else if (dataIn instanceof DataPacket) {
-                                            final DataPacket dp = (DataPacket) dataIn;
-                                            response = dpHandler.handleDataPacket(dp);
-                                            LOG.log(Level.FINE, "Pulled message [{0}], responding with {1}", new Object[]{dataIn, response});
-                                            out.writeObject(response);
-                                            out.flush();
-                                        } else {
-                                            LOG.log(Level.WARNING, "Pulled unknown data.");
-                                        }
-                                    } catch (ClassNotFoundException ex) {
-                                        LOG.log(Level.WARNING, "Illegal class received.");
-                                        LOG.log(Level.FINE, "Illegal class received.", ex);
-                                    }
-                                } finally {
-                                    if (in != null) {
-                                        in.close();
-                                    }
-                                }
-                            } finally {
-                                if (out != null) {
-                                    out.close();
-                                }
-                            }
-                        } catch (SocketTimeoutException ex) {
-                            LOG.log(Level.FINE, "Client on IP {0} is not responding to request.", ipComm.getHostAddress());
-                        } catch (IOException ex) {
-                            LOG.log(Level.WARNING, "Error operating socket.");
-                            LOG.log(Level.FINE, "Error operating socket.", ex);
-                        } finally {
-                            try {
-                                if (s != null && !s.isClosed()) {
-                                    s.close();
-                                }
-                            } catch (IOException ex) {
-                                LOG.log(Level.WARNING, "Error operating socket.");
-                                LOG.log(Level.FINE, "Error operating socket.", ex);
-                            }
-                        }
+                // status is kept up to date by heartbeats
+                if (comm instanceof CommunicatorInner && comm.getStatus().equals(Status.ONLINE)) {
+                    if (longPollTime > 0) {
+                        startLongPolling((CommunicatorInner) comm, longPollTime);
+                    } else {
+                        schedulePull((CommunicatorInner) comm, now);
+                    }
+                }
+            }
+
+            try {
+                synchronized (this) {
+                    this.wait(PullSchedule.MIN_INTERVAL);
+                }
+            } catch (InterruptedException ex) {
+                LOG.log(Level.WARNING, "Waiting between message pulls has been interrupted.");
+                LOG.log(Level.FINE, "Waiting between message pulls has been interrupted.", ex);
+            }
+        }
+    }
+
+    /**
+     * Pull data from the target in worker pool if its pull is due and it is
+     * not being pulled already.
+     */
+    private void schedulePull(final CommunicatorInner comm, final long now) {
+        PullSchedule schedule = schedules.get(comm);
+        if (schedule == null) {
+            schedule = new PullSchedule(now);
+            schedules.put(comm, schedule);
+        }
+        if (!schedule.start(now)) {
+            return;
+        }
+
+        final PullSchedule ps = schedule;
+        try {
+            pullers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int pulled = -1;
+                    try {
+                        pulled = pull(comm, 0);
+                    } finally {
+                        ps.finish(pulled, System.currentTimeMillis());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // daemon is being stopped
+            ps.finish(-1, now);
+        }
+    }
 
-                        if (hm != null) {
-                            hm.logMessageReceived(ipComm, comm.getTargetId(), dataIn, dataRead, response);
+    /**
+     * Keep pulling data from given target using long polling until the
+     * target goes offline. Only one long polling loop runs for each target.
+     */
+    private void startLongPolling(final CommunicatorInner comm, final int waitTime) {
+        if (!longPolled.add(comm)) {
+            return;
+        }
+        try {
+            pollers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (run && comm.getStatus().equals(Status.ONLINE) && pull(comm, waitTime) >= 0) {
+                            // next request is sent immediately, the other side holds it until there are data
                         }
+                    } finally {
+                        longPolled.remove(comm);
                     }
                 }
-            }
+            });
+        } catch (RejectedExecutionException ex) {
+            // daemon is being stopped
+            longPolled.remove(comm);
+        }
+    }
 
-            now = Calendar.getInstance(Locale.getDefault());
-            dif = now.getTimeInMillis() - lastTime.getTimeInMillis();
-            wait = WAIT_TIME - dif;
-            if (wait > 0) {
-                try {
-                    synchronized (this) {
-                        this.wait(wait);
+    /**
+     * Pull all data waiting for this side from given target.
+     *
+     * @param comm target communicator
+     * @param waitTime maximal time (in ms) the target can wait for data
+     * @return count of pulled data packets, -1 if the exchange failed
+     */
+    private int pull(final CommunicatorInner comm, final int waitTime) {
+        final InetAddress ipComm = comm.getAddress();
+        final int port = comm.getPort();
+        final MessagePullRequest m = new MessagePullRequest(comm.getSourceId(), waitTime);
+        Object dataIn = null, response = null;
+        boolean dataRead = false;
+        int result = -1;
+        Connection c = null;
+        try {
+            c = pool.borrow(ipComm, port);
+            c.setTimeout(waitTime + ConnectionPool.KEEP_ALIVE_TIME);
+            c.writeObject(m);
+
+            try {
+                dataIn = c.readObject();
+                dataRead = true;
+
+                if (dataIn instanceof GenericResponses) {
+                    if (dataIn.equals(GenericResponses.OK)) {
+                        result = 0;
+                    } else if (dataIn.equals(GenericResponses.SERVER_BUSY)) {
+                        // next pull is postponed
+                        LOG.log(Level.FINE, "Target is busy, message pull has been rejected.");
+                    } else {
+                        LOG.log(Level.WARNING, "Error occured during message pull request - {0}", dataIn.toString());
                     }
-                } catch (InterruptedException ex) {
-                    LOG.log(Level.WARNING, "Waiting between message pulls has been interrupted.");
-                    LOG.log(Level.FINE, "Waiting between message pulls has been interrupted.", ex);
+                } else if (dataIn instanceof MessageBatch) {
+                    response = handleBatch((MessageBatch) dataIn);
+                    LOG.log(Level.FINE, "Pulled messages [{0}], responding with {1}", new Object[]{dataIn, response});
+                    c.writeObject(response);
+                    result = ((MessageBatch) dataIn).getItems().size();
+                } else {
+                    LOG.log(Level.WARNING, "Pulled unknown data.");
                 }
+                pool.release(c);
+            } catch (ClassNotFoundException ex) {
+                pool.invalidate(c);
+                LOG.log(Level.WARNING, "Illegal class received.");
+                LOG.log(Level.FINE, "Illegal class received.", ex);
+            }
+        } catch (SocketTimeoutException ex) {
+            pool.invalidate(c);
+            LOG.log(Level.FINE, "Client on IP {0} is not responding to request.", ipComm.getHostAddress());
+        } catch (IOException ex) {
+            pool.invalidate(c);
+            LOG.log(Level.WARNING, "Error operating socket.");
+            LOG.log(Level.FINE, "Error operating socket.", ex);
+        }
+
+        if (hm != null) {
+            hm.logMessageReceived(ipComm, comm.getTargetId(), dataIn, dataRead, response);
+        }
+        return result;
+    }
+
+    private MessageBatch handleBatch(final MessageBatch batch) {
+        final List<Object> responses = new ArrayList<Object>(batch.getItems().size());
+        for (Object o : batch.getItems()) {
+            if (o instanceof DataPacket) {
+                responses.add(dpHandler.handleDataPacket((DataPacket) o));
+            } else {
+                responses.add(GenericResponses.ILLEGAL_DATA);
             }
         }
+        return new MessageBatch(responses);
     }
 
     /**
@@ -183,75 +270,188 @@ public class MessagePullDaemon extends Thread implements IService {
     /**
      * Handle a request from a client (server) to pull data.
      *
-     * @param s socket for answering
+     * @param connection connection for answering and reading a response
      * @param pullData received data
-     * @param in stream for reading a response
+     * @return true if the connection can be used for further communication
      */
-    public void handleMessagePullRequest(final Socket s, MessagePullRequest pullData, ObjectInputStream in) {
-        final UUID clientId = pullData.getClientId();
-        final Collection<Communicator> comms = new ArrayList<Communicator>(clientLister.getClients());
-
-        Object msg = null;
-        CommunicatorInner communicator = null;
-        for (Communicator comm : comms) {
-            if (comm instanceof CommunicatorInner) {
-                communicator = (CommunicatorInner) comm;
-
-                if (clientId.equals(communicator.getSourceId())) {
-                    msg = GenericResponses.OK;
-                    // no request on itself
-                    break;
-                }
-
-                if (clientId.equals(comm.getTargetId())) {
-                    final Queue<DataPacket> q = communicator.getUnsentData();
-                    if (!q.isEmpty()) {
-                        msg = q.poll();
-                        LOG.log(Level.FINE, "Data prepared for UUID msg pull [" + msg + "].");
-                    } else {
-                        msg = GenericResponses.OK;
-                        LOG.log(Level.FINE, "No data for UUID {0}", clientId);
-                    }
-                }
-            }
-        }
-        if (msg == null) {
-            msg = GenericResponses.UUID_UNKNOWN;
-            LOG.log(Level.FINE, "Unknown UUID requested data - {0}", clientId);
-        }
+    public boolean handleMessagePullRequest(final Connection connection, final MessagePullRequest pullData) {
+        final Object msg = pollData(pullData);
 
-        ObjectOutputStream out = null;
+        boolean result = false;
         try {
-            out = new ObjectOutputStream(s.getOutputStream());
-            out.writeObject(msg);
-            out.flush();
+            connection.writeObject(msg);
 
-            if (communicator != null && !(msg instanceof GenericResponses)) {
+            if (msg instanceof MessageBatch) {
                 try {
-                    if (msg instanceof DataPacket) {
-                        communicator.storeResponse((DataPacket) msg, in.readObject());
-                    }
+                    storePulledResponse(pullData, (MessageBatch) msg, connection.readObject());
                 } catch (ClassNotFoundException ex) {
                     LOG.log(Level.WARNING, "Unkonwn data class received as reply.");
                     LOG.log(Level.FINE, "Unkonwn data class received as reply.", ex);
                 }
             }
+            result = true;
         } catch (IOException ex) {
             LOG.log(Level.WARNING, "Error operating socket.");
             LOG.log(Level.FINE, "Error operating socket.", ex);
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException ex) {
-                    LOG.warning("Error closing OutputStream.");
+        }
+
+        return result;
+    }
+
+    /**
+     * Find data waiting for client (server) which has sent the pull request.
+     * All waiting data are taken, if there are none the call waits for them
+     * for the time requested by the client.
+     *
+     * @param pullData received pull request
+     * @return {@link MessageBatch} with data for sending,
+     * {@link GenericResponses#OK} if there are no data or
+     * {@link GenericResponses#UUID_UNKNOWN} for unknown client
+     */
+    Object pollData(final MessagePullRequest pullData) {
+        final UUID clientId = pullData.getClientId();
+        final CommunicatorInner communicator = findCommunicator(clientId);
+
+        Object msg;
+        if (communicator == null) {
+            msg = GenericResponses.UUID_UNKNOWN;
+            LOG.log(Level.FINE, "Unknown UUID requested data - {0}", clientId);
+        } else if (clientId.equals(communicator.getSourceId())) {
+            // no request on itself
+            msg = GenericResponses.OK;
+        } else {
+            final BlockingQueue<DataPacket> q = communicator.getUnsentData();
+            DataPacket first = q.poll();
+            if (first == null && pullData.getWaitTime() > 0) {
+                first = waitForData(communicator, pullData.getWaitTime());
+            }
+            if (first != null) {
+                final List<Object> packets = new ArrayList<Object>();
+                packets.add(first);
+                q.drainTo(packets);
+                msg = new MessageBatch(packets);
+                LOG.log(Level.FINE, "Data prepared for UUID msg pull [" + msg + "].");
+            } else {
+                msg = GenericResponses.OK;
+                LOG.log(Level.FINE, "No data for UUID {0}", clientId);
+            }
+        }
+        return msg;
+    }
+
+    private static DataPacket waitForData(final CommunicatorInner communicator, final int waitTime) {
+        final long end = System.currentTimeMillis() + waitTime;
+        DataPacket result = null;
+        long remaining = waitTime;
+        try {
+            while (result == null && remaining > 0) {
+                // queue is obtained repeatedly to refresh time of the last pull, so the client stays passive
+                result = communicator.getUnsentData().poll(Math.min(remaining, PULL_REFRESH_TIME), TimeUnit.MILLISECONDS);
+                remaining = end - System.currentTimeMillis();
+            }
+        } catch (InterruptedException ex) {
+            // socket is being stopped
+        }
+        return result;
+    }
+
+    /**
+     * Pass responses to pulled data to the communicator which has sent them.
+     *
+     * @param pullData pull request
+     * @param questions pulled data
+     * @param response received response (batch of responses or error
+     * response for all pulled data)
+     */
+    void storePulledResponse(final MessagePullRequest pullData, final MessageBatch questions, final Object response) {
+        final CommunicatorInner communicator = findCommunicator(pullData.getClientId());
+        if (communicator != null) {
+            final List<Object> items = questions.getItems();
+            List<Object> responses = null;
+            if (response instanceof MessageBatch && ((MessageBatch) response).getItems().size() == items.size()) {
+                responses = ((MessageBatch) response).getItems();
+            } else {
+                LOG.log(Level.WARNING, "Invalid response to pulled data received - {0}", response);
+            }
+            for (int i = 0; i < items.size(); i++) {
+                communicator.storeResponse((DataPacket) items.get(i), responses != null ? responses.get(i) : GenericResponses.ILLEGAL_DATA);
+            }
+        } else {
+            LOG.log(Level.FINE, "Response received for unknown UUID {0}", pullData.getClientId());
+        }
+    }
+
+    private CommunicatorInner findCommunicator(final UUID clientId) {
+        final Collection<Communicator> comms = new ArrayList<Communicator>(clientLister.getClients());
+        CommunicatorInner result = null;
+        for (Communicator comm : comms) {
+            if (comm instanceof CommunicatorInner) {
+                final CommunicatorInner communicator = (CommunicatorInner) comm;
+                if (clientId.equals(communicator.getSourceId())) {
+                    result = communicator;
+                    break;
+                }
+                if (clientId.equals(comm.getTargetId())) {
+                    result = communicator;
                 }
             }
         }
+        return result;
     }
 
     @Override
     public void stopService() {
         run = false;
+        pollers.shutdownNow();
+        pullers.shutdownNow();
+    }
+
+    /**
+     * Pull schedule of single target. Pull interval is shortened while data
+     * are flowing and prolonged while there are none. Maximal interval is
+     * shorter than the time after which the other side considers this side
+     * not pulling anymore (and thus offline).
+     */
+    static final class PullSchedule {
+
+        static final int MIN_INTERVAL = 100;
+        static final int MAX_INTERVAL = 1500;
+        private final AtomicBoolean running;
+        private volatile long nextPull;
+        private volatile int interval;
+
+        PullSchedule(final long now) {
+            running = new AtomicBoolean();
+            nextPull = now;
+            interval = WAIT_TIME;
+        }
+
+        /**
+         * @param now current time
+         * @return true if the pull should be started now
+         */
+        boolean start(final long now) {
+            return nextPull <= now && running.compareAndSet(false, true);
+        }
+
+        /**
+         * @param pulled count of pulled data packets, -1 if the pull failed
+         * @param now current time
+         */
+        void finish(final int pulled, final long now) {
+            if (pulled > 0) {
+                interval = MIN_INTERVAL;
+            } else if (pulled == 0) {
+                interval = Math.min(interval * 2, MAX_INTERVAL);
+            } else {
+                interval = MAX_INTERVAL;
+            }
+            nextPull = now + interval;
+            running.set(false);
+        }
+
+        int getInterval() {
+            return interval;
+        }
     }
 }
@@ -4,19 +4,41 @@ import java.io.Serializable;
 import java.util.UUID;
 
 /**
+ * Request for data waiting for the sender of the request. All waiting data
+ * are sent back as {@link MessageBatch}. If wait time is set, the request is
+ * held by the other side until some data are ready or the time elapses (long
+ * polling), so the data are delivered as soon as they are ready.
  *
  * @author Lenam s.r.o.
  */
 public class MessagePullRequest implements Serializable {
 
     private final UUID clientId;
+    private final int waitTime;
 
     public MessagePullRequest(final UUID clientId) {
+        this(clientId, 0);
+    }
+
+    /**
+     * @param clientId UUID of the pulling side
+     * @param waitTime maximal time (in ms) of waiting for data (0 for
+     * immediate answer)
+     */
+    public MessagePullRequest(final UUID clientId, final int waitTime) {
         this.clientId = clientId;
+        this.waitTime = waitTime;
     }
 
     public UUID getClientId() {
         return clientId;
     }
+
+    /**
+     * @return maximal time (in ms) of waiting for data
+     */
+    public int getWaitTime() {
+        return waitTime;
+    }
     
 }
@@ -0,0 +1,401 @@
+package cz.tul.javaccl.socket;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded queue of received messages. Consumers can wait for messages using
+ * {@link #take()} or {@link #poll(long, java.util.concurrent.TimeUnit)} and
+ * process them in batches using {@link #drainTo(java.util.Collection, int)}.
+ * Messages received over the capacity are handled according to the
+ * {@link OverflowPolicy} of the queue.
+ *
+ * @param <O> type of stored messages
+ * @author Petr Ječmen
+ */
+public class MessageQueue<O> extends AbstractQueue<O> implements BlockingQueue<O> {
+
+    private static final Logger LOG = Logger.getLogger(MessageQueue.class.getName());
+    private final ArrayDeque<O> items;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ReentrantLock lock;
+    private final Condition notEmpty, notFull;
+    private long dropped;
+
+    /**
+     * Initialize new queue.
+     *
+     * @param capacity maximal count of stored messages (0 for unbounded
+     * queue)
+     * @param policy handling of messages received over the capacity
+     */
+    public MessageQueue(final int capacity, final OverflowPolicy policy) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must be non-negative.");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("NULL overflow policy not allowed.");
+        }
+        this.capacity = capacity > 0 ? capacity : Integer.MAX_VALUE;
+        this.policy = policy;
+        items = new ArrayDeque<O>();
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+    }
+
+    /**
+     * @return handling of messages received over the capacity
+     */
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return maximal count of stored messages
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return count of messages dropped because of full queue
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Store received message according to overflow policy of the queue.
+     * Sender is blocked while the queue is full when using
+     * {@link OverflowPolicy#BLOCK}.
+     *
+     * @param e received message
+     * @return false if the message has not been stored and the sender should
+     * be told so (only for {@link OverflowPolicy#REJECT}), true otherwise
+     * @throws InterruptedException sender has been interrupted while waiting
+     * for free space
+     */
+    boolean store(final O e) throws InterruptedException {
+        checkNotNull(e);
+        lock.lockInterruptibly();
+        try {
+            while (items.size() >= capacity) {
+                switch (policy) {
+                    case BLOCK:
+                        notFull.await();
+                        break;
+                    case DROP_OLDEST:
+                        items.poll();
+                        dropped++;
+                        LOG.log(Level.FINE, "Queue is full, oldest message dropped.");
+                        break;
+                    case DROP_NEWEST:
+                        dropped++;
+                        LOG.log(Level.FINE, "Queue is full, message {0} dropped.", e);
+                        return true;
+                    default:
+                        dropped++;
+                        LOG.log(Level.FINE, "Queue is full, message {0} rejected.", e);
+                        return false;
+                }
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(final O e) {
+        items.add(e);
+        notEmpty.signal();
+    }
+
+    private O dequeue() {
+        final O result = items.poll();
+        if (result != null) {
+            notFull.signal();
+        }
+        return result;
+    }
+
+    private static void checkNotNull(final Object o) {
+        if (o == null) {
+            throw new NullPointerException("NULL messages not allowed.");
+        }
+    }
+
+    @Override
+    public boolean offer(final O e) {
+        checkNotNull(e);
+        lock.lock();
+        try {
+            if (items.size() >= capacity) {
+                return false;
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final O e) throws InterruptedException {
+        checkNotNull(e);
+        lock.lockInterruptibly();
+        try {
+            while (items.size() >= capacity) {
+                notFull.await();
+            }
+            enqueue(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(final O e, final long timeout, final TimeUnit unit) throws InterruptedException {
+        checkNotNull(e);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (items.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public O poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public O take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (items.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public O poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (items.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public O peek() {
+        lock.lock();
+        try {
+            return items.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        lock.lock();
+        try {
+            final boolean result = items.remove(o);
+            if (result) {
+                notFull.signal();
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        lock.lock();
+        try {
+            return items.contains(o);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            items.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(final Collection<? super O> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super O> c, final int maxElements) {
+        checkNotNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException("Queue cannot be drained to itself.");
+        }
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxElements && !items.isEmpty()) {
+                c.add(items.poll());
+                count++;
+            }
+            if (count > 0) {
+                notFull.signalAll();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return iterator over snapshot of stored messages, removal through the
+     * iterator removes the message from the queue
+     */
+    @Override
+    public Iterator<O> iterator() {
+        final Iterator<O> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayDeque<O>(items).iterator();
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<O>() {
+            private O last;
+
+            @Override
+            public boolean hasNext() {
+                return snapshot.hasNext();
+            }
+
+            @Override
+            public O next() {
+                last = snapshot.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException("No message to remove.");
+                }
+                removeInstance(last);
+                last = null;
+            }
+        };
+    }
+
+    private void removeInstance(final O o) {
+        lock.lock();
+        try {
+            final Iterator<O> it = items.iterator();
+            while (it.hasNext()) {
+                // message may have been taken meanwhile, equal message must not be removed instead
+                if (it.next() == o) {
+                    it.remove();
+                    notFull.signalAll();
+                    break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Handling of messages received when the queue is full.
+     */
+    public static enum OverflowPolicy {
+
+        /**
+         * sender waits until there is free space in the queue
+         */
+        BLOCK,
+        /**
+         * oldest stored message is dropped to make space for the new one
+         */
+        DROP_OLDEST,
+        /**
+         * new message is dropped
+         */
+        DROP_NEWEST,
+        /**
+         * new message is dropped and the sender receives
+         * {@link cz.tul.javaccl.GenericResponses#NOT_HANDLED}
+         */
+        REJECT;
+    }
+}
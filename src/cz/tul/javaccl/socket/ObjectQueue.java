@@ -1,15 +1,19 @@
 package cz.tul.javaccl.socket;
 
 import cz.tul.javaccl.messaging.Identifiable;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.socket.MessageQueue.OverflowPolicy;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Queue for listeners to receive data from socket.
+ * Queue for listeners to receive data from socket. Data are stored in
+ * {@link MessageQueue}s, which are unbounded unless their capacity is given
+ * explicitly or set using {@link ConfigurationType#MESSAGE_QUEUE_CAPACITY}
+ * (together with {@link ConfigurationType#MESSAGE_QUEUE_POLICY}).
  *
  * @param <O> Data type of stored data, data must be identifiable via {!link
  * Identifiable} interface.
@@ -18,20 +22,20 @@ import java.util.logging.Logger;
 public class ObjectQueue<O extends Identifiable> {
 
     private static final Logger LOG = Logger.getLogger(ObjectQueue.class.getName());
-    private final Map<Object, Queue<O>> data;
+    private final Map<Object, MessageQueue<O>> data;
 
     /**
      * Initialize new queue.
      */
     public ObjectQueue() {
-        data = new ConcurrentHashMap<Object, Queue<O>>();
+        data = new ConcurrentHashMap<Object, MessageQueue<O>>();
     }
 
     /**
      * @param id data id
      * @return data queue for given owner with data with given id
      */
-    public Queue<O> getDataQueue(final Object id) {
+    public MessageQueue<O> getDataQueue(final Object id) {
         return data.get(id);
     }
 
@@ -39,12 +43,23 @@ public class ObjectQueue<O extends Identifiable> {
      * @param id data ID
      * @return data queue, which will be used for storing data with given ID
      */
-    public Queue<O> prepareQueue(final Object id) {
-        final Queue<O> result = new ConcurrentLinkedQueue<O>();
+    public MessageQueue<O> prepareQueue(final Object id) {
+        return prepareQueue(id, Configuration.getInt(ConfigurationType.MESSAGE_QUEUE_CAPACITY),
+                OverflowPolicy.valueOf(Configuration.getValue(ConfigurationType.MESSAGE_QUEUE_POLICY)));
+    }
+
+    /**
+     * @param id data ID
+     * @param capacity maximal count of stored data (0 for unbounded queue)
+     * @param policy handling of data received over the capacity
+     * @return data queue, which will be used for storing data with given ID
+     */
+    public MessageQueue<O> prepareQueue(final Object id, final int capacity, final OverflowPolicy policy) {
+        final MessageQueue<O> result = new MessageQueue<O>(capacity, policy);
 
         if (id != null) {
             data.put(id, result);
-            LOG.log(Level.FINE, "New queue prepared for id " + id.toString());
+            LOG.log(Level.FINE, "New queue prepared for id {0}", id);
         }
 
         return result;
@@ -67,7 +82,7 @@ public class ObjectQueue<O extends Identifiable> {
      */
     public void removeListener(final Object id) {
         data.remove(id);
-        LOG.log(Level.FINE, "Listener deregistered for id " + id.toString());
+        LOG.log(Level.FINE, "Listener deregistered for id {0}", id);
     }
 
     /**
@@ -75,25 +90,49 @@ public class ObjectQueue<O extends Identifiable> {
      *
      * @param id ID of the data
      * @param data data for storing
+     * @return false if the data have been rejected by full queue
      */
-    public void storeData(final Object id, final O data) {
+    public boolean storeData(final Object id, final O data) {
         if (data != null && data.getId() != null) {
-            final Queue<O> q = this.data.get(id);
+            final MessageQueue<O> q = this.data.get(id);
             if (q != null) {
-                q.add(data);
-                LOG.log(Level.FINE, "Data [" + data.toString() + "] stored.");
+                return store(q, data);
             }
         }
+        return true;
+    }
+
+    /**
+     * Store data to given queue according to its overflow policy.
+     *
+     * @param <T> type of stored data
+     * @param queue target queue
+     * @param data data for storing
+     * @return false if the data have been rejected by full queue
+     */
+    static <T> boolean store(final MessageQueue<T> queue, final T data) {
+        try {
+            final boolean result = queue.store(data);
+            LOG.log(Level.FINE, "Data [{0}] stored.", data);
+            return result;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOG.log(Level.WARNING, "Waiting for free space in queue has been interrupted.");
+            LOG.log(Level.FINE, "Waiting for free space in queue has been interrupted.", ex);
+            return false;
+        }
     }
 
     /**
      * Store received data.
      *
      * @param data data for storing.
+     * @return false if the data have been rejected by full queue
      */
-    public void storeData(final O data) {
+    public boolean storeData(final O data) {
         if (data != null) {
-            storeData(data.getId(), data);
+            return storeData(data.getId(), data);
         }
+        return true;
     }
 }
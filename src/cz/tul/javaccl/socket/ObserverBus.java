@@ -0,0 +1,231 @@
+package cz.tul.javaccl.socket;
+
+import java.util.Arrays;
+import java.util.Observer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Event bus delivering received messages to message observers. Messages are
+ * stored in preallocated ring buffer and every observer reads them in batches
+ * using its own thread and sequence, so publishing a message allocates
+ * nothing and starts no thread. If the slowest observer is a whole buffer
+ * behind, publishers wait for it.
+ *
+ * @author Petr Ječmen
+ */
+final class ObserverBus {
+
+    private static final Logger LOG = Logger.getLogger(ObserverBus.class.getName());
+    private static final long WAIT_TIME = 100;
+    private static final long PUBLISH_WAIT_NANOS = 1000;
+    private static final Consumer[] NO_CONSUMERS = new Consumer[0];
+    private final Object[] entries;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final AtomicLong claimed;
+    private final ReentrantLock lock;
+    private final Condition available;
+    private final AtomicInteger waiting;
+    private final AtomicInteger threadCounter;
+    private volatile Consumer[] consumers;
+
+    /**
+     * @param size minimal size of the ring buffer, rounded up to power of two
+     */
+    ObserverBus(final int size) {
+        int capacity = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+        entries = new Object[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        mask = capacity - 1;
+        claimed = new AtomicLong(-1);
+        lock = new ReentrantLock();
+        available = lock.newCondition();
+        waiting = new AtomicInteger();
+        threadCounter = new AtomicInteger();
+        consumers = NO_CONSUMERS;
+    }
+
+    /**
+     * @return capacity of the ring buffer
+     */
+    int getSize() {
+        return entries.length;
+    }
+
+    /**
+     * Register observer, which will receive all messages published after the
+     * registration.
+     *
+     * @param observer message observer
+     */
+    synchronized void addObserver(final Observer observer) {
+        for (Consumer c : consumers) {
+            if (c.observer.equals(observer)) {
+                return;
+            }
+        }
+        final Consumer c = new Consumer(observer, claimed.get());
+        final Consumer[] copy = Arrays.copyOf(consumers, consumers.length + 1);
+        copy[consumers.length] = c;
+        consumers = copy;
+        c.start();
+    }
+
+    /**
+     * Deregister observer, messages not yet delivered to it are skipped.
+     *
+     * @param observer message observer
+     */
+    synchronized void removeObserver(final Observer observer) {
+        for (int i = 0; i < consumers.length; i++) {
+            final Consumer c = consumers[i];
+            if (c.observer.equals(observer)) {
+                final Consumer[] copy = new Consumer[consumers.length - 1];
+                System.arraycopy(consumers, 0, copy, 0, i);
+                System.arraycopy(consumers, i + 1, copy, i, copy.length - i);
+                consumers = copy;
+                c.halt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop delivery to all observers.
+     */
+    synchronized void stop() {
+        final Consumer[] old = consumers;
+        consumers = NO_CONSUMERS;
+        for (Consumer c : old) {
+            c.halt();
+        }
+    }
+
+    /**
+     * @param observer message observer
+     * @return count of published messages not yet delivered to given
+     * observer, -1 if the observer is not registered
+     */
+    long getLag(final Observer observer) {
+        for (Consumer c : consumers) {
+            if (c.observer.equals(observer)) {
+                return Math.max(claimed.get() - c.sequence.get(), 0);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Publish message to all registered observers.
+     *
+     * @param data published message
+     */
+    void publish(final Object data) {
+        final long seq = claimed.incrementAndGet();
+        final long wrapPoint = seq - entries.length;
+        while (wrapPoint > minimalSequence()) {
+            // slowest observer has not read the slot yet
+            LockSupport.parkNanos(PUBLISH_WAIT_NANOS);
+        }
+        final int index = (int) seq & mask;
+        entries[index] = data;
+        published.set(index, seq);
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private long minimalSequence() {
+        long result = Long.MAX_VALUE;
+        for (Consumer c : consumers) {
+            result = Math.min(result, c.sequence.get());
+        }
+        return result;
+    }
+
+    private boolean isPublished(final long seq) {
+        return published.get((int) seq & mask) == seq;
+    }
+
+    /**
+     * Thread delivering messages to single observer.
+     */
+    private final class Consumer extends Thread {
+
+        private final Observer observer;
+        private final AtomicLong sequence;
+        private volatile boolean run;
+
+        Consumer(final Observer observer, final long sequence) {
+            super("ObserverBus-" + threadCounter.incrementAndGet());
+            setDaemon(true);
+            this.observer = observer;
+            this.sequence = new AtomicLong(sequence);
+            run = true;
+        }
+
+        void halt() {
+            run = false;
+            // observer must not block publishers any more
+            sequence.set(Long.MAX_VALUE);
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            long next = sequence.get() + 1;
+            while (run) {
+                if (!isPublished(next) && !waitFor(next)) {
+                    continue;
+                }
+                // deliver whole available batch, then release the slots
+                long last = next;
+                while (run && isPublished(last)) {
+                    try {
+                        observer.update(null, entries[(int) last & mask]);
+                    } catch (RuntimeException ex) {
+                        LOG.log(Level.WARNING, "Error notifying message observer {0}.", observer);
+                        LOG.log(Level.FINE, "Error notifying message observer.", ex);
+                    }
+                    last++;
+                }
+                if (run) {
+                    sequence.set(last - 1);
+                }
+                next = last;
+            }
+        }
+
+        private boolean waitFor(final long seq) {
+            waiting.incrementAndGet();
+            lock.lock();
+            try {
+                if (!isPublished(seq)) {
+                    available.await(WAIT_TIME, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException ex) {
+                LOG.log(Level.FINE, "Observer waiting for messages has been interrupted.");
+            } finally {
+                lock.unlock();
+                waiting.decrementAndGet();
+            }
+            return isPublished(seq);
+        }
+    }
+}
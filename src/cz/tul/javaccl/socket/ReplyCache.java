@@ -0,0 +1,208 @@
+package cz.tul.javaccl.socket;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of replies to data packets with idempotency key. Packet sent again
+ * (eg. after the sender timed out waiting for the reply) receives the reply
+ * computed for the first packet with the same source and key. Cache holds
+ * given count of replies, replies older than given time are evicted.
+ *
+ * @author Petr Ječmen
+ */
+final class ReplyCache {
+
+    private final Map<Key, Reply> replies;
+    private final Lock lock;
+    private final int capacity;
+    private final long maxAge;
+
+    /**
+     * @param capacity maximal count of cached replies
+     * @param maxAge time in miliseconds, after which replies are evicted
+     */
+    ReplyCache(final int capacity, final long maxAge) {
+        this.capacity = capacity;
+        this.maxAge = maxAge;
+        replies = new LinkedHashMap<Key, Reply>();
+        lock = new ReentrantLock();
+    }
+
+    /**
+     * Find reply to packet with given key. If there is none, the caller
+     * becomes responsible for computing the reply and has to hand it over
+     * using {@link #complete(java.util.UUID, java.util.UUID, java.lang.Object)}
+     * or {@link #abandon(java.util.UUID, java.util.UUID)}.
+     *
+     * @param sourceId id of the sender
+     * @param key idempotency key
+     * @return cached (or being computed) reply, null if the packet is seen for
+     * the first time
+     */
+    Reply acquire(final UUID sourceId, final UUID key) {
+        final Key k = new Key(sourceId, key);
+        lock.lock();
+        try {
+            evict(System.currentTimeMillis());
+            final Reply result = replies.get(k);
+            if (result == null) {
+                replies.put(k, new Reply());
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Store computed reply.
+     *
+     * @param sourceId id of the sender
+     * @param key idempotency key
+     * @param reply reply to the packet
+     */
+    void complete(final UUID sourceId, final UUID key, final Object reply) {
+        final Reply r;
+        lock.lock();
+        try {
+            r = replies.get(new Key(sourceId, key));
+        } finally {
+            lock.unlock();
+        }
+        if (r != null) {
+            r.complete(reply);
+        }
+    }
+
+    /**
+     * Forget the packet, whose reply could not be computed. Packets waiting
+     * for the reply are not answered from the cache.
+     *
+     * @param sourceId id of the sender
+     * @param key idempotency key
+     */
+    void abandon(final UUID sourceId, final UUID key) {
+        final Reply r;
+        lock.lock();
+        try {
+            r = replies.remove(new Key(sourceId, key));
+        } finally {
+            lock.unlock();
+        }
+        if (r != null) {
+            r.abandon();
+        }
+    }
+
+    /**
+     * @return count of cached replies
+     */
+    int size() {
+        lock.lock();
+        try {
+            evict(System.currentTimeMillis());
+            return replies.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict(final long time) {
+        final Iterator<Reply> it = replies.values().iterator();
+        Reply r;
+        while (it.hasNext()) {
+            r = it.next();
+            if (time - r.created > maxAge) {
+                it.remove();
+                r.abandon();
+            } else if (replies.size() <= capacity) {
+                // replies are ordered by creation time
+                break;
+            } else if (r.isDone()) {
+                it.remove();
+            }
+            // replies being computed are kept, so duplicates wait for them
+        }
+    }
+
+    /**
+     * Reply shared by all packets with the same key.
+     */
+    static final class Reply {
+
+        private final long created;
+        private final CountDownLatch done;
+        private volatile Object reply;
+        private volatile boolean valid;
+
+        private Reply() {
+            created = System.currentTimeMillis();
+            done = new CountDownLatch(1);
+        }
+
+        private void complete(final Object reply) {
+            this.reply = reply;
+            valid = true;
+            done.countDown();
+        }
+
+        private void abandon() {
+            done.countDown();
+        }
+
+        private boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Wait until the reply is computed.
+         *
+         * @param timeout maximal waiting time in miliseconds
+         * @return true if the reply is available, false if its computation did
+         * not end in time or has failed
+         * @throws InterruptedException waiting has been interrupted
+         */
+        boolean await(final long timeout) throws InterruptedException {
+            return done.await(timeout, TimeUnit.MILLISECONDS) && valid;
+        }
+
+        /**
+         * @return computed reply
+         */
+        Object get() {
+            return reply;
+        }
+    }
+
+    private static final class Key {
+
+        private final UUID sourceId;
+        private final UUID key;
+
+        Key(final UUID sourceId, final UUID key) {
+            this.sourceId = sourceId;
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + (sourceId != null ? sourceId.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return key.equals(other.key) && (sourceId != null ? sourceId.equals(other.sourceId) : other.sourceId == null);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.communicator.DataPacket;
+import cz.tul.javaccl.messaging.Identifiable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Observer;
+import java.util.UUID;
+
+/**
+ * Immutable table of sinks for received data. Every registration change
+ * creates modified copy of the table, which replaces the old one, so
+ * dispatching of received data needs no locking and allocates nothing. All
+ * sinks for given message ID (or client ID) are found using single lookup.
+ *
+ * @author Petr Ječmen
+ */
+final class RouteTable {
+
+    static final RouteTable EMPTY = new RouteTable(
+            Collections.<Object, IdRoute>emptyMap(),
+            Collections.<UUID, ClientRoute>emptyMap(),
+            null, new Observer[0]);
+    private final Map<Object, IdRoute> ids;
+    private final Map<UUID, ClientRoute> clients;
+    private final Listener<DataPacket> messageListener;
+    private final Observer[] observers;
+
+    private RouteTable(final Map<Object, IdRoute> ids, final Map<UUID, ClientRoute> clients, final Listener<DataPacket> messageListener, final Observer[] observers) {
+        this.ids = ids;
+        this.clients = clients;
+        this.messageListener = messageListener;
+        this.observers = observers;
+    }
+
+    /**
+     * @param id message ID
+     * @return sinks for messages with given ID, null if there are none
+     */
+    IdRoute getIdRoute(final Object id) {
+        return ids.get(id);
+    }
+
+    /**
+     * @param clientId client ID
+     * @return sinks for data from given client, null if there are none
+     */
+    ClientRoute getClientRoute(final UUID clientId) {
+        return clients.get(clientId);
+    }
+
+    Listener<DataPacket> getMessageListener() {
+        return messageListener;
+    }
+
+    /**
+     * @return registered observers, returned array must not be modified
+     */
+    Observer[] getObservers() {
+        return observers;
+    }
+
+    RouteTable withIdListener(final Object id, final Listener<Identifiable> listener) {
+        final IdRoute old = ids.get(id);
+        return withIdRoute(id, new IdRoute(listener, old != null ? old.queue : null));
+    }
+
+    RouteTable withIdQueue(final Object id, final MessageQueue<Identifiable> queue) {
+        final IdRoute old = ids.get(id);
+        return withIdRoute(id, new IdRoute(old != null ? old.listener : null, queue));
+    }
+
+    private RouteTable withIdRoute(final Object id, final IdRoute route) {
+        final Map<Object, IdRoute> copy = new HashMap<Object, IdRoute>(ids);
+        if (route.isEmpty()) {
+            copy.remove(id);
+        } else {
+            copy.put(id, route);
+        }
+        return new RouteTable(copy, clients, messageListener, observers);
+    }
+
+    RouteTable withClientListener(final UUID clientId, final Listener<DataPacket> listener) {
+        final ClientRoute old = clients.get(clientId);
+        return withClientRoute(clientId, old != null
+                ? new ClientRoute(listener, old.queue, old.streamListener)
+                : new ClientRoute(listener, null, null));
+    }
+
+    RouteTable withClientQueue(final UUID clientId, final MessageQueue<DataPacket> queue) {
+        final ClientRoute old = clients.get(clientId);
+        return withClientRoute(clientId, old != null
+                ? new ClientRoute(old.listener, queue, old.streamListener)
+                : new ClientRoute(null, queue, null));
+    }
+
+    RouteTable withStreamListener(final UUID clientId, final StreamListener listener) {
+        final ClientRoute old = clients.get(clientId);
+        return withClientRoute(clientId, old != null
+                ? new ClientRoute(old.listener, old.queue, listener)
+                : new ClientRoute(null, null, listener));
+    }
+
+    private RouteTable withClientRoute(final UUID clientId, final ClientRoute route) {
+        final Map<UUID, ClientRoute> copy = new HashMap<UUID, ClientRoute>(clients);
+        if (route.isEmpty()) {
+            copy.remove(clientId);
+        } else {
+            copy.put(clientId, route);
+        }
+        return new RouteTable(ids, copy, messageListener, observers);
+    }
+
+    RouteTable withMessageListener(final Listener<DataPacket> listener) {
+        return new RouteTable(ids, clients, listener, observers);
+    }
+
+    RouteTable withObserver(final Observer observer) {
+        for (Observer o : observers) {
+            if (o.equals(observer)) {
+                return this;
+            }
+        }
+        final Observer[] copy = Arrays.copyOf(observers, observers.length + 1);
+        copy[observers.length] = observer;
+        return new RouteTable(ids, clients, messageListener, copy);
+    }
+
+    RouteTable withoutObserver(final Observer observer) {
+        for (int i = 0; i < observers.length; i++) {
+            if (observers[i].equals(observer)) {
+                final Observer[] copy = new Observer[observers.length - 1];
+                System.arraycopy(observers, 0, copy, 0, i);
+                System.arraycopy(observers, i + 1, copy, i, copy.length - i);
+                return new RouteTable(ids, clients, messageListener, copy);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sinks for messages with given ID.
+     */
+    static final class IdRoute {
+
+        final Listener<Identifiable> listener;
+        final MessageQueue<Identifiable> queue;
+
+        IdRoute(final Listener<Identifiable> listener, final MessageQueue<Identifiable> queue) {
+            this.listener = listener;
+            this.queue = queue;
+        }
+
+        boolean isEmpty() {
+            return listener == null && queue == null;
+        }
+    }
+
+    /**
+     * Sinks for data from given client.
+     */
+    static final class ClientRoute {
+
+        final Listener<DataPacket> listener;
+        final MessageQueue<DataPacket> queue;
+        final StreamListener streamListener;
+
+        ClientRoute(final Listener<DataPacket> listener, final MessageQueue<DataPacket> queue, final StreamListener streamListener) {
+            this.listener = listener;
+            this.queue = queue;
+            this.streamListener = streamListener;
+        }
+
+        boolean isEmpty() {
+            return listener == null && queue == null && streamListener == null;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.IService;
+import cz.tul.javaccl.communicator.BulkData;
+import cz.tul.javaccl.communicator.CorrelatedResponse;
+import cz.tul.javaccl.communicator.DataPacketImpl;
+import cz.tul.javaccl.communicator.StatusMessage;
+import cz.tul.javaccl.communicator.WireFormat;
+import cz.tul.javaccl.history.HistoryManager;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Event driven alternative to thread per connection handling of incoming
+ * connections. Connections are multiplexed over a fixed number of
+ * {@link SelectorLoop}s, complete frames are decoded and handled by the
+ * executor of owning {@link ServerSocket}. Reading of pipelined requests
+ * continues while previous requests are being handled. The listening channel
+ * can also be a Unix domain socket (see
+ * {@link cz.tul.javaccl.communicator.UnixSockets}).
+ *
+ * @author Petr Ječmen
+ */
+class SelectorEngine implements IService {
+
+    private static final Logger LOG = Logger.getLogger(SelectorEngine.class.getName());
+    private static final int STOP_TIMEOUT = 1000;
+    private final ServerSocketChannel serverChannel;
+    private final SelectorLoop[] loops;
+    private final DataPacketHandler dpHandler;
+    private final MessagePullDaemon mpd;
+    private final Executor exec;
+    private final AtomicInteger nextLoop;
+    private HistoryManager hm;
+
+    /**
+     * Bind listening channel and prepare event loops.
+     *
+     * @param port listening port
+     * @param loopCount count of event loops (0 for count of available
+     * processors)
+     * @param dpHandler handler for incoming data
+     * @param mpd message pull request handler
+     * @param exec executor for request processing
+     * @throws IOException error binding the port
+     */
+    SelectorEngine(final int port, final int loopCount,
+            final DataPacketHandler dpHandler, final MessagePullDaemon mpd, final Executor exec) throws IOException {
+        this(bind(port), loopCount, dpHandler, mpd, exec);
+    }
+
+    /**
+     * Prepare event loops for already bound listening channel.
+     *
+     * @param serverChannel bound listening channel
+     * @param loopCount count of event loops (0 for count of available
+     * processors)
+     * @param dpHandler handler for incoming data
+     * @param mpd message pull request handler
+     * @param exec executor for request processing
+     * @throws IOException error configuring the channel
+     */
+    SelectorEngine(final ServerSocketChannel serverChannel, final int loopCount,
+            final DataPacketHandler dpHandler, final MessagePullDaemon mpd, final Executor exec) throws IOException {
+        this.dpHandler = dpHandler;
+        this.mpd = mpd;
+        this.exec = exec;
+        nextLoop = new AtomicInteger();
+
+        final int count = loopCount > 0 ? loopCount : Runtime.getRuntime().availableProcessors();
+        loops = new SelectorLoop[count];
+        for (int i = 0; i < count; i++) {
+            loops[i] = new SelectorLoop(this, i);
+        }
+
+        this.serverChannel = serverChannel;
+        serverChannel.configureBlocking(false);
+        loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, null);
+    }
+
+    private static ServerSocketChannel bind(final int port) throws IOException {
+        final ServerSocketChannel result = ServerSocketChannel.open();
+        result.socket().bind(new InetSocketAddress(port));
+        return result;
+    }
+
+    /**
+     * Start event loops.
+     */
+    void start() {
+        for (SelectorLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * @return listening port
+     */
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Register history manager that will store info about received messages.
+     *
+     * @param hm instance of history manager
+     */
+    void registerHistory(final HistoryManager hm) {
+        this.hm = hm;
+    }
+
+    /**
+     * Accept all pending connections and assign them to event loops.
+     *
+     * @param server listening channel
+     * @throws IOException error accepting connection
+     */
+    void accept(final ServerSocketChannel server) throws IOException {
+        SocketChannel channel;
+        InetAddress address;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            if (channel.getRemoteAddress() instanceof InetSocketAddress) {
+                address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+                channel.socket().setTcpNoDelay(true);
+            } else {
+                // Unix domain socket
+                address = GlobalConstants.IP_LOOPBACK;
+            }
+            LOG.log(Level.FINE, "Connection accepted from {0}", channel.getRemoteAddress());
+
+            final SelectorLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+            loop.register(channel, SelectionKey.OP_READ, new ChannelConnection(channel, address, loop, this));
+        }
+    }
+
+    /**
+     * Pass received frame for processing.
+     *
+     * @param connection source connection
+     * @param frame frame content
+     * @param compressed true if the content is compressed
+     * @param attachments bulk data received before the frame
+     */
+    void handleFrame(final ChannelConnection connection, final byte[] frame, final boolean compressed, final List<BulkData> attachments) {
+        try {
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    processFrame(connection, frame, compressed, attachments, false);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // no free worker, request is only answered as busy by the event loop
+            processFrame(connection, frame, compressed, attachments, true);
+        }
+    }
+
+    /**
+     * @param busy true if the request should not be handled, only answered
+     * with {@link GenericResponses#SERVER_BUSY}
+     */
+    private void processFrame(final ChannelConnection connection, final byte[] frame, final boolean compressed, final List<BulkData> attachments, final boolean busy) {
+        final InetAddress ip = connection.getAddress();
+        final Object dataIn;
+        try {
+            final byte[] content = compressed ? connection.decompress(frame) : frame;
+            dataIn = WireFormat.decode(content, 0, content.length, attachments);
+        } catch (IOException ex) {
+            releaseAll(attachments);
+            LOG.log(Level.WARNING, "Error reading data from channel.");
+            LOG.log(Level.FINE, "Error reading data from channel.", ex);
+            sendReply(connection, ip, null, null, false, GenericResponses.CONNECTION_ERROR, true);
+            return;
+        } catch (ClassNotFoundException ex) {
+            releaseAll(attachments);
+            LOG.log(Level.WARNING, "Invalid data received from sender.");
+            LOG.log(Level.FINE, "Invalid data received from sender.", ex);
+            sendReply(connection, ip, null, null, false, GenericResponses.ILLEGAL_DATA, true);
+            return;
+        }
+
+        if (connection.getPullRequest() != null) {
+            final MessagePullRequest request = connection.getPullRequest();
+            mpd.storePulledResponse(request, connection.takePulledData(), dataIn);
+            connection.resume();
+        } else if (dataIn instanceof DataPacketImpl) {
+            final DataPacketImpl packet = (DataPacketImpl) dataIn;
+            packet.setSourceIP(ip);
+            if (busy) {
+                releaseAll(attachments);
+                // busy target is still alive
+                Object response = packet.getData() instanceof StatusMessage ? GenericResponses.OK : GenericResponses.SERVER_BUSY;
+                if (packet.getCorrelationId() != 0) {
+                    response = new CorrelatedResponse(packet.getCorrelationId(), response);
+                }
+                sendReply(connection, ip, packet.getSourceId(), packet.getData(), false, response, false);
+            } else if (packet.getCorrelationId() != 0) {
+                connection.resume();
+                Object response;
+                try {
+                    response = dpHandler.handleDataPacket(packet);
+                } catch (RuntimeException ex) {
+                    // other pipelined requests must not be affected
+                    LOG.log(Level.WARNING, "Error handling pipelined data packet.");
+                    LOG.log(Level.FINE, "Error handling pipelined data packet.", ex);
+                    response = GenericResponses.GENERAL_ERROR;
+                }
+                sendReply(connection, ip, packet.getSourceId(), packet.getData(), true, new CorrelatedResponse(packet.getCorrelationId(), response), false);
+            } else {
+                final Object response = dpHandler.handleDataPacket(packet);
+                sendReply(connection, ip, packet.getSourceId(), packet.getData(), true, response, false);
+            }
+        } else if (busy && dataIn instanceof MessagePullRequest) {
+            sendReply(connection, ip, ((MessagePullRequest) dataIn).getClientId(), dataIn, false, GenericResponses.SERVER_BUSY, false);
+        } else if (dataIn instanceof MessagePullRequest) {
+            final MessagePullRequest request = (MessagePullRequest) dataIn;
+            // long polling request blocks this worker thread until there are data
+            final Object msg = mpd.pollData(request);
+            if (msg instanceof MessageBatch) {
+                connection.setPulledData(request, (MessageBatch) msg);
+            }
+            send(connection, msg, false);
+        } else if (dataIn instanceof StatusMessage) {
+            final StatusMessage message = (StatusMessage) dataIn;
+            sendReply(connection, ip, message.getId(), dataIn, true, GenericResponses.OK, false);
+        } else {
+            LOG.log(Level.WARNING, "Received illegal type of data - {0}", dataIn);
+            sendReply(connection, ip, null, dataIn, true, GenericResponses.ILLEGAL_DATA, false);
+        }
+    }
+
+    private void sendReply(final ChannelConnection connection, final InetAddress ip, final UUID id, final Object dataIn, final boolean dataRead, final Object response, final boolean close) {
+        send(connection, response, close);
+
+        if (hm != null) {
+            hm.logMessageReceived(ip, id, dataIn, dataRead, response);
+        }
+    }
+
+    private static void releaseAll(final List<BulkData> attachments) {
+        for (BulkData bd : attachments) {
+            bd.release();
+        }
+    }
+
+    private static void send(final ChannelConnection connection, final Object data, final boolean close) {
+        try {
+            final List<BulkData> attachments = new ArrayList<BulkData>();
+            final byte[] content = WireFormat.encode(data, attachments);
+            connection.send(content, attachments, close);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Error writing result data to channel.");
+            LOG.log(Level.FINE, "Error writing result data to channel.", ex);
+            connection.close();
+        }
+    }
+
+    @Override
+    public void stopService() {
+        try {
+            serverChannel.close();
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Error closing listening channel.", ex);
+        }
+        for (SelectorLoop loop : loops) {
+            loop.stopService();
+        }
+        // listening channel is released after its selector is closed
+        try {
+            loops[0].join(STOP_TIMEOUT);
+        } catch (InterruptedException ex) {
+            LOG.log(Level.FINE, "Waiting for selector stop has been interrupted.", ex);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.IService;
+import cz.tul.javaccl.communicator.ConnectionPool;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Event loop serving non-blocking connections registered to one selector. All
+ * channel operations are done by this thread, other threads pass their work
+ * using {@link #execute(java.lang.Runnable)}.
+ *
+ * @author Petr Ječmen
+ */
+class SelectorLoop extends Thread implements IService {
+
+    private static final Logger LOG = Logger.getLogger(SelectorLoop.class.getName());
+    private static final int SELECT_TIMEOUT = 1000;
+    private final Selector selector;
+    private final SelectorEngine engine;
+    private final Queue<Runnable> tasks;
+    private long lastIdleCheck;
+    private volatile boolean run;
+
+    SelectorLoop(final SelectorEngine engine, final int index) throws IOException {
+        super("SelectorLoop-" + index);
+
+        this.engine = engine;
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        run = true;
+    }
+
+    /**
+     * Run task inside the loop thread.
+     *
+     * @param task task for execution
+     */
+    void execute(final Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Register channel to this loop.
+     *
+     * @param channel non-blocking channel
+     * @param ops interest set
+     * @param connection connection state (null for listening channel)
+     */
+    void register(final SelectableChannel channel, final int ops, final ChannelConnection connection) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final SelectionKey key = channel.register(selector, ops, connection);
+                    if (connection != null) {
+                        connection.setKey(key);
+                    }
+                } catch (ClosedChannelException ex) {
+                    LOG.log(Level.FINE, "Channel closed before registration.", ex);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        lastIdleCheck = System.currentTimeMillis();
+        while (run) {
+            try {
+                selector.select(SELECT_TIMEOUT);
+                runTasks();
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    handleKey(key);
+                }
+                closeIdleConnections();
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Selector IO error occured.");
+                LOG.log(Level.FINE, "Selector IO error occured.", ex);
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof ChannelConnection) {
+                ((ChannelConnection) key.attachment()).close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Error closing selector.", ex);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (CancelledKeyException ex) {
+                LOG.log(Level.FINE, "Connection closed by other thread before running task.", ex);
+            } catch (RuntimeException ex) {
+                // single failed task must not stop serving other connections
+                LOG.log(Level.WARNING, "Error running selector task - {0}", ex.getLocalizedMessage());
+                LOG.log(Level.FINE, "Error running selector task.", ex);
+            }
+        }
+    }
+
+    private void handleKey(final SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+
+        final Object attachment = key.attachment();
+        try {
+            if (key.isAcceptable()) {
+                engine.accept((ServerSocketChannel) key.channel());
+            } else if (attachment instanceof ChannelConnection) {
+                final ChannelConnection connection = (ChannelConnection) attachment;
+                if (key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            }
+        } catch (EOFException ex) {
+            // other side has closed the connection
+            ((ChannelConnection) attachment).close();
+        } catch (IOException ex) {
+            LOG.log(Level.FINE, "Error operating channel.", ex);
+            if (attachment instanceof ChannelConnection) {
+                ((ChannelConnection) attachment).close();
+            }
+        } catch (CancelledKeyException ex) {
+            // connection closed by other thread
+        } catch (RuntimeException ex) {
+            LOG.log(Level.WARNING, "Error handling selected channel - {0}", ex.getLocalizedMessage());
+            LOG.log(Level.FINE, "Error handling selected channel.", ex);
+            if (attachment instanceof ChannelConnection) {
+                ((ChannelConnection) attachment).close();
+            }
+        }
+    }
+
+    private void closeIdleConnections() {
+        final long now = System.currentTimeMillis();
+        if (now - lastIdleCheck < SELECT_TIMEOUT) {
+            return;
+        }
+        lastIdleCheck = now;
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof ChannelConnection) {
+                final ChannelConnection connection = (ChannelConnection) key.attachment();
+                if (connection.isIdle(ConnectionPool.KEEP_ALIVE_TIME, now)) {
+                    LOG.log(Level.FINE, "Connection from {0} has been idle for too long, closing.", connection.getAddress().getHostAddress());
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stopService() {
+        run = false;
+        selector.wakeup();
+    }
+}
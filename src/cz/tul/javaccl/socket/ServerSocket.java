@@ -1,38 +1,72 @@
 package cz.tul.javaccl.socket;
 
+import cz.tul.javaccl.ExecutorFactory;
 import cz.tul.javaccl.GlobalConstants;
 import cz.tul.javaccl.GenericResponses;
 import cz.tul.javaccl.IService;
 import cz.tul.javaccl.communicator.DataPacket;
+import cz.tul.javaccl.communicator.DataPacketImpl;
+import cz.tul.javaccl.communicator.StatusMessage;
+import cz.tul.javaccl.communicator.StreamChunk;
+import cz.tul.javaccl.communicator.UnixSockets;
 import cz.tul.javaccl.history.HistoryManager;
 import cz.tul.javaccl.messaging.Message;
 import cz.tul.javaccl.messaging.SystemMessageHeaders;
 import cz.tul.javaccl.messaging.Identifiable;
+import cz.tul.javaccl.socket.MessageQueue.OverflowPolicy;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.persistence.Timeout;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Collections;
 import java.util.Observer;
-import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Listening socket for data receiving. Listens for communication on given port
  * and when connection is made, server creates new {@link SocketReader} to
- * handle data receiving and starts listening again.
+ * handle data receiving and starts listening again. Accepted connections are
+ * kept open for further requests and closed when the socket is stopped. If
+ * {@link ConfigurationType#SELECTOR_ENGINE} is enabled, connections are served
+ * by {@link SelectorEngine} event loops instead. Requests are handled by a
+ * bounded pool of threads (see {@link ConfigurationType#SERVER_THREADS} and
+ * {@link ConfigurationType#SERVER_QUEUE_SIZE}), requests over the limit are
+ * answered with {@link GenericResponses#SERVER_BUSY}. Connections are read
+ * outside of the bound, so idle connections do not occupy the pool.
+ * Registered listeners and queues are kept in immutable {@link RouteTable},
+ * which is replaced on every registration change, so received data are
+ * dispatched without locking.
+ * Queues can be bounded, data not accepted by a full queue with
+ * {@link OverflowPolicy#REJECT} policy are answered with
+ * {@link GenericResponses#NOT_HANDLED} unless some listener handled them.
+ * Message observers are notified from {@link ObserverBus} threads. Senders in
+ * the same JVM can deliver data directly using {@link LocalTransport}. If
+ * {@link ConfigurationType#UNIX_SOCKET_DIR} is set, socket also listens on
+ * Unix domain socket served by its own {@link SelectorEngine} (see
+ * {@link UnixSockets}). Replies to data packets with idempotency key are kept
+ * in {@link ReplyCache}, so packets sent again by the sender are answered
+ * without handling them again.
  *
  * @author Petr Ječmen
  */
 public final class ServerSocket extends Thread implements IService, ListenerRegistrator, DataPacketHandler {
 
     private static final Logger LOG = Logger.getLogger(ServerSocket.class.getName());
+    private static final int STOP_TIMEOUT = 1000;
 
     /**
      * Prepare new ServerSocket.
@@ -50,80 +84,197 @@ public final class ServerSocket extends Thread implements IService, ListenerRegi
         return result;
     }
     private final java.net.ServerSocket socket;
+    private final int port;
     private IDFilter idFilter;
     private final ExecutorService exec;
-    private final Map<UUID, Listener<DataPacket>> listenersClient;
-    private final Map<Object, Listener<Identifiable>> listenersId;
-    private Listener<DataPacket> messageListener;
+    private final ExecutorService readerExec;
+    private final StreamReceiver streamReceiver;
     private final ObjectQueue<DataPacket> dataStorageClient;
     private final ObjectQueue<Identifiable> dataStorageId;
-    private final Set<Observer> dataListeners;
+    private final Lock routeLock;
+    private volatile RouteTable routes;
+    private final ObserverBus observerBus;
+    private final ReplyCache replyCache;
+    private final Set<Socket> openSockets;
     private final MessagePullDaemon mpd;
+    private final SelectorEngine selectorEngine;
+    private final SelectorEngine unixEngine;
     private HistoryManager hManager;
     private boolean run;
 
     private ServerSocket(final int port, final IDFilter idFilter, final ClientLister clientLister) throws IOException {
         super();
 
-        socket = new java.net.ServerSocket(port);
         this.idFilter = idFilter;
-        exec = Executors.newCachedThreadPool();
+        this.port = port;
+        exec = ExecutorFactory.newBoundedExecutor("ServerSocket", Configuration.getInt(ConfigurationType.SERVER_THREADS), Configuration.getInt(ConfigurationType.SERVER_QUEUE_SIZE), false);
+        readerExec = ExecutorFactory.newCachedExecutor("ServerSocket-reader", false);
         dataStorageClient = new ObjectQueue<DataPacket>();
         dataStorageId = new ObjectQueue<Identifiable>();
-        dataListeners = new HashSet<Observer>();
+        routeLock = new ReentrantLock();
+        routes = RouteTable.EMPTY;
+        observerBus = new ObserverBus(Configuration.getInt(ConfigurationType.OBSERVER_BUFFER_SIZE));
+        final int replyCacheSize = Configuration.getInt(ConfigurationType.REPLY_CACHE_SIZE);
+        replyCache = replyCacheSize > 0 ? new ReplyCache(replyCacheSize, Configuration.getInt(ConfigurationType.REPLY_CACHE_TIME)) : null;
+        openSockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
         run = true;
-        listenersClient = new HashMap<UUID, Listener<DataPacket>>();
-        listenersId = new HashMap<Object, Listener<Identifiable>>();
+        streamReceiver = new StreamReceiver(exec);
         mpd = new MessagePullDaemon(this, clientLister);
+
+        if (Configuration.getBoolean(ConfigurationType.SELECTOR_ENGINE)) {
+            selectorEngine = new SelectorEngine(port, Configuration.getInt(ConfigurationType.SELECTOR_THREADS), this, mpd, exec);
+            socket = null;
+        } else {
+            selectorEngine = null;
+            // accepted sockets have channels, so bulk data can be sent directly from files
+            final ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.socket().bind(new InetSocketAddress(port));
+            socket = channel.socket();
+        }
+
+        unixEngine = prepareUnixEngine(getPort());
+    }
+
+    private SelectorEngine prepareUnixEngine(final int tcpPort) {
+        if (!UnixSockets.isEnabled()) {
+            return null;
+        }
+        try {
+            return new SelectorEngine(UnixSockets.openServerChannel(tcpPort), 1, this, mpd, exec);
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Error creating Unix domain socket, only TCP will be used.");
+            LOG.log(Level.FINE, "Error creating Unix domain socket.", ex);
+            return null;
+        }
     }
 
     @Override
     public void setClientListener(final UUID clientId, final Listener<DataPacket> dataListener) {
-        LOG.log(Level.FINE, "Added new listener " + dataListener.toString() + " for client with ID " + clientId.toString());
-        listenersClient.put(clientId, dataListener);
+        LOG.log(Level.FINE, "Added new listener {0} for client with ID {1}", new Object[]{dataListener, clientId});
+        routeLock.lock();
+        try {
+            routes = routes.withClientListener(clientId, dataListener);
+        } finally {
+            routeLock.unlock();
+        }
     }
 
     @Override
-    public Queue<DataPacket> createClientMessageQueue(final UUID clientId) {
+    public MessageQueue<DataPacket> createClientMessageQueue(final UUID clientId) {
+        return createClientMessageQueue(clientId, Configuration.getInt(ConfigurationType.MESSAGE_QUEUE_CAPACITY),
+                OverflowPolicy.valueOf(Configuration.getValue(ConfigurationType.MESSAGE_QUEUE_POLICY)));
+    }
+
+    @Override
+    public MessageQueue<DataPacket> createClientMessageQueue(final UUID clientId, final int capacity, final OverflowPolicy policy) {
+        routeLock.lock();
+        try {
+            return prepareClientQueue(clientId, capacity, policy);
+        } finally {
+            routeLock.unlock();
+        }
+    }
+
+    private MessageQueue<DataPacket> prepareClientQueue(final UUID clientId, final int capacity, final OverflowPolicy policy) {
         if (dataStorageClient.isListenerRegistered(clientId)) {
             return dataStorageClient.getDataQueue(clientId);
         } else {
-            return dataStorageClient.prepareQueue(clientId);
+            final MessageQueue<DataPacket> result = dataStorageClient.prepareQueue(clientId, capacity, policy);
+            if (clientId != null) {
+                routes = routes.withClientQueue(clientId, result);
+            }
+            return result;
         }
     }
 
     @Override
     public void removeClientListener(final UUID clientId) {
         if (clientId != null) {
-            dataStorageClient.removeListener(clientId);
-            listenersClient.remove(clientId);
-            LOG.log(Level.FINE, "Removed listener for ID " + clientId);
+            routeLock.lock();
+            try {
+                dataStorageClient.removeListener(clientId);
+                routes = routes.withClientListener(clientId, null).withClientQueue(clientId, null);
+            } finally {
+                routeLock.unlock();
+            }
+            LOG.log(Level.FINE, "Removed listener for ID {0}", clientId);
         } else {
             LOG.log(Level.FINE, "NULL client id received for deregistration");
         }
     }
 
     @Override
-    public void setIdListener(final Object msgId, final Listener<Identifiable> idListener) {
-        LOG.log(Level.FINE, "Added new listener " + idListener.toString() + " for ID " + msgId.toString());
-        listenersId.put(msgId, idListener);
+    public void setStreamListener(final UUID clientId, final StreamListener streamListener) {
+        LOG.log(Level.FINE, "Added new stream listener {0} for client with ID {1}", new Object[]{streamListener, clientId});
+        routeLock.lock();
+        try {
+            routes = routes.withStreamListener(clientId, streamListener);
+        } finally {
+            routeLock.unlock();
+        }
     }
 
     @Override
-    public Queue<Identifiable> createIdMessageQueue(final Object msgId) {
-        if (dataStorageId.isListenerRegistered(msgId)) {
-            return dataStorageId.getDataQueue(msgId);
+    public void removeStreamListener(final UUID clientId) {
+        if (clientId != null) {
+            routeLock.lock();
+            try {
+                routes = routes.withStreamListener(clientId, null);
+            } finally {
+                routeLock.unlock();
+            }
+            LOG.log(Level.FINE, "Removed stream listener for ID {0}", clientId);
         } else {
-            return dataStorageId.prepareQueue(msgId);
+            LOG.log(Level.FINE, "NULL client id received for stream listener deregistration");
+        }
+    }
+
+    @Override
+    public void setIdListener(final Object msgId, final Listener<Identifiable> idListener) {
+        LOG.log(Level.FINE, "Added new listener {0} for ID {1}", new Object[]{idListener, msgId});
+        routeLock.lock();
+        try {
+            routes = routes.withIdListener(msgId, idListener);
+        } finally {
+            routeLock.unlock();
+        }
+    }
+
+    @Override
+    public MessageQueue<Identifiable> createIdMessageQueue(final Object msgId) {
+        return createIdMessageQueue(msgId, Configuration.getInt(ConfigurationType.MESSAGE_QUEUE_CAPACITY),
+                OverflowPolicy.valueOf(Configuration.getValue(ConfigurationType.MESSAGE_QUEUE_POLICY)));
+    }
+
+    @Override
+    public MessageQueue<Identifiable> createIdMessageQueue(final Object msgId, final int capacity, final OverflowPolicy policy) {
+        routeLock.lock();
+        try {
+            if (dataStorageId.isListenerRegistered(msgId)) {
+                return dataStorageId.getDataQueue(msgId);
+            } else {
+                final MessageQueue<Identifiable> result = dataStorageId.prepareQueue(msgId, capacity, policy);
+                if (msgId != null) {
+                    routes = routes.withIdQueue(msgId, result);
+                }
+                return result;
+            }
+        } finally {
+            routeLock.unlock();
         }
     }
 
     @Override
     public void removeIdListener(final Object msgId) {
         if (msgId != null) {
-            dataStorageId.removeListener(msgId);
-            listenersId.remove(msgId);
-            LOG.log(Level.FINE, "Removed listener for ID " + msgId.toString());
+            routeLock.lock();
+            try {
+                dataStorageId.removeListener(msgId);
+                routes = routes.withIdListener(msgId, null).withIdQueue(msgId, null);
+            } finally {
+                routeLock.unlock();
+            }
+            LOG.log(Level.FINE, "Removed listener for ID {0}", msgId);
         } else {
             LOG.log(Level.FINE, "NULL message id received for deregistration");
         }
@@ -131,35 +282,64 @@ public final class ServerSocket extends Thread implements IService, ListenerRegi
 
     @Override
     public void addMessageObserver(final Observer msgObserver) {
-        dataListeners.add(msgObserver);
-        LOG.log(Level.FINE, "Added new message observer - " + msgObserver.toString());
+        routeLock.lock();
+        try {
+            routes = routes.withObserver(msgObserver);
+            observerBus.addObserver(msgObserver);
+        } finally {
+            routeLock.unlock();
+        }
+        LOG.log(Level.FINE, "Added new message observer - {0}", msgObserver);
     }
 
     @Override
     public void removeMessageObserver(final Observer msgObserver) {
-        dataListeners.remove(msgObserver);
-        LOG.log(Level.FINE, "Removed message observer - " + msgObserver.toString());
+        routeLock.lock();
+        try {
+            routes = routes.withoutObserver(msgObserver);
+            observerBus.removeObserver(msgObserver);
+        } finally {
+            routeLock.unlock();
+        }
+        LOG.log(Level.FINE, "Removed message observer - {0}", msgObserver);
+    }
+
+    @Override
+    public long getMessageObserverLag(final Observer msgObserver) {
+        return observerBus.getLag(msgObserver);
     }
 
     @Override
     public void setMessageListener(final Listener<DataPacket> listener) {
-        this.messageListener = listener;
-        LOG.log(Level.FINE, "Set new message listener - " + listener.toString());
+        routeLock.lock();
+        try {
+            routes = routes.withMessageListener(listener);
+        } finally {
+            routeLock.unlock();
+        }
+        LOG.log(Level.FINE, "Set new message listener - {0}", listener);
     }
 
     @Override
     public void removeMessageListener() {
-        LOG.log(Level.FINE, "Removed message listener - " + messageListener.toString());
-        messageListener = null;
+        LOG.log(Level.FINE, "Removed message listener - {0}", routes.getMessageListener());
+        routeLock.lock();
+        try {
+            routes = routes.withMessageListener(null);
+        } finally {
+            routeLock.unlock();
+        }
     }
 
     @Override
-    public Queue<DataPacket> getMessageQueue() {
-        final UUID localId = idFilter.getLocalID();
-        if (dataStorageClient.isListenerRegistered(localId)) {
-            return dataStorageClient.getDataQueue(localId);
-        } else {
-            return dataStorageClient.prepareQueue(localId);
+    public MessageQueue<DataPacket> getMessageQueue() {
+        final int capacity = Configuration.getInt(ConfigurationType.MESSAGE_QUEUE_CAPACITY);
+        final OverflowPolicy policy = OverflowPolicy.valueOf(Configuration.getValue(ConfigurationType.MESSAGE_QUEUE_POLICY));
+        routeLock.lock();
+        try {
+            return prepareClientQueue(idFilter.getLocalID(), capacity, policy);
+        } finally {
+            routeLock.unlock();
         }
     }
 
@@ -170,15 +350,35 @@ public final class ServerSocket extends Thread implements IService, ListenerRegi
             try {
                 s = socket.accept();
                 LOG.log(Level.FINE, "Connection accepted from IP " + s.getInetAddress().getHostAddress() + ":" + s.getPort());
-                final SocketReader sr = new SocketReader(s, this, mpd);
+                final SocketReader sr = new SocketReader(s, this, mpd, exec);
                 sr.registerHistory(hManager);
-                for (Observer o : dataListeners) {
+                for (Observer o : routes.getObservers()) {
                     sr.addObserver(o);
                 }
-                exec.execute(sr);
+                final Socket accepted = s;
+                openSockets.add(accepted);
+                try {
+                    // reader only waits for requests, their handling is bounded
+                    readerExec.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                sr.run();
+                            } finally {
+                                openSockets.remove(accepted);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    // socket is being stopped
+                    openSockets.remove(accepted);
+                    accepted.close();
+                }
             } catch (SocketException ex) {
                 // nothing bad happened
                 // required for proper shutdown                
+            } catch (ClosedChannelException ex) {
+                // listening channel has been closed during shutdown
             } catch (IOException ex) {
                 LOG.log(Level.WARNING, "Server socket IO error occured during connection accepting.");
                 LOG.log(Level.FINE, "Server socket IO error occured during connection accepting.", ex);
@@ -190,6 +390,9 @@ public final class ServerSocket extends Thread implements IService, ListenerRegi
      * @return listening port
      */
     public int getPort() {
+        if (selectorEngine != null) {
+            return selectorEngine.getPort();
+        }
         return socket.getLocalPort();
     }
 
@@ -200,39 +403,120 @@ public final class ServerSocket extends Thread implements IService, ListenerRegi
      */
     public void registerHistory(final HistoryManager manager) {
         this.hManager = manager;
+        if (selectorEngine != null) {
+            selectorEngine.registerHistory(manager);
+        }
+        if (unixEngine != null) {
+            unixEngine.registerHistory(manager);
+        }
     }
 
     @Override
     public void start() {
-        super.start();
+        if (selectorEngine != null) {
+            selectorEngine.start();
+        } else {
+            super.start();
+        }
+        if (unixEngine != null) {
+            unixEngine.start();
+        }
         mpd.start();
+        LocalTransport.register(port, this);
     }
 
     @Override
     public void stopService() {
+        LocalTransport.deregister(port, this);
         try {
             run = false;
             mpd.stopService();
+            if (unixEngine != null) {
+                if (!UnixSockets.getSocketFile(getPort()).delete()) {
+                    LOG.fine("Unix domain socket file could not be deleted.");
+                }
+                unixEngine.stopService();
+            }
+            if (selectorEngine != null) {
+                selectorEngine.stopService();
+            } else {
+                socket.close();
+            }
             exec.shutdownNow();
-            socket.close();
+            readerExec.shutdownNow();
+            observerBus.stop();
         } catch (IOException ex) {
             // expected exception due to listening interruption
         }
+        if (isAlive() && Thread.currentThread() != this) {
+            // listening port is released after the accepting thread ends
+            try {
+                join(STOP_TIMEOUT);
+            } catch (InterruptedException ex) {
+                LOG.log(Level.FINE, "Waiting for socket stop has been interrupted.", ex);
+            }
+        }
+        for (Socket s : openSockets) {
+            try {
+                s.close();
+            } catch (IOException ex) {
+                LOG.log(Level.FINE, "Error closing accepted socket.", ex);
+            }
+        }
         LOG.fine("Server socket has been stopped.");
     }
 
+    /**
+     * Handle data sent by {@link LocalTransport} same way as data received
+     * from a connection.
+     *
+     * @param dataIn received data
+     * @param ip address of the sender
+     * @return reply for the sender
+     */
+    Object handleLocalData(final Object dataIn, final InetAddress ip) {
+        final Object response;
+        final UUID id;
+        Object data = dataIn;
+        if (dataIn instanceof DataPacketImpl) {
+            final DataPacketImpl packet = (DataPacketImpl) dataIn;
+            packet.setSourceIP(ip);
+            id = packet.getSourceId();
+            data = packet.getData();
+            response = handleDataPacket(packet);
+        } else if (dataIn instanceof StatusMessage) {
+            id = ((StatusMessage) dataIn).getId();
+            response = GenericResponses.OK;
+        } else {
+            LOG.log(Level.WARNING, "Received illegal type of data - {0}", dataIn);
+            id = null;
+            response = GenericResponses.ILLEGAL_DATA;
+        }
+
+        final HistoryManager hm = hManager;
+        if (hm != null) {
+            hm.logMessageReceived(ip, id, data, true, response);
+        }
+        return response;
+    }
+
     @Override
     public Object handleDataPacket(final DataPacket dp) {
         final UUID clientId = dp.getSourceId();
         final Object data = dp.getData();
         Object result = GenericResponses.NOT_HANDLED;
+        if (data instanceof StatusMessage) {
+            // heartbeat, answered without involving listeners
+            return GenericResponses.OK;
+        }
 
+        final IDFilter filter = idFilter;
         boolean allowed = false;
-        if (idFilter == null) {
-            LOG.log(Level.FINE, "Data [{0}] received, no ID filter set, forwarding to listeners.", data.toString());
+        if (filter == null) {
+            LOG.log(Level.FINE, "Data [{0}] received, no ID filter set, forwarding to listeners.", data);
             allowed = true;
         } else {
-            if (!idFilter.isTargetIdValid(dp.getTargetId())) {
+            if (!filter.isTargetIdValid(dp.getTargetId())) {
                 if (data instanceof Message) {
                     final UUID mId = ((Message) data).getId();
                     final String header = ((Message) data).getHeader();
@@ -242,88 +526,151 @@ public final class ServerSocket extends Thread implements IService, ListenerRegi
                 }
 
                 if (!allowed) {
-                    LOG.log(Level.FINE, "Received data not for this client - client id {0}, data packet [{1}]", new Object[]{clientId, dp.toString()});
+                    LOG.log(Level.FINE, "Received data not for this client - client id {0}, data packet [{1}]", new Object[]{clientId, dp});
                     result = GenericResponses.ILLEGAL_TARGET_ID;
                 }
-            } else if (!idFilter.isIdAllowed(clientId)) {
-                LOG.log(Level.FINE, "Received data from unregistered client - id {0}, data [{1}]", new Object[]{clientId, data.toString()});
+            } else if (!filter.isIdAllowed(clientId)) {
+                LOG.log(Level.FINE, "Received data from unregistered client - id {0}, data [{1}]", new Object[]{clientId, data});
                 result = GenericResponses.UUID_NOT_ALLOWED;
             } else {
-                LOG.log(Level.FINE, "Data [{0}] received, forwarding to listeners.", data.toString());
+                LOG.log(Level.FINE, "Data [{0}] received, forwarding to listeners.", data);
                 allowed = true;
             }
         }
 
         if (allowed) {
-            boolean sysMsg = false;
-            boolean handled;
-            if (data instanceof Identifiable) {
-                final Identifiable iData = (Identifiable) data;
-                final Object id = iData.getId();
-                if (id.equals(GlobalConstants.ID_SYS_MSG)) { // not pretty !!!
-                    sysMsg = true;
-                    result = listenersId.get(id).receiveData(dp);
-                    handled = true;
-                } else if (listenersId.containsKey(id)) {
-                    result = listenersId.get(id).receiveData(iData);
-                    handled = true;
-                } else if (listenersClient.containsKey(clientId)) {
-                    result = listenersClient.get(clientId).receiveData(dp);
-                    handled = true;
-                } else {
-                    handled = false;
-                }
-                if (dataStorageId.isListenerRegistered(id)) {
-                    dataStorageId.storeData(id, dp);
-                    if (!handled) {
-                        result = GenericResponses.NOT_HANDLED_DIRECTLY;
-                    }
-                }
+            final UUID key = dp instanceof DataPacketImpl ? ((DataPacketImpl) dp).getIdempotencyKey() : null;
+            if (key != null && replyCache != null) {
+                result = dispatchOnce(dp, clientId, key, data, filter, result);
             } else {
-                handled = false;
+                result = dispatch(dp, clientId, data, filter, result);
             }
+        }
 
-            if (!sysMsg) {
-                if (!handled && listenersClient.containsKey(clientId)) {
-                    result = listenersClient.get(clientId).receiveData(dp);
-                    handled = true;
-                }
-                if (!handled && messageListener != null) {
-                    result = messageListener.receiveData(dp);
-                    handled = true;
-                }
+        return result;
+    }
 
-                if (dataStorageClient.isListenerRegistered(clientId)) {
-                    dataStorageClient.storeData(clientId, dp);
-                    if (!handled) {
-                        result = GenericResponses.NOT_HANDLED_DIRECTLY;
-                    }
-                }
-                if (dataStorageClient.isListenerRegistered(idFilter.getLocalID())) {
-                    dataStorageClient.storeData(idFilter.getLocalID(), dp);
-                    if (!handled) {
-                        result = GenericResponses.NOT_HANDLED_DIRECTLY;
-                    }
-                }
-                if (!dataListeners.isEmpty()) {
-                    if (!handled) {
-                        result = GenericResponses.NOT_HANDLED_DIRECTLY;
-                    }
-                    exec.execute(new Runnable() {
-                        @Override
-                        public void run() {
-                            for (Observer o : dataListeners) {
-                                o.update(null, dp);
-                            }
-                        }
-                    });
+    /**
+     * Hand received data to registered sinks only if data with the same
+     * idempotency key have not been received yet, otherwise reply with the
+     * reply to the first data.
+     */
+    private Object dispatchOnce(final DataPacket dp, final UUID clientId, final UUID key, final Object data, final IDFilter filter, final Object defaultResult) {
+        final ReplyCache.Reply reply = replyCache.acquire(clientId, key);
+        if (reply != null) {
+            LOG.log(Level.FINE, "Repeated data [{0}] received, replying with cached reply.", data);
+            try {
+                if (reply.await(Timeout.getTimeout(Timeout.TimeoutType.MESSAGE))) {
+                    return reply.get();
                 }
+            } catch (InterruptedException ex) {
+                LOG.log(Level.FINE, "Waiting for reply to repeated data has been interrupted.", ex);
+            }
+            // first data are still being handled, sender will try again
+            return GenericResponses.SERVER_BUSY;
+        }
+
+        boolean completed = false;
+        try {
+            final Object result = dispatch(dp, clientId, data, filter, defaultResult);
+            replyCache.complete(clientId, key, result);
+            completed = true;
+            return result;
+        } finally {
+            if (!completed) {
+                replyCache.abandon(clientId, key);
             }
         }
+    }
+
+    /**
+     * Hand received data to all registered sinks.
+     */
+    private Object dispatch(final DataPacket dp, final UUID clientId, final Object data, final IDFilter filter, final Object defaultResult) {
+        // single consistent snapshot of registered sinks
+        final RouteTable rt = routes;
+        final RouteTable.ClientRoute clientRoute = rt.getClientRoute(clientId);
+        if (data instanceof StreamChunk) {
+            return streamReceiver.handleChunk(clientId, (StreamChunk) data, clientRoute != null ? clientRoute.streamListener : null, Timeout.getTimeout(Timeout.TimeoutType.MESSAGE));
+        }
+
+        final Listener<DataPacket> clientListener = clientRoute != null ? clientRoute.listener : null;
+        Object result = defaultResult;
+        boolean handled = false, sysMsg = false;
+        if (data instanceof Identifiable) {
+            final Identifiable iData = (Identifiable) data;
+            final Object id = iData.getId();
+            final RouteTable.IdRoute idRoute = rt.getIdRoute(id);
+            if (id.equals(GlobalConstants.ID_SYS_MSG)) { // not pretty !!!
+                sysMsg = true;
+                result = idRoute.listener.receiveData(dp);
+                handled = true;
+            } else if (idRoute != null && idRoute.listener != null) {
+                result = idRoute.listener.receiveData(iData);
+                handled = true;
+            } else if (clientListener != null) {
+                result = clientListener.receiveData(dp);
+                handled = true;
+            }
+            if (idRoute != null && idRoute.queue != null && dp.getId() != null) {
+                result = storeData(idRoute.queue, dp, handled, result);
+            }
+        }
+        if (sysMsg) {
+            // system messages are not given to other sinks
+            return result;
+        }
+
+        if (!handled && clientListener != null) {
+            result = clientListener.receiveData(dp);
+            handled = true;
+        }
+        final Listener<DataPacket> messageListener = rt.getMessageListener();
+        if (!handled && messageListener != null) {
+            result = messageListener.receiveData(dp);
+            handled = true;
+        }
+
+        if (clientRoute != null && clientRoute.queue != null && dp.getId() != null) {
+            result = storeData(clientRoute.queue, dp, handled, result);
+        }
+        final RouteTable.ClientRoute localRoute = filter != null ? rt.getClientRoute(filter.getLocalID()) : null;
+        if (localRoute != null && localRoute.queue != null && dp.getId() != null) {
+            result = storeData(localRoute.queue, dp, handled, result);
+        }
+        if (rt.getObservers().length > 0) {
+            if (!handled) {
+                result = GenericResponses.NOT_HANDLED_DIRECTLY;
+            }
+            observerBus.publish(dp);
+        }
 
         return result;
     }
 
+    /**
+     * Store data to given queue and compute reply for the sender.
+     *
+     * @param queue target queue
+     * @param dp received data
+     * @param handled true if the data have been handled by some listener
+     * @param result current reply
+     * @return new reply
+     */
+    private static <T> Object storeData(final MessageQueue<T> queue, final T dp, final boolean handled, final Object result) {
+        if (handled) {
+            ObjectQueue.store(queue, dp);
+            return result;
+        } else if (ObjectQueue.store(queue, dp)) {
+            return GenericResponses.NOT_HANDLED_DIRECTLY;
+        } else if (GenericResponses.NOT_HANDLED_DIRECTLY.equals(result)) {
+            // data have already been stored to another queue
+            return result;
+        } else {
+            return GenericResponses.NOT_HANDLED;
+        }
+    }
+
     public void setIdFilter(final IDFilter idFilter) {
         this.idFilter = idFilter;
     }
@@ -1,21 +1,36 @@
 package cz.tul.javaccl.socket;
 
 import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.communicator.Connection;
+import cz.tul.javaccl.communicator.ConnectionPool;
+import cz.tul.javaccl.communicator.CorrelatedResponse;
 import cz.tul.javaccl.communicator.DataPacketImpl;
 import cz.tul.javaccl.communicator.StatusMessage;
 import cz.tul.javaccl.history.HistoryManager;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.Observable;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * SocketReader read data from socket and gives them to assigned handlers.
+ * SocketReader read data from socket and gives them to assigned handlers. The
+ * connection is kept open for further requests until the other side closes it
+ * or it stays idle for too long. Reader only waits for requests, received data
+ * packets and message pull requests are handled by the bounded executor.
+ * Pipelined data packets (with correlation ID) are handled concurrently, their
+ * replies are sent as soon as they are ready. Requests, which cannot be handled
+ * due to lack of free threads, are answered with
+ * {@link GenericResponses#SERVER_BUSY}.
  *
  * @author Petr Ječmen
  */
@@ -25,6 +40,7 @@ class SocketReader extends Observable implements Runnable {
     private final Socket socket;
     private final DataPacketHandler dpHandler;
     private final MessagePullDaemon mpd;
+    private final Executor exec;
     private HistoryManager hm;
 
     /**
@@ -34,10 +50,12 @@ class SocketReader extends Observable implements Runnable {
      * @param socket socket for reading
      * @param dpHandler handler for incopming non-system data
      * @param mpd message pull request handler
+     * @param exec executor for handling requests
      */
     SocketReader(
             final Socket socket,
-            final DataPacketHandler dpHandler, final MessagePullDaemon mpd) {
+            final DataPacketHandler dpHandler, final MessagePullDaemon mpd,
+            final Executor exec) {
         super();
         
         if (socket != null) {
@@ -55,6 +73,11 @@ class SocketReader extends Observable implements Runnable {
         } else {
             throw new IllegalArgumentException("MessagePullDaemon cannot be null");
         }
+        if (exec != null) {
+            this.exec = exec;
+        } else {
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
     }
 
     /**
@@ -69,78 +92,155 @@ class SocketReader extends Observable implements Runnable {
     @Override
     public void run() {
         final InetAddress ip = socket.getInetAddress();
-        Object dataIn;
+        final Connection connection = new Connection(socket);
+
+        try {
+            connection.setTimeout(ConnectionPool.KEEP_ALIVE_TIME);
+            boolean keepAlive = true;
+            while (keepAlive) {
+                keepAlive = handleRequest(connection, ip);
+            }
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Error operating socket.");
+            LOG.log(Level.FINE, "Error operating socket.", ex);
+        }
+
+        connection.close();
+    }
 
-        ObjectInputStream in = null;        
+    /**
+     * Read and handle single request.
+     *
+     * @return true if the connection can be used for another request
+     */
+    private boolean handleRequest(final Connection connection, final InetAddress ip) {
+        Object dataIn;
+        boolean result;
         try {
-            in = new ObjectInputStream(socket.getInputStream());
-            dataIn = in.readObject();
+            dataIn = connection.readObject();
 
             if (dataIn instanceof DataPacketImpl) {
-                final DataPacketImpl packet = (DataPacketImpl) dataIn;                
+                final DataPacketImpl packet = (DataPacketImpl) dataIn;
                 packet.setSourceIP(ip);
-                final Object response = dpHandler.handleDataPacket(packet);
-                sendReply(ip, packet.getSourceId(), packet.getData(), true, response);
+                if (packet.getCorrelationId() != 0) {
+                    result = handlePipelined(connection, ip, packet);
+                } else {
+                    result = handleByWorker(connection, ip, packet.getSourceId(), packet.getData(), new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            final Object response = dpHandler.handleDataPacket(packet);
+                            return sendReply(connection, ip, packet.getSourceId(), packet.getData(), true, response);
+                        }
+                    });
+                }
             } else if (dataIn instanceof MessagePullRequest) {
-                mpd.handleMessagePullRequest(socket, (MessagePullRequest) dataIn, in);
+                final MessagePullRequest request = (MessagePullRequest) dataIn;
+                result = handleByWorker(connection, ip, request.getClientId(), dataIn, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return mpd.handleMessagePullRequest(connection, request);
+                    }
+                });
             } else if (dataIn instanceof StatusMessage) {
                 final StatusMessage message = (StatusMessage) dataIn;
-                sendReply(ip, message.getId(), dataIn, true, GenericResponses.OK);
+                result = sendReply(connection, ip, message.getId(), dataIn, true, GenericResponses.OK);
             } else {
                 LOG.log(Level.WARNING, "Received illegal type of data - {0}", dataIn);
-                sendReply(ip, null, dataIn, true, GenericResponses.ILLEGAL_DATA);
+                result = sendReply(connection, ip, null, dataIn, true, GenericResponses.ILLEGAL_DATA);
             }
+        } catch (EOFException ex) {
+            // other side has closed the connection
+            result = false;
+        } catch (SocketTimeoutException ex) {
+            LOG.log(Level.FINE, "Connection from {0} has been idle for too long, closing.", ip.getHostAddress());
+            result = false;
         } catch (IOException ex) {
-            LOG.log(Level.WARNING, "Error reading data from socket.");
-            LOG.log(Level.FINE, "Error reading data from socket.", ex);
-            sendReply(ip, null, null, false, GenericResponses.CONNECTION_ERROR);
+            if (!socket.isClosed()) {
+                LOG.log(Level.WARNING, "Error reading data from socket.");
+                LOG.log(Level.FINE, "Error reading data from socket.", ex);
+                sendReply(connection, ip, null, null, false, GenericResponses.CONNECTION_ERROR);
+            }
+            result = false;
         } catch (ClassNotFoundException ex) {
             LOG.log(Level.WARNING, "Invalid data received from sender.");
             LOG.log(Level.FINE, "Invalid data received from sender.", ex);
-            sendReply(ip, null, null, false, GenericResponses.ILLEGAL_DATA);
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException ex) {
-                    LOG.log(Level.WARNING, "Error operating socket.");
-                    LOG.log(Level.FINE, "Error operating socket.", ex);
-                }
-            }
+            sendReply(connection, ip, null, null, false, GenericResponses.ILLEGAL_DATA);
+            result = false;
         }
 
+        return result;
+    }
+
+    /**
+     * Handle the request by the executor and wait until it is done, so further
+     * requests are read after the reply has been sent.
+     *
+     * @return true if the connection can be used for another request
+     */
+    private boolean handleByWorker(final Connection connection, final InetAddress ip, final UUID id, final Object dataIn, final Callable<Boolean> handler) {
+        final FutureTask<Boolean> task = new FutureTask<Boolean>(handler);
         try {
-            if (!socket.isClosed() || !socket.isInputShutdown() || !socket.isOutputShutdown()) {
-                socket.close();
-            }
-        } catch (IOException ex) {
-            LOG.log(Level.WARNING, "Error closing socket.");
-            LOG.log(Level.FINE, "Error closing socket.", ex);
+            exec.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // no free thread, sender should repeat the request later
+            return sendReply(connection, ip, id, dataIn, false, GenericResponses.SERVER_BUSY);
+        }
+
+        boolean result = false;
+        try {
+            result = task.get();
+        } catch (InterruptedException ex) {
+            // socket is being stopped
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            LOG.log(Level.WARNING, "Error handling received request.");
+            LOG.log(Level.FINE, "Error handling received request.", ex.getCause());
         }
+        return result;
     }
 
-    private void sendReply(final InetAddress ip, final UUID id, final Object dataIn, final boolean dataRead, final Object response) {
-        ObjectOutputStream out = null;
+    private boolean handlePipelined(final Connection connection, final InetAddress ip, final DataPacketImpl packet) {
+        boolean result = true;
         try {
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.writeObject(response);
-            out.flush();
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Object response;
+                    try {
+                        response = dpHandler.handleDataPacket(packet);
+                    } catch (RuntimeException ex) {
+                        // other pipelined requests must not be affected
+                        LOG.log(Level.WARNING, "Error handling pipelined data packet.");
+                        LOG.log(Level.FINE, "Error handling pipelined data packet.", ex);
+                        response = GenericResponses.GENERAL_ERROR;
+                    }
+                    if (!sendReply(connection, ip, packet.getSourceId(), packet.getData(), true, new CorrelatedResponse(packet.getCorrelationId(), response))) {
+                        connection.close();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // no free thread, sender should repeat the request later
+            result = sendReply(connection, ip, packet.getSourceId(), packet.getData(), false, new CorrelatedResponse(packet.getCorrelationId(), GenericResponses.SERVER_BUSY));
+        }
+        return result;
+    }
+
+    private boolean sendReply(final Connection connection, final InetAddress ip, final UUID id, final Object dataIn, final boolean dataRead, final Object response) {
+        boolean result = false;
+        try {
+            connection.writeObject(response);
+            result = true;
         } catch (IOException ex) {
             LOG.log(Level.WARNING, "Error writing result data to socket.");
             LOG.log(Level.FINE, "Error writing result data to socket.", ex);
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException ex) {
-                    LOG.log(Level.WARNING, "Error closing socket.");
-                    LOG.log(Level.FINE, "Error closing socket.", ex);
-                }
-            }
         }
 
         if (hm != null) {
             hm.logMessageReceived(ip, id, dataIn, dataRead, response);
         }
+
+        return result;
     }
 }
@@ -0,0 +1,25 @@
+package cz.tul.javaccl.socket;
+
+import java.io.InputStream;
+import java.util.UUID;
+
+/**
+ * Interface for receiving data streams (see
+ * {@link cz.tul.javaccl.communicator.Communicator#sendStream(InputStream)}).
+ *
+ * @author Petr Ječmen
+ */
+public interface StreamListener {
+
+    /**
+     * Notification that a new stream has been opened. Data are available in
+     * the stream as soon as they arrive, reading blocks until next part of
+     * data arrives. Unread data are discarded when this method returns.
+     *
+     * @param sourceId UUID of the sender
+     * @param data received data
+     * @return response to the stream, delivered to the sender after the last
+     * part of data has been received
+     */
+    Object receiveStream(final UUID sourceId, final InputStream data);
+}
@@ -0,0 +1,275 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.communicator.StreamChunk;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Assembles received {@link StreamChunk}s into input streams for
+ * {@link StreamListener}s. Every stream buffers only few chunks, sender of the
+ * next chunk is blocked until the listener reads the data, so memory usage
+ * does not depend on the length of the stream.
+ *
+ * @author Petr Ječmen
+ */
+final class StreamReceiver {
+
+    private static final Logger LOG = Logger.getLogger(StreamReceiver.class.getName());
+    private static final int BUFFERED_CHUNKS = 4;
+    private static final byte[] END = new byte[0];
+    private final Executor exec;
+    private final Map<UUID, IncomingStream> streams;
+
+    /**
+     * @param exec executor running stream listeners
+     */
+    StreamReceiver(final Executor exec) {
+        this.exec = exec;
+        streams = new ConcurrentHashMap<UUID, IncomingStream>();
+    }
+
+    /**
+     * Handle received chunk. Call blocks until there is space for the chunk
+     * in the stream buffer, last chunk waits for the listener to finish.
+     *
+     * @param sourceId UUID of the sender
+     * @param chunk received chunk
+     * @param listener listener for new streams (can be null)
+     * @param timeout maximal time (in ms) of waiting for the listener
+     * @return response for the sender, {@link GenericResponses#OK} if more
+     * chunks can be sent
+     */
+    Object handleChunk(final UUID sourceId, final StreamChunk chunk, final StreamListener listener, final int timeout) {
+        final UUID streamId = chunk.getStreamId();
+        IncomingStream stream;
+        if (chunk.getIndex() == 0) {
+            if (listener == null) {
+                return GenericResponses.NOT_HANDLED;
+            }
+            removeAbandoned(timeout);
+            stream = new IncomingStream(timeout);
+            streams.put(streamId, stream);
+            if (!start(stream, sourceId, listener)) {
+                streams.remove(streamId);
+                return GenericResponses.SERVER_BUSY;
+            }
+        } else {
+            stream = streams.get(streamId);
+            if (stream == null) {
+                LOG.log(Level.FINE, "Chunk of unknown stream received - {0}", chunk);
+                return GenericResponses.ILLEGAL_DATA;
+            }
+        }
+
+        if (!stream.offer(chunk)) {
+            streams.remove(streamId);
+            stream.abort();
+            return GenericResponses.GENERAL_ERROR;
+        }
+
+        Object result = GenericResponses.OK;
+        if (chunk.isLast()) {
+            streams.remove(streamId);
+            result = stream.waitForResult(timeout);
+        } else if (stream.result.isDone()) {
+            // listener has finished early, failure is reported immediately
+            final Object response = stream.result.getNow(GenericResponses.OK);
+            if (response != GenericResponses.OK) {
+                streams.remove(streamId);
+                result = response;
+            }
+        }
+        return result;
+    }
+
+    private boolean start(final IncomingStream stream, final UUID sourceId, final StreamListener listener) {
+        try {
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Object response;
+                    try {
+                        response = listener.receiveStream(sourceId, stream);
+                    } catch (RuntimeException ex) {
+                        LOG.log(Level.WARNING, "Error handling received stream.");
+                        LOG.log(Level.FINE, "Error handling received stream.", ex);
+                        response = GenericResponses.GENERAL_ERROR;
+                    }
+                    stream.close();
+                    stream.result.complete(response);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            // no free thread or socket is being stopped
+            return false;
+        }
+    }
+
+    private void removeAbandoned(final int timeout) {
+        final long limit = System.currentTimeMillis() - timeout;
+        IncomingStream stream;
+        for (UUID id : streams.keySet()) {
+            stream = streams.get(id);
+            if (stream != null && stream.result.isDone() && stream.lastChunk < limit) {
+                streams.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Input stream filled with received chunks. Chunks can be received by
+     * different socket threads, so they are stored under separate lock;
+     * reading state is guarded by the stream monitor.
+     */
+    private static final class IncomingStream extends InputStream {
+
+        private final BlockingQueue<byte[]> chunks;
+        private final CompletableFuture<Object> result;
+        private final int timeout;
+        private final Object offerLock;
+        private byte[] current;
+        private int position;
+        private int expectedIndex;
+        private volatile boolean closed;
+        private volatile boolean aborted;
+        private volatile long lastChunk;
+
+        IncomingStream(final int timeout) {
+            this.timeout = timeout;
+            chunks = new ArrayBlockingQueue<byte[]>(BUFFERED_CHUNKS);
+            result = new CompletableFuture<Object>();
+            offerLock = new Object();
+            current = new byte[0];
+            lastChunk = System.currentTimeMillis();
+        }
+
+        /**
+         * @return false if the chunk could not be stored (out of order chunk
+         * or listener is not reading data)
+         */
+        boolean offer(final StreamChunk chunk) {
+            lastChunk = System.currentTimeMillis();
+            synchronized (offerLock) {
+                if (chunk.getIndex() != expectedIndex) {
+                    LOG.log(Level.WARNING, "Stream chunk received out of order - {0}", chunk);
+                    return false;
+                }
+                expectedIndex++;
+
+                try {
+                    if (chunk.getData().length > 0 && !put(chunk.getData())) {
+                        return false;
+                    }
+                    return !chunk.isLast() || put(END);
+                } catch (InterruptedException ex) {
+                    return false;
+                }
+            }
+        }
+
+        private boolean put(final byte[] data) throws InterruptedException {
+            if (closed) {
+                // listener does not want any more data
+                return true;
+            }
+            if (chunks.offer(data, timeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            LOG.log(Level.WARNING, "Received stream has not been read for too long.");
+            return closed;
+        }
+
+        Object waitForResult(final int timeout) {
+            try {
+                return result.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                LOG.log(Level.WARNING, "Stream listener has not finished in time.");
+            } catch (InterruptedException ex) {
+                LOG.log(Level.FINE, "Waiting for stream listener has been interrupted.", ex);
+            } catch (ExecutionException ex) {
+                LOG.log(Level.FINE, "Stream listener failed.", ex);
+            }
+            return GenericResponses.GENERAL_ERROR;
+        }
+
+        void abort() {
+            aborted = true;
+            chunks.clear();
+        }
+
+        private boolean fill() throws IOException {
+            if (current == END) {
+                return false;
+            }
+            while (position >= current.length) {
+                if (aborted) {
+                    throw new IOException("Stream transfer has been aborted.");
+                }
+                try {
+                    current = chunks.poll(timeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    throw new InterruptedIOException("Waiting for stream data has been interrupted.");
+                }
+                if (current == null) {
+                    current = new byte[0];
+                    throw new SocketTimeoutException("No stream data received in " + timeout + " ms.");
+                }
+                position = 0;
+                if (current == END) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public synchronized int available() {
+            return current.length - position;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            chunks.clear();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package cz.tul.javaccl;
+
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class ExecutorFactoryTest {
+
+    @After
+    public void tearDown() {
+        Configuration.setValue(ConfigurationType.VIRTUAL_THREADS, false);
+    }
+
+    @Test
+    public void testBoundedExecutor() throws InterruptedException {
+        System.out.println("boundedExecutor");
+        checkBoundedExecutor();
+    }
+
+    @Test
+    public void testBoundedExecutorVirtual() throws InterruptedException {
+        System.out.println("boundedExecutorVirtual");
+        Configuration.setValue(ConfigurationType.VIRTUAL_THREADS, true);
+        // runtimes without virtual threads use platform threads
+        assertEquals(ExecutorFactory.isVirtualThreadsSupported(), ExecutorFactory.isVirtualThreadsEnabled());
+        checkBoundedExecutor();
+    }
+
+    private void checkBoundedExecutor() throws InterruptedException {
+        final ExecutorService exec = ExecutorFactory.newBoundedExecutor("test", 1, 1, true);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    // test is being stopped
+                }
+                done.countDown();
+            }
+        };
+        exec.execute(task);
+        exec.execute(task);
+        try {
+            exec.execute(task);
+            fail("Task over the limit must be rejected.");
+        } catch (RejectedExecutionException ex) {
+            // expected
+        }
+        release.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        exec.shutdown();
+    }
+
+    @Test
+    public void testFixedExecutor() throws InterruptedException {
+        System.out.println("fixedExecutor");
+        Configuration.setValue(ConfigurationType.VIRTUAL_THREADS, true);
+        final int limit = 2;
+        final int count = 10;
+        final ExecutorService exec = ExecutorFactory.newFixedExecutor("test", limit, true);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final int current = running.incrementAndGet();
+                    int max;
+                    do {
+                        max = maxRunning.get();
+                    } while (current > max && !maxRunning.compareAndSet(max, current));
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ex) {
+                        // test is being stopped
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= limit);
+        exec.shutdown();
+    }
+}
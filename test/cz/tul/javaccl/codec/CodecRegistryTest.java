@@ -0,0 +1,140 @@
+package cz.tul.javaccl.codec;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.communicator.DataPacketImpl;
+import cz.tul.javaccl.job.JobTask;
+import cz.tul.javaccl.messaging.Message;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class CodecRegistryTest {
+
+    @Test
+    public void testBuiltInTypes() throws IOException, ClassNotFoundException {
+        System.out.println("builtInTypes");
+        final CodecRegistry registry = CodecRegistry.getInstance();
+
+        final UUID jobId = UUID.randomUUID();
+        final Message m = new Message("header", new JobTask(jobId, "task", Integer.valueOf(5)));
+        final DataPacketImpl dp = new DataPacketImpl(UUID.randomUUID(), null, m);
+        dp.setIdempotencyKey(UUID.randomUUID());
+
+        final byte[] encoded = registry.encode(dp);
+        final Object decoded = registry.decode(encoded, 0, encoded.length);
+        assertTrue(decoded instanceof DataPacketImpl);
+        final DataPacketImpl dpOut = (DataPacketImpl) decoded;
+        assertEquals(dp.getSourceId(), dpOut.getSourceId());
+        assertNull(dpOut.getTargetId());
+        assertEquals(dp.getIdempotencyKey(), dpOut.getIdempotencyKey());
+
+        final Message mOut = (Message) dpOut.getData();
+        assertEquals(m.getId(), mOut.getId());
+        assertEquals(m.getHeader(), mOut.getHeader());
+        final JobTask jt = (JobTask) mOut.getData();
+        assertEquals(jobId, jt.getJobId());
+        assertEquals("task", jt.getTaskDescription());
+        assertEquals(Integer.valueOf(5), jt.getTask());
+
+        final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(serialized);
+        out.writeObject(dp);
+        out.close();
+        assertTrue(encoded.length < serialized.size());
+
+        final byte[] response = registry.encode(GenericResponses.NOT_HANDLED_DIRECTLY);
+        assertEquals(2, response.length);
+        assertEquals(GenericResponses.NOT_HANDLED_DIRECTLY, registry.decode(response, 0, response.length));
+    }
+
+    @Test
+    public void testSerializationFallback() throws IOException, ClassNotFoundException {
+        System.out.println("serializationFallback");
+        final CodecRegistry registry = CodecRegistry.getInstance();
+
+        final List<String> data = new ArrayList<String>();
+        data.add("a");
+        data.add(null);
+        final byte[] encoded = registry.encode(new Message("list", data));
+        final Message decoded = (Message) registry.decode(encoded, 0, encoded.length);
+        assertEquals(data, decoded.getData());
+
+        try {
+            registry.encode(new Object());
+            fail("Unserializable data should not be encoded.");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCustomCodec() throws IOException, ClassNotFoundException {
+        System.out.println("customCodec");
+        final CodecRegistry registry = CodecRegistry.getInstance();
+        final Codec<Point> codec = new Codec<Point>() {
+            @Override
+            public void encode(Point data, DataOutput out, CodecRegistry registry) throws IOException {
+                out.writeInt(data.x);
+                out.writeInt(data.y);
+            }
+
+            @Override
+            public Point decode(DataInput in, CodecRegistry registry) throws IOException {
+                return new Point(in.readInt(), in.readInt());
+            }
+        };
+
+        try {
+            registry.registerCodec(CodecRegistry.USER_ID_MIN - 1, Point.class, codec);
+            fail("Built-in IDs should not be available.");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        registry.registerCodec(CodecRegistry.USER_ID_MIN, Point.class, codec);
+        try {
+            final byte[] encoded = registry.encode(new Point(3, 4));
+            assertEquals(9, encoded.length);
+            final Point p = (Point) registry.decode(encoded, 0, encoded.length);
+            assertEquals(3, p.x);
+            assertEquals(4, p.y);
+
+            try {
+                registry.registerCodec(CodecRegistry.USER_ID_MIN + 1, Point.class, codec);
+                fail("Second codec for same class should not be allowed.");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        } finally {
+            registry.unregisterCodec(Point.class);
+        }
+
+        try {
+            registry.encode(new Point(3, 4));
+            fail("Point is not serializable without codec.");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private static class Point {
+
+        private final int x, y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.client.Client;
+import cz.tul.javaccl.client.ClientImpl;
+import cz.tul.javaccl.codec.CodecRegistry;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.server.Server;
+import cz.tul.javaccl.server.ServerImpl;
+import cz.tul.javaccl.socket.Listener;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class BulkDataTest {
+
+    private static final int DATA_LENGTH = 3 * 1024 * 1024 + 17;
+    private Server s;
+    private Client c;
+    private File source;
+
+    @After
+    public void tearDown() {
+        if (c != null) {
+            c.stopService();
+        }
+        if (s != null) {
+            s.stopService();
+        }
+        if (source != null) {
+            source.delete();
+        }
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, false);
+    }
+
+    @Test
+    public void testFileTransfer() throws IOException {
+        System.out.println("fileTransfer");
+        init();
+        checkTransfer();
+    }
+
+    @Test
+    public void testFileTransferSelector() throws IOException {
+        System.out.println("fileTransferSelector");
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, true);
+        init();
+        checkTransfer();
+    }
+
+    @Test
+    public void testEncodeWithoutAttachments() {
+        System.out.println("encodeWithoutAttachments");
+        try {
+            CodecRegistry.getInstance().encode(new BulkData(ByteBuffer.allocate(10)));
+            fail("Bulk data cannot be encoded without attachment support.");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUnreachableTemporaryFile() throws Exception {
+        System.out.println("unreachableTemporaryFile");
+        final File first = File.createTempFile("bulkTest", ".bin");
+        new BulkData(first, true);
+        for (int i = 0; i < 50 && first.exists(); i++) {
+            System.gc();
+            Thread.sleep(20);
+            // unreachable data are cleaned when new data are received
+            new BulkData(File.createTempFile("bulkTest", ".bin"), true).release();
+        }
+        assertFalse(first.exists());
+    }
+
+    private void init() throws IOException {
+        final byte[] data = new byte[DATA_LENGTH];
+        new Random(0).nextBytes(data);
+        source = File.createTempFile("bulkTest", ".bin");
+        final FileOutputStream out = new FileOutputStream(source);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        s = ServerImpl.initNewServer();
+        c = ClientImpl.initNewClient(5253);
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+        } catch (Exception ex) {
+            fail("Registration from client to server failed - " + ex);
+        }
+
+        // received data are answered by their reversed copy
+        s.getListenerRegistrator().setClientListener(c.getLocalID(), new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                if (!(data.getData() instanceof BulkData)) {
+                    return GenericResponses.OK;
+                }
+                final BulkData bd = (BulkData) data.getData();
+                try {
+                    assertTrue(bd.isTemporary());
+                    final ByteBuffer content = bd.map();
+                    final byte[] reversed = new byte[content.remaining()];
+                    for (int i = reversed.length - 1; i >= 0; i--) {
+                        reversed[i] = content.get();
+                    }
+                    return new BulkData(ByteBuffer.wrap(reversed));
+                } catch (IOException ex) {
+                    return GenericResponses.GENERAL_ERROR;
+                } finally {
+                    bd.release();
+                }
+            }
+        });
+    }
+
+    private void checkTransfer() throws IOException {
+        final BulkData sent = new BulkData(source);
+        final Object response;
+        try {
+            response = c.sendDataToServer(sent);
+        } catch (ConnectionException ex) {
+            fail("Communication failed - " + ex);
+            return;
+        }
+        assertTrue("Unexpected response - " + response, response instanceof BulkData);
+
+        final BulkData reply = (BulkData) response;
+        assertEquals(DATA_LENGTH, reply.getLength());
+        final ByteBuffer original = sent.map();
+        final ByteBuffer reversed = reply.map();
+        for (int i = DATA_LENGTH - 1; i >= 0; i--) {
+            assertEquals(original.get(i), reversed.get());
+        }
+        final File received = reply.getFile();
+        reply.release();
+        assertFalse(received.exists());
+        assertTrue("User data must not be deleted.", source.exists());
+    }
+}
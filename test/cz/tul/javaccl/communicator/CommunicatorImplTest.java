@@ -6,9 +6,12 @@ package cz.tul.javaccl.communicator;
 
 import cz.tul.javaccl.GlobalConstants;
 import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.exceptions.ConnectionExceptionCause;
 import java.awt.image.BufferedImage;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -50,4 +53,19 @@ public class CommunicatorImplTest {
             // expected
         }
     }
+
+    @Test
+    public void testSendDataAsyncOffline() throws InterruptedException {
+        System.out.println("sendDataAsyncOffline");
+        final Communicator comm = CommunicatorImpl.initNewCommunicator(GlobalConstants.IP_LOOPBACK, 0, null);
+
+        final CompletableFuture<Object> result = comm.sendDataAsync("data");
+        try {
+            result.get();
+            fail("Should have failed because target is offline");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ConnectionException);
+            assertEquals(ConnectionExceptionCause.TARGET_OFFLINE, ((ConnectionException) ex.getCause()).getExceptionCause());
+        }
+    }
 }
\ No newline at end of file
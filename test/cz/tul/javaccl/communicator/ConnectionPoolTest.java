@@ -0,0 +1,102 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.GlobalConstants;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class ConnectionPoolTest {
+
+    private ServerSocket ss;
+    private List<Socket> accepted;
+    private Thread acceptor;
+
+    @Before
+    public void setUp() throws IOException {
+        ss = new ServerSocket(0);
+        accepted = new ArrayList<Socket>();
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket s = ss.accept();
+                        synchronized (accepted) {
+                            accepted.add(s);
+                        }
+                    }
+                } catch (IOException ex) {
+                    // socket closed
+                }
+            }
+        });
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ss.close();
+        synchronized (accepted) {
+            for (Socket s : accepted) {
+                s.close();
+            }
+        }
+    }
+
+    @Test
+    public void testBorrowAndRelease() throws IOException {
+        System.out.println("borrowAndRelease");
+        final ConnectionPool pool = ConnectionPool.getInstance();
+        final int port = ss.getLocalPort();
+
+        final Connection c = pool.borrow(GlobalConstants.IP_LOOPBACK, port);
+        assertFalse(c.isReused());
+        assertEquals(0, pool.countIdle(GlobalConstants.IP_LOOPBACK, port));
+
+        pool.release(c);
+        assertEquals(1, pool.countIdle(GlobalConstants.IP_LOOPBACK, port));
+
+        final Connection c2 = pool.borrow(GlobalConstants.IP_LOOPBACK, port);
+        assertSame(c, c2);
+        assertTrue(c2.isReused());
+
+        pool.invalidate(c2);
+        assertEquals(0, pool.countIdle(GlobalConstants.IP_LOOPBACK, port));
+        assertFalse(c2.isUsable(false));
+    }
+
+    @Test
+    public void testClosedByOtherSide() throws IOException, InterruptedException {
+        System.out.println("closedByOtherSide");
+        final ConnectionPool pool = ConnectionPool.getInstance();
+        final int port = ss.getLocalPort();
+
+        final Connection c = pool.borrow(GlobalConstants.IP_LOOPBACK, port);
+        pool.release(c);
+
+        while (true) {
+            synchronized (accepted) {
+                if (!accepted.isEmpty()) {
+                    accepted.get(0).close();
+                    break;
+                }
+            }
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+
+        assertFalse(c.isUsable(true));
+        pool.closeIdle(GlobalConstants.IP_LOOPBACK, port);
+        assertEquals(0, pool.countIdle(GlobalConstants.IP_LOOPBACK, port));
+    }
+}
@@ -0,0 +1,177 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.client.Client;
+import cz.tul.javaccl.client.ClientImpl;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.server.Server;
+import cz.tul.javaccl.server.ServerImpl;
+import cz.tul.javaccl.socket.Listener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class FrameCompressionTest {
+
+    private static final int THRESHOLD = 1024;
+
+    @Before
+    public void setUp() {
+        Configuration.setValue(ConfigurationType.COMPRESSION, true);
+        Configuration.setValue(ConfigurationType.COMPRESSION_THRESHOLD, THRESHOLD);
+    }
+
+    @After
+    public void tearDown() {
+        Configuration.setValue(ConfigurationType.COMPRESSION, false);
+        Configuration.setValue(ConfigurationType.COMPRESSION_THRESHOLD, 16384);
+        Configuration.setValue(ConfigurationType.MAX_FRAME_SIZE, 67108864);
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, true);
+    }
+
+    @Test
+    public void testNegotiation() throws IOException {
+        System.out.println("negotiation");
+        final byte[] data = new byte[THRESHOLD * 10];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 10);
+        }
+
+        final FrameCompression sender = new FrameCompression(null);
+        final FrameCompression receiver = new FrameCompression(null);
+        assertSame("Nothing should be compressed before the other side accepts compression.", data, sender.compress(data));
+
+        sender.readHeader(receiver.createHeader(0, false));
+        final byte[] compressed = sender.compress(data);
+        assertNotSame(data, compressed);
+        assertTrue(compressed.length < data.length / 5);
+
+        final int header = sender.createHeader(compressed.length, true);
+        assertTrue(FrameCompression.isCompressed(header));
+        assertEquals(compressed.length, receiver.readHeader(header));
+        assertArrayEquals(data, receiver.decompress(compressed));
+
+        assertEquals(1, sender.getStats().getCompressedFrames());
+        assertEquals(data.length, sender.getStats().getUncompressedBytes());
+        assertTrue(sender.getStats().getCompressionRatio() > 5);
+        assertEquals(1, receiver.getStats().getCompressedFrames());
+
+        final byte[] small = Arrays.copyOf(data, THRESHOLD - 1);
+        assertSame(small, sender.compress(small));
+
+        final byte[] random = new byte[THRESHOLD * 10];
+        new Random(0).nextBytes(random);
+        assertSame(random, sender.compress(random));
+    }
+
+    @Test
+    public void testDisabledPeer() throws IOException {
+        System.out.println("disabledPeer");
+        final FrameCompression sender = new FrameCompression(null);
+        Configuration.setValue(ConfigurationType.COMPRESSION, false);
+        final FrameCompression receiver = new FrameCompression(null);
+
+        final byte[] data = new byte[THRESHOLD * 10];
+        sender.readHeader(receiver.createHeader(0, false));
+        assertSame(data, sender.compress(data));
+        assertFalse(FrameCompression.isCompressed(receiver.createHeader(data.length, false)));
+    }
+
+    @Test
+    public void testFrameLimit() throws IOException {
+        System.out.println("frameLimit");
+        final byte[] data = new byte[THRESHOLD * 10];
+        final FrameCompression sender = new FrameCompression(null);
+        final FrameCompression receiver = new FrameCompression(null);
+        sender.readHeader(receiver.createHeader(0, false));
+        final byte[] compressed = sender.compress(data);
+        assertNotSame(data, compressed);
+
+        // declared length larger than inflated data
+        final byte[] forged = Arrays.copyOf(compressed, compressed.length);
+        forged[0] = 0x01;
+        try {
+            receiver.decompress(forged);
+            fail("Content shorter than declared length should be rejected.");
+        } catch (StreamCorruptedException ex) {
+            // expected
+        }
+
+        Configuration.setValue(ConfigurationType.MAX_FRAME_SIZE, data.length - 1);
+        try {
+            receiver.decompress(compressed);
+            fail("Content longer than the limit should be rejected.");
+        } catch (StreamCorruptedException ex) {
+            // expected
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WireFormat.writeFrame(new DataOutputStream(out), data, null);
+        try {
+            WireFormat.readFrame(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), null, null);
+            fail("Frame longer than the limit should be rejected.");
+        } catch (StreamCorruptedException ex) {
+            // expected
+        }
+
+        Configuration.setValue(ConfigurationType.MAX_FRAME_SIZE, data.length);
+        assertArrayEquals(data, receiver.decompress(compressed));
+        assertArrayEquals(data, WireFormat.readFrame(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), null, null));
+    }
+
+    @Test
+    public void testCompressedMessaging() throws IOException {
+        System.out.println("compressedMessaging");
+        // only frames sent over connection are compressed
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, false);
+        final Server s = ServerImpl.initNewServer();
+        final Client c = ClientImpl.initNewClient(5253);
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+            s.getListenerRegistrator().setClientListener(c.getLocalID(), new Listener<DataPacket>() {
+                @Override
+                public Object receiveData(DataPacket data) {
+                    if (data.getData() instanceof String) {
+                        return new StringBuilder((String) data.getData()).reverse().toString();
+                    } else {
+                        return GenericResponses.OK;
+                    }
+                }
+            });
+
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < THRESHOLD; i++) {
+                sb.append(i % 100);
+            }
+            final String data = sb.toString();
+            final CompressionStats stats = ConnectionPool.getInstance().getCompressionStats(GlobalConstants.IP_LOOPBACK, GlobalConstants.DEFAULT_PORT);
+            final long framesBefore = stats.getCompressedFrames();
+            for (int i = 0; i < 3; i++) {
+                assertEquals(sb.reverse().toString(), c.sendDataToServer(data));
+                sb.reverse();
+            }
+            assertTrue(stats.getCompressedFrames() > framesBefore);
+        } catch (ConnectionException ex) {
+            fail("Communication failed - " + ex);
+        } finally {
+            c.stopService();
+            s.stopService();
+        }
+    }
+}
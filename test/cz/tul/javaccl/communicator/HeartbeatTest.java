@@ -0,0 +1,144 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.client.Client;
+import cz.tul.javaccl.client.ClientImpl;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.persistence.Timeout;
+import cz.tul.javaccl.server.Server;
+import cz.tul.javaccl.server.ServerImpl;
+import cz.tul.javaccl.socket.Listener;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class HeartbeatTest {
+
+    private static final int INTERVAL = 200;
+    private Server s;
+    private Client c;
+
+    @Before
+    public void setUp() {
+        Configuration.setValue(ConfigurationType.HEARTBEAT_INTERVAL, INTERVAL);
+    }
+
+    @After
+    public void tearDown() {
+        if (c != null) {
+            c.stopService();
+        }
+        if (s != null) {
+            s.stopService();
+        }
+        Configuration.setValue(ConfigurationType.HEARTBEAT_INTERVAL, 1000);
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, true);
+    }
+
+    @Test
+    public void testStatusTracking() throws IOException, InterruptedException {
+        System.out.println("statusTracking");
+        s = ServerImpl.initNewServer();
+        c = ClientImpl.initNewClient(5253);
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+        } catch (Exception ex) {
+            fail("Registration from client to server failed - " + ex);
+        }
+
+        final Communicator comm = c.getServerComm();
+        Thread.sleep(INTERVAL * 5);
+        assertEquals(Status.ONLINE, comm.getStatus());
+        assertTrue(c.isServerUp());
+
+        s.stopService();
+        s = null;
+        waitForStatus(comm, Status.OFFLINE);
+        assertFalse(c.isServerUp());
+
+        s = ServerImpl.initNewServer();
+        waitForStatus(comm, Status.ONLINE);
+    }
+
+    @Test
+    public void testClosedCommunicator() throws IOException {
+        System.out.println("closedCommunicator");
+        s = ServerImpl.initNewServer();
+        c = ClientImpl.initNewClient(5253);
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+        } catch (Exception ex) {
+            fail("Registration from client to server failed - " + ex);
+        }
+
+        final CommunicatorImpl serverComm = (CommunicatorImpl) c.getServerComm();
+        final CommunicatorImpl clientComm = (CommunicatorImpl) s.getClient(c.getLocalID());
+        assertTrue(HeartbeatMonitor.getInstance().isMonitored(serverComm));
+        assertTrue(HeartbeatMonitor.getInstance().isMonitored(clientComm));
+
+        c.stopService();
+        c = null;
+        assertFalse(HeartbeatMonitor.getInstance().isMonitored(serverComm));
+        s.stopService();
+        s = null;
+        assertFalse(HeartbeatMonitor.getInstance().isMonitored(clientComm));
+    }
+
+    @Test
+    public void testSlowListener() throws IOException, InterruptedException, ExecutionException {
+        System.out.println("slowListener");
+        // timeouts apply only to data sent over connection
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, false);
+        s = ServerImpl.initNewServer();
+        c = ClientImpl.initNewClient(5253);
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+        } catch (Exception ex) {
+            fail("Registration from client to server failed - " + ex);
+        }
+        final int delay = Timeout.getTimeout(Timeout.TimeoutType.STATUS_CHECK) + 1000;
+        s.getListenerRegistrator().setClientListener(c.getLocalID(), new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    return GenericResponses.GENERAL_ERROR;
+                }
+                return GenericResponses.OK;
+            }
+        });
+
+        final Communicator comm = c.getServerComm();
+        waitForStatus(comm, Status.ONLINE);
+        // heartbeats measure round trip time without any listener
+        Thread.sleep(INTERVAL * 5);
+        try {
+            final CompletableFuture<Object> async = comm.sendDataAsync("async");
+            assertEquals(GenericResponses.OK, comm.sendData("data"));
+            assertEquals(GenericResponses.OK, async.get());
+        } catch (ConnectionException ex) {
+            fail("Data for slow listener failed - " + ex);
+        }
+        assertEquals(Status.ONLINE, comm.getStatus());
+    }
+
+    private static void waitForStatus(final Communicator comm, final Status status) throws InterruptedException {
+        final long end = System.currentTimeMillis() + INTERVAL * 20;
+        while (comm.getStatus() != status && System.currentTimeMillis() < end) {
+            Thread.sleep(INTERVAL / 4);
+        }
+        assertEquals(status, comm.getStatus());
+    }
+}
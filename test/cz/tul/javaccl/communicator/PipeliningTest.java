@@ -0,0 +1,154 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.client.Client;
+import cz.tul.javaccl.client.ClientImpl;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.server.Server;
+import cz.tul.javaccl.server.ServerImpl;
+import cz.tul.javaccl.socket.Listener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class PipeliningTest {
+
+    private static final int REQUEST_COUNT = 20;
+    private static final int DELAY = 20;
+    private Server s;
+    private Client c;
+
+    @Before
+    public void setUp() {
+        Configuration.setValue(ConfigurationType.PIPELINING, true);
+    }
+
+    @After
+    public void tearDown() {
+        if (c != null) {
+            c.stopService();
+        }
+        if (s != null) {
+            s.stopService();
+        }
+        Configuration.setValue(ConfigurationType.PIPELINING, false);
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, false);
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, true);
+    }
+
+    @Test
+    public void testPipelinedMessaging() throws InterruptedException, ExecutionException {
+        System.out.println("pipelinedMessaging");
+        init();
+        checkPipelining();
+    }
+
+    @Test
+    public void testPipelinedMessagingSelector() throws InterruptedException, ExecutionException {
+        System.out.println("pipelinedMessagingSelector");
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, true);
+        init();
+        checkPipelining();
+    }
+
+    @Test
+    public void testAsyncWithoutPipelining() throws InterruptedException, ExecutionException {
+        System.out.println("asyncWithoutPipelining");
+        Configuration.setValue(ConfigurationType.PIPELINING, false);
+        // local data are handled in sender thread
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, false);
+        init();
+        // more requests than asynchronous sending threads are handled at the same time
+        final int count = Configuration.getInt(ConfigurationType.ASYNC_THREADS) + REQUEST_COUNT;
+        final CountDownLatch arrived = new CountDownLatch(count);
+        s.getListenerRegistrator().setClientListener(c.getLocalID(), new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                arrived.countDown();
+                try {
+                    return arrived.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    return Boolean.FALSE;
+                }
+            }
+        });
+
+        final Communicator comm = c.getServerComm();
+        final List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < count; i++) {
+            results.add(comm.sendDataAsync(Integer.valueOf(i)));
+        }
+        for (CompletableFuture<Object> result : results) {
+            assertEquals(Boolean.TRUE, result.get());
+        }
+    }
+
+    private void init() {
+        s = ServerImpl.initNewServer();
+        try {
+            c = ClientImpl.initNewClient(5253);
+        } catch (IOException ex) {
+            fail("Failed to initialize client.");
+        }
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+        } catch (Exception ex) {
+            fail("Registration from client to server failed - " + ex);
+        }
+
+        // earlier requests take longer, so replies arrive in reversed order
+        s.getListenerRegistrator().setClientListener(c.getLocalID(), new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                if (!(data.getData() instanceof Integer)) {
+                    return GenericResponses.OK;
+                }
+                final int i = (Integer) data.getData();
+                try {
+                    Thread.sleep((REQUEST_COUNT - i) * DELAY);
+                } catch (InterruptedException ex) {
+                    // finish early
+                }
+                return Integer.valueOf(-i);
+            }
+        });
+    }
+
+    private void checkPipelining() throws InterruptedException, ExecutionException {
+        final Communicator comm = c.getServerComm();
+        try {
+            assertEquals(Integer.valueOf(-REQUEST_COUNT), comm.sendData(Integer.valueOf(REQUEST_COUNT)));
+        } catch (ConnectionException ex) {
+            fail("Communication failed - " + ex);
+        }
+
+        final long start = System.currentTimeMillis();
+        final List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            results.add(comm.sendDataAsync(Integer.valueOf(i)));
+        }
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            assertEquals(Integer.valueOf(-i), results.get(i).get());
+        }
+        final long duration = System.currentTimeMillis() - start;
+
+        // sequential handling would take sum of all delays
+        final int sequential = DELAY * REQUEST_COUNT * (REQUEST_COUNT + 1) / 2;
+        assertTrue("Requests have not been handled concurrently - " + duration + " ms", duration < sequential / 2);
+    }
+}
@@ -0,0 +1,210 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.exceptions.ConnectionExceptionCause;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.socket.ClientLister;
+import cz.tul.javaccl.socket.IDFilter;
+import cz.tul.javaccl.socket.Listener;
+import cz.tul.javaccl.socket.ServerSocket;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class RetryPolicyTest {
+
+    private static final int PORT = 5263;
+    private final UUID localId = UUID.randomUUID();
+    private final AtomicInteger handled = new AtomicInteger();
+    private volatile ServerSocket socket;
+    private volatile int delay;
+
+    @After
+    public void tearDown() {
+        if (socket != null) {
+            socket.stopService();
+        }
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, true);
+    }
+
+    @Test
+    public void testDelay() {
+        System.out.println("delay");
+        final RetryPolicy policy = new RetryPolicy(5, 100, 1000, 0.2, false);
+        int delay;
+        for (int i = 0; i < 100; i++) {
+            delay = policy.getDelay(0);
+            assertTrue(delay >= 50 && delay <= 100);
+            delay = policy.getDelay(2);
+            assertTrue(delay >= 200 && delay <= 400);
+            delay = policy.getDelay(10);
+            assertTrue(delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void testRetryableCauses() {
+        System.out.println("retryableCauses");
+        final RetryPolicy policy = RetryPolicy.fromConfiguration();
+        assertTrue(policy.isRetryable(ConnectionExceptionCause.TIMEOUT));
+        assertTrue(policy.isRetryable(ConnectionExceptionCause.TARGET_OFFLINE));
+        assertFalse(policy.isRetryable(ConnectionExceptionCause.WRONG_TARGET));
+        assertFalse(policy.isRetryable(ConnectionExceptionCause.UUID_NOT_ALLOWED));
+    }
+
+    @Test
+    public void testInvalidPolicy() {
+        System.out.println("invalidPolicy");
+        try {
+            new RetryPolicy(1, 100, 10, 0.2, false);
+            fail("Maximal delay lower than base delay must be rejected.");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBudget() {
+        System.out.println("budget");
+        final RetryBudget budget = new RetryBudget();
+        int count = 0;
+        while (budget.withdraw()) {
+            count++;
+        }
+        assertEquals(10, count);
+        for (int i = 0; i < 4; i++) {
+            budget.deposit(0.25);
+            assertEquals(i == 3, budget.withdraw());
+        }
+    }
+
+    @Test
+    public void testRetryUntilTargetStarts() throws Exception {
+        System.out.println("retryUntilTargetStarts");
+        final CommunicatorInner comm = CommunicatorImpl.initNewCommunicator(GlobalConstants.IP_LOOPBACK, PORT, UUID.randomUUID());
+        comm.setTargetId(localId);
+        comm.setRetryPolicy(new RetryPolicy(10, 100, 200, 0.2, false));
+
+        final Thread starter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                    startServer();
+                } catch (Exception ex) {
+                    // sending fails
+                }
+            }
+        };
+        starter.start();
+        assertEquals(GenericResponses.OK, comm.sendData("data", 1000, UUID.randomUUID()));
+        assertEquals(1, handled.get());
+        starter.join();
+    }
+
+    @Test
+    public void testNoRetryWithoutKey() throws Exception {
+        System.out.println("noRetryWithoutKey");
+        final CommunicatorInner comm = CommunicatorImpl.initNewCommunicator(GlobalConstants.IP_LOOPBACK, PORT, UUID.randomUUID());
+        comm.setTargetId(localId);
+        comm.setRetryPolicy(new RetryPolicy(10, 1000, 1000, 0.2, false));
+
+        final long start = System.currentTimeMillis();
+        try {
+            comm.sendData("data", 1000);
+            fail("Offline target must not receive data.");
+        } catch (ConnectionException ex) {
+            assertEquals(ConnectionExceptionCause.TARGET_OFFLINE, ex.getExceptionCause());
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void testHedging() throws Exception {
+        System.out.println("hedging");
+        startServer();
+        final CommunicatorInner comm = CommunicatorImpl.initNewCommunicator(GlobalConstants.IP_LOOPBACK, PORT, UUID.randomUUID());
+        comm.setTargetId(localId);
+        comm.setRetryPolicy(new RetryPolicy(0, 0, 0, 0, true));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(GenericResponses.OK, comm.sendData(i, 1000, UUID.randomUUID()));
+        }
+        // every data are handled once, even if sent again
+        assertEquals(10, handled.get());
+        assertTrue(comm.getRttEstimator().getPercentile(95) >= 0);
+    }
+
+    @Test
+    public void testHedgingTimeout() throws Exception {
+        System.out.println("hedgingTimeout");
+        // timeouts apply only to data sent over connection
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, false);
+        startServer();
+        final CommunicatorInner comm = CommunicatorImpl.initNewCommunicator(GlobalConstants.IP_LOOPBACK, PORT, UUID.randomUUID());
+        comm.setTargetId(localId);
+        comm.setRetryPolicy(new RetryPolicy(0, 0, 0, 0, true));
+        comm.getRttEstimator().addSample(10);
+
+        delay = 2000;
+        final long start = System.currentTimeMillis();
+        try {
+            comm.sendData("late", 500, UUID.randomUUID());
+            fail("Late reply should time out.");
+        } catch (ConnectionException ex) {
+            assertEquals(ConnectionExceptionCause.TIMEOUT, ex.getExceptionCause());
+        }
+        // data sent again are limited by the original timeout
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    private void startServer() throws IOException {
+        socket = ServerSocket.createServerSocket(PORT, new IDFilter() {
+            @Override
+            public UUID getLocalID() {
+                return localId;
+            }
+
+            @Override
+            public boolean isTargetIdValid(UUID id) {
+                return true;
+            }
+
+            @Override
+            public boolean isIdAllowed(UUID id) {
+                return true;
+            }
+        }, new ClientLister() {
+            @Override
+            public Collection<Communicator> getClients() {
+                return Collections.<Communicator>emptyList();
+            }
+        });
+        socket.setMessageListener(new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                handled.incrementAndGet();
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ex) {
+                        return GenericResponses.GENERAL_ERROR;
+                    }
+                }
+                return GenericResponses.OK;
+            }
+        });
+    }
+}
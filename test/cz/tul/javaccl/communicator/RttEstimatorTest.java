@@ -0,0 +1,79 @@
+package cz.tul.javaccl.communicator;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class RttEstimatorTest {
+
+    @Test
+    public void testNoSamples() {
+        System.out.println("noSamples");
+        final RttEstimator rtt = new RttEstimator();
+        assertEquals(0, rtt.getSampleCount());
+        assertEquals(30000, rtt.getTimeout(1000, 30000));
+    }
+
+    @Test
+    public void testSmoothing() {
+        System.out.println("smoothing");
+        final RttEstimator rtt = new RttEstimator();
+        rtt.addSample(100);
+        assertEquals(100, rtt.getSmoothedRtt());
+        assertEquals(50, rtt.getDeviation());
+        assertEquals(300, rtt.getTimeout(0, 30000));
+
+        for (int i = 0; i < 100; i++) {
+            rtt.addSample(100);
+        }
+        assertEquals(100, rtt.getSmoothedRtt());
+        assertTrue(rtt.getDeviation() < 5);
+
+        rtt.addSample(900);
+        assertEquals(200, rtt.getSmoothedRtt());
+        assertTrue(rtt.getTimeout(0, 30000) > 900);
+    }
+
+    @Test
+    public void testLimits() {
+        System.out.println("limits");
+        final RttEstimator rtt = new RttEstimator();
+        rtt.addSample(10);
+        assertEquals(1000, rtt.getTimeout(1000, 30000));
+        rtt.addSample(100000);
+        assertEquals(30000, rtt.getTimeout(1000, 30000));
+        assertTrue(rtt.getTimeout(1000, 0) > 30000);
+    }
+
+    @Test
+    public void testBackoff() {
+        System.out.println("backoff");
+        final RttEstimator rtt = new RttEstimator();
+        rtt.addSample(100);
+        final int timeout = rtt.getTimeout(0, 30000);
+        rtt.timedOut();
+        assertEquals(2 * timeout, rtt.getTimeout(0, 30000));
+        rtt.timedOut();
+        assertEquals(4 * timeout, rtt.getTimeout(0, 30000));
+
+        rtt.addSample(100);
+        assertTrue(rtt.getTimeout(0, 30000) < 2 * timeout);
+    }
+
+    @Test
+    public void testPercentile() {
+        System.out.println("percentile");
+        final RttEstimator rtt = new RttEstimator();
+        assertEquals(0, rtt.getPercentile(95));
+        for (int i = 1; i <= 100; i++) {
+            rtt.addSample(i);
+        }
+        // only last 64 samples are kept
+        assertEquals(37, rtt.getPercentile(1));
+        assertEquals(97, rtt.getPercentile(95));
+        assertEquals(100, rtt.getPercentile(100));
+    }
+}
@@ -0,0 +1,148 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.client.Client;
+import cz.tul.javaccl.client.ClientImpl;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.server.Server;
+import cz.tul.javaccl.server.ServerImpl;
+import cz.tul.javaccl.socket.StreamListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class StreamingTest {
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final long DATA_LENGTH = 5L * 1024 * 1024 + 123;
+    private Server s;
+    private Client c;
+
+    @After
+    public void tearDown() {
+        if (c != null) {
+            c.stopService();
+        }
+        if (s != null) {
+            s.stopService();
+        }
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, false);
+        Configuration.setValue(ConfigurationType.STREAM_CHUNK_SIZE, 65536);
+    }
+
+    @Test
+    public void testStreaming() throws IOException, ConnectionException {
+        System.out.println("streaming");
+        init();
+        checkStreaming(DATA_LENGTH);
+        checkStreaming(CHUNK_SIZE * 3);
+        checkStreaming(0);
+    }
+
+    @Test
+    public void testStreamingSelector() throws IOException, ConnectionException {
+        System.out.println("streamingSelector");
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, true);
+        init();
+        checkStreaming(DATA_LENGTH);
+    }
+
+    @Test
+    public void testStreamRejected() throws IOException, ConnectionException {
+        System.out.println("streamRejected");
+        init();
+        final Communicator comm = c.getServerComm();
+        s.getListenerRegistrator().removeStreamListener(c.getLocalID());
+        assertEquals(GenericResponses.NOT_HANDLED, comm.sendStream(new GeneratedStream(DATA_LENGTH)));
+
+        // listener reads only the beginning and refuses the rest
+        final AtomicInteger calls = new AtomicInteger();
+        s.getListenerRegistrator().setStreamListener(c.getLocalID(), new StreamListener() {
+            @Override
+            public Object receiveStream(UUID sourceId, InputStream data) {
+                calls.incrementAndGet();
+                try {
+                    data.read(new byte[10]);
+                } catch (IOException ex) {
+                    fail("Error reading stream - " + ex);
+                }
+                return GenericResponses.ILLEGAL_DATA;
+            }
+        });
+        final GeneratedStream source = new GeneratedStream(DATA_LENGTH);
+        assertEquals(GenericResponses.ILLEGAL_DATA, comm.sendStream(source));
+        assertEquals(1, calls.get());
+        assertTrue("Sending should stop after the listener has finished.", source.remaining > 0);
+    }
+
+    private void init() throws IOException {
+        Configuration.setValue(ConfigurationType.STREAM_CHUNK_SIZE, CHUNK_SIZE);
+        s = ServerImpl.initNewServer();
+        c = ClientImpl.initNewClient(5253);
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+        } catch (Exception ex) {
+            fail("Registration from client to server failed - " + ex);
+        }
+
+        s.getListenerRegistrator().setStreamListener(c.getLocalID(), new StreamListener() {
+            @Override
+            public Object receiveStream(UUID sourceId, InputStream data) {
+                assertEquals(c.getLocalID(), sourceId);
+                try {
+                    return Long.valueOf(checksum(data));
+                } catch (IOException ex) {
+                    return GenericResponses.GENERAL_ERROR;
+                }
+            }
+        });
+    }
+
+    private void checkStreaming(final long length) throws IOException, ConnectionException {
+        final Object response = c.getServerComm().sendStream(new GeneratedStream(length));
+        assertEquals(Long.valueOf(checksum(new GeneratedStream(length))), response);
+    }
+
+    private static long checksum(final InputStream in) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[1000];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            crc.update(buffer, 0, read);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Stream generating data on the fly, so the test does not need to hold
+     * them in memory.
+     */
+    private static class GeneratedStream extends InputStream {
+
+        private long remaining;
+
+        GeneratedStream(final long length) {
+            remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            return (int) (--remaining * 31 % 251);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package cz.tul.javaccl.communicator;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.socket.ClientLister;
+import cz.tul.javaccl.socket.IDFilter;
+import cz.tul.javaccl.socket.Listener;
+import cz.tul.javaccl.socket.ServerSocket;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class UnixSocketTest {
+
+    private static final int PORT = 5262;
+    private final UUID localId = UUID.randomUUID();
+    private final AtomicReference<Object> received = new AtomicReference<Object>();
+    private File dir;
+    private ServerSocket socket;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("javaccl", "uds");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        Configuration.setValue(ConfigurationType.UNIX_SOCKET_DIR, dir.getAbsolutePath());
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, false);
+    }
+
+    @After
+    public void tearDown() {
+        if (socket != null) {
+            socket.stopService();
+        }
+        ConnectionPool.getInstance().closeIdle(GlobalConstants.IP_LOOPBACK, PORT);
+        ConnectionPool.getInstance().setUnixSocketUsed(GlobalConstants.IP_LOOPBACK, PORT, true);
+        Configuration.setValue(ConfigurationType.UNIX_SOCKET_DIR, "");
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, true);
+        if (dir != null) {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private Communicator startServer() throws IOException {
+        socket = ServerSocket.createServerSocket(PORT, new IDFilter() {
+            @Override
+            public UUID getLocalID() {
+                return localId;
+            }
+
+            @Override
+            public boolean isTargetIdValid(UUID id) {
+                return true;
+            }
+
+            @Override
+            public boolean isIdAllowed(UUID id) {
+                return true;
+            }
+        }, new ClientLister() {
+            @Override
+            public Collection<Communicator> getClients() {
+                return Collections.<Communicator>emptyList();
+            }
+        });
+        socket.setMessageListener(new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                received.set(data.getData());
+                return GenericResponses.OK;
+            }
+        });
+
+        final CommunicatorInner comm = CommunicatorImpl.initNewCommunicator(GlobalConstants.IP_LOOPBACK, PORT, UUID.randomUUID());
+        comm.setTargetId(localId);
+        return comm;
+    }
+
+    @Test
+    public void testUnixSocketDelivery() throws Exception {
+        System.out.println("unixSocketDelivery");
+        Assume.assumeTrue(UnixSockets.isSupported());
+        final Communicator comm = startServer();
+        assertTrue(UnixSockets.getSocketFile(PORT).exists());
+
+        assertEquals(GenericResponses.OK, comm.sendData("data"));
+        assertEquals("data", received.get());
+
+        final ConnectionPool pool = ConnectionPool.getInstance();
+        final Connection c = pool.borrow(GlobalConstants.IP_LOOPBACK, PORT);
+        assertTrue(c.isUnixSocket());
+        assertNull(c.getSocket());
+        pool.release(c);
+
+        socket.stopService();
+        socket = null;
+        assertFalse(UnixSockets.getSocketFile(PORT).exists());
+    }
+
+    @Test
+    public void testTcpFallback() throws Exception {
+        System.out.println("tcpFallback");
+        Assume.assumeTrue(UnixSockets.isSupported());
+        final Communicator comm = startServer();
+        assertTrue(UnixSockets.getSocketFile(PORT).delete());
+
+        assertEquals(GenericResponses.OK, comm.sendData("tcp"));
+        assertEquals("tcp", received.get());
+
+        final ConnectionPool pool = ConnectionPool.getInstance();
+        final Connection c = pool.borrow(GlobalConstants.IP_LOOPBACK, PORT);
+        assertFalse(c.isUnixSocket());
+        pool.release(c);
+    }
+
+    @Test
+    public void testUnsupportedRuntime() throws Exception {
+        System.out.println("unsupportedRuntime");
+        Assume.assumeFalse(UnixSockets.isSupported());
+        final Communicator comm = startServer();
+        assertFalse(UnixSockets.getSocketFile(PORT).exists());
+        assertFalse(ConnectionPool.getInstance().isUnixSocketUsed(GlobalConstants.IP_LOOPBACK, PORT));
+
+        assertEquals(GenericResponses.OK, comm.sendData("tcp"));
+        assertEquals("tcp", received.get());
+
+        final ConnectionPool pool = ConnectionPool.getInstance();
+        final Connection c = pool.borrow(GlobalConstants.IP_LOOPBACK, PORT);
+        assertFalse(c.isUnixSocket());
+        pool.release(c);
+    }
+
+    @Test
+    public void testUnixSocketDisabled() throws Exception {
+        System.out.println("unixSocketDisabled");
+        final Communicator comm = startServer();
+        comm.setUnixSocketUsed(false);
+        assertFalse(ConnectionPool.getInstance().isUnixSocketUsed(GlobalConstants.IP_LOOPBACK, PORT));
+
+        assertEquals(GenericResponses.OK, comm.sendData("tcp"));
+        final Connection c = ConnectionPool.getInstance().borrow(GlobalConstants.IP_LOOPBACK, PORT);
+        assertFalse(c.isUnixSocket());
+        ConnectionPool.getInstance().release(c);
+    }
+}
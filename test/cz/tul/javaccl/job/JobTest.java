@@ -12,6 +12,7 @@ import cz.tul.javaccl.server.DataStorage;
 import cz.tul.javaccl.server.Server;
 import cz.tul.javaccl.server.ServerImpl;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -320,7 +321,7 @@ public class JobTest {
 
         final Random rnd = new Random();
         final Counter counter = new Counter();
-        final Set<AssignmentListener> computingClients = new HashSet<AssignmentListener>();
+        final Set<AssignmentListener> computingClients = Collections.synchronizedSet(new HashSet<AssignmentListener>());
 
         final AssignmentListener l = new AssignmentListener() {
             @Override
@@ -396,7 +397,7 @@ public class JobTest {
 
         final Counter totalCounter = new Counter();
         final Counter requestCounter = new Counter();
-        final Set<AssignmentListener> computingClients = new HashSet<AssignmentListener>();
+        final Set<AssignmentListener> computingClients = Collections.synchronizedSet(new HashSet<AssignmentListener>());
 
         final String dataTitle = "dataId";
         final double requestMultiplier = 2;
@@ -499,7 +500,7 @@ public class JobTest {
     public void testMultipleConcurrentJobsOnClient() {
         System.out.println("multipleConcurrentJobsOnClient");
         final Counter counter = new Counter();
-        final Set<AssignmentListener> computingClients = new HashSet<AssignmentListener>();
+        final Set<AssignmentListener> computingClients = Collections.synchronizedSet(new HashSet<AssignmentListener>());
 
         final int concurrentCount = 3;
         final Counter concurrentCounter = new Counter();
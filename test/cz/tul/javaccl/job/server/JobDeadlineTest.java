@@ -0,0 +1,34 @@
+package cz.tul.javaccl.job.server;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class JobDeadlineTest {
+
+    @Test
+    public void testOrdering() throws InterruptedException {
+        System.out.println("ordering");
+        final DelayQueue<JobDeadline> queue = new DelayQueue<JobDeadline>();
+        final JobRecord jr = new JobRecord(new ServerSideJob(null, null));
+        final JobDeadline late = new JobDeadline(JobDeadline.Type.COOLDOWN, null, null, 60000);
+        final JobDeadline first = new JobDeadline(JobDeadline.Type.ACCEPT, jr, null, 50);
+        final JobDeadline second = new JobDeadline(JobDeadline.Type.COOLDOWN, null, null, 100);
+        queue.add(late);
+        queue.add(second);
+        queue.add(first);
+
+        assertSame(first, queue.peek());
+        assertNull(queue.poll());
+        assertSame(first, queue.poll(1, TimeUnit.SECONDS));
+        assertSame(jr, first.getRecord());
+        assertSame(second, queue.poll(1, TimeUnit.SECONDS));
+        assertNull(queue.poll());
+        assertTrue(late.getDelay(TimeUnit.MILLISECONDS) > 50000);
+    }
+}
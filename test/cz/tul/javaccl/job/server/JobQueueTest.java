@@ -0,0 +1,124 @@
+package cz.tul.javaccl.job.server;
+
+import java.util.UUID;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class JobQueueTest {
+
+    private static final long COOLDOWN = 60000;
+
+    @Test
+    public void testFifoWithinComplexity() {
+        System.out.println("fifoWithinComplexity");
+        final JobQueue queue = new JobQueue();
+        final ServerSideJob j1 = new ServerSideJob("1", null, 10);
+        final ServerSideJob j2 = new ServerSideJob("2", null, 10);
+        final ServerSideJob j3 = new ServerSideJob("3", null, 10);
+        queue.add(j1);
+        queue.add(j2);
+        queue.add(j3);
+        assertEquals(3, queue.size());
+
+        final UUID client = UUID.randomUUID();
+        assertSame(j1, queue.poll(10, client, COOLDOWN));
+        queue.addFirst(j1);
+        assertSame(j1, queue.poll(10, client, COOLDOWN));
+        assertSame(j2, queue.poll(10, client, COOLDOWN));
+        assertSame(j3, queue.poll(10, client, COOLDOWN));
+        assertNull(queue.poll(10, client, COOLDOWN));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testComplexityLimit() {
+        System.out.println("complexityLimit");
+        final JobQueue queue = new JobQueue();
+        final ServerSideJob small = new ServerSideJob("small", null, 10);
+        final ServerSideJob medium = new ServerSideJob("medium", null, 100);
+        final ServerSideJob large = new ServerSideJob("large", null, 1000);
+        queue.add(small);
+        queue.add(large);
+        queue.add(medium);
+
+        final UUID client = UUID.randomUUID();
+        assertNull(queue.poll(5, client, COOLDOWN));
+        assertSame(small, queue.poll(500, client, COOLDOWN));
+        assertSame(medium, queue.poll(500, client, COOLDOWN));
+        assertNull(queue.poll(500, client, COOLDOWN));
+        assertSame(large, queue.poll(1000, client, COOLDOWN));
+    }
+
+    @Test
+    public void testFifoAcrossComplexities() {
+        System.out.println("fifoAcrossComplexities");
+        final JobQueue queue = new JobQueue();
+        final ServerSideJob small = new ServerSideJob("small", null, 10);
+        final ServerSideJob large = new ServerSideJob("large", null, 1000);
+        final ServerSideJob small2 = new ServerSideJob("small2", null, 10);
+        final ServerSideJob large2 = new ServerSideJob("large2", null, 1000);
+        queue.add(small);
+        queue.add(large);
+        queue.add(small2);
+        queue.add(large2);
+
+        // low complexity jobs are not starved by newer complex jobs
+        final UUID client = UUID.randomUUID();
+        assertSame(small, queue.poll(1000, client, COOLDOWN));
+        assertSame(large, queue.poll(1000, client, COOLDOWN));
+        queue.addFirst(large);
+        assertSame(large, queue.poll(1000, client, COOLDOWN));
+        queue.cancelled(small2.getId(), client);
+        assertSame(large2, queue.poll(1000, client, COOLDOWN));
+        assertNull(queue.poll(1000, client, COOLDOWN));
+        assertSame(small2, queue.poll(1000, UUID.randomUUID(), COOLDOWN));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testCancelCooldown() throws InterruptedException {
+        System.out.println("cancelCooldown");
+        final JobQueue queue = new JobQueue();
+        final ServerSideJob j1 = new ServerSideJob("1", null, 10);
+        final ServerSideJob j2 = new ServerSideJob("2", null, 10);
+        queue.add(j1);
+        queue.add(j2);
+
+        final UUID client = UUID.randomUUID();
+        final UUID otherClient = UUID.randomUUID();
+        queue.cancelled(j1.getId(), client);
+        assertSame(j2, queue.poll(10, client, COOLDOWN));
+        assertNull(queue.poll(10, client, COOLDOWN));
+        assertSame(j1, queue.poll(10, otherClient, COOLDOWN));
+
+        queue.add(j1);
+        Thread.sleep(10);
+        assertSame(j1, queue.poll(10, client, 5));
+        queue.add(j1);
+        queue.cancelled(j1.getId(), client);
+        queue.forget(j1.getId());
+        assertSame(j1, queue.poll(10, client, COOLDOWN));
+    }
+
+    @Test
+    public void testDuplicatesAndRemoval() {
+        System.out.println("duplicatesAndRemoval");
+        final JobQueue queue = new JobQueue();
+        final ServerSideJob j1 = new ServerSideJob("1", null, 10);
+        final ServerSideJob j2 = new ServerSideJob("2", null, 20);
+        queue.add(j1);
+        queue.addFirst(j1);
+        queue.add(j2);
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.getJobs().size());
+
+        assertTrue(queue.remove(j2));
+        assertFalse(queue.remove(j2));
+        assertSame(j1, queue.poll(100, UUID.randomUUID(), COOLDOWN));
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,371 @@
+package cz.tul.javaccl.job.server;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.communicator.Communicator;
+import cz.tul.javaccl.communicator.CommunicatorImpl;
+import cz.tul.javaccl.communicator.CommunicatorInner;
+import cz.tul.javaccl.communicator.DataPacket;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.job.ClientJobSettings;
+import cz.tul.javaccl.job.JobConstants;
+import cz.tul.javaccl.job.JobStatus;
+import cz.tul.javaccl.job.JobTask;
+import cz.tul.javaccl.messaging.Message;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.persistence.Timeout;
+import cz.tul.javaccl.server.ClientManager;
+import cz.tul.javaccl.socket.ClientLister;
+import cz.tul.javaccl.socket.IDFilter;
+import cz.tul.javaccl.socket.Listener;
+import cz.tul.javaccl.socket.ListenerRegistrator;
+import cz.tul.javaccl.socket.ServerSocket;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class ServerJobManagerImplTest {
+
+    private static final int PORT = 5264;
+    private static final int JOB_WAIT = 5000;
+    private final UUID serverId = UUID.randomUUID();
+    private final List<FakeClient> clients = new ArrayList<FakeClient>();
+    private final Set<Object> routes = Collections.synchronizedSet(new HashSet<Object>());
+    private final Set<Object> registeredRoutes = Collections.synchronizedSet(new HashSet<Object>());
+    private ServerJobManagerImpl manager;
+
+    @After
+    public void tearDown() {
+        if (manager != null) {
+            manager.stopService();
+        }
+        for (FakeClient fc : clients) {
+            fc.stop();
+        }
+    }
+
+    @Test
+    public void testIdRoutesRemoved() throws IOException {
+        System.out.println("idRoutesRemoved");
+        init(1);
+        clients.get(0).autoComplete = true;
+
+        final List<Job> jobs = new ArrayList<Job>();
+        for (int i = 0; i < 5; i++) {
+            jobs.add(manager.submitJob(i));
+        }
+        for (Job j : jobs) {
+            assertEquals(GenericResponses.OK, j.getResult(true));
+            assertTrue(registeredRoutes.contains(j.getId()));
+        }
+        // every job has its own route only while it is computed
+        assertTrue("Routes left - " + routes, routes.isEmpty());
+    }
+
+    @Test
+    public void testOwnerObserverRemoved() throws IOException, InterruptedException {
+        System.out.println("ownerObserverRemoved");
+        init(1);
+        final FakeClient fc = clients.get(0);
+        fc.autoComplete = true;
+        final int observers = ((CommunicatorImpl) fc.comm).countObservers();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(GenericResponses.OK, manager.submitJob(i).getResult(true));
+        }
+        assertEquals(observers, ((CommunicatorImpl) fc.comm).countObservers());
+
+        fc.autoComplete = false;
+        waitForStatus(manager.submitJob(5), JobStatus.SENT, JOB_WAIT);
+        assertEquals(observers + 1, ((CommunicatorImpl) fc.comm).countObservers());
+        manager.stopAllJobs();
+        assertEquals(observers, ((CommunicatorImpl) fc.comm).countObservers());
+    }
+
+    @Test
+    public void testConcurrentDispatch() throws IOException, InterruptedException {
+        System.out.println("concurrentDispatch");
+        init(2);
+        final FakeClient slow = clients.get(0);
+        final FakeClient fast = clients.get(1);
+        final int limit = Configuration.getInt(ConfigurationType.JOB_DISPATCH_LIMIT);
+        slow.gate = new CountDownLatch(1);
+        setJobCount(slow, limit * 2);
+
+        final List<Job> jobs = new ArrayList<Job>();
+        for (int i = 0; i < limit * 2; i++) {
+            jobs.add(manager.submitJob(i));
+        }
+        long end = System.currentTimeMillis() + JOB_WAIT;
+        while (slow.inFlight.get() < limit && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Job held = null;
+        while (held == null && System.currentTimeMillis() < end) {
+            for (Job j : jobs) {
+                if (j.getStatus() == JobStatus.SENT) {
+                    held = j;
+                }
+            }
+            Thread.sleep(10);
+        }
+        assertNotNull("Fast client has not received its job.", held);
+
+        // jobs of the fast client are accepted and finished while the slow client blocks its dispatches
+        fast.autoComplete = true;
+        assertEquals(GenericResponses.OK, manager.receiveData(new JobTask(held.getId(), JobConstants.JOB_ACCEPT, null)));
+        manager.receiveData(new JobTask(held.getId(), JobConstants.JOB_RESULT, GenericResponses.OK));
+        end = System.currentTimeMillis() + JOB_WAIT;
+        while (countDone(jobs) < limit && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(limit, countDone(jobs));
+        assertEquals(limit, slow.inFlight.get());
+        assertEquals(limit, slow.maxInFlight.get());
+        assertEquals(limit, manager.countActiveJobs(slow.comm));
+
+        slow.autoComplete = true;
+        slow.gate.countDown();
+        for (Job j : jobs) {
+            assertEquals(GenericResponses.OK, j.getResult(true));
+        }
+        assertEquals(limit, slow.maxInFlight.get());
+    }
+
+    private static int countDone(final List<Job> jobs) {
+        int result = 0;
+        for (Job j : jobs) {
+            if (j.isDone()) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testActiveJobs() throws IOException, InterruptedException, ConnectionException {
+        System.out.println("activeJobs");
+        init(1);
+        final FakeClient fc = clients.get(0);
+        setJobCount(fc, 3);
+
+        final Job j1 = manager.submitJob(1);
+        final Job j2 = manager.submitJob(2);
+        final Job j3 = manager.submitJob(3);
+        waitForStatus(j1, JobStatus.SENT, JOB_WAIT);
+        waitForStatus(j2, JobStatus.SENT, JOB_WAIT);
+        waitForStatus(j3, JobStatus.SENT, JOB_WAIT);
+        assertEquals(3, manager.countActiveJobs(fc.comm));
+
+        // assigned jobs are found by their ID
+        assertEquals(GenericResponses.OK, manager.receiveData(new JobTask(j1.getId(), JobConstants.JOB_ACCEPT, null)));
+        assertEquals(JobStatus.ACCEPTED, j1.getStatus());
+        assertEquals(GenericResponses.UUID_UNKNOWN, manager.receiveData(new JobTask(UUID.randomUUID(), JobConstants.JOB_ACCEPT, null)));
+
+        manager.receiveData(new JobTask(j1.getId(), JobConstants.JOB_RESULT, "result"));
+        assertEquals("result", j1.getResult(false));
+        assertEquals(2, manager.countActiveJobs(fc.comm));
+        assertEquals(GenericResponses.UUID_UNKNOWN, manager.receiveData(new JobTask(j1.getId(), JobConstants.JOB_ACCEPT, null)));
+
+        // canceled job is not given to the same client again during cooldown
+        assertEquals(GenericResponses.OK, manager.receiveData(new JobTask(j2.getId(), JobConstants.JOB_CANCEL, null)));
+        assertEquals(JobStatus.SUBMITTED, j2.getStatus());
+        assertEquals(1, manager.countActiveJobs(fc.comm));
+        assertEquals(GenericResponses.UUID_UNKNOWN, manager.receiveData(new JobTask(j2.getId(), JobConstants.JOB_ACCEPT, null)));
+
+        j3.cancelJob();
+        assertEquals(JobStatus.CANCELED, j3.getStatus());
+        assertEquals(0, manager.countActiveJobs(fc.comm));
+        assertEquals(GenericResponses.UUID_UNKNOWN, manager.receiveData(new JobTask(j3.getId(), JobConstants.JOB_ACCEPT, null)));
+
+        // job not accepted in time is returned to the queue
+        fc.comm.getRttEstimator().addSample(1);
+        final Job j4 = manager.submitJob(4);
+        waitForStatus(j4, JobStatus.SENT, JOB_WAIT);
+        assertEquals(1, manager.countActiveJobs(fc.comm));
+        waitForStatus(j4, JobStatus.SUBMITTED, Timeout.getTimeout(Timeout.TimeoutType.JOB_CHECK_MIN) + JOB_WAIT);
+        assertEquals(0, manager.countActiveJobs(fc.comm));
+        assertEquals(GenericResponses.UUID_UNKNOWN, manager.receiveData(new JobTask(j4.getId(), JobConstants.JOB_ACCEPT, null)));
+    }
+
+    private void setJobCount(final FakeClient fc, final int count) {
+        assertEquals(GenericResponses.OK, manager.receiveData(new Message(JobConstants.JOB_CLIENT_SETTINGS, new ClientJobSettings(fc.id, JobConstants.JOB_COUNT, count))));
+    }
+
+    private static void waitForStatus(final Job job, final JobStatus status, final long time) throws InterruptedException {
+        final long end = System.currentTimeMillis() + time;
+        while (job.getStatus() != status && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(status, job.getStatus());
+    }
+
+    private void init(final int clientCount) throws IOException {
+        for (int i = 0; i < clientCount; i++) {
+            clients.add(new FakeClient(PORT + i));
+        }
+        final ListenerRegistrator registrator = (ListenerRegistrator) Proxy.newProxyInstance(
+                ListenerRegistrator.class.getClassLoader(),
+                new Class<?>[]{ListenerRegistrator.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("setIdListener")) {
+                            routes.add(args[0]);
+                            registeredRoutes.add(args[0]);
+                        } else if (method.getName().equals("removeIdListener")) {
+                            routes.remove(args[0]);
+                        }
+                        return null;
+                    }
+                });
+        manager = new ServerJobManagerImpl(new FakeClientManager(), registrator);
+        manager.start();
+    }
+
+    /**
+     * Client answering received jobs, optionally computing them. Answers to
+     * jobs can be held back until the gate is opened.
+     */
+    private final class FakeClient implements Listener<DataPacket> {
+
+        private final UUID id = UUID.randomUUID();
+        private final ServerSocket socket;
+        private final CommunicatorInner comm;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private volatile boolean autoComplete;
+        private volatile CountDownLatch gate;
+
+        FakeClient(final int port) throws IOException {
+            socket = ServerSocket.createServerSocket(port, new IDFilter() {
+                @Override
+                public UUID getLocalID() {
+                    return id;
+                }
+
+                @Override
+                public boolean isTargetIdValid(UUID id) {
+                    return true;
+                }
+
+                @Override
+                public boolean isIdAllowed(UUID id) {
+                    return true;
+                }
+            }, new ClientLister() {
+                @Override
+                public Collection<Communicator> getClients() {
+                    return Collections.<Communicator>emptyList();
+                }
+            });
+            socket.setMessageListener(this);
+            comm = CommunicatorImpl.initNewCommunicator(GlobalConstants.IP_LOOPBACK, port, serverId);
+            comm.setTargetId(id);
+            comm.checkStatus();
+        }
+
+        @Override
+        public Object receiveData(final DataPacket data) {
+            if (!(data.getData() instanceof JobTask)) {
+                return GenericResponses.OK;
+            }
+            final JobTask jt = (JobTask) data.getData();
+            final CountDownLatch g = gate;
+            if (g != null && JobConstants.JOB_TASK.equals(jt.getTaskDescription())) {
+                final int count = inFlight.incrementAndGet();
+                int max;
+                do {
+                    max = maxInFlight.get();
+                } while (count > max && !maxInFlight.compareAndSet(max, count));
+                try {
+                    g.await();
+                } catch (InterruptedException ex) {
+                    return GenericResponses.GENERAL_ERROR;
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+            if (autoComplete && JobConstants.JOB_TASK.equals(jt.getTaskDescription())) {
+                new Thread() {
+                    @Override
+                    public void run() {
+                        manager.receiveData(new JobTask(jt.getJobId(), JobConstants.JOB_ACCEPT, null));
+                        manager.receiveData(new JobTask(jt.getJobId(), JobConstants.JOB_RESULT, GenericResponses.OK));
+                    }
+                }.start();
+            }
+            return GenericResponses.OK;
+        }
+
+        void stop() {
+            final CountDownLatch g = gate;
+            if (g != null) {
+                g.countDown();
+            }
+            comm.close();
+            socket.stopService();
+        }
+    }
+
+    private final class FakeClientManager extends ClientManager {
+
+        @Override
+        public Collection<Communicator> getClients() {
+            final List<Communicator> result = new ArrayList<Communicator>();
+            for (FakeClient fc : clients) {
+                result.add(fc.comm);
+            }
+            return result;
+        }
+
+        @Override
+        public Communicator getClient(final UUID id) {
+            for (FakeClient fc : clients) {
+                if (fc.id.equals(id)) {
+                    return fc.comm;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Communicator registerClient(final InetAddress adress, final int port) {
+            throw new UnsupportedOperationException("Not supported in test.");
+        }
+
+        @Override
+        public Communicator addClient(final InetAddress address, final int port, final UUID clientId) {
+            throw new UnsupportedOperationException("Not supported in test.");
+        }
+
+        @Override
+        public void deregisterClient(final UUID id) {
+            throw new UnsupportedOperationException("Not supported in test.");
+        }
+
+        @Override
+        public Communicator getClient(final InetAddress adress, final int port) {
+            throw new UnsupportedOperationException("Not supported in test.");
+        }
+    }
+}
@@ -4,6 +4,7 @@ import cz.tul.javaccl.GlobalConstants;
 import cz.tul.javaccl.GenericResponses;
 import cz.tul.javaccl.client.Client;
 import cz.tul.javaccl.client.ClientImpl;
+import cz.tul.javaccl.communicator.Communicator;
 import cz.tul.javaccl.communicator.CommunicatorImpl;
 import cz.tul.javaccl.communicator.CommunicatorInner;
 import cz.tul.javaccl.communicator.DataPacket;
@@ -13,10 +14,14 @@ import cz.tul.javaccl.server.Server;
 import cz.tul.javaccl.server.ServerImpl;
 import cz.tul.javaccl.socket.Listener;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.junit.After;
@@ -261,6 +266,33 @@ public class MessagingTest {
         }
     }
 
+    @Test
+    public void testAsyncMessaging() throws InterruptedException, ExecutionException {
+        System.out.println("testAsyncMessaging");
+
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+        } catch (Exception ex) {
+            fail("Registration from client to server failed - " + ex);
+        }
+
+        c.getListenerRegistrator().setClientListener(s.getId(), new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                return new StringBuilder(data.getData().toString()).reverse().toString();
+            }
+        });
+
+        final Communicator comm = s.getClient(c.getLocalID());
+        final List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < 20; i++) {
+            results.add(comm.sendDataAsync("data" + i));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(new StringBuilder("data" + i).reverse().toString(), results.get(i).get());
+        }
+    }
+
     @Test
     public void testClientMessagingNoPush() {
         System.out.println("testClientMessagingNoPush");
@@ -0,0 +1,134 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.communicator.Communicator;
+import cz.tul.javaccl.communicator.CommunicatorImpl;
+import cz.tul.javaccl.communicator.CommunicatorInner;
+import cz.tul.javaccl.communicator.DataPacket;
+import cz.tul.javaccl.communicator.Status;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class LocalTransportTest {
+
+    private static final int PORT = 5261;
+    private final UUID localId = UUID.randomUUID();
+    private final AtomicReference<Object> received = new AtomicReference<Object>();
+    private final AtomicReference<Thread> receivingThread = new AtomicReference<Thread>();
+    private ServerSocket socket;
+
+    @After
+    public void tearDown() {
+        if (socket != null) {
+            socket.stopService();
+        }
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT_COPY, true);
+    }
+
+    private Communicator startServer() throws IOException {
+        socket = ServerSocket.createServerSocket(PORT, new IDFilter() {
+            @Override
+            public UUID getLocalID() {
+                return localId;
+            }
+
+            @Override
+            public boolean isTargetIdValid(UUID id) {
+                return true;
+            }
+
+            @Override
+            public boolean isIdAllowed(UUID id) {
+                return true;
+            }
+        }, new ClientLister() {
+            @Override
+            public Collection<Communicator> getClients() {
+                return Collections.<Communicator>emptyList();
+            }
+        });
+        socket.setMessageListener(new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                received.set(data.getData());
+                receivingThread.set(Thread.currentThread());
+                return GenericResponses.OK;
+            }
+        });
+
+        final CommunicatorInner comm = CommunicatorImpl.initNewCommunicator(GlobalConstants.IP_LOOPBACK, PORT, UUID.randomUUID());
+        comm.setTargetId(localId);
+        return comm;
+    }
+
+    @Test
+    public void testLocalAddress() {
+        System.out.println("localAddress");
+        assertTrue(LocalTransport.isLocalAddress(GlobalConstants.IP_LOOPBACK));
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, false);
+        try {
+            assertFalse(LocalTransport.isLocalAddress(GlobalConstants.IP_LOOPBACK));
+        } finally {
+            Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, true);
+        }
+    }
+
+    @Test
+    public void testLocalDelivery() throws Exception {
+        System.out.println("localDelivery");
+        final Communicator comm = startServer();
+        assertTrue(LocalTransport.isAvailable(PORT));
+
+        final ArrayList<String> data = new ArrayList<String>();
+        data.add("data");
+        assertEquals(GenericResponses.OK, comm.sendData(data));
+        // data are handled in the sending thread and copied
+        assertSame(Thread.currentThread(), receivingThread.get());
+        assertEquals(data, received.get());
+        assertNotSame(data, received.get());
+        assertEquals(Status.ONLINE, comm.getStatus());
+    }
+
+    @Test
+    public void testLocalDeliveryWithoutCopy() throws Exception {
+        System.out.println("localDeliveryWithoutCopy");
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT_COPY, false);
+        final Communicator comm = startServer();
+
+        final ArrayList<String> data = new ArrayList<String>();
+        assertEquals(GenericResponses.OK, comm.sendData(data));
+        assertSame(data, received.get());
+    }
+
+    @Test
+    public void testStoppedTarget() throws Exception {
+        System.out.println("stoppedTarget");
+        final Communicator comm = startServer();
+        assertEquals(GenericResponses.OK, comm.sendData("data"));
+
+        socket.stopService();
+        socket = null;
+        assertFalse(LocalTransport.isAvailable(PORT));
+        try {
+            comm.sendData("data");
+            fail("Stopped target must not receive data.");
+        } catch (ConnectionException ex) {
+            // expected, network is used as there is no local target
+        }
+    }
+}
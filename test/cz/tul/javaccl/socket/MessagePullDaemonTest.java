@@ -0,0 +1,187 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.client.Client;
+import cz.tul.javaccl.client.ClientImpl;
+import cz.tul.javaccl.communicator.Communicator;
+import cz.tul.javaccl.communicator.CommunicatorImpl;
+import cz.tul.javaccl.communicator.CommunicatorInner;
+import cz.tul.javaccl.communicator.DataPacket;
+import cz.tul.javaccl.communicator.DataPacketImpl;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.server.Server;
+import cz.tul.javaccl.server.ServerImpl;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class MessagePullDaemonTest {
+
+    private static final int LONG_POLL_TIME = 5000;
+    private Server s;
+    private Client c;
+
+    @After
+    public void tearDown() {
+        if (c != null) {
+            c.stopService();
+        }
+        if (s != null) {
+            s.stopService();
+        }
+        Configuration.setValue(ConfigurationType.LONG_POLL_TIME, 0);
+        Configuration.setValue(ConfigurationType.PULL_THREADS, 8);
+    }
+
+    @Test
+    public void testPollWholeQueue() throws InterruptedException {
+        System.out.println("pollWholeQueue");
+        final UUID clientId = UUID.randomUUID();
+        final CommunicatorInner comm = CommunicatorImpl.initNewCommunicator(GlobalConstants.IP_LOOPBACK, 5999, UUID.randomUUID());
+        comm.setTargetId(clientId);
+        final MessagePullDaemon mpd = new MessagePullDaemon(new DataPacketHandler() {
+            @Override
+            public Object handleDataPacket(DataPacket dp) {
+                return GenericResponses.OK;
+            }
+        }, new ClientLister() {
+            @Override
+            public Collection<Communicator> getClients() {
+                return Collections.<Communicator>singletonList(comm);
+            }
+        });
+
+        assertEquals(GenericResponses.OK, mpd.pollData(new MessagePullRequest(clientId)));
+
+        for (int i = 0; i < 3; i++) {
+            comm.getUnsentData().add(new DataPacketImpl(comm.getSourceId(), clientId, i));
+        }
+        final Object batch = mpd.pollData(new MessagePullRequest(clientId));
+        assertTrue(batch instanceof MessageBatch);
+        assertEquals(3, ((MessageBatch) batch).getItems().size());
+        assertTrue(comm.getUnsentData().isEmpty());
+
+        // waiting request is answered as soon as data are ready
+        final List<Object> result = new ArrayList<Object>();
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.add(mpd.pollData(new MessagePullRequest(clientId, LONG_POLL_TIME)));
+                done.countDown();
+            }
+        }).start();
+        Thread.sleep(200);
+        assertEquals(1, done.getCount());
+        final long start = System.currentTimeMillis();
+        comm.getUnsentData().add(new DataPacketImpl(comm.getSourceId(), clientId, "data"));
+        assertTrue(done.await(LONG_POLL_TIME, TimeUnit.MILLISECONDS));
+        assertTrue(System.currentTimeMillis() - start < LONG_POLL_TIME / 2);
+        assertEquals(1, ((MessageBatch) result.get(0)).getItems().size());
+        mpd.stopService();
+    }
+
+    @Test
+    public void testLongPolling() throws IOException, InterruptedException {
+        System.out.println("longPolling");
+        Configuration.setValue(ConfigurationType.LONG_POLL_TIME, LONG_POLL_TIME);
+        s = ServerImpl.initNewServer();
+        c = ClientImpl.initNewClient(5253);
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+        } catch (Exception ex) {
+            fail("Registration from client to server failed - " + ex);
+        }
+
+        final int count = 20;
+        final CountDownLatch received = new CountDownLatch(count);
+        c.getListenerRegistrator().setClientListener(s.getId(), new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                received.countDown();
+                return GenericResponses.OK;
+            }
+        });
+
+        // give client time to start long polling
+        Thread.sleep(1500);
+        final CommunicatorInner comm = (CommunicatorInner) s.getClient(c.getLocalID());
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            comm.getUnsentData().add(new DataPacketImpl(s.getId(), c.getLocalID(), i));
+        }
+        assertTrue("Queued data have not been pulled.", received.await(LONG_POLL_TIME, TimeUnit.MILLISECONDS));
+        // regular pulling would deliver data only in the next round (up to 500 ms)
+        assertTrue(System.currentTimeMillis() - start < 400);
+    }
+
+    @Test
+    public void testPullScheduleAdaptation() {
+        System.out.println("pullScheduleAdaptation");
+        final MessagePullDaemon.PullSchedule schedule = new MessagePullDaemon.PullSchedule(0);
+        assertTrue(schedule.start(0));
+        assertFalse("Running pull must not be started again.", schedule.start(0));
+
+        schedule.finish(5, 0);
+        assertEquals(MessagePullDaemon.PullSchedule.MIN_INTERVAL, schedule.getInterval());
+        assertFalse(schedule.start(MessagePullDaemon.PullSchedule.MIN_INTERVAL - 1));
+        assertTrue(schedule.start(MessagePullDaemon.PullSchedule.MIN_INTERVAL));
+
+        int last = schedule.getInterval();
+        for (int i = 0; i < 10; i++) {
+            schedule.finish(0, 0);
+            assertTrue(schedule.getInterval() >= last);
+            last = schedule.getInterval();
+            schedule.start(Long.MAX_VALUE);
+        }
+        assertEquals(MessagePullDaemon.PullSchedule.MAX_INTERVAL, schedule.getInterval());
+
+        schedule.finish(1, 0);
+        schedule.start(Long.MAX_VALUE);
+        schedule.finish(-1, 0);
+        assertEquals(MessagePullDaemon.PullSchedule.MAX_INTERVAL, schedule.getInterval());
+    }
+
+    @Test
+    public void testConcurrentPulling() throws IOException, InterruptedException {
+        System.out.println("concurrentPulling");
+        Configuration.setValue(ConfigurationType.PULL_THREADS, 2);
+        s = ServerImpl.initNewServer();
+        c = ClientImpl.initNewClient(5253);
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+        } catch (Exception ex) {
+            fail("Registration from client to server failed - " + ex);
+        }
+
+        final int count = 20;
+        final CountDownLatch received = new CountDownLatch(count);
+        c.getListenerRegistrator().setClientListener(s.getId(), new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                received.countDown();
+                return GenericResponses.OK;
+            }
+        });
+        Thread.sleep(1500);
+        final CommunicatorInner comm = (CommunicatorInner) s.getClient(c.getLocalID());
+        for (int i = 0; i < count; i++) {
+            comm.getUnsentData().add(new DataPacketImpl(s.getId(), c.getLocalID(), i));
+        }
+        assertTrue("Queued data have not been pulled.", received.await(3, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,135 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.socket.MessageQueue.OverflowPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class MessageQueueTest {
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        System.out.println("dropOldest");
+        final MessageQueue<Integer> q = new MessageQueue<Integer>(2, OverflowPolicy.DROP_OLDEST);
+        assertTrue(q.store(1));
+        assertTrue(q.store(2));
+        assertTrue(q.store(3));
+        assertEquals(2, q.size());
+        assertEquals(1, q.getDroppedCount());
+        assertEquals(Integer.valueOf(2), q.poll());
+        assertEquals(Integer.valueOf(3), q.poll());
+    }
+
+    @Test
+    public void testIteratorRemoval() throws InterruptedException {
+        System.out.println("iteratorRemoval");
+        final MessageQueue<Integer> q = new MessageQueue<Integer>(0, OverflowPolicy.BLOCK);
+        for (int i = 0; i < 6; i++) {
+            q.store(i);
+        }
+        final Iterator<Integer> it = q.iterator();
+        assertEquals(Integer.valueOf(0), it.next());
+        it.remove();
+        assertEquals(5, q.size());
+
+        assertTrue(q.removeAll(Arrays.asList(1, 2)));
+        assertEquals(Arrays.asList(3, 4, 5), new ArrayList<Integer>(q));
+        assertTrue(q.retainAll(Arrays.asList(4)));
+        assertEquals(Arrays.asList(4), new ArrayList<Integer>(q));
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        System.out.println("dropNewest");
+        final MessageQueue<Integer> q = new MessageQueue<Integer>(2, OverflowPolicy.DROP_NEWEST);
+        assertTrue(q.store(1));
+        assertTrue(q.store(2));
+        assertTrue(q.store(3));
+        assertEquals(1, q.getDroppedCount());
+        assertEquals(Arrays.asList(1, 2), new ArrayList<Integer>(q));
+    }
+
+    @Test
+    public void testReject() throws InterruptedException {
+        System.out.println("reject");
+        final MessageQueue<Integer> q = new MessageQueue<Integer>(1, OverflowPolicy.REJECT);
+        assertTrue(q.store(1));
+        assertFalse(q.store(2));
+        assertFalse(q.offer(2));
+        assertEquals(0, q.remainingCapacity());
+        assertEquals(Integer.valueOf(1), q.poll());
+        assertTrue(q.store(2));
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        System.out.println("block");
+        final MessageQueue<Integer> q = new MessageQueue<Integer>(1, OverflowPolicy.BLOCK);
+        q.store(1);
+        final AtomicBoolean stored = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread sender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    stored.set(q.store(2));
+                } catch (InterruptedException ex) {
+                    // test is being stopped
+                }
+                done.countDown();
+            }
+        };
+        sender.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(1), q.take());
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(stored.get());
+        assertEquals(Integer.valueOf(2), q.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBlockingConsumer() throws InterruptedException {
+        System.out.println("blockingConsumer");
+        final MessageQueue<Integer> q = new MessageQueue<Integer>(0, OverflowPolicy.BLOCK);
+        assertNull(q.poll(50, TimeUnit.MILLISECONDS));
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    q.put(5);
+                } catch (InterruptedException ex) {
+                    // test is being stopped
+                }
+            }
+        }.start();
+        assertEquals(Integer.valueOf(5), q.take());
+    }
+
+    @Test
+    public void testDrainTo() throws InterruptedException {
+        System.out.println("drainTo");
+        final MessageQueue<Integer> q = new MessageQueue<Integer>(10, OverflowPolicy.REJECT);
+        for (int i = 0; i < 5; i++) {
+            q.store(i);
+        }
+        final List<Integer> batch = new ArrayList<Integer>();
+        assertEquals(3, q.drainTo(batch, 3));
+        assertEquals(Arrays.asList(0, 1, 2), batch);
+        batch.clear();
+        assertEquals(2, q.drainTo(batch, 3));
+        assertEquals(Arrays.asList(3, 4), batch);
+        assertEquals(0, q.drainTo(batch, 3));
+        assertTrue(q.isEmpty());
+    }
+}
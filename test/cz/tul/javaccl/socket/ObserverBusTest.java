@@ -0,0 +1,125 @@
+package cz.tul.javaccl.socket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class ObserverBusTest {
+
+    private static final int COUNT = 1000;
+    private static final int PUBLISHERS = 4;
+    private final ObserverBus bus = new ObserverBus(16);
+
+    @After
+    public void tearDown() {
+        bus.stop();
+    }
+
+    @Test
+    public void testSize() {
+        System.out.println("size");
+        assertEquals(16, bus.getSize());
+        assertEquals(32, new ObserverBus(17).getSize());
+    }
+
+    @Test
+    public void testDelivery() throws InterruptedException {
+        System.out.println("delivery");
+        final List<Object> first = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Object> second = Collections.synchronizedList(new ArrayList<Object>());
+        final CountDownLatch done = new CountDownLatch(2 * COUNT * PUBLISHERS);
+        bus.addObserver(new RecordingObserver(first, done));
+        bus.addObserver(new RecordingObserver(second, done));
+
+        final List<Thread> publishers = new ArrayList<Thread>();
+        for (int p = 0; p < PUBLISHERS; p++) {
+            final int offset = p * COUNT;
+            final Thread t = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < COUNT; i++) {
+                        bus.publish(offset + i);
+                    }
+                }
+            };
+            publishers.add(t);
+            t.start();
+        }
+        for (Thread t : publishers) {
+            t.join();
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(COUNT * PUBLISHERS, first.size());
+        assertEquals(COUNT * PUBLISHERS, second.size());
+        assertEquals(COUNT * PUBLISHERS, new HashSet<Object>(first).size());
+    }
+
+    @Test
+    public void testLag() throws InterruptedException {
+        System.out.println("lag");
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final Observer o = new Observer() {
+            @Override
+            public void update(Observable ob, Object arg) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    // test is being stopped
+                }
+                done.countDown();
+            }
+        };
+        assertEquals(-1, bus.getLag(o));
+        bus.addObserver(o);
+        bus.publish(1);
+        bus.publish(2);
+        bus.publish(3);
+        assertEquals(3, bus.getLag(o));
+
+        release.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        final long end = System.currentTimeMillis() + 1000;
+        while (bus.getLag(o) > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, bus.getLag(o));
+
+        bus.removeObserver(o);
+        assertEquals(-1, bus.getLag(o));
+        // removed observer does not block publishing
+        for (int i = 0; i < 2 * bus.getSize(); i++) {
+            bus.publish(i);
+        }
+    }
+
+    private static class RecordingObserver implements Observer {
+
+        private final List<Object> received;
+        private final CountDownLatch done;
+
+        RecordingObserver(final List<Object> received, final CountDownLatch done) {
+            this.received = received;
+            this.done = done;
+        }
+
+        @Override
+        public void update(Observable o, Object arg) {
+            received.add(arg);
+            done.countDown();
+        }
+    }
+}
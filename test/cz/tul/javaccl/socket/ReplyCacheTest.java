@@ -0,0 +1,102 @@
+package cz.tul.javaccl.socket;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class ReplyCacheTest {
+
+    private final UUID sourceId = UUID.randomUUID();
+
+    @Test
+    public void testRepeatedKey() throws InterruptedException {
+        System.out.println("repeatedKey");
+        final ReplyCache cache = new ReplyCache(16, 60000);
+        final UUID key = UUID.randomUUID();
+
+        assertNull(cache.acquire(sourceId, key));
+        cache.complete(sourceId, key, "reply");
+
+        final ReplyCache.Reply reply = cache.acquire(sourceId, key);
+        assertNotNull(reply);
+        assertTrue(reply.await(0));
+        assertEquals("reply", reply.get());
+
+        // same key from other source is independent
+        assertNull(cache.acquire(UUID.randomUUID(), key));
+        assertNull(cache.acquire(null, key));
+        assertNotNull(cache.acquire(null, key));
+    }
+
+    @Test
+    public void testWaitingForReply() throws InterruptedException {
+        System.out.println("waitingForReply");
+        final ReplyCache cache = new ReplyCache(16, 60000);
+        final UUID key = UUID.randomUUID();
+        assertNull(cache.acquire(sourceId, key));
+
+        final AtomicReference<Object> received = new AtomicReference<Object>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final ReplyCache.Reply reply = cache.acquire(sourceId, key);
+                    if (reply.await(5000)) {
+                        received.set(reply.get());
+                    }
+                } catch (InterruptedException ex) {
+                    // test failed
+                }
+                done.countDown();
+            }
+        };
+        t.start();
+        Thread.sleep(100);
+        cache.complete(sourceId, key, "reply");
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals("reply", received.get());
+    }
+
+    @Test
+    public void testAbandon() throws InterruptedException {
+        System.out.println("abandon");
+        final ReplyCache cache = new ReplyCache(16, 60000);
+        final UUID key = UUID.randomUUID();
+        assertNull(cache.acquire(sourceId, key));
+        final ReplyCache.Reply reply = cache.acquire(sourceId, key);
+
+        cache.abandon(sourceId, key);
+        assertFalse(reply.await(0));
+        // data are handled again
+        assertNull(cache.acquire(sourceId, key));
+    }
+
+    @Test
+    public void testEviction() throws InterruptedException {
+        System.out.println("eviction");
+        final ReplyCache cache = new ReplyCache(2, 100);
+        final UUID pending = UUID.randomUUID();
+        assertNull(cache.acquire(sourceId, pending));
+        UUID key;
+        for (int i = 0; i < 4; i++) {
+            key = UUID.randomUUID();
+            assertNull(cache.acquire(sourceId, key));
+            cache.complete(sourceId, key, i);
+        }
+        // reply being computed is kept
+        assertEquals(2, cache.size());
+        assertNotNull(cache.acquire(sourceId, pending));
+
+        Thread.sleep(200);
+        assertEquals(0, cache.size());
+        assertNull(cache.acquire(sourceId, pending));
+    }
+}
@@ -0,0 +1,80 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.communicator.DataPacket;
+import cz.tul.javaccl.messaging.Identifiable;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.UUID;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class RouteTableTest {
+
+    private final Listener<Identifiable> idListener = new Listener<Identifiable>() {
+        @Override
+        public Object receiveData(Identifiable data) {
+            return GenericResponses.OK;
+        }
+    };
+    private final Listener<DataPacket> clientListener = new Listener<DataPacket>() {
+        @Override
+        public Object receiveData(DataPacket data) {
+            return GenericResponses.OK;
+        }
+    };
+
+    @Test
+    public void testCopyOnWrite() {
+        System.out.println("copyOnWrite");
+        final String id = "msgId";
+        final UUID clientId = UUID.randomUUID();
+        final MessageQueue<DataPacket> queue = new MessageQueue<DataPacket>(0, MessageQueue.OverflowPolicy.BLOCK);
+
+        final RouteTable first = RouteTable.EMPTY.withIdListener(id, idListener);
+        final RouteTable second = first.withClientListener(clientId, clientListener).withClientQueue(clientId, queue);
+
+        assertNull(RouteTable.EMPTY.getIdRoute(id));
+        assertSame(idListener, first.getIdRoute(id).listener);
+        assertNull(first.getClientRoute(clientId));
+        assertSame(idListener, second.getIdRoute(id).listener);
+        assertSame(clientListener, second.getClientRoute(clientId).listener);
+        assertSame(queue, second.getClientRoute(clientId).queue);
+
+        // removing one sink keeps the others
+        final RouteTable third = second.withClientListener(clientId, null);
+        assertNull(third.getClientRoute(clientId).listener);
+        assertSame(queue, third.getClientRoute(clientId).queue);
+        assertSame(clientListener, second.getClientRoute(clientId).listener);
+
+        // route without sinks is removed
+        assertNull(third.withClientQueue(clientId, null).getClientRoute(clientId));
+        assertNull(third.withIdListener(id, null).getIdRoute(id));
+    }
+
+    @Test
+    public void testObservers() {
+        System.out.println("observers");
+        final Observer o1 = new Observer() {
+            @Override
+            public void update(Observable o, Object arg) {
+            }
+        };
+        final Observer o2 = new Observer() {
+            @Override
+            public void update(Observable o, Object arg) {
+            }
+        };
+
+        final RouteTable rt = RouteTable.EMPTY.withObserver(o1).withObserver(o2);
+        assertArrayEquals(new Observer[]{o1, o2}, rt.getObservers());
+        assertSame(rt, rt.withObserver(o1));
+        assertArrayEquals(new Observer[]{o2}, rt.withoutObserver(o1).getObservers());
+        assertArrayEquals(new Observer[]{o1, o2}, rt.getObservers());
+        assertEquals(0, RouteTable.EMPTY.getObservers().length);
+    }
+}
@@ -0,0 +1,81 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.client.Client;
+import cz.tul.javaccl.client.ClientImpl;
+import cz.tul.javaccl.communicator.DataPacket;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import cz.tul.javaccl.server.Server;
+import cz.tul.javaccl.server.ServerImpl;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class SelectorEngineTest {
+
+    private Server s;
+    private Client c;
+
+    @Before
+    public void setUp() {
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, true);
+        Configuration.setValue(ConfigurationType.SELECTOR_THREADS, 2);
+        s = ServerImpl.initNewServer();
+        try {
+            c = ClientImpl.initNewClient(5253);
+        } catch (IOException ex) {
+            fail("Failed to initialize client.");
+        }
+    }
+
+    @After
+    public void tearDown() {
+        c.stopService();
+        s.stopService();
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, false);
+        Configuration.setValue(ConfigurationType.SELECTOR_THREADS, 0);
+    }
+
+    @Test
+    public void testMessaging() {
+        System.out.println("messaging");
+
+        try {
+            assertTrue(c.registerToServer(GlobalConstants.IP_LOOPBACK));
+        } catch (Exception ex) {
+            fail("Registration from client to server failed - " + ex);
+        }
+
+        final Listener<DataPacket> reverser = new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                if (data.getData() instanceof String) {
+                    return new StringBuilder((String) data.getData()).reverse().toString();
+                } else {
+                    return GenericResponses.OK;
+                }
+            }
+        };
+        s.getListenerRegistrator().setClientListener(c.getLocalID(), reverser);
+        c.getListenerRegistrator().setClientListener(s.getId(), reverser);
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertEquals("cba" + i, c.sendDataToServer(i + "abc"));
+                assertEquals("fed" + i, s.getClient(c.getLocalID()).sendData(i + "def"));
+            }
+            assertEquals(GenericResponses.OK, c.sendDataToServer(Integer.valueOf(1)));
+        } catch (ConnectionException ex) {
+            fail("Communication failed - " + ex);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package cz.tul.javaccl.socket;
+
+import cz.tul.javaccl.GenericResponses;
+import cz.tul.javaccl.GlobalConstants;
+import cz.tul.javaccl.communicator.Communicator;
+import cz.tul.javaccl.communicator.CommunicatorImpl;
+import cz.tul.javaccl.communicator.CommunicatorInner;
+import cz.tul.javaccl.communicator.DataPacket;
+import cz.tul.javaccl.exceptions.ConnectionException;
+import cz.tul.javaccl.exceptions.ConnectionExceptionCause;
+import cz.tul.javaccl.persistence.Configuration;
+import cz.tul.javaccl.persistence.Configuration.ConfigurationType;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Petr Jecmen
+ */
+public class ServerSocketTest {
+
+    private static final int PORT = 5260;
+    private static final int REQUEST_COUNT = 4;
+    private final UUID localId = UUID.randomUUID();
+    private ServerSocket socket;
+    private CountDownLatch release;
+    private AtomicInteger handled;
+
+    @Before
+    public void setUp() {
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, true);
+        Configuration.setValue(ConfigurationType.SERVER_THREADS, 1);
+        Configuration.setValue(ConfigurationType.SERVER_QUEUE_SIZE, 1);
+        release = new CountDownLatch(1);
+        handled = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (socket != null) {
+            socket.stopService();
+        }
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, false);
+        Configuration.setValue(ConfigurationType.SERVER_THREADS, 256);
+        Configuration.setValue(ConfigurationType.SERVER_QUEUE_SIZE, 1024);
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, true);
+    }
+
+    private Communicator startServer() throws IOException {
+        return startServer(UUID.randomUUID());
+    }
+
+    private Communicator startServer(final UUID clientId) throws IOException {
+        socket = ServerSocket.createServerSocket(PORT, new IDFilter() {
+            @Override
+            public UUID getLocalID() {
+                return localId;
+            }
+
+            @Override
+            public boolean isTargetIdValid(UUID id) {
+                return true;
+            }
+
+            @Override
+            public boolean isIdAllowed(UUID id) {
+                return true;
+            }
+        }, new ClientLister() {
+            @Override
+            public Collection<Communicator> getClients() {
+                return Collections.<Communicator>emptyList();
+            }
+        });
+        socket.setMessageListener(new Listener<DataPacket>() {
+            @Override
+            public Object receiveData(DataPacket data) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    return GenericResponses.GENERAL_ERROR;
+                }
+                handled.incrementAndGet();
+                return GenericResponses.OK;
+            }
+        });
+
+        final CommunicatorInner comm = CommunicatorImpl.initNewCommunicator(GlobalConstants.IP_LOOPBACK, PORT, clientId);
+        comm.setTargetId(localId);
+        return comm;
+    }
+
+    @Test
+    public void testBusyRequestsAreRepeated() throws Exception {
+        System.out.println("busyRequestsAreRepeated");
+        final Communicator comm = startServer();
+
+        final List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            results.add(comm.sendDataAsync(i, 5000));
+        }
+        // requests over the limit are rejected meanwhile
+        Thread.sleep(300);
+        release.countDown();
+
+        for (CompletableFuture<Object> result : results) {
+            assertEquals(GenericResponses.OK, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(REQUEST_COUNT, handled.get());
+    }
+
+    @Test
+    public void testOverloadedTarget() throws Exception {
+        System.out.println("overloadedTarget");
+        // local data are handled in sender thread, server threads are not limited
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, false);
+        checkOverloadedTarget(startServer());
+    }
+
+    @Test
+    public void testOverloadedTargetBlocking() throws Exception {
+        System.out.println("overloadedTargetBlocking");
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, false);
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, false);
+        checkOverloadedTarget(startServer());
+    }
+
+    @Test
+    public void testIdleConnectionDoesNotBlockWorkers() throws Exception {
+        System.out.println("idleConnectionDoesNotBlockWorkers");
+        Configuration.setValue(ConfigurationType.LOCAL_TRANSPORT, false);
+        Configuration.setValue(ConfigurationType.SELECTOR_ENGINE, false);
+        final Communicator comm = startServer();
+        release.countDown();
+
+        final Socket idle = new Socket(GlobalConstants.IP_LOOPBACK, PORT);
+        try {
+            // let the server accept the idle connection first
+            Thread.sleep(200);
+            for (int i = 0; i < REQUEST_COUNT; i++) {
+                assertEquals(GenericResponses.OK, comm.sendData(i, 1000));
+            }
+        } finally {
+            idle.close();
+        }
+        assertEquals(REQUEST_COUNT, handled.get());
+    }
+
+    private void checkOverloadedTarget(final Communicator comm) throws Exception {
+        final List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            results.add(comm.sendDataAsync(i, 1000));
+        }
+
+        int busy = 0;
+        for (CompletableFuture<Object> result : results) {
+            try {
+                assertFalse(GenericResponses.OK.equals(result.get(5, TimeUnit.SECONDS)));
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof ConnectionException
+                        && ((ConnectionException) ex.getCause()).getExceptionCause() == ConnectionExceptionCause.TARGET_BUSY) {
+                    busy++;
+                }
+            }
+        }
+        // one request is being handled and one is queued
+        assertEquals(REQUEST_COUNT - 2, busy);
+        assertEquals(0, handled.get());
+    }
+
+    @Test
+    public void testFullQueueRejects() throws Exception {
+        System.out.println("fullQueueRejects");
+        Configuration.setValue(ConfigurationType.SERVER_THREADS, 4);
+        final UUID clientId = UUID.randomUUID();
+        final Communicator comm = startServer(clientId);
+        socket.removeMessageListener();
+        final MessageQueue<DataPacket> queue = socket.createClientMessageQueue(clientId, 1, MessageQueue.OverflowPolicy.REJECT);
+
+        assertEquals(GenericResponses.NOT_HANDLED_DIRECTLY, comm.sendData(1));
+        assertEquals(GenericResponses.NOT_HANDLED, comm.sendData(2));
+        assertEquals(1, queue.take().getData());
+        assertEquals(GenericResponses.NOT_HANDLED_DIRECTLY, comm.sendData(3));
+        assertEquals(3, queue.poll(1, TimeUnit.SECONDS).getData());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testDefaultQueuesUnbounded() throws Exception {
+        System.out.println("defaultQueuesUnbounded");
+        startServer();
+        socket.removeMessageListener();
+
+        assertEquals(Integer.MAX_VALUE, socket.createClientMessageQueue(UUID.randomUUID()).getCapacity());
+        assertEquals(Integer.MAX_VALUE, socket.createIdMessageQueue("id").getCapacity());
+    }
+
+    @Test
+    public void testRepeatedDataHandledOnce() throws Exception {
+        System.out.println("repeatedDataHandledOnce");
+        final Communicator comm = startServer();
+        release.countDown();
+
+        final UUID key = UUID.randomUUID();
+        assertEquals(GenericResponses.OK, comm.sendData(1, 1000, key));
+        assertEquals(GenericResponses.OK, comm.sendData(1, 1000, key));
+        assertEquals(1, handled.get());
+
+        assertEquals(GenericResponses.OK, comm.sendData(1, 1000, UUID.randomUUID()));
+        assertEquals(GenericResponses.OK, comm.sendData(1, 1000));
+        assertEquals(3, handled.get());
+    }
+}